@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class CueballMergerBenchmark_jmhType extends CueballMergerBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class GetBulkBenchmark_jmhType extends GetBulkBenchmark_jmhType_B3 {
+}
+
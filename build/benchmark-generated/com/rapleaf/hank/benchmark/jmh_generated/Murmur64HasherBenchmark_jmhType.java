@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class Murmur64HasherBenchmark_jmhType extends Murmur64HasherBenchmark_jmhType_B3 {
+}
+
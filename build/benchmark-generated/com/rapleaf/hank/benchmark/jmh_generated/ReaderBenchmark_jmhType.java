@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class ReaderBenchmark_jmhType extends ReaderBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class VarIntBenchmark_jmhType extends VarIntBenchmark_jmhType_B3 {
+}
+
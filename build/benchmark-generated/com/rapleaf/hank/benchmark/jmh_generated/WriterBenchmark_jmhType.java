@@ -0,0 +1,4 @@
+package com.rapleaf.hank.benchmark.jmh_generated;
+public class WriterBenchmark_jmhType extends WriterBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.storage.cueball.Cueball;
+import com.rapleaf.hank.storage.cueball.CueballFilePath;
+import com.rapleaf.hank.storage.cueball.CueballMerger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge a Cueball base with a delta into a new base, as done by partition updates. The delta updates some
+ * records of the base and adds new ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CueballMergerBenchmark {
+
+  private static final int NUM_RECORDS = 210000;
+  // One record out of DELTA_PERIOD is only in the delta, and another one is in both the base and the delta
+  private static final int DELTA_PERIOD = 21;
+
+  private final CueballMerger merger = new CueballMerger();
+  private File scratchDir;
+  private CueballFilePath base;
+  private CueballFilePath delta;
+  private String newBasePath;
+
+  @Setup
+  public void setUp() throws IOException {
+    scratchDir = GeneratedDomain.createScratchDir();
+    Cueball cueball = GeneratedDomain.getCueball();
+    List<ByteBuffer> keys = GeneratedDomain.getKeys(cueball, NUM_RECORDS, 1);
+    List<ByteBuffer> values = GeneratedDomain.getValues(keys.size(),
+        GeneratedDomain.CUEBALL_VALUE_SIZE, GeneratedDomain.CUEBALL_VALUE_SIZE, 2);
+    List<ByteBuffer> baseKeys = new ArrayList<ByteBuffer>();
+    List<ByteBuffer> baseValues = new ArrayList<ByteBuffer>();
+    List<ByteBuffer> deltaKeys = new ArrayList<ByteBuffer>();
+    List<ByteBuffer> deltaValues = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < keys.size(); ++i) {
+      if (i % DELTA_PERIOD != 0) {
+        baseKeys.add(keys.get(i));
+        baseValues.add(values.get(i));
+      }
+      if (i % DELTA_PERIOD <= 1) {
+        deltaKeys.add(keys.get(i));
+        deltaValues.add(values.get((i + 1) % values.size()));
+      }
+    }
+    GeneratedDomain.write(cueball, scratchDir, GeneratedDomain.getBaseVersion(0), baseKeys, baseValues);
+    GeneratedDomain.write(cueball, scratchDir, GeneratedDomain.getDeltaVersion(1, 0), deltaKeys, deltaValues);
+    String partitionDir = GeneratedDomain.getDomainDir(scratchDir) + "/0";
+    base = new CueballFilePath(partitionDir + "/" + Cueball.getName(0, true));
+    delta = new CueballFilePath(partitionDir + "/" + Cueball.getName(1, false));
+    newBasePath = scratchDir.getAbsolutePath() + "/" + Cueball.getName(1, true);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public long merge() throws IOException {
+    merger.merge(base, Collections.singletonList(delta), newBasePath, GeneratedDomain.KEY_HASH_SIZE,
+        GeneratedDomain.CUEBALL_VALUE_SIZE, null, GeneratedDomain.HASH_INDEX_BITS, new NoCompressionCodec());
+    return new File(newBasePath).length();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    GeneratedDomain.deleteScratchDir(scratchDir);
+  }
+}
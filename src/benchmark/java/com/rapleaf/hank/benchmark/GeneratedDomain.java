@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.coordinator.DomainVersion;
+import com.rapleaf.hank.coordinator.mock.MockDomain;
+import com.rapleaf.hank.coordinator.mock.MockDomainVersion;
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.storage.LocalPartitionRemoteFileOps;
+import com.rapleaf.hank.storage.StorageEngine;
+import com.rapleaf.hank.storage.Writer;
+import com.rapleaf.hank.storage.cueball.Cueball;
+import com.rapleaf.hank.storage.curly.BlockCompressionCodec;
+import com.rapleaf.hank.storage.curly.Curly;
+import com.rapleaf.hank.storage.incremental.IncrementalDomainVersionProperties;
+import com.rapleaf.hank.util.Bytes;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generate random keys and values, and write them as a single partition domain in a local data directory.
+ * Generation is seeded, so that all forks of a benchmark use the same data. Benchmarks that are parameterized
+ * by format use "cueball", "curly", or "curly." followed by a block compression codec, such as "curly.gzip".
+ */
+final class GeneratedDomain {
+
+  static final String DOMAIN_NAME = "benchmark_domain";
+  static final int KEY_SIZE = 16;
+  static final int KEY_HASH_SIZE = 10;
+  static final int HASH_INDEX_BITS = 12;
+  static final int CUEBALL_VALUE_SIZE = 16;
+  static final int MIN_CURLY_VALUE_SIZE = 32;
+  static final int MAX_CURLY_VALUE_SIZE = 256;
+
+  private GeneratedDomain() {
+  }
+
+  static Cueball getCueball() {
+    return new Cueball(KEY_HASH_SIZE, new Murmur64Hasher(), CUEBALL_VALUE_SIZE, HASH_INDEX_BITS, "",
+        new LocalPartitionRemoteFileOps.Factory(), NoCompressionCodec.class, new MockDomain(DOMAIN_NAME), 0, -1);
+  }
+
+  // Block compression codec can be null
+  static Curly getCurly(BlockCompressionCodec blockCompressionCodec) {
+    return new Curly(KEY_HASH_SIZE, new Murmur64Hasher(), 1L << 32, HASH_INDEX_BITS, 32 * 1024, "",
+        new LocalPartitionRemoteFileOps.Factory(), NoCompressionCodec.class, new MockDomain(DOMAIN_NAME), 0, -1,
+        -1, -1, blockCompressionCodec, blockCompressionCodec == null ? -1 : 16 * 1024,
+        blockCompressionCodec == null ? -1 : 2);
+  }
+
+  static boolean isCurly(String format) {
+    if (format.equals("cueball")) {
+      return false;
+    } else if (format.equals("curly") || format.startsWith("curly.")) {
+      return true;
+    } else {
+      throw new IllegalArgumentException("Unknown format: " + format);
+    }
+  }
+
+  // Return null if the format does not use block compression
+  static BlockCompressionCodec getBlockCompressionCodec(String format) {
+    if (format.startsWith("curly.")) {
+      return BlockCompressionCodec.valueOf(format.substring("curly.".length()).toUpperCase());
+    } else {
+      return null;
+    }
+  }
+
+  static StorageEngine getStorageEngine(String format) {
+    if (isCurly(format)) {
+      return getCurly(getBlockCompressionCodec(format));
+    } else {
+      return getCueball();
+    }
+  }
+
+  // Return distinct random keys, sorted in the order in which the storage engine writes them
+  static List<ByteBuffer> getKeys(StorageEngine storageEngine, int numKeys, long seed) {
+    Random random = new Random(seed);
+    List<ByteBuffer[]> keysAndComparableKeys = new ArrayList<ByteBuffer[]>(numKeys);
+    for (int i = 0; i < numKeys; ++i) {
+      byte[] key = new byte[KEY_SIZE];
+      random.nextBytes(key);
+      ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+      // Comparable keys can be reused by the storage engine, copy them
+      keysAndComparableKeys.add(
+          new ByteBuffer[]{keyBuffer, Bytes.byteBufferDeepCopy(storageEngine.getComparableKey(keyBuffer))});
+    }
+    Collections.sort(keysAndComparableKeys, new Comparator<ByteBuffer[]>() {
+      @Override
+      public int compare(ByteBuffer[] a, ByteBuffer[] b) {
+        return Bytes.compareBytesUnsigned(a[1], b[1]);
+      }
+    });
+    // Drop keys whose comparable keys collide
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>(numKeys);
+    ByteBuffer previousComparableKey = null;
+    for (ByteBuffer[] keyAndComparableKey : keysAndComparableKeys) {
+      if (previousComparableKey == null
+          || Bytes.compareBytesUnsigned(previousComparableKey, keyAndComparableKey[1]) != 0) {
+        result.add(keyAndComparableKey[0]);
+      }
+      previousComparableKey = keyAndComparableKey[1];
+    }
+    return result;
+  }
+
+  // Return one value per key. Values are made of words, so that they compress like text.
+  static List<ByteBuffer> getValues(int numValues, int minValueSize, int maxValueSize, long seed) {
+    Random random = new Random(seed);
+    List<ByteBuffer> values = new ArrayList<ByteBuffer>(numValues);
+    for (int i = 0; i < numValues; ++i) {
+      byte[] value = new byte[minValueSize + random.nextInt(maxValueSize - minValueSize + 1)];
+      for (int j = 0; j < value.length; ++j) {
+        value[j] = (j % 8 == 7) ? (byte) ' ' : (byte) ('a' + random.nextInt(8));
+      }
+      values.add(ByteBuffer.wrap(value));
+    }
+    return values;
+  }
+
+  // Return one value per key, of the sizes used by the given format
+  static List<ByteBuffer> getValues(String format, int numValues, long seed) {
+    if (isCurly(format)) {
+      return getValues(numValues, MIN_CURLY_VALUE_SIZE, MAX_CURLY_VALUE_SIZE, seed);
+    } else {
+      return getValues(numValues, CUEBALL_VALUE_SIZE, CUEBALL_VALUE_SIZE, seed);
+    }
+  }
+
+  static DomainVersion getBaseVersion(int versionNumber) {
+    return new MockDomainVersion(versionNumber, 0L, new IncrementalDomainVersionProperties.Base());
+  }
+
+  static DomainVersion getDeltaVersion(int versionNumber, int parentVersionNumber) {
+    return new MockDomainVersion(versionNumber, 0L, new IncrementalDomainVersionProperties.Delta(parentVersionNumber));
+  }
+
+  // Write the given version of partition 0 in the given data directory
+  static void write(StorageEngine storageEngine,
+                    File dataDir,
+                    DomainVersion domainVersion,
+                    List<ByteBuffer> keys,
+                    List<ByteBuffer> values) throws IOException {
+    Writer writer = storageEngine.getWriter(domainVersion, new LocalPartitionRemoteFileOps(getDomainDir(dataDir), 0), 0);
+    for (int i = 0; i < keys.size(); ++i) {
+      writer.write(keys.get(i).duplicate(), values.get(i).duplicate());
+    }
+    writer.close();
+  }
+
+  static String getDomainDir(File dataDir) {
+    return dataDir.getAbsolutePath() + "/" + DOMAIN_NAME;
+  }
+
+  static File createScratchDir() throws IOException {
+    File scratchDir = File.createTempFile("hank_benchmark", "");
+    if (!scratchDir.delete() || !scratchDir.mkdirs()) {
+      throw new IOException("Could not create scratch directory " + scratchDir);
+    }
+    return scratchDir;
+  }
+
+  static void deleteScratchDir(File scratchDir) throws IOException {
+    FileUtils.deleteDirectory(scratchDir);
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.coordinator.*;
+import com.rapleaf.hank.coordinator.mock.MockCoordinator;
+import com.rapleaf.hank.coordinator.mock.MockDomain;
+import com.rapleaf.hank.coordinator.mock.MockDomainGroup;
+import com.rapleaf.hank.generated.HankBulkResponse;
+import com.rapleaf.hank.partition_server.MockPartitionServerConfigurator;
+import com.rapleaf.hank.partition_server.PartitionServerHandler;
+import com.rapleaf.hank.partitioner.ConstantPartitioner;
+import com.rapleaf.hank.storage.curly.Curly;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET BULK requests of random existing keys served by a partition server handler, over a generated Curly
+ * domain. Results are either returned as a HankBulkResponse, or serialized as by the partition server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GetBulkBenchmark {
+
+  private static final int NUM_RECORDS = 200000;
+  private static final int NUM_KEYS_PER_REQUEST = 1000;
+  private static final int GET_BULK_TASK_SIZE = 64;
+  private static final PartitionServerAddress ADDRESS = new PartitionServerAddress("localhost", 12345);
+
+  private final Random random = new Random(1);
+  private final TCompactProtocol protocol = new TCompactProtocol(new NullTransport());
+  private File scratchDir;
+  private PartitionServerHandler handler;
+  private List<ByteBuffer> keys;
+
+  @Setup
+  public void setUp() throws IOException {
+    scratchDir = GeneratedDomain.createScratchDir();
+    Curly curly = GeneratedDomain.getCurly(null);
+    keys = GeneratedDomain.getKeys(curly, NUM_RECORDS, 1);
+    GeneratedDomain.write(curly, scratchDir, GeneratedDomain.getBaseVersion(0), keys,
+        GeneratedDomain.getValues(keys.size(),
+            GeneratedDomain.MIN_CURLY_VALUE_SIZE, GeneratedDomain.MAX_CURLY_VALUE_SIZE, 2));
+
+    final Domain domain = new MockDomain(GeneratedDomain.DOMAIN_NAME, 0, 1, new ConstantPartitioner(), curly,
+        null, null);
+    final Host host = new MockHost(ADDRESS) {
+      @Override
+      public HostDomain getHostDomain(Domain domain) {
+        return new MockHostDomain(domain) {
+          @Override
+          public Set<HostDomainPartition> getPartitions() {
+            return Collections.<HostDomainPartition>singleton(new MockHostDomainPartition(0, 0));
+          }
+        };
+      }
+    };
+    final MockDomainGroup domainGroup = new MockDomainGroup("benchmark_domain_group") {
+      @Override
+      public Set<DomainGroupDomainVersion> getDomainVersions() {
+        Set<DomainGroupDomainVersion> result = new HashSet<DomainGroupDomainVersion>();
+        result.add(new DomainGroupDomainVersion(domain, 0));
+        return result;
+      }
+    };
+    final Ring ring = new MockRing(null, new MockRingGroup(domainGroup, "benchmark_ring_group", null), 1) {
+      @Override
+      public Host getHostByAddress(PartitionServerAddress address) {
+        return host;
+      }
+    };
+    Coordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return new MockRingGroup(domainGroup, ringGroupName, null) {
+          @Override
+          public Ring getRingForHost(PartitionServerAddress hostAddress) {
+            return ring;
+          }
+        };
+      }
+    };
+    handler = new PartitionServerHandler(ADDRESS,
+        new MockPartitionServerConfigurator(ADDRESS.getPortNumber(), coordinator, "benchmark_ring_group",
+            scratchDir.getAbsolutePath()) {
+          @Override
+          public int getNumConcurrentGetBulkTasks() {
+            return Runtime.getRuntime().availableProcessors();
+          }
+
+          @Override
+          public int getGetBulkTaskSize() {
+            return GET_BULK_TASK_SIZE;
+          }
+        }, coordinator);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS_PER_REQUEST)
+  public HankBulkResponse getBulk() {
+    return handler.getBulk(0, getRequestKeys());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS_PER_REQUEST)
+  public void writeGetBulkResult() throws TException {
+    handler.writeGetBulkResult(0, getRequestKeys(), protocol);
+  }
+
+  private List<ByteBuffer> getRequestKeys() {
+    List<ByteBuffer> requestKeys = new ArrayList<ByteBuffer>(NUM_KEYS_PER_REQUEST);
+    for (int i = 0; i < NUM_KEYS_PER_REQUEST; ++i) {
+      requestKeys.add(keys.get(random.nextInt(keys.size())));
+    }
+    return requestKeys;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    handler.shutDown();
+    GeneratedDomain.deleteScratchDir(scratchDir);
+  }
+
+  // Discards serialized results, so that this measures serialization rather than transport
+  private static class NullTransport extends TTransport {
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Hash keys with Murmur64Hasher, as done by storage engines for every GET
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Murmur64HasherBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+
+  private final Murmur64Hasher hasher = new Murmur64Hasher();
+  private final byte[] hash = new byte[GeneratedDomain.KEY_HASH_SIZE];
+  private List<ByteBuffer> keys;
+
+  @Setup
+  public void setUp() {
+    keys = GeneratedDomain.getKeys(GeneratedDomain.getCueball(), NUM_KEYS, 1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_KEYS)
+  public void hash(Blackhole blackhole) {
+    for (ByteBuffer key : keys) {
+      hasher.hash(key, GeneratedDomain.KEY_HASH_SIZE, hash);
+      blackhole.consume(hash[0]);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.config.SimpleDataDirectoriesConfigurator;
+import com.rapleaf.hank.storage.Reader;
+import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.StorageEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random GETs of existing keys with the reader of a generated domain. The partition is small enough to stay
+ * in the page cache, so that this measures lookup and decompression rather than disk accesses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReaderBenchmark {
+
+  private static final int NUM_RECORDS = 200000;
+  private static final int NUM_GETS_PER_INVOCATION = 256;
+
+  @Param({"cueball", "curly", "curly.gzip", "curly.lz4"})
+  private String format;
+
+  private final ReaderResult result = new ReaderResult();
+  private final Random random = new Random(1);
+  private File scratchDir;
+  private Reader reader;
+  private ByteBuffer[] keys;
+
+  @Setup
+  public void setUp() throws IOException {
+    scratchDir = GeneratedDomain.createScratchDir();
+    StorageEngine storageEngine = GeneratedDomain.getStorageEngine(format);
+    List<ByteBuffer> sortedKeys = GeneratedDomain.getKeys(storageEngine, NUM_RECORDS, 1);
+    GeneratedDomain.write(storageEngine, scratchDir, GeneratedDomain.getBaseVersion(0), sortedKeys,
+        GeneratedDomain.getValues(format, sortedKeys.size(), 2));
+    reader = storageEngine.getReader(new SimpleDataDirectoriesConfigurator(scratchDir.getAbsolutePath()), 0);
+    keys = sortedKeys.toArray(new ByteBuffer[sortedKeys.size()]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_GETS_PER_INVOCATION)
+  public void get(Blackhole blackhole) throws IOException {
+    for (int i = 0; i < NUM_GETS_PER_INVOCATION; ++i) {
+      result.clear();
+      reader.get(keys[random.nextInt(keys.length)], result);
+      blackhole.consume(result.isFound());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    GeneratedDomain.deleteScratchDir(scratchDir);
+  }
+}
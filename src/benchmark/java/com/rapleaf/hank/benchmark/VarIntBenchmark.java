@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.util.EncodingHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Encode or decode varints with EncodingHelper, as done for Curly value lengths
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VarIntBenchmark {
+
+  private static final int NUM_VALUES = 1024;
+
+  private final int[] values = new int[NUM_VALUES];
+  private final byte[] buffer = new byte[NUM_VALUES * EncodingHelper.MAX_VARINT_SIZE];
+  private ByteBuffer encodedValues;
+
+  @Setup
+  public void setUp() {
+    // Values of all encoded sizes
+    Random random = new Random(1);
+    int offset = 0;
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      values[i] = (random.nextInt() & Integer.MAX_VALUE) >>> random.nextInt(31);
+      offset += EncodingHelper.encodeLittleEndianVarInt(values[i], buffer, offset);
+    }
+    encodedValues = ByteBuffer.wrap(buffer, 0, offset).slice();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public int encodeLittleEndianVarInt() {
+    int offset = 0;
+    for (int value : values) {
+      offset += EncodingHelper.encodeLittleEndianVarInt(value, buffer, offset);
+    }
+    return offset;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_VALUES)
+  public long decodeLittleEndianVarInt() {
+    ByteBuffer encoded = encodedValues.duplicate();
+    long sum = 0;
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      sum += EncodingHelper.decodeLittleEndianVarInt(encoded);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.benchmark;
+
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.storage.Writer;
+import com.rapleaf.hank.storage.cueball.CueballWriter;
+import com.rapleaf.hank.storage.curly.BlockCompressionCodec;
+import com.rapleaf.hank.storage.curly.CurlyWriter;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write a partition of sorted records with a Cueball or Curly writer. Output is discarded, so that this
+ * measures hashing, encoding and compression rather than disk throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgs = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WriterBenchmark {
+
+  private static final int NUM_RECORDS = 50000;
+  // Number of bytes used to encode offsets in Curly files, and offsets in decompressed Curly blocks
+  private static final int CURLY_OFFSET_NUM_BYTES = 4;
+  private static final int CURLY_OFFSET_IN_BLOCK_NUM_BYTES = 2;
+  private static final int CURLY_COMPRESSED_BLOCK_SIZE_THRESHOLD = 16 * 1024;
+
+  @Param({"cueball", "curly", "curly.gzip", "curly.lz4"})
+  private String format;
+
+  private List<ByteBuffer> keys;
+  private List<ByteBuffer> values;
+
+  @Setup
+  public void setUp() {
+    keys = GeneratedDomain.getKeys(GeneratedDomain.getCueball(), NUM_RECORDS, 1);
+    values = GeneratedDomain.getValues(format, keys.size(), 2);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public long write() throws IOException {
+    Writer writer = getWriter();
+    for (int i = 0; i < keys.size(); ++i) {
+      writer.write(keys.get(i).duplicate(), values.get(i).duplicate());
+    }
+    writer.close();
+    return writer.getNumBytesWritten();
+  }
+
+  private Writer getWriter() throws IOException {
+    if (!GeneratedDomain.isCurly(format)) {
+      return getCueballWriter(GeneratedDomain.CUEBALL_VALUE_SIZE);
+    }
+    BlockCompressionCodec blockCompressionCodec = GeneratedDomain.getBlockCompressionCodec(format);
+    if (blockCompressionCodec == null) {
+      return new CurlyWriter(new NullOutputStream(), getCueballWriter(CURLY_OFFSET_NUM_BYTES),
+          CURLY_OFFSET_NUM_BYTES, -1);
+    } else {
+      return new CurlyWriter(new NullOutputStream(),
+          getCueballWriter(CURLY_OFFSET_NUM_BYTES + CURLY_OFFSET_IN_BLOCK_NUM_BYTES),
+          CURLY_OFFSET_NUM_BYTES, -1, blockCompressionCodec, CURLY_COMPRESSED_BLOCK_SIZE_THRESHOLD,
+          CURLY_OFFSET_IN_BLOCK_NUM_BYTES);
+    }
+  }
+
+  private static CueballWriter getCueballWriter(int valueSize) {
+    return new CueballWriter(new NullOutputStream(), GeneratedDomain.KEY_HASH_SIZE, new Murmur64Hasher(), valueSize,
+        new NoCompressionCodec(), GeneratedDomain.HASH_INDEX_BITS);
+  }
+}
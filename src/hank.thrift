@@ -15,6 +15,9 @@ union HankException {
 
   /** There was some internal error in the server. This is pretty bad. */
   5: string internal_error;
+
+  /** The server is overloaded and rejected the request. It can be retried on another host. */
+  6: bool overloaded;
 }
 
 union HankResponse {
@@ -20,15 +20,29 @@ class ConnectionLoad {
 
   private int numConnections;
   private int numConnectionsLocked;
+  private int numInFlightRequests;
+  // Sum of the latency moving averages of connections that have one
+  private double latencyEwmaNanosSum;
+  private int numLatencyEwmas;
 
   ConnectionLoad(int numConnections, int numConnectionsLocked) {
+    this(numConnections, numConnectionsLocked, 0, 0, 0);
+  }
+
+  ConnectionLoad(int numConnections,
+                 int numConnectionsLocked,
+                 int numInFlightRequests,
+                 double latencyEwmaNanosSum,
+                 int numLatencyEwmas) {
     this.numConnections = numConnections;
     this.numConnectionsLocked = numConnectionsLocked;
+    this.numInFlightRequests = numInFlightRequests;
+    this.latencyEwmaNanosSum = latencyEwmaNanosSum;
+    this.numLatencyEwmas = numLatencyEwmas;
   }
 
   public ConnectionLoad() {
-    this.numConnections = 0;
-    this.numConnectionsLocked = 0;
+    this(0, 0);
   }
 
   public int getNumConnections() {
@@ -39,13 +53,36 @@ class ConnectionLoad {
     return numConnectionsLocked;
   }
 
+  public int getNumInFlightRequests() {
+    return numInFlightRequests;
+  }
+
+  public double getLatencyEwmaNanosSum() {
+    return latencyEwmaNanosSum;
+  }
+
+  public int getNumLatencyEwmas() {
+    return numLatencyEwmas;
+  }
+
   public void aggregate(ConnectionLoad other) {
     this.numConnections += other.numConnections;
     this.numConnectionsLocked += other.numConnectionsLocked;
+    this.numInFlightRequests += other.numInFlightRequests;
+    this.latencyEwmaNanosSum += other.latencyEwmaNanosSum;
+    this.numLatencyEwmas += other.numLatencyEwmas;
   }
 
   // Return connection load as a percentage
   public double getLoad() {
     return ((double) numConnectionsLocked / (double) numConnections) * 100;
   }
+
+  // Return average request latency in milliseconds, or 0 if no request completed yet
+  public double getLatencyMs() {
+    if (numLatencyEwmas == 0) {
+      return 0;
+    }
+    return latencyEwmaNanosSum / numLatencyEwmas / 1000000;
+  }
 }
@@ -21,6 +21,8 @@ import com.rapleaf.hank.generated.HankBulkResponse;
 import com.rapleaf.hank.generated.HankException;
 import com.rapleaf.hank.generated.HankResponse;
 import com.rapleaf.hank.partition_server.UpdateStatisticsRunnable;
+import com.rapleaf.hank.partitioner.HashingPartitioner;
+import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.ui.UiUtils;
 import com.rapleaf.hank.util.Bytes;
 import org.apache.log4j.Logger;
@@ -30,6 +32,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.rapleaf.hank.client.HostConnectionPool.getHostListShuffleSeed;
 
@@ -39,7 +42,11 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
+  private static final HankResponse GET_TASK_EXECUTOR_FULL =
+      HankResponse.xception(HankException.internal_error("HankSmartClient GET task executor is full."));
 
+  private static final int GET_TASK_EXECUTOR_NUM_THREADS_DEFAULT = 64;
+  private static final int GET_TASK_EXECUTOR_MAX_NUM_PENDING_TASKS_DEFAULT = 1024;
   private static final long GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME = 1;
   private static final TimeUnit GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT = TimeUnit.MINUTES;
   private static final long GET_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
@@ -59,24 +66,29 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private final int establishConnectionTimeoutMs;
   private final int queryTimeoutMs;
   private final int bulkQueryTimeoutMs;
+  private final boolean useMultiplexedConnections;
+  private final boolean latencyAwareHostSelection;
 
   private final ThreadPoolExecutor getTaskExecutor;
+  private final boolean getTaskExecutorRejectWhenFull;
+  private final AtomicLong numRejectedGetTasks = new AtomicLong();
+
+  // Null when hedged requests are disabled
+  private final ThreadPoolExecutor hedgedRequestExecutor;
+  private final HedgedRequestPolicy hedgedRequestPolicy;
+
+  // Null when the result cache is disabled
+  private final ResultCache resultCache;
+  private final DomainGroupListener resultCacheDomainGroupListener;
 
   private final UpdateRuntimeStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
 
   // Cache
 
-  private Map<PartitionServerAddress, HostConnectionPool> partitionServerAddressToConnectionPool
-      = new HashMap<PartitionServerAddress, HostConnectionPool>();
-  private Map<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToPartitionServerAddressList
-      = new HashMap<Integer, Map<Integer, List<PartitionServerAddress>>>();
-  private Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToConnectionPool
-      = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
-  private Map<List<PartitionServerAddress>, HostConnectionPool> partitionServerAddressListToConnectionPool =
-      new HashMap<List<PartitionServerAddress>, HostConnectionPool>();
+  // Immutable, replaced as a whole when the cache is updated. Requests only read this reference.
+  private volatile RoutingTable routingTable = RoutingTable.EMPTY;
 
-  private final Object cacheLock = new Object();
   private final CacheUpdaterRunnable cacheUpdaterRunnable = new CacheUpdaterRunnable();
   private final Thread cacheUpdaterThread;
 
@@ -89,7 +101,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         configurator.getTryLockConnectionTimeoutMs(),
         configurator.getEstablishConnectionTimeoutMs(),
         configurator.getQueryTimeoutMs(),
-        configurator.getBulkQueryTimeoutMs());
+        configurator.getBulkQueryTimeoutMs(),
+        configurator.getGetTaskExecutorNumThreads(),
+        configurator.getGetTaskExecutorMaxNumPendingTasks(),
+        configurator.getGetTaskExecutorRejectWhenFull(),
+        configurator.getUseMultiplexedConnections(),
+        configurator.getUseLatencyAwareHostSelection(),
+        configurator.getHedgedRequestDelayMs(),
+        configurator.getHedgedRequestLatencyPercentile(),
+        configurator.getResultCacheMaxNumBytes());
   }
 
   public HankSmartClient(Coordinator coordinator,
@@ -100,6 +120,40 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
                          int establishConnectionTimeoutMs,
                          int queryTimeoutMs,
                          int bulkQueryTimeoutMs) throws IOException, TException {
+    this(coordinator,
+        ringGroupName,
+        numConnectionsPerHost,
+        queryMaxNumTries,
+        tryLockConnectionTimeoutMs,
+        establishConnectionTimeoutMs,
+        queryTimeoutMs,
+        bulkQueryTimeoutMs,
+        -1,
+        -1,
+        false,
+        false,
+        false,
+        -1,
+        -1,
+        -1);
+  }
+
+  public HankSmartClient(Coordinator coordinator,
+                         String ringGroupName,
+                         int numConnectionsPerHost,
+                         int queryMaxNumTries,
+                         int tryLockConnectionTimeoutMs,
+                         int establishConnectionTimeoutMs,
+                         int queryTimeoutMs,
+                         int bulkQueryTimeoutMs,
+                         int getTaskExecutorNumThreads,
+                         int getTaskExecutorMaxNumPendingTasks,
+                         boolean getTaskExecutorRejectWhenFull,
+                         boolean useMultiplexedConnections,
+                         boolean latencyAwareHostSelection,
+                         int hedgedRequestDelayMs,
+                         int hedgedRequestLatencyPercentile,
+                         long resultCacheMaxNumBytes) throws IOException, TException {
     this.coordinator = coordinator;
     ringGroup = coordinator.getRingGroup(ringGroupName);
 
@@ -115,16 +169,56 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
     this.queryTimeoutMs = queryTimeoutMs;
     this.bulkQueryTimeoutMs = bulkQueryTimeoutMs;
-    // Initialize get task executor with 0 core threads and an unbounded maximum number of threads.
-    // The queue is a synchronous queue so that we create new threads even though there might be more
-    // than number of core threads threads running
+    this.useMultiplexedConnections = useMultiplexedConnections;
+    this.latencyAwareHostSelection = latencyAwareHostSelection;
+    // Initialize get task executor with a fixed number of threads (that time out when idle) and a bounded
+    // queue of pending tasks. Tasks that do not fit are either rejected or run in the calling thread.
+    if (getTaskExecutorNumThreads <= 0) {
+      getTaskExecutorNumThreads = GET_TASK_EXECUTOR_NUM_THREADS_DEFAULT;
+    }
+    if (getTaskExecutorMaxNumPendingTasks <= 0) {
+      getTaskExecutorMaxNumPendingTasks = GET_TASK_EXECUTOR_MAX_NUM_PENDING_TASKS_DEFAULT;
+    }
     this.getTaskExecutor = new ThreadPoolExecutor(
-        0,
-        Integer.MAX_VALUE,
+        getTaskExecutorNumThreads,
+        getTaskExecutorNumThreads,
         GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME,
         GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT,
-        new SynchronousQueue<Runnable>(),
+        new LinkedBlockingQueue<Runnable>(getTaskExecutorMaxNumPendingTasks),
         new GetTaskThreadFactory());
+    this.getTaskExecutor.allowCoreThreadTimeOut(true);
+    this.getTaskExecutorRejectWhenFull = getTaskExecutorRejectWhenFull;
+    // Initialize hedged request executor. It does not queue tasks, so that hedged requests are
+    // skipped instead of delayed when all its threads are busy.
+    if (HedgedRequestPolicy.isEnabled(hedgedRequestDelayMs, hedgedRequestLatencyPercentile)) {
+      this.hedgedRequestExecutor = new ThreadPoolExecutor(
+          0,
+          2 * getTaskExecutorNumThreads,
+          GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME,
+          GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT,
+          new SynchronousQueue<Runnable>(),
+          new HedgedRequestThreadFactory());
+      this.hedgedRequestPolicy = new HedgedRequestPolicy(hedgedRequestDelayMs, hedgedRequestLatencyPercentile,
+          hedgedRequestExecutor, queryTimeoutMs);
+    } else {
+      this.hedgedRequestExecutor = null;
+      this.hedgedRequestPolicy = null;
+    }
+    // Initialize result cache. Cached results are keyed by domain version, which is refreshed when
+    // data locations or the domain group change.
+    if (resultCacheMaxNumBytes > 0) {
+      this.resultCache = new ResultCache(resultCacheMaxNumBytes);
+      this.resultCacheDomainGroupListener = new DomainGroupListener() {
+        @Override
+        public void onDomainGroupChange(DomainGroup domainGroup) {
+          LOG.debug("Smart client notified of domain group change.");
+          cacheUpdaterRunnable.wakeUp();
+        }
+      };
+    } else {
+      this.resultCache = null;
+      this.resultCacheDomainGroupListener = null;
+    }
     // Initialize Load statistics runner
     updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
     updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Load Statistics");
@@ -134,6 +228,9 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     // Initialize cache and cache updater
     updateCache();
     ringGroup.addDataLocationChangeListener(this);
+    if (resultCacheDomainGroupListener != null && ringGroup.getDomainGroup() != null) {
+      ringGroup.getDomainGroup().addListener(resultCacheDomainGroupListener);
+    }
     cacheUpdaterThread = new Thread(cacheUpdaterRunnable, "Cache Updater Thread");
     cacheUpdaterThread.setDaemon(true);
     cacheUpdaterThread.start();
@@ -149,33 +246,40 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         = new HashMap<Integer, Map<Integer, List<PartitionServerAddress>>>();
     final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool
         = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
-    final Map<List<PartitionServerAddress>, HostConnectionPool> newPartitionServerAddressListToConnectionPool =
-        new HashMap<List<PartitionServerAddress>, HostConnectionPool>();
+    final Map<Integer, Integer> newDomainToVersion = new HashMap<Integer, Integer>();
 
     // Build new cache
     buildNewCache(
         newPartitionServerAddressToConnectionPool,
         newDomainToPartitionToPartitionServerAddressList,
         newDomainToPartitionToConnectionPool,
-        newPartitionServerAddressListToConnectionPool);
+        newDomainToVersion);
 
     // Switch old cache for new cache
-    final Map<PartitionServerAddress, HostConnectionPool> oldPartitionServerAddressToConnectionPool
-        = partitionServerAddressToConnectionPool;
-    synchronized (cacheLock) {
-      partitionServerAddressToConnectionPool = newPartitionServerAddressToConnectionPool;
-      domainToPartitionToPartitionServerAddressList = newDomainToPartitionToPartitionServerAddressList;
-      domainToPartitionToConnectionPool = newDomainToPartitionToConnectionPool;
-      partitionServerAddressListToConnectionPool = newPartitionServerAddressListToConnectionPool;
+    final RoutingTable oldRoutingTable = routingTable;
+    final RoutingTable newRoutingTable = new RoutingTable(
+        newPartitionServerAddressToConnectionPool,
+        newDomainToPartitionToPartitionServerAddressList,
+        newDomainToPartitionToConnectionPool,
+        newDomainToVersion);
+    routingTable = newRoutingTable;
+
+    // Drop cached results of domains whose version changed. They could not be looked up anymore anyway.
+    if (resultCache != null) {
+      for (Integer domainId : newDomainToPartitionToPartitionServerAddressList.keySet()) {
+        if (oldRoutingTable.getDomainVersion(domainId) != newRoutingTable.getDomainVersion(domainId)) {
+          resultCache.removeDomain(domainId);
+        }
+      }
     }
 
     // Clean up old cache when new cache is in place
     for (Map.Entry<PartitionServerAddress, HostConnectionPool> entry
-        : oldPartitionServerAddressToConnectionPool.entrySet()) {
+        : oldRoutingTable.getPartitionServerAddressToConnectionPool().entrySet()) {
       PartitionServerAddress address = entry.getKey();
       HostConnectionPool connections = entry.getValue();
       // Only close connections that have not been reused
-      if (!partitionServerAddressToConnectionPool.containsKey(address)) {
+      if (newRoutingTable.getConnectionPool(address) == null) {
         for (HostConnection connection : connections.getConnections()) {
           connection.disconnect();
         }
@@ -230,7 +334,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       final Map<PartitionServerAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool,
       final Map<Integer, Map<Integer, List<PartitionServerAddress>>> newDomainToPartitionToPartitionServerAddressList,
       final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool,
-      final Map<List<PartitionServerAddress>, HostConnectionPool> newPartitionServerAddressListToConnectionPool)
+      final Map<Integer, Integer> newDomainToVersion)
       throws IOException, TException {
 
     for (Ring ring : ringGroup.getRings()) {
@@ -261,29 +365,49 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
                 partitionToAdresses.put(partition.getPartitionNumber(), partitionsList);
               }
               partitionsList.add(host.getAddress());
+              // A domain has a known version only if all its partitions are served at the same version
+              Integer partitionVersion = partition.getCurrentDomainVersion();
+              Integer domainVersion = newDomainToVersion.get(domain.getId());
+              if (partitionVersion == null) {
+                newDomainToVersion.put(domain.getId(), RoutingTable.UNKNOWN_DOMAIN_VERSION);
+              } else if (domainVersion == null) {
+                newDomainToVersion.put(domain.getId(), partitionVersion);
+              } else if (!domainVersion.equals(partitionVersion)) {
+                newDomainToVersion.put(domain.getId(), RoutingTable.UNKNOWN_DOMAIN_VERSION);
+              }
             }
           }
         }
 
         // Build new partitionServerAddressToConnectionPool
         // Reuse current connection pool to that host if one exists
-        HostConnectionPool hostConnectionPool = partitionServerAddressToConnectionPool.get(host.getAddress());
+        HostConnectionPool hostConnectionPool = routingTable.getConnectionPool(host.getAddress());
         if (hostConnectionPool == null) {
           // Establish new connections to host
           LOG.info("Establishing " + numConnectionsPerHost + " connections to " + host
               + " with connection try lock timeout = " + tryLockConnectionTimeoutMs + "ms"
               + ", connection establishment timeout = " + establishConnectionTimeoutMs + "ms"
               + ", query timeout = " + queryTimeoutMs + "ms"
-              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms");
+              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms"
+              + ", multiplexed = " + useMultiplexedConnections);
           List<HostConnection> hostConnections = new ArrayList<HostConnection>(numConnectionsPerHost);
           for (int i = 0; i < numConnectionsPerHost; i++) {
-            hostConnections.add(new HostConnection(host,
-                tryLockConnectionTimeoutMs,
-                establishConnectionTimeoutMs,
-                queryTimeoutMs,
-                bulkQueryTimeoutMs));
+            if (useMultiplexedConnections) {
+              hostConnections.add(new MultiplexedHostConnection(host,
+                  tryLockConnectionTimeoutMs,
+                  establishConnectionTimeoutMs,
+                  queryTimeoutMs,
+                  bulkQueryTimeoutMs));
+            } else {
+              hostConnections.add(new HostConnection(host,
+                  tryLockConnectionTimeoutMs,
+                  establishConnectionTimeoutMs,
+                  queryTimeoutMs,
+                  bulkQueryTimeoutMs));
+            }
           }
-          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null);
+          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null,
+              latencyAwareHostSelection, hedgedRequestPolicy);
         }
         newPartitionServerAddressToConnectionPool.put(host.getAddress(), hostConnectionPool);
       }
@@ -302,26 +426,11 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         }
         Integer partitionId = partitionToAddressesEntry.getKey();
         partitionToConnectionPool.put(partitionId,
-            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId)));
+            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId),
+                latencyAwareHostSelection, hedgedRequestPolicy));
       }
       newDomainToPartitionToConnectionPool.put(domainId, partitionToConnectionPool);
     }
-
-    // Build new partitionServerAddressListToConnectionPool
-    for (Map<Integer, List<PartitionServerAddress>> partitionToPartitionServerAddressList :
-        newDomainToPartitionToPartitionServerAddressList.values()) {
-      for (List<PartitionServerAddress> partitionServerAddressList : partitionToPartitionServerAddressList.values()) {
-        // Create a connection pool for that list of partition servers only if it doesn't exist yet
-        if (!newPartitionServerAddressListToConnectionPool.containsKey(partitionServerAddressList)) {
-          List<HostConnection> connections = new ArrayList<HostConnection>();
-          for (PartitionServerAddress partitionServerAddress : partitionServerAddressList) {
-            connections.addAll(newPartitionServerAddressToConnectionPool.get(partitionServerAddress).getConnections());
-          }
-          newPartitionServerAddressListToConnectionPool.put(partitionServerAddressList,
-              HostConnectionPool.createFromList(connections, null));
-        }
-      }
-    }
   }
 
   // Synchronous get
@@ -337,6 +446,9 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   }
 
   // Synchronous getBulk
+  // Keys are grouped by partition server and each group is sent as a single GET BULK request. Keys of a given
+  // partition are spread over the partition servers serving it with rendezvous hashing. Groups that fail are
+  // retried on the next replica, up to the maximum number of tries.
   @Override
   public HankBulkResponse getBulk(String domainName, List<ByteBuffer> keys) {
     // Get Domain
@@ -345,17 +457,164 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       LOG.error("No such Domain: " + domainName);
       return NO_SUCH_DOMAIN_BULK;
     }
-    // Execute futures
-    List<FutureGet> futureGets = new ArrayList<FutureGet>(keys.size());
+
+    // Determine partition and hash of each key
+    Partitioner partitioner = domain.getPartitioner();
+    HashingPartitioner hashingPartitioner
+        = partitioner instanceof HashingPartitioner ? (HashingPartitioner) partitioner : null;
+    int[] keyPartitions = new int[keys.size()];
+    int[] keyHashes = new int[keys.size()];
+    int keyIndex = 0;
     for (ByteBuffer key : keys) {
-      futureGets.add(_concurrentGet(domain, key));
+      // Check for null keys
+      if (key == null) {
+        throw new NullKeyException();
+      }
+      // Check for empty keys
+      if (key.remaining() == 0) {
+        throw new EmptyKeyException();
+      }
+      if (hashingPartitioner != null) {
+        // Hash the key only once
+        long hash = hashingPartitioner.hash(key);
+        keyPartitions[keyIndex] = hashingPartitioner.partition(hash, domain.getNumParts());
+        keyHashes[keyIndex] = hashingPartitioner.partition(hash, Integer.MAX_VALUE);
+      } else {
+        keyPartitions[keyIndex] = partitioner.partition(key, domain.getNumParts());
+        keyHashes[keyIndex] = partitioner.partition(key, Integer.MAX_VALUE);
+      }
+      ++keyIndex;
     }
-    // Build responses list
-    List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
-    for (FutureGet futureGet : futureGets) {
-      allResponses.add(futureGet.getResponse());
+
+    RoutingTable routingTable = this.routingTable;
+    PartitionServerAddress[][] partitionToPartitionServerAddresses
+        = routingTable.getPartitionToPartitionServerAddresses(domain.getId());
+    long[][] partitionToHostHashes = routingTable.getPartitionToHostHashes(domain.getId());
+    if (partitionToPartitionServerAddresses == null) {
+      String errMsg = String.format("Could not get domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId());
+      LOG.error(errMsg);
+      return HankBulkResponse.xception(HankException.internal_error(errMsg));
+    }
+
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Looking in domain " + domain.getName() + " for " + keys.size() + " keys");
+    }
+
+    HankResponse[] responses = new HankResponse[keys.size()];
+    List<Integer> pendingKeyIndices = new ArrayList<Integer>(keys.size());
+    int domainVersion = routingTable.getDomainVersion(domain.getId());
+    boolean useResultCache = resultCache != null && domainVersion != RoutingTable.UNKNOWN_DOMAIN_VERSION;
+    for (int i = 0; i < keys.size(); ++i) {
+      if (useResultCache) {
+        responses[i] = resultCache.get(domain.getId(), domainVersion, keys.get(i));
+      }
+      if (responses[i] == null) {
+        pendingKeyIndices.add(i);
+      }
+    }
+    // Keys that were not found in the result cache
+    List<Integer> queriedKeyIndices = useResultCache ? new ArrayList<Integer>(pendingKeyIndices) : null;
+    int numTries = 0;
+    while (!pendingKeyIndices.isEmpty()) {
+      // Group pending keys by partition server. Each try moves on to the next replica.
+      Map<PartitionServerAddress, BulkRequest> partitionServerAddressToBulkRequest
+          = new HashMap<PartitionServerAddress, BulkRequest>();
+      for (int pendingKeyIndex : pendingKeyIndices) {
+        int partition = keyPartitions[pendingKeyIndex];
+        PartitionServerAddress[] partitionServerAddresses = partition < partitionToPartitionServerAddresses.length
+            ? partitionToPartitionServerAddresses[partition] : null;
+        if (partitionServerAddresses == null || partitionServerAddresses.length == 0) {
+          // this is a problem, since the cache must not have been loaded correctly
+          String errMsg = String.format("Could not get list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition);
+          LOG.error(errMsg);
+          responses[pendingKeyIndex] = HankResponse.xception(HankException.internal_error(errMsg));
+          continue;
+        }
+        PartitionServerAddress partitionServerAddress = getPartitionServerAddressToUse(partitionServerAddresses,
+            routingTable, RendezvousHashing.getHostIndex(keyHashes[pendingKeyIndex], partitionToHostHashes[partition])
+                + numTries);
+        BulkRequest bulkRequest = partitionServerAddressToBulkRequest.get(partitionServerAddress);
+        if (bulkRequest == null) {
+          bulkRequest = new BulkRequest();
+          partitionServerAddressToBulkRequest.put(partitionServerAddress, bulkRequest);
+        }
+        bulkRequest.addItem(keys.get(pendingKeyIndex), pendingKeyIndex);
+      }
+      pendingKeyIndices = executeBulkRequests(domain.getId(), partitionServerAddressToBulkRequest,
+          routingTable, responses);
+      if (++numTries >= queryMaxNumTries) {
+        break;
+      }
+    }
+    // Keys that are still pending have exhausted their tries
+    for (int pendingKeyIndex : pendingKeyIndices) {
+      if (responses[pendingKeyIndex].get_xception().is_set_failed_retries()) {
+        responses[pendingKeyIndex] = HankResponse.xception(HankException.failed_retries(numTries));
+      }
+    }
+    if (useResultCache) {
+      for (int queriedKeyIndex : queriedKeyIndices) {
+        resultCache.put(domain.getId(), domainVersion, keys.get(queriedKeyIndex), responses[queriedKeyIndex]);
+      }
+    }
+    return HankBulkResponse.responses(Arrays.asList(responses));
+  }
+
+  // Return the first partition server that has an available connection, starting at the given index.
+  // If none is available, return the partition server at the given index.
+  private static PartitionServerAddress getPartitionServerAddressToUse(
+      PartitionServerAddress[] partitionServerAddresses,
+      RoutingTable routingTable,
+      int startIndex) {
+    for (int i = 0; i < partitionServerAddresses.length; ++i) {
+      PartitionServerAddress partitionServerAddress
+          = partitionServerAddresses[(startIndex + i) % partitionServerAddresses.length];
+      HostConnectionPool connectionPool = routingTable.getConnectionPool(partitionServerAddress);
+      if (connectionPool != null && connectionPool.getNumAvailableHosts() > 0) {
+        return partitionServerAddress;
+      }
+    }
+    return partitionServerAddresses[startIndex % partitionServerAddresses.length];
+  }
+
+  // Execute bulk requests concurrently (the last one in the calling thread) and return the indices
+  // of keys that failed and should be retried.
+  private List<Integer> executeBulkRequests(int domainId,
+                                            Map<PartitionServerAddress, BulkRequest> partitionServerAddressToBulkRequest,
+                                            RoutingTable routingTable,
+                                            HankResponse[] responses) {
+    List<GetBulkRunnable> runnables = new ArrayList<GetBulkRunnable>(partitionServerAddressToBulkRequest.size());
+    List<FutureTask<Object>> futureTasks = new ArrayList<FutureTask<Object>>(partitionServerAddressToBulkRequest.size());
+    for (Map.Entry<PartitionServerAddress, BulkRequest> entry : partitionServerAddressToBulkRequest.entrySet()) {
+      GetBulkRunnable runnable = new GetBulkRunnable(domainId, entry.getValue(),
+          routingTable.getConnectionPool(entry.getKey()), responses);
+      FutureTask<Object> futureTask = new FutureTask<Object>(runnable, null);
+      if (futureTasks.size() < partitionServerAddressToBulkRequest.size() - 1) {
+        // The caller is waiting on these tasks anyway, so run them in the calling thread when the executor is full
+        executeGetTask(futureTask, false);
+      } else {
+        futureTask.run();
+      }
+      runnables.add(runnable);
+      futureTasks.add(futureTask);
     }
-    return HankBulkResponse.responses(allResponses);
+    List<Integer> failedKeyIndices = new ArrayList<Integer>();
+    for (int i = 0; i < futureTasks.size(); ++i) {
+      BulkRequest bulkRequest = runnables.get(i).bulkRequest;
+      try {
+        futureTasks.get(i).get();
+        if (runnables.get(i).failed) {
+          failedKeyIndices.addAll(bulkRequest.getKeyIndices());
+        }
+      } catch (Exception e) {
+        String errMsg = "Exception while executing GET BULK: " + e.getMessage();
+        LOG.error(errMsg, e);
+        for (int keyIndex : bulkRequest.getKeyIndices()) {
+          responses[keyIndex] = HankResponse.xception(HankException.internal_error(errMsg));
+        }
+      }
+    }
+    return failedKeyIndices;
   }
 
   // Asynchronous get
@@ -403,10 +662,39 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       throw new EmptyKeyException();
     }
     FutureGet futureGet = new FutureGet(new GetTaskRunnable(domain, key));
-    getTaskExecutor.execute(futureGet);
+    if (!executeGetTask(futureGet, getTaskExecutorRejectWhenFull)) {
+      LOG.error("GET task executor is full. Rejecting GET task.");
+      futureGet = new FutureGet(new StaticGetTaskRunnable(GET_TASK_EXECUTOR_FULL));
+      futureGet.run();
+    }
     return futureGet;
   }
 
+  // Execute given task with the GET task executor. If the executor is full, either reject the task
+  // and return false, or run it in the calling thread, which slows down the caller.
+  private boolean executeGetTask(Runnable task, boolean rejectWhenFull) {
+    try {
+      getTaskExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      numRejectedGetTasks.incrementAndGet();
+      if (rejectWhenFull) {
+        return false;
+      }
+      task.run();
+    }
+    return true;
+  }
+
+  // Number of tasks waiting for a GET task executor thread
+  public int getNumPendingGetTasks() {
+    return getTaskExecutor.getQueue().size();
+  }
+
+  // Number of tasks the GET task executor could not accept since this client was started
+  public long getNumRejectedGetTasks() {
+    return numRejectedGetTasks.get();
+  }
+
   private HankResponse _get(Domain domain, ByteBuffer key) {
     // Check for null keys
     if (key == null) {
@@ -416,20 +704,41 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     if (key.remaining() == 0) {
       throw new EmptyKeyException();
     }
-    int partition = domain.getPartitioner().partition(key, domain.getNumParts());
-    int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
-
-    Map<Integer, HostConnectionPool> partitionToConnectionPool;
-    synchronized (cacheLock) {
-      partitionToConnectionPool = domainToPartitionToConnectionPool.get(domain.getId());
+    int partition;
+    int keyHash;
+    Partitioner partitioner = domain.getPartitioner();
+    if (partitioner instanceof HashingPartitioner) {
+      // Hash the key only once
+      HashingPartitioner hashingPartitioner = (HashingPartitioner) partitioner;
+      long hash = hashingPartitioner.hash(key);
+      partition = hashingPartitioner.partition(hash, domain.getNumParts());
+      keyHash = hashingPartitioner.partition(hash, Integer.MAX_VALUE);
+    } else {
+      partition = partitioner.partition(key, domain.getNumParts());
+      keyHash = partitioner.partition(key, Integer.MAX_VALUE);
+    }
+
+    RoutingTable routingTable = this.routingTable;
+
+    // Look up result cache
+    int domainVersion = routingTable.getDomainVersion(domain.getId());
+    boolean useResultCache = resultCache != null && domainVersion != RoutingTable.UNKNOWN_DOMAIN_VERSION;
+    if (useResultCache) {
+      HankResponse cachedResponse = resultCache.get(domain.getId(), domainVersion, key);
+      if (cachedResponse != null) {
+        return cachedResponse;
+      }
     }
+
+    HostConnectionPool[] partitionToConnectionPool = routingTable.getPartitionToConnectionPool(domain.getId());
     if (partitionToConnectionPool == null) {
       String errMsg = String.format("Could not get domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId());
       LOG.error(errMsg);
       return HankResponse.xception(HankException.internal_error(errMsg));
     }
 
-    HostConnectionPool hostConnectionPool = partitionToConnectionPool.get(partition);
+    HostConnectionPool hostConnectionPool
+        = partition < partitionToConnectionPool.length ? partitionToConnectionPool[partition] : null;
     if (hostConnectionPool == null) {
       // this is a problem, since the cache must not have been loaded correctly
       String errMsg = String.format("Could not get list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition);
@@ -439,123 +748,37 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     if (LOG.isTraceEnabled()) {
       LOG.trace("Looking in domain " + domain.getName() + ", in partition " + partition + ", for key: " + Bytes.bytesToHexString(key));
     }
-    return hostConnectionPool.get(domain.getId(), key, queryMaxNumTries, keyHash);
-  }
-
-  // The real getBulk is disabled for now, until we can make it more performant.
-  /*
-  @Override
-  public HankBulkResponse getBulk(String domainName, List<ByteBuffer> keys) {
-
-    // Get Domain
-    Domain domain = coordinator.getDomain(domainName);
-    if (domain == null) {
-      LOG.error("No such Domain: " + domainName);
-      return NO_SUCH_DOMAIN_BULK;
-    }
-
-    // Get partition to partition server addresses for given domain
-    Map<Integer, List<PartitionServerAddress>> partitionToPartitionServerAddresses;
-    synchronized (cacheLock) {
-      partitionToPartitionServerAddresses = domainToPartitionToPartitionServerAddressList.get(domain.getId());
-    }
-    if (partitionToPartitionServerAddresses == null) {
-      String errMsg = String.format("Got a null set of partition to hosts pairs when looking for domain %s.", domain.getName());
-      LOG.error(errMsg);
-      return HankBulkResponse.xception(HankException.internal_error(errMsg));
+    HankResponse response = hostConnectionPool.get(domain.getId(), key, queryMaxNumTries, keyHash);
+    if (useResultCache) {
+      resultCache.put(domain.getId(), domainVersion, key, response);
     }
+    return response;
+  }
 
-    // Build requests for each partition server list
-
-    Map<List<PartitionServerAddress>, BulkRequest[]> partitionServerListTobulkRequestList
-        = new HashMap<List<PartitionServerAddress>, BulkRequest[]>();
-
-    int keyIndex = 0;
-    for (ByteBuffer key : keys) {
-      // Determine key's partition
-      int partition = domain.getPartitioner().partition(key, domain.getNumParts());
-
-      // Get list of partition server addresses for this partition
-      List<PartitionServerAddress> partitionServerAddressList = partitionToPartitionServerAddresses.get(partition);
-      if (partitionServerAddressList == null) {
-        String errMsg = String.format("Got a null set of hosts for partition %d in domain %s (%d).", partition, domain.getName(), domain.getId());
-        LOG.error(errMsg);
-        return HankBulkResponse.xception(HankException.internal_error(errMsg));
-      }
-      if (partitionServerAddressList.size() == 0) {
-        String errMsg = String.format("Got an empty set of hosts for partition %d in domain %s (%d).", partition, domain.getName(), domain.getId());
-        LOG.error(errMsg);
-        return HankBulkResponse.xception(HankException.internal_error(errMsg));
-      }
-
-      // Add this key to the bulk request object corresponding to the chosen partition server
-      if (!partitionServerListTobulkRequestList.containsKey(partitionServerAddressList)) {
-        // Create as many bulk requests as the number of hosts available in that list
-        int numAvailableHosts = partitionServerAddressListToConnectionPool.get(partitionServerAddressList).getNumAvailableHosts();
-        // If no hosts are available, create one bulk request anyway
-        if (numAvailableHosts == 0) {
-          numAvailableHosts = 1;
-        }
-        BulkRequest[] bulkRequestList = new BulkRequest[numAvailableHosts];
-        for (int i = 0; i < numAvailableHosts; ++i) {
-          bulkRequestList[i] = new BulkRequest();
-        }
-        partitionServerListTobulkRequestList.put(partitionServerAddressList, bulkRequestList);
-      }
-      // Add this key to a random bulk request for the corresponding partition server list
-      BulkRequest[] bulkRequestList = partitionServerListTobulkRequestList.get(partitionServerAddressList);
-      bulkRequestList[random.nextInt(bulkRequestList.length)].addItem(key, keyIndex);
-
-      // Update key index
-      ++keyIndex;
-    }
-
-    // Prepare responses list
-    List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
-    for (int i = 0; i < keys.size(); ++i) {
-      allResponses.add(new HankResponse());
-    }
-
-    if (LOG.isTraceEnabled()) {
-      LOG.trace("Looking in domain " + domainName + " for " + keys.size() + " keys");
-    }
-
-    // Create threads to execute requests
-    // TODO: use asynchronous getBulk?
-    List<Thread> requestThreads = new ArrayList<Thread>(partitionServerListTobulkRequestList.keySet().size());
-    for (Map.Entry<List<PartitionServerAddress>, BulkRequest[]> entry : partitionServerListTobulkRequestList.entrySet()) {
-      List<PartitionServerAddress> partitionServerAddressList = entry.getKey();
-      BulkRequest[] bulkRequestList = entry.getValue();
-      // Find connection set
-
-      HostConnectionPool connectionPool;
-      synchronized (cacheLock) {
-        connectionPool = partitionServerAddressListToConnectionPool.get(partitionServerAddressList);
-      }
-      for (BulkRequest bulkRequest : bulkRequestList) {
-        Thread thread = new Thread(new GetBulkRunnable(domain.getId(), bulkRequest, connectionPool, allResponses));
-        thread.start();
-        requestThreads.add(thread);
-      }
-    }
+  // Number of GETs served by the result cache since this client was started
+  public long getNumResultCacheHits() {
+    return resultCache == null ? 0 : resultCache.getNumHits();
+  }
 
-    // Wait for all threads
-    for (Thread thread : requestThreads) {
-      try {
-        thread.join();
-      } catch (InterruptedException e) {
-        return HankBulkResponse.xception(
-            HankException.internal_error("HankSmartClient was interrupted while executing a bulk get request."));
-      }
-    }
+  // Number of GETs that were not found in the result cache since this client was started
+  public long getNumResultCacheMisses() {
+    return resultCache == null ? 0 : resultCache.getNumMisses();
+  }
 
-    return HankBulkResponse.responses(allResponses);
+  // Return result cache hit rate as a percentage
+  public double getResultCacheHitRate() {
+    return resultCache == null ? 0 : resultCache.getHitRate();
   }
-  */
 
   @Override
   public void stop() {
     stopGetTaskExecutor();
+    if (hedgedRequestExecutor != null) {
+      hedgedRequestExecutor.shutdownNow();
+    }
+    if (resultCacheDomainGroupListener != null && ringGroup.getDomainGroup() != null) {
+      ringGroup.getDomainGroup().removeListener(resultCacheDomainGroupListener);
+    }
     cacheUpdaterRunnable.cancel();
     cacheUpdaterThread.interrupt();
     updateRuntimeStatisticsRunnable.cancel();
@@ -583,11 +806,9 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   }
 
   private void disconnect() {
-    synchronized (cacheLock) {
-      for (HostConnectionPool hostConnectionPool : partitionServerAddressToConnectionPool.values()) {
-        for (HostConnection connection : hostConnectionPool.getConnections()) {
-          connection.disconnect();
-        }
+    for (HostConnectionPool hostConnectionPool : routingTable.getPartitionServerAddressToConnectionPool().values()) {
+      for (HostConnection connection : hostConnectionPool.getConnections()) {
+        connection.disconnect();
       }
     }
   }
@@ -625,12 +846,13 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     private final int domainId;
     private final BulkRequest bulkRequest;
     private final HostConnectionPool connectionPool;
-    private final List<HankResponse> allResponses;
+    private final HankResponse[] allResponses;
+    private boolean failed = false;
 
     public GetBulkRunnable(int domainId,
                            BulkRequest bulkRequest,
                            HostConnectionPool connectionPool,
-                           List<HankResponse> allResponses) {
+                           HankResponse[] allResponses) {
       this.domainId = domainId;
       this.bulkRequest = bulkRequest;
       this.connectionPool = connectionPool;
@@ -639,14 +861,18 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
     public void run() {
       HankBulkResponse response;
-      // Execute request
-      response = connectionPool.getBulk(domainId, bulkRequest.getKeys(), queryMaxNumTries);
-      // Request succeeded
+      if (connectionPool == null) {
+        response = HankBulkResponse.xception(HankException.no_connection_available(true));
+      } else {
+        // Execute request. Retries are performed on other replicas by the caller.
+        response = connectionPool.getBulk(domainId, bulkRequest.getKeys(), 1);
+      }
       if (response.is_set_xception()) {
         // Fill responses with error
         for (int responseIndex : bulkRequest.getKeyIndices()) {
-          allResponses.get(responseIndex).set_xception(response.get_xception());
+          allResponses[responseIndex] = HankResponse.xception(response.get_xception());
         }
+        failed = true;
       } else if (response.is_set_responses()) {
         // Valid response, load results into final response
         if (response.get_responses().size() != bulkRequest.getKeys().size()) {
@@ -654,13 +880,10 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
               String.format("Number of responses in bulk response (%d) does not match number of keys requested (%d)",
                   response.get_responses().size(), bulkRequest.getKeys().size()));
         }
-        Iterator<Integer> keyIndexIterator = bulkRequest.getKeyIndices().iterator();
-        int intermediateKeyIndex = 0;
+        Iterator<HankResponse> responseIterator = response.get_responses().iterator();
         // Note: keys and keyIds should be the same size
-        while (keyIndexIterator.hasNext()) {
-          int finalKeyIndex = keyIndexIterator.next();
-          allResponses.set(finalKeyIndex, response.get_responses().get(intermediateKeyIndex));
-          ++intermediateKeyIndex;
+        for (int finalKeyIndex : bulkRequest.getKeyIndices()) {
+          allResponses[finalKeyIndex] = responseIterator.next();
         }
       } else {
         throw new RuntimeException("Unknown bulk response type.");
@@ -719,6 +942,16 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     }
   }
 
+  private static class HedgedRequestThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread result = new Thread(runnable, "HedgedRequestThread");
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
   private class UpdateRuntimeStatisticsRunnable extends UpdateStatisticsRunnable implements Runnable {
 
     private final Map<PartitionServerAddress, ConnectionLoad> partitionServerToConnectionLoad;
@@ -730,10 +963,18 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
     @Override
     public void runCore() throws IOException {
+      LOG.info("GET task executor: " + getTaskExecutor.getActiveCount() + "/" + getTaskExecutor.getMaximumPoolSize()
+          + " active threads, " + getNumPendingGetTasks() + " pending tasks, "
+          + getNumRejectedGetTasks() + " rejected tasks");
+      if (resultCache != null) {
+        LOG.info("Result cache: " + resultCache.size() + " entries, " + resultCache.getNumBytes() + " bytes, "
+            + UiUtils.formatDouble(resultCache.getHitRate()) + "% hit rate ("
+            + resultCache.getNumHits() + " hits, " + resultCache.getNumMisses() + " misses)");
+      }
       partitionServerToConnectionLoad.clear();
       for (int i = 0; i < UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS; ++i) {
         for (Map.Entry<PartitionServerAddress, HostConnectionPool> entry
-            : partitionServerAddressToConnectionPool.entrySet()) {
+            : routingTable.getPartitionServerAddressToConnectionPool().entrySet()) {
           ConnectionLoad currentConnectionLoad = entry.getValue().getConnectionLoad();
           ConnectionLoad totalConnectionLoad = partitionServerToConnectionLoad.get(entry.getKey());
           if (totalConnectionLoad == null) {
@@ -753,11 +994,16 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         ConnectionLoad totalConnectionLoad = entry.getValue();
         ConnectionLoad connectionLoad = new ConnectionLoad(
             (int) ((double) totalConnectionLoad.getNumConnections() / (double) UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS),
-            (int) ((double) totalConnectionLoad.getNumConnectionsLocked() / (double) UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS));
+            (int) ((double) totalConnectionLoad.getNumConnectionsLocked() / (double) UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS),
+            (int) ((double) totalConnectionLoad.getNumInFlightRequests() / (double) UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS),
+            totalConnectionLoad.getLatencyEwmaNanosSum(),
+            totalConnectionLoad.getNumLatencyEwmas());
         // Only display if load is non zero
-        if (connectionLoad.getLoad() > 0) {
+        if (connectionLoad.getLoad() > 0 || connectionLoad.getNumInFlightRequests() > 0) {
           LOG.info("Load on connections to " + entry.getKey() + ": " + UiUtils.formatDouble(connectionLoad.getLoad())
-              + "% (" + connectionLoad.getNumConnectionsLocked() + "/" + connectionLoad.getNumConnections() + " locked connections)");
+              + "% (" + connectionLoad.getNumConnectionsLocked() + "/" + connectionLoad.getNumConnections() + " locked connections, "
+              + connectionLoad.getNumInFlightRequests() + " requests in flight, "
+              + UiUtils.formatDouble(connectionLoad.getLatencyMs()) + "ms average latency)");
         }
       }
     }
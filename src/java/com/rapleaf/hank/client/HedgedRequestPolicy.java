@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client;
+
+import java.util.concurrent.Executor;
+
+/**
+ * When a GET has not completed after a given delay, HostConnectionPool sends a duplicate request to
+ * another host and returns whichever response comes first. The delay is either a percentile of the
+ * latencies of recent requests, or a fixed delay (also used until enough latencies are known).
+ * Both requests are executed by the given executor, which should reject tasks instead of queuing them.
+ * Once the duplicate request is sent, responses are awaited for at most the query timeout.
+ */
+class HedgedRequestPolicy {
+
+  private final int delayMs;
+  private final int latencyPercentile;
+  private final Executor executor;
+  private final int queryTimeoutMs;
+
+  // Non-positive values disable the corresponding delay, or the bound on the wait for responses
+  HedgedRequestPolicy(int delayMs, int latencyPercentile, Executor executor, int queryTimeoutMs) {
+    if (latencyPercentile > 100) {
+      throw new IllegalArgumentException("Invalid latency percentile: " + latencyPercentile);
+    }
+    this.delayMs = delayMs;
+    this.latencyPercentile = latencyPercentile;
+    this.executor = executor;
+    this.queryTimeoutMs = queryTimeoutMs;
+  }
+
+  public static boolean isEnabled(int delayMs, int latencyPercentile) {
+    return delayMs > 0 || latencyPercentile > 0;
+  }
+
+  public int getDelayMs() {
+    return delayMs;
+  }
+
+  public int getLatencyPercentile() {
+    return latencyPercentile;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  public int getQueryTimeoutMs() {
+    return queryTimeoutMs;
+  }
+}
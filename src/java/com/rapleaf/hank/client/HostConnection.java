@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class HostConnection implements WatchedNodeListener<HostState> {
@@ -42,9 +43,9 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   private static final Logger LOG = Logger.getLogger(HostConnection.class);
 
   private final int tryLockTimeoutMs;
-  private final int establishConnectionTimeoutMs;
-  private final int queryTimeoutMs;
-  private final int bulkQueryTimeoutMs;
+  protected final int establishConnectionTimeoutMs;
+  protected final int queryTimeoutMs;
+  protected final int bulkQueryTimeoutMs;
   private TSocket socket;
   private TTransport transport;
   private PartitionServer.Client client;
@@ -52,6 +53,14 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   protected final ReentrantLock lock = new ReentrantLock(true); // Use a fair ReentrantLock
   private HostConnectionState state = HostConnectionState.DISCONNECTED;
 
+  // Weight of the latest sample in the latency moving average
+  private static final double LATENCY_EWMA_WEIGHT = 0.2;
+
+  // Request statistics, used by connection pools for latency-aware host selection. Concurrent updates
+  // of the latency moving average might be lost, which is fine since it is only an estimate.
+  private final AtomicInteger numInFlightRequests = new AtomicInteger(0);
+  private volatile double latencyEwmaNanos = 0;
+
   private static enum HostConnectionState {
     CONNECTED,
     DISCONNECTED,
@@ -82,7 +91,7 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     return state != HostConnectionState.STANDBY;
   }
 
-  private boolean isDisconnected() {
+  boolean isDisconnected() {
     return state == HostConnectionState.DISCONNECTED;
   }
 
@@ -192,19 +201,29 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public void disconnect() {
-    if (transport != null) {
-      transport.close();
-    }
-    socket = null;
-    transport = null;
-    client = null;
+    closeTransport();
     state = HostConnectionState.DISCONNECTED;
   }
 
-  private void connect() throws IOException {
+  void connect() throws IOException {
     if (LOG.isTraceEnabled()) {
       LOG.trace("Trying to connect to " + host.getAddress());
     }
+    try {
+      openTransport();
+    } catch (IOException e) {
+      LOG.error("Failed to establish connection to host " + host.getAddress(), e);
+      disconnect();
+      throw e;
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Connection to " + host.getAddress() + " opened.");
+    }
+    state = HostConnectionState.CONNECTED;
+  }
+
+  // Open the underlying transport. Called with the connection locked.
+  protected void openTransport() throws IOException {
     // Use connection timeout to connect
     socket = new TSocket(host.getAddress().getHostName(),
         host.getAddress().getPortNumber(),
@@ -215,16 +234,20 @@ public class HostConnection implements WatchedNodeListener<HostState> {
       // Set socket timeout to regular mode
       setSocketTimeout(queryTimeoutMs);
     } catch (TTransportException e) {
-      LOG.error("Failed to establish connection to host " + host.getAddress(), e);
-      disconnect();
       throw new IOException("Failed to establish connection to host " + host.getAddress(), e);
     }
     TProtocol proto = new TCompactProtocol(transport);
     client = new PartitionServer.Client(proto);
-    if (LOG.isTraceEnabled()) {
-      LOG.trace("Connection to " + host.getAddress() + " opened.");
+  }
+
+  // Close the underlying transport. Called with the connection locked.
+  protected void closeTransport() {
+    if (transport != null) {
+      transport.close();
     }
-    state = HostConnectionState.CONNECTED;
+    socket = null;
+    transport = null;
+    client = null;
   }
 
   private void setSocketTimeout(int timeout) {
@@ -263,4 +286,27 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   public boolean isLocked() {
     return lock.isLocked();
   }
+
+  void onRequestStarted() {
+    numInFlightRequests.incrementAndGet();
+  }
+
+  void onRequestCompleted(long latencyNanos) {
+    numInFlightRequests.decrementAndGet();
+    double previousLatencyEwmaNanos = latencyEwmaNanos;
+    if (previousLatencyEwmaNanos == 0) {
+      latencyEwmaNanos = latencyNanos;
+    } else {
+      latencyEwmaNanos = previousLatencyEwmaNanos + LATENCY_EWMA_WEIGHT * (latencyNanos - previousLatencyEwmaNanos);
+    }
+  }
+
+  int getNumInFlightRequests() {
+    return numInFlightRequests.get();
+  }
+
+  // Exponentially weighted moving average of request latencies, or 0 if no request completed yet
+  double getLatencyEwmaNanos() {
+    return latencyEwmaNanos;
+  }
 }
@@ -26,6 +26,13 @@ import org.apache.log4j.Logger;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * HostConnectionPool manages a collection of connections to Hosts. For a given
@@ -59,6 +66,17 @@ import java.util.*;
  * case of failure, HostConnectionPool will re-attempt a given number of times,
  * each time determining a new connection to use as described earlier. (And
  * using a local Host iterator.)
+ * <p/>
+ * When a key hash is given, the first Host to try is the one the key maps to
+ * with rendezvous hashing (see RendezvousHashing), so that a given key is
+ * consistently served by the same Host, and that adding or removing a Host
+ * only moves the keys it gains or loses.
+ * <p/>
+ * With latency-aware host selection, the first Host to try is instead chosen
+ * by comparing two Hosts (the Host of the key, if any, and a random one) and
+ * picking the one with the lowest moving average latency weighted by the
+ * number of requests in flight to it. With hedged requests, a GET that is
+ * slow to complete is duplicated to another Host (see HedgedRequestPolicy).
  */
 public class HostConnectionPool {
 
@@ -68,8 +86,15 @@ public class HostConnectionPool {
       = new ArrayList<List<HostConnectionAndHostIndex>>();
 
   private int globalPreviouslyUsedHostIndex;
+  // Rendezvous hashing host hashes, indexed like hostToConnections
+  private final long[] hostHashes;
   private final Random random = new Random();
 
+  private final boolean latencyAwareHostSelection;
+  private final HedgedRequestPolicy hedgedRequestPolicy;
+  private final RecentLatencies recentLatencies;
+  private final AtomicLong numHedgedRequests = new AtomicLong();
+
   private static final HankResponse NO_CONNECTION_AVAILABLE_RESPONSE
       = HankResponse.xception(HankException.no_connection_available(true));
   private static final HankBulkResponse NO_CONNECTION_AVAILABLE_BULK_RESPONSE
@@ -93,6 +118,14 @@ public class HostConnectionPool {
   }
 
   HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap, Integer hostShuffleSeed) {
+    this(hostToConnectionsMap, hostShuffleSeed, false, null);
+  }
+
+  // Hedged request policy is optional
+  HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap,
+                     Integer hostShuffleSeed,
+                     boolean latencyAwareHostSelection,
+                     HedgedRequestPolicy hedgedRequestPolicy) {
     if (hostToConnectionsMap.size() == 0) {
       throw new RuntimeException("HostConnectionPool must be initialized with a non empty collection of connections.");
     }
@@ -109,8 +142,10 @@ public class HostConnectionPool {
       Collections.shuffle(shuffledHosts);
     }
 
+    hostHashes = new long[shuffledHosts.size()];
     int hostIndex = 0;
     for (Host host : shuffledHosts) {
+      hostHashes[hostIndex] = RendezvousHashing.getHostHash(host.getAddress());
       List<HostConnectionAndHostIndex> connections = new ArrayList<HostConnectionAndHostIndex>();
       for (HostConnection hostConnection : hostToConnectionsMap.get(host)) {
         connections.add(new HostConnectionAndHostIndex(hostConnection, hostIndex));
@@ -124,9 +159,24 @@ public class HostConnectionPool {
     // Previously used host is randomized so that different connection pools start querying
     // different hosts.
     globalPreviouslyUsedHostIndex = random.nextInt(hostToConnections.size());
+
+    this.latencyAwareHostSelection = latencyAwareHostSelection;
+    this.hedgedRequestPolicy = hedgedRequestPolicy;
+    if (hedgedRequestPolicy != null && hedgedRequestPolicy.getLatencyPercentile() > 0) {
+      this.recentLatencies = new RecentLatencies(hedgedRequestPolicy.getLatencyPercentile());
+    } else {
+      this.recentLatencies = null;
+    }
   }
 
   static HostConnectionPool createFromList(Collection<HostConnection> connections, Integer hostShuffleSeed) {
+    return createFromList(connections, hostShuffleSeed, false, null);
+  }
+
+  static HostConnectionPool createFromList(Collection<HostConnection> connections,
+                                           Integer hostShuffleSeed,
+                                           boolean latencyAwareHostSelection,
+                                           HedgedRequestPolicy hedgedRequestPolicy) {
     Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
     for (HostConnection connection : connections) {
       List<HostConnection> connectionList = hostToConnectionsMap.get(connection.getHost());
@@ -136,7 +186,8 @@ public class HostConnectionPool {
       }
       connectionList.add(connection);
     }
-    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed);
+    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed, latencyAwareHostSelection,
+        hedgedRequestPolicy);
   }
 
   Collection<HostConnection> getConnections() {
@@ -162,6 +213,9 @@ public class HostConnectionPool {
 
   // Return a connection to a host, initially skipping the previously used host
   private synchronized HostConnectionAndHostIndex getConnectionToUse() {
+    if (latencyAwareHostSelection) {
+      return getNextConnectionToUse(getPreviousHostIndex(getLatencyAwareHostIndexToUse(null)));
+    }
     HostConnectionAndHostIndex result = getNextConnectionToUse(globalPreviouslyUsedHostIndex);
     if (result != null) {
       globalPreviouslyUsedHostIndex = result.hostIndex;
@@ -172,7 +226,46 @@ public class HostConnectionPool {
   // Attempt to find a connection for that key where it is likely to be in the cache if it was queried
   // recently. (Globally random, but deterministic on the key.)
   private HostConnectionAndHostIndex getConnectionToUseForKey(int keyHash) {
-    return getNextConnectionToUse(keyHash % hostToConnections.size());
+    if (latencyAwareHostSelection) {
+      return getNextConnectionToUse(getPreviousHostIndex(getLatencyAwareHostIndexToUse(keyHash)));
+    }
+    return getNextConnectionToUse(getPreviousHostIndex(RendezvousHashing.getHostIndex(keyHash, hostHashes)));
+  }
+
+  // Power of two choices: compare two distinct hosts and return the one with the lowest cost. When a key hash
+  // is given, the first host is the one the key maps to, so that it is only abandoned for a faster host.
+  private int getLatencyAwareHostIndexToUse(Integer keyHash) {
+    int numHosts = hostToConnections.size();
+    if (numHosts == 1) {
+      return 0;
+    }
+    int firstHostIndex = keyHash == null ? random.nextInt(numHosts) : RendezvousHashing.getHostIndex(keyHash, hostHashes);
+    int secondHostIndex = (firstHostIndex + 1 + random.nextInt(numHosts - 1)) % numHosts;
+    if (getHostCost(secondHostIndex) < getHostCost(firstHostIndex)) {
+      return secondHostIndex;
+    } else {
+      return firstHostIndex;
+    }
+  }
+
+  // Average latency of connections to the host, weighted by the number of requests in flight to it.
+  // Hosts that have not been measured yet have no cost, so that they get measured.
+  private double getHostCost(int hostIndex) {
+    int numInFlightRequests = 0;
+    double latencyEwmaNanosSum = 0;
+    int numLatencyEwmas = 0;
+    for (HostConnectionAndHostIndex connectionAndHostIndex : hostToConnections.get(hostIndex)) {
+      numInFlightRequests += connectionAndHostIndex.hostConnection.getNumInFlightRequests();
+      double latencyEwmaNanos = connectionAndHostIndex.hostConnection.getLatencyEwmaNanos();
+      if (latencyEwmaNanos > 0) {
+        latencyEwmaNanosSum += latencyEwmaNanos;
+        ++numLatencyEwmas;
+      }
+    }
+    if (numLatencyEwmas == 0) {
+      return 0;
+    }
+    return (latencyEwmaNanosSum / numLatencyEwmas) * (numInFlightRequests + 1);
   }
 
   // Return a connection to an arbitrary host, initially skipping the supplied host (likely because there was
@@ -227,18 +320,131 @@ public class HostConnectionPool {
     }
   }
 
+  private int getPreviousHostIndex(int hostIndex) {
+    if (hostIndex == 0) {
+      return hostToConnections.size() - 1;
+    } else {
+      return hostIndex - 1;
+    }
+  }
+
   public HankResponse get(int domainId, ByteBuffer key, int maxNumTries, Integer keyHash) {
+    if (hedgedRequestPolicy != null && hostToConnections.size() > 1) {
+      long hedgeDelayNanos = getHedgeDelayNanos();
+      if (hedgeDelayNanos > 0) {
+        return getHedged(domainId, key, maxNumTries, keyHash, hedgeDelayNanos);
+      }
+    }
+    return get(domainId, key, maxNumTries, keyHash, null, null);
+  }
+
+  private long getHedgeDelayNanos() {
+    if (recentLatencies != null) {
+      long latencyPercentileNanos = recentLatencies.getPercentileNanos();
+      if (latencyPercentileNanos > 0) {
+        return latencyPercentileNanos;
+      }
+    }
+    return hedgedRequestPolicy.getDelayMs() * 1000000L;
+  }
+
+  // Execute the GET with the hedged request executor. If it has not completed after the given delay, send the
+  // same GET to another host, and return the first successful response.
+  private HankResponse getHedged(final int domainId,
+                                 final ByteBuffer key,
+                                 final int maxNumTries,
+                                 final Integer keyHash,
+                                 long hedgeDelayNanos) {
+    final BlockingQueue<HankResponse> responses = new ArrayBlockingQueue<HankResponse>(2);
+    final AtomicInteger primaryHostIndex = new AtomicInteger(-1);
+    try {
+      hedgedRequestPolicy.getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            responses.add(get(domainId, key, maxNumTries, keyHash, null, primaryHostIndex));
+          } catch (Throwable t) {
+            LOG.error("Failed to execute GET", t);
+            responses.add(HankResponse.xception(HankException.internal_error("Failed to execute GET: " + t)));
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Executor is full, do not hedge
+      return get(domainId, key, maxNumTries, keyHash, null, null);
+    }
+    try {
+      HankResponse response = responses.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+      if (response != null) {
+        return response;
+      }
+      int numPendingRequests = 1;
+      // The hedged request is a single try on the next host
+      final Integer skippedHostIndex = primaryHostIndex.get() < 0 ? null : primaryHostIndex.get();
+      try {
+        hedgedRequestPolicy.getExecutor().execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              responses.add(get(domainId, key, 1, null, skippedHostIndex, null));
+            } catch (Throwable t) {
+              LOG.error("Failed to execute hedged GET", t);
+              responses.add(HankResponse.xception(HankException.internal_error("Failed to execute hedged GET: " + t)));
+            }
+          }
+        });
+        ++numPendingRequests;
+        numHedgedRequests.incrementAndGet();
+      } catch (RejectedExecutionException e) {
+        // Executor is full, only wait for the first request
+      }
+      // Return the first successful response, or the last error. The wait is bounded by the query timeout,
+      // which is how long the hedged request itself can take.
+      int queryTimeoutMs = hedgedRequestPolicy.getQueryTimeoutMs();
+      long deadlineNanos = System.nanoTime() + queryTimeoutMs * 1000000L;
+      while (true) {
+        if (queryTimeoutMs > 0) {
+          response = responses.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (response == null) {
+            return HankResponse.xception(HankException.internal_error("Timed out waiting for GET response after "
+                + queryTimeoutMs + "ms"));
+          }
+        } else {
+          response = responses.take();
+        }
+        if (!response.is_set_xception() || --numPendingRequests == 0) {
+          return response;
+        }
+      }
+    } catch (InterruptedException e) {
+      return HankResponse.xception(HankException.internal_error("Interrupted while waiting for GET response"));
+    }
+  }
+
+  // When given, the first host tried is the one after the skipped host, and the index of the first host
+  // used is reported.
+  private HankResponse get(int domainId,
+                           ByteBuffer key,
+                           int maxNumTries,
+                           Integer keyHash,
+                           Integer skippedHostIndex,
+                           AtomicInteger usedHostIndex) {
     HostConnectionAndHostIndex connectionAndHostIndex = null;
     int numTries = 0;
     while (true) {
       // Either get a connection to an arbitrary host, or get a connection skipping the
       // previous host used (since it failed)
       if (connectionAndHostIndex == null) {
-        if (keyHash == null) {
+        if (skippedHostIndex != null) {
+          connectionAndHostIndex = getNextConnectionToUse(skippedHostIndex);
+        } else if (keyHash == null) {
           connectionAndHostIndex = getConnectionToUse();
         } else {
           connectionAndHostIndex = getConnectionToUseForKey(keyHash);
         }
+        if (connectionAndHostIndex != null && usedHostIndex != null) {
+          usedHostIndex.set(connectionAndHostIndex.hostIndex);
+        }
       } else {
         connectionAndHostIndex = getNextConnectionToUse(connectionAndHostIndex.hostIndex);
       }
@@ -248,9 +454,19 @@ public class HostConnectionPool {
         return NO_CONNECTION_AVAILABLE_RESPONSE;
       } else {
         // Perform query
+        HostConnection hostConnection = connectionAndHostIndex.hostConnection;
+        long startNanoTime = System.nanoTime();
+        hostConnection.onRequestStarted();
         try {
-          return connectionAndHostIndex.hostConnection.get(domainId, key);
+          HankResponse response = hostConnection.get(domainId, key);
+          long latencyNanos = System.nanoTime() - startNanoTime;
+          hostConnection.onRequestCompleted(latencyNanos);
+          if (recentLatencies != null) {
+            recentLatencies.record(latencyNanos);
+          }
+          return response;
         } catch (IOException e) {
+          hostConnection.onRequestCompleted(System.nanoTime() - startNanoTime);
           // In case of error, keep count of the number of times we retry
           ++numTries;
           if (numTries < maxNumTries) {
@@ -287,9 +503,15 @@ public class HostConnectionPool {
         return NO_CONNECTION_AVAILABLE_BULK_RESPONSE;
       } else {
         // Perform query
+        HostConnection hostConnection = connectionAndHostIndex.hostConnection;
+        long startNanoTime = System.nanoTime();
+        hostConnection.onRequestStarted();
         try {
-          return connectionAndHostIndex.hostConnection.getBulk(domainId, keys);
+          HankBulkResponse response = hostConnection.getBulk(domainId, keys);
+          hostConnection.onRequestCompleted(System.nanoTime() - startNanoTime);
+          return response;
         } catch (IOException e) {
+          hostConnection.onRequestCompleted(System.nanoTime() - startNanoTime);
           // In case of error, keep count of the number of times we retry
           ++numTries;
           if (numTries < maxNumTries) {
@@ -313,18 +535,71 @@ public class HostConnectionPool {
     return (domainId + 1) * (partitionId + 1);
   }
 
-  // Compute the ratio of used (locked) connections over the total number of connections
+  // Number of hedged requests sent since this pool was created
+  public long getNumHedgedRequests() {
+    return numHedgedRequests.get();
+  }
+
+  // Compute the ratio of used (locked) connections over the total number of connections, along with
+  // requests in flight and latencies
   public ConnectionLoad getConnectionLoad() {
     int numLockedConnections = 0;
     int numConnections = 0;
+    int numInFlightRequests = 0;
+    double latencyEwmaNanosSum = 0;
+    int numLatencyEwmas = 0;
     for (List<HostConnectionAndHostIndex> hostConnectionAndHostIndexes : hostToConnections) {
       for (HostConnectionAndHostIndex hostConnectionAndHostIndex : hostConnectionAndHostIndexes) {
         if (hostConnectionAndHostIndex.hostConnection.isLocked()) {
           numLockedConnections += 1;
         }
         numConnections += 1;
+        numInFlightRequests += hostConnectionAndHostIndex.hostConnection.getNumInFlightRequests();
+        double latencyEwmaNanos = hostConnectionAndHostIndex.hostConnection.getLatencyEwmaNanos();
+        if (latencyEwmaNanos > 0) {
+          latencyEwmaNanosSum += latencyEwmaNanos;
+          numLatencyEwmas += 1;
+        }
+      }
+    }
+    return new ConnectionLoad(numConnections, numLockedConnections, numInFlightRequests,
+        latencyEwmaNanosSum, numLatencyEwmas);
+  }
+
+  // Latencies of the most recent GET requests, and a percentile of them that is periodically recomputed
+  private static class RecentLatencies {
+
+    private static final int NUM_LATENCIES = 256;
+    private static final int UPDATE_PERIOD = 64;
+
+    private final int percentile;
+    private final AtomicLongArray latencies = new AtomicLongArray(NUM_LATENCIES);
+    private final AtomicLong numRecordedLatencies = new AtomicLong();
+    private volatile long percentileNanos = 0;
+
+    private RecentLatencies(int percentile) {
+      this.percentile = percentile;
+    }
+
+    public void record(long latencyNanos) {
+      long latencyIndex = numRecordedLatencies.getAndIncrement();
+      latencies.set((int) (latencyIndex % NUM_LATENCIES), latencyNanos);
+      // Recompute percentile every once in a while
+      if ((latencyIndex + 1) % UPDATE_PERIOD == 0) {
+        int numLatencies = (int) Math.min(latencyIndex + 1, NUM_LATENCIES);
+        long[] sortedLatencies = new long[numLatencies];
+        for (int i = 0; i < numLatencies; ++i) {
+          sortedLatencies[i] = latencies.get(i);
+        }
+        Arrays.sort(sortedLatencies);
+        int percentileIndex = (int) Math.ceil(percentile / 100.0 * numLatencies) - 1;
+        percentileNanos = sortedLatencies[Math.max(0, Math.min(numLatencies - 1, percentileIndex))];
       }
     }
-    return new ConnectionLoad(numConnections, numLockedConnections);
+
+    // Return 0 if not enough latencies were recorded yet
+    public long getPercentileNanos() {
+      return percentileNanos;
+    }
   }
 }
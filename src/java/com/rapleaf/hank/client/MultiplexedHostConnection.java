@@ -0,0 +1,316 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.coordinator.Host;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+import com.rapleaf.hank.generated.HankBulkResponse;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartitionServer;
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HostConnection that multiplexes concurrent requests over a single socket instead of locking the
+ * connection for the duration of each request. Requests are tagged with a Thrift sequence id and a
+ * reader thread matches responses, which may arrive out of order, to pending requests. Responses
+ * are answered out of order by MultiplexedThriftServer, and in order by other framed Thrift servers.
+ */
+public class MultiplexedHostConnection extends HostConnection {
+
+  private static final Logger LOG = Logger.getLogger(MultiplexedHostConnection.class);
+
+  // Note: no field initializers, since the parent constructor may already open the channel
+  private volatile Channel channel;
+
+  public MultiplexedHostConnection(Host host,
+                                   int tryLockTimeoutMs,
+                                   int establishConnectionTimeoutMs,
+                                   int queryTimeoutMs,
+                                   int bulkQueryTimeoutMs) throws TException, IOException {
+    super(host, tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs);
+  }
+
+  @Override
+  public HankResponse get(int domainId, ByteBuffer key) throws IOException {
+    PartitionServer.get_result result = new PartitionServer.get_result();
+    call("get", new PartitionServer.get_args(domainId, key), result, queryTimeoutMs);
+    if (!result.is_set_success()) {
+      throw new IOException("Server failed to execute GET: unknown result");
+    }
+    if (result.get_success().is_set_xception()) {
+      throw new IOException("Server failed to execute GET: " + result.get_success().get_xception());
+    }
+    return result.get_success();
+  }
+
+  @Override
+  public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws IOException {
+    PartitionServer.getBulk_result result = new PartitionServer.getBulk_result();
+    call("getBulk", new PartitionServer.getBulk_args(domainId, keys), result, bulkQueryTimeoutMs);
+    if (!result.is_set_success()) {
+      throw new IOException("Server failed to execute GET BULK: unknown result");
+    }
+    if (result.get_success().is_set_xception()) {
+      throw new IOException("Server failed to execute GET BULK: " + result.get_success().get_xception());
+    }
+    return result.get_success();
+  }
+
+  private void call(String methodName, TBase<?, ?> args, TBase<?, ?> result, int timeoutMs) throws IOException {
+    Channel currentChannel = getChannel();
+    try {
+      currentChannel.call(methodName, args, result, timeoutMs);
+    } catch (IOException e) {
+      // Reconnect on next request if the channel is no longer usable
+      if (!currentChannel.isOpen()) {
+        lock.lock();
+        try {
+          if (channel == currentChannel) {
+            disconnect();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+      throw e;
+    }
+  }
+
+  private Channel getChannel() throws IOException {
+    Channel result = channel;
+    if (result != null && result.isOpen()) {
+      return result;
+    }
+    // The lock is only held while connecting
+    lock.lock();
+    try {
+      // Reconnect if the channel was closed, for example by the server
+      if (channel != null && !channel.isOpen()) {
+        disconnect();
+      }
+      if (isDisconnected()) {
+        connect();
+      }
+      if (!isAvailable()) {
+        throw new IOException("Connection to host is not available (host is not serving).");
+      }
+      return channel;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  protected void openTransport() throws IOException {
+    channel = new Channel(getHost().getAddress(), establishConnectionTimeoutMs);
+  }
+
+  @Override
+  protected void closeTransport() {
+    if (channel != null) {
+      channel.close(new IOException("Connection to host was closed."));
+    }
+    channel = null;
+  }
+
+  // A multiplexed connection is never locked for the duration of a request. It is reported as
+  // used when it has requests in flight, so that connection pools spread load across connections.
+  @Override
+  boolean tryLockRespectingFairness() {
+    return !isLocked();
+  }
+
+  @Override
+  public boolean isLocked() {
+    Channel currentChannel = channel;
+    return currentChannel != null && currentChannel.getNumPendingCalls() > 0;
+  }
+
+  private static class Channel implements Runnable {
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final AtomicInteger nextSeqId = new AtomicInteger();
+    private final ConcurrentMap<Integer, PendingCall> pendingCalls = new ConcurrentHashMap<Integer, PendingCall>();
+    private volatile IOException closedCause = null;
+
+    public Channel(PartitionServerAddress address, int establishConnectionTimeoutMs) throws IOException {
+      socket = new Socket();
+      try {
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(address.getHostName(), address.getPortNumber()),
+            establishConnectionTimeoutMs);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      } catch (IOException e) {
+        socket.close();
+        throw new IOException("Failed to establish connection to host " + address, e);
+      }
+      Thread readerThread = new Thread(this, "Multiplexed connection reader " + address);
+      readerThread.setDaemon(true);
+      readerThread.start();
+    }
+
+    public boolean isOpen() {
+      return closedCause == null;
+    }
+
+    public int getNumPendingCalls() {
+      return pendingCalls.size();
+    }
+
+    public void call(String methodName, TBase<?, ?> args, TBase<?, ?> result, int timeoutMs) throws IOException {
+      int seqId = nextSeqId.incrementAndGet();
+      PendingCall pendingCall = new PendingCall();
+      pendingCalls.put(seqId, pendingCall);
+      try {
+        // Serialize request
+        TMemoryBuffer requestBuffer = new TMemoryBuffer(64);
+        TProtocol requestProtocol = new TCompactProtocol(requestBuffer);
+        requestProtocol.writeMessageBegin(new TMessage(methodName, TMessageType.CALL, seqId));
+        args.write(requestProtocol);
+        requestProtocol.writeMessageEnd();
+        // Send request
+        try {
+          synchronized (output) {
+            if (closedCause != null) {
+              throw new IOException("Connection to host was closed.", closedCause);
+            }
+            output.writeInt(requestBuffer.length());
+            output.write(requestBuffer.getArray(), 0, requestBuffer.length());
+            output.flush();
+          }
+        } catch (IOException e) {
+          close(e);
+          throw e;
+        }
+        // Wait for response and deserialize it
+        TProtocol responseProtocol = new TCompactProtocol(new TMemoryInputTransport(pendingCall.await(timeoutMs)));
+        TMessage message = responseProtocol.readMessageBegin();
+        if (message.type == TMessageType.EXCEPTION) {
+          throw TApplicationException.read(responseProtocol);
+        }
+        result.read(responseProtocol);
+        responseProtocol.readMessageEnd();
+      } catch (TException e) {
+        throw new IOException("Failed to execute " + methodName, e);
+      } finally {
+        pendingCalls.remove(seqId);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          int frameNumBytes = input.readInt();
+          if (frameNumBytes < 0) {
+            throw new IOException("Invalid frame size: " + frameNumBytes);
+          }
+          byte[] frame = new byte[frameNumBytes];
+          input.readFully(frame);
+          int seqId;
+          try {
+            seqId = new TCompactProtocol(new TMemoryInputTransport(frame)).readMessageBegin().seqid;
+          } catch (TException e) {
+            throw new IOException("Failed to read response header", e);
+          }
+          PendingCall pendingCall = pendingCalls.remove(seqId);
+          // If the call is not pending anymore, it timed out and the response is dropped
+          if (pendingCall != null) {
+            pendingCall.complete(frame);
+          }
+        }
+      } catch (IOException e) {
+        if (isOpen()) {
+          LOG.error("Error while reading responses. Closing connection.", e);
+        }
+        close(e);
+      }
+    }
+
+    public void close(IOException cause) {
+      synchronized (output) {
+        if (closedCause == null) {
+          closedCause = cause;
+        }
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.error("Failed to close socket", e);
+      }
+      for (PendingCall pendingCall : pendingCalls.values()) {
+        pendingCall.fail(closedCause);
+      }
+    }
+  }
+
+  private static class PendingCall {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile byte[] response;
+    private volatile IOException failure;
+
+    public void complete(byte[] response) {
+      this.response = response;
+      latch.countDown();
+    }
+
+    public void fail(IOException failure) {
+      this.failure = failure;
+      latch.countDown();
+    }
+
+    // A timeout of 0 means no timeout
+    public byte[] await(int timeoutMs) throws IOException {
+      try {
+        if (timeoutMs == 0) {
+          latch.await();
+        } else if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Exceeded timeout of " + timeoutMs + "ms while waiting for response.");
+        }
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while waiting for response.", e);
+      }
+      if (response == null) {
+        throw new IOException("Connection to host was closed while waiting for response.", failure);
+      }
+      return response;
+    }
+  }
+}
@@ -16,5 +16,5 @@
 
 package com.rapleaf.hank.client;
 
-class NullKeyException extends RuntimeException {
+public class NullKeyException extends RuntimeException {
 }
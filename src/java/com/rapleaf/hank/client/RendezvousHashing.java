@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+
+import java.util.List;
+
+/**
+ * Rendezvous (highest random weight) hashing. Each key is mapped to the host with the highest
+ * weight for that key, where the weight is a hash of both the key and the host. Unlike a key hash
+ * modulo the number of hosts, adding or removing one host out of N only remaps the keys that it
+ * gains or loses (about 1/N of the keys), so that the caches of the other hosts stay warm.
+ * <p/>
+ * Host hashes are based on partition server addresses, so that all clients agree on the host of
+ * a given key regardless of the order in which they list hosts.
+ */
+public final class RendezvousHashing {
+
+  private RendezvousHashing() {
+  }
+
+  public static long getHostHash(PartitionServerAddress address) {
+    return mix(address.hashCode());
+  }
+
+  // Return the host hashes of the given addresses, in the same order. Callers compute them once
+  // and pass them to getHostIndex.
+  public static long[] getHostHashes(List<PartitionServerAddress> addresses) {
+    long[] result = new long[addresses.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = getHostHash(addresses.get(i));
+    }
+    return result;
+  }
+
+  public static long getWeight(int keyHash, long hostHash) {
+    return mix(hostHash ^ (keyHash * 0x9E3779B97F4A7C15L));
+  }
+
+  // Return the index of the host with the highest weight for the given key hash
+  public static int getHostIndex(int keyHash, long[] hostHashes) {
+    int result = 0;
+    long maxWeight = Long.MIN_VALUE;
+    for (int i = 0; i < hostHashes.length; ++i) {
+      long weight = getWeight(keyHash, hostHashes[i]);
+      if (weight > maxWeight) {
+        maxWeight = weight;
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  // 64 bit finalizer of MurmurHash3
+  private static long mix(long value) {
+    value ^= (value >>> 33);
+    value *= 0xff51afd7ed558ccdL;
+    value ^= (value >>> 33);
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= (value >>> 33);
+    return value;
+  }
+}
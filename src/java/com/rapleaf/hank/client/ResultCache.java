@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.generated.HankResponse;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of GET responses, keyed by domain id, domain version and key. Since the data of a given domain
+ * version never changes, entries never become stale: they simply stop being looked up once the domain
+ * version being served changes. Only found values and not found responses are cached. Each lookup
+ * returns a new response object, since responses are not thread safe.
+ * <p/>
+ * The cache is bounded by an estimate of the number of bytes used by its entries. It is split into
+ * segments that each evict their least recently used entries, so that concurrent lookups rarely
+ * contend on the same lock.
+ */
+class ResultCache {
+
+  private static final int NUM_SEGMENTS = 16;
+  // Rough estimate of the memory used by an entry in addition to its key and value bytes
+  private static final int ENTRY_OVERHEAD_NUM_BYTES = 128;
+
+  private final Segment[] segments;
+  private final AtomicLong numHits = new AtomicLong();
+  private final AtomicLong numMisses = new AtomicLong();
+
+  ResultCache(long maxNumBytes) {
+    if (maxNumBytes <= 0) {
+      throw new IllegalArgumentException("Result cache size must be positive: " + maxNumBytes);
+    }
+    segments = new Segment[NUM_SEGMENTS];
+    for (int i = 0; i < NUM_SEGMENTS; ++i) {
+      segments[i] = new Segment(Math.max(1, maxNumBytes / NUM_SEGMENTS));
+    }
+  }
+
+  // Return null if the response is not cached
+  public HankResponse get(int domainId, int domainVersion, ByteBuffer key) {
+    Key cacheKey = new Key(domainId, domainVersion, key);
+    HankResponse cachedResponse = getSegment(cacheKey).get(cacheKey);
+    if (cachedResponse == null) {
+      numMisses.incrementAndGet();
+      return null;
+    }
+    numHits.incrementAndGet();
+    if (cachedResponse.is_set_value()) {
+      return HankResponse.value(cachedResponse.buffer_for_value().duplicate());
+    } else {
+      return HankResponse.not_found(true);
+    }
+  }
+
+  // Responses that are neither values nor not found are ignored
+  public void put(int domainId, int domainVersion, ByteBuffer key, HankResponse response) {
+    if (!isCacheable(response)) {
+      return;
+    }
+    // Copy the key since the caller owns its buffer
+    Key cacheKey = new Key(domainId, domainVersion, copy(key));
+    HankResponse cachedResponse;
+    if (response.is_set_value()) {
+      cachedResponse = HankResponse.value(copy(response.buffer_for_value()));
+    } else {
+      cachedResponse = HankResponse.not_found(true);
+    }
+    getSegment(cacheKey).put(cacheKey, cachedResponse);
+  }
+
+  // Remove all entries of the given domain
+  public void removeDomain(int domainId) {
+    for (Segment segment : segments) {
+      segment.removeDomain(domainId);
+    }
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public int size() {
+    int result = 0;
+    for (Segment segment : segments) {
+      result += segment.size();
+    }
+    return result;
+  }
+
+  public long getNumBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getNumBytes();
+    }
+    return result;
+  }
+
+  public long getNumHits() {
+    return numHits.get();
+  }
+
+  public long getNumMisses() {
+    return numMisses.get();
+  }
+
+  // Return hit rate as a percentage, or 0 if there was no lookup
+  public double getHitRate() {
+    long hits = numHits.get();
+    long lookups = hits + numMisses.get();
+    if (lookups == 0) {
+      return 0;
+    }
+    return ((double) hits / (double) lookups) * 100;
+  }
+
+  static boolean isCacheable(HankResponse response) {
+    return response != null && (response.is_set_value() || response.is_set_not_found());
+  }
+
+  private Segment getSegment(Key key) {
+    // Spread hash bits since segment is selected with the lowest bits
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[(hash & 0x7fffffff) % NUM_SEGMENTS];
+  }
+
+  private static ByteBuffer copy(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static long getEntryNumBytes(Key key, HankResponse response) {
+    long result = ENTRY_OVERHEAD_NUM_BYTES + key.key.remaining();
+    if (response.is_set_value()) {
+      result += response.buffer_for_value().remaining();
+    }
+    return result;
+  }
+
+  private static class Segment {
+
+    private final long maxNumBytes;
+    private long numBytes = 0;
+    // Access ordered, so that iteration starts with the least recently used entry
+    private final LinkedHashMap<Key, HankResponse> entries = new LinkedHashMap<Key, HankResponse>(16, 0.75f, true);
+
+    private Segment(long maxNumBytes) {
+      this.maxNumBytes = maxNumBytes;
+    }
+
+    public synchronized HankResponse get(Key key) {
+      return entries.get(key);
+    }
+
+    public synchronized void put(Key key, HankResponse response) {
+      long entryNumBytes = getEntryNumBytes(key, response);
+      if (entryNumBytes > maxNumBytes) {
+        // Would not fit
+        return;
+      }
+      HankResponse previousResponse = entries.put(key, response);
+      if (previousResponse != null) {
+        numBytes -= getEntryNumBytes(key, previousResponse);
+      }
+      numBytes += entryNumBytes;
+      // Evict least recently used entries
+      Iterator<Map.Entry<Key, HankResponse>> iterator = entries.entrySet().iterator();
+      while (numBytes > maxNumBytes && iterator.hasNext()) {
+        Map.Entry<Key, HankResponse> entry = iterator.next();
+        numBytes -= getEntryNumBytes(entry.getKey(), entry.getValue());
+        iterator.remove();
+      }
+    }
+
+    public synchronized void removeDomain(int domainId) {
+      Iterator<Map.Entry<Key, HankResponse>> iterator = entries.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Key, HankResponse> entry = iterator.next();
+        if (entry.getKey().domainId == domainId) {
+          numBytes -= getEntryNumBytes(entry.getKey(), entry.getValue());
+          iterator.remove();
+        }
+      }
+    }
+
+    public synchronized void clear() {
+      entries.clear();
+      numBytes = 0;
+    }
+
+    public synchronized int size() {
+      return entries.size();
+    }
+
+    public synchronized long getNumBytes() {
+      return numBytes;
+    }
+  }
+
+  private static class Key {
+
+    private final int domainId;
+    private final int domainVersion;
+    private final ByteBuffer key;
+    private final int hashCode;
+
+    private Key(int domainId, int domainVersion, ByteBuffer key) {
+      this.domainId = domainId;
+      this.domainVersion = domainVersion;
+      this.key = key;
+      this.hashCode = 31 * (31 * domainId + domainVersion) + key.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return domainId == other.domainId
+          && domainVersion == other.domainVersion
+          && key.equals(other.key);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the smart client's routing information. Connection pools and partition
+ * server addresses are stored in arrays indexed by domain id and partition number, so that routing
+ * a request does not require any locking or boxing. Missing entries are null. Rendezvous hashing host
+ * hashes of partition server addresses are precomputed in the same layout. It also records the
+ * version of each domain, when all its partitions are served at the same version.
+ */
+final class RoutingTable {
+
+  static final int UNKNOWN_DOMAIN_VERSION = -1;
+
+  static final RoutingTable EMPTY = new RoutingTable(
+      Collections.<PartitionServerAddress, HostConnectionPool>emptyMap(),
+      Collections.<Integer, Map<Integer, List<PartitionServerAddress>>>emptyMap(),
+      Collections.<Integer, Map<Integer, HostConnectionPool>>emptyMap());
+
+  private final Map<PartitionServerAddress, HostConnectionPool> partitionServerAddressToConnectionPool;
+  private final PartitionServerAddress[][][] domainToPartitionToPartitionServerAddresses;
+  private final long[][][] domainToPartitionToHostHashes;
+  private final HostConnectionPool[][] domainToPartitionToConnectionPool;
+  private final int[] domainToVersion;
+
+  RoutingTable(Map<PartitionServerAddress, HostConnectionPool> partitionServerAddressToConnectionPool,
+               Map<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToPartitionServerAddressList,
+               Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToConnectionPool) {
+    this(partitionServerAddressToConnectionPool,
+        domainToPartitionToPartitionServerAddressList,
+        domainToPartitionToConnectionPool,
+        Collections.<Integer, Integer>emptyMap());
+  }
+
+  // Domains missing from the version map have an unknown version
+  RoutingTable(Map<PartitionServerAddress, HostConnectionPool> partitionServerAddressToConnectionPool,
+               Map<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToPartitionServerAddressList,
+               Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToConnectionPool,
+               Map<Integer, Integer> domainToVersion) {
+    this.partitionServerAddressToConnectionPool = Collections.unmodifiableMap(
+        new HashMap<PartitionServerAddress, HostConnectionPool>(partitionServerAddressToConnectionPool));
+
+    this.domainToPartitionToPartitionServerAddresses
+        = new PartitionServerAddress[getArraySize(domainToPartitionToPartitionServerAddressList)][][];
+    this.domainToPartitionToHostHashes = new long[getArraySize(domainToPartitionToPartitionServerAddressList)][][];
+    for (Map.Entry<Integer, Map<Integer, List<PartitionServerAddress>>> domainEntry
+        : domainToPartitionToPartitionServerAddressList.entrySet()) {
+      PartitionServerAddress[][] partitionToAddresses
+          = new PartitionServerAddress[getArraySize(domainEntry.getValue())][];
+      long[][] partitionToHostHashes = new long[getArraySize(domainEntry.getValue())][];
+      for (Map.Entry<Integer, List<PartitionServerAddress>> partitionEntry : domainEntry.getValue().entrySet()) {
+        partitionToAddresses[partitionEntry.getKey()]
+            = partitionEntry.getValue().toArray(new PartitionServerAddress[partitionEntry.getValue().size()]);
+        partitionToHostHashes[partitionEntry.getKey()] = RendezvousHashing.getHostHashes(partitionEntry.getValue());
+      }
+      this.domainToPartitionToPartitionServerAddresses[domainEntry.getKey()] = partitionToAddresses;
+      this.domainToPartitionToHostHashes[domainEntry.getKey()] = partitionToHostHashes;
+    }
+
+    this.domainToPartitionToConnectionPool = new HostConnectionPool[getArraySize(domainToPartitionToConnectionPool)][];
+    for (Map.Entry<Integer, Map<Integer, HostConnectionPool>> domainEntry
+        : domainToPartitionToConnectionPool.entrySet()) {
+      HostConnectionPool[] partitionToConnectionPool = new HostConnectionPool[getArraySize(domainEntry.getValue())];
+      for (Map.Entry<Integer, HostConnectionPool> partitionEntry : domainEntry.getValue().entrySet()) {
+        partitionToConnectionPool[partitionEntry.getKey()] = partitionEntry.getValue();
+      }
+      this.domainToPartitionToConnectionPool[domainEntry.getKey()] = partitionToConnectionPool;
+    }
+
+    this.domainToVersion = new int[getArraySize(domainToVersion)];
+    Arrays.fill(this.domainToVersion, UNKNOWN_DOMAIN_VERSION);
+    for (Map.Entry<Integer, Integer> entry : domainToVersion.entrySet()) {
+      this.domainToVersion[entry.getKey()] = entry.getValue();
+    }
+  }
+
+  // Array size needed to index the given map by its keys
+  private static int getArraySize(Map<Integer, ?> map) {
+    int result = 0;
+    for (Integer key : map.keySet()) {
+      if (key < 0) {
+        throw new IllegalArgumentException("Routing table indices must not be negative: " + key);
+      }
+      result = Math.max(result, key + 1);
+    }
+    return result;
+  }
+
+  Map<PartitionServerAddress, HostConnectionPool> getPartitionServerAddressToConnectionPool() {
+    return partitionServerAddressToConnectionPool;
+  }
+
+  HostConnectionPool getConnectionPool(PartitionServerAddress partitionServerAddress) {
+    return partitionServerAddressToConnectionPool.get(partitionServerAddress);
+  }
+
+  // Return null if the domain is unknown
+  HostConnectionPool[] getPartitionToConnectionPool(int domainId) {
+    if (domainId < 0 || domainId >= domainToPartitionToConnectionPool.length) {
+      return null;
+    }
+    return domainToPartitionToConnectionPool[domainId];
+  }
+
+  // Return null if the domain is unknown
+  PartitionServerAddress[][] getPartitionToPartitionServerAddresses(int domainId) {
+    if (domainId < 0 || domainId >= domainToPartitionToPartitionServerAddresses.length) {
+      return null;
+    }
+    return domainToPartitionToPartitionServerAddresses[domainId];
+  }
+
+  // Indexed like getPartitionToPartitionServerAddresses. Return null if the domain is unknown
+  long[][] getPartitionToHostHashes(int domainId) {
+    if (domainId < 0 || domainId >= domainToPartitionToHostHashes.length) {
+      return null;
+    }
+    return domainToPartitionToHostHashes[domainId];
+  }
+
+  // Return UNKNOWN_DOMAIN_VERSION if the domain is unknown or its partitions are served at different versions
+  int getDomainVersion(int domainId) {
+    if (domainId < 0 || domainId >= domainToVersion.length) {
+      return UNKNOWN_DOMAIN_VERSION;
+    }
+    return domainToVersion[domainId];
+  }
+}
@@ -16,7 +16,9 @@
 
 package com.rapleaf.hank.client.async;
 
+import com.rapleaf.hank.client.GetBulkCallback;
 import com.rapleaf.hank.client.GetCallback;
+import com.rapleaf.hank.coordinator.Host;
 import com.rapleaf.hank.generated.HankBulkResponse;
 import com.rapleaf.hank.generated.HankException;
 import com.rapleaf.hank.generated.HankResponse;
@@ -26,9 +28,20 @@ import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Event loop that executes GET and GET BULK tasks. Tasks that find all connections of their pool busy
+ * are parked on that pool and resumed when one of its connections is released or connected, instead
+ * of being retried in a loop. Task deadlines are enforced with a timer wheel driven by the same thread.
+ */
 public class Dispatcher implements Runnable {
 
   private static final Logger LOG = Logger.getLogger(Dispatcher.class);
@@ -36,57 +49,90 @@ public class Dispatcher implements Runnable {
       = HankResponse.xception(HankException.no_connection_available(true));
   private static final HankBulkResponse NO_CONNECTION_AVAILABLE_BULK_RESPONSE
       = HankBulkResponse.xception(HankException.no_connection_available(true));
-  private static final HankResponse TIMEOUT_RESPONSE // TODO: Add new error type for queryTimeoutNano
-      = HankResponse.xception(HankException.internal_error("Request queryTimeoutNano"));
+  private static final HankResponse TIMEOUT_RESPONSE // TODO: Add new error type for timeouts
+      = HankResponse.xception(HankException.internal_error("Request timed out"));
+  private static final HankBulkResponse TIMEOUT_BULK_RESPONSE
+      = HankBulkResponse.xception(HankException.internal_error("Request timed out"));
+
+  private static final long TIMER_WHEEL_TICK_NANOS = 10 * 1000000L; // 10ms
+  private static final int TIMER_WHEEL_NUM_BUCKETS = 512;
 
-  private final BlockingQueue<GetTask> getTasks;
+  // Tasks to execute and notifications that connections may have become available
+  private final BlockingQueue<Runnable> events;
   private final long queryTimeoutNano;
   private final long bulkQueryTimeoutNano;
   private final int queryMaxNumTries;
   private Thread dispatcherThread;
   private volatile boolean stopping = false;
 
+  // Only accessed by the dispatcher thread
+  private final TimerWheel timerWheel;
+  private final Set<HostConnectionPool> connectionPoolsWithParkedTasks = new LinkedHashSet<HostConnectionPool>();
+  private long nextParkSequenceNumber = 0;
+
   public Dispatcher(int queryTimeoutMs, int bulkQueryTimeoutMs, int queryMaxNumTries) {
     // Initialize select queues
-    getTasks = new LinkedBlockingQueue<GetTask>();
-    this.queryTimeoutNano = queryTimeoutMs * 1000000; // convert ms to nano
-    this.bulkQueryTimeoutNano = bulkQueryTimeoutMs * 1000000; // convert ms to nano
+    events = new LinkedBlockingQueue<Runnable>();
+    this.queryTimeoutNano = queryTimeoutMs * 1000000L; // convert ms to nano
+    this.bulkQueryTimeoutNano = bulkQueryTimeoutMs * 1000000L; // convert ms to nano
     this.queryMaxNumTries = queryMaxNumTries;
+    this.timerWheel = new TimerWheel(TIMER_WHEEL_TICK_NANOS, TIMER_WHEEL_NUM_BUCKETS, System.nanoTime());
   }
 
-  public Runnable getOnChangeRunnable() {
+  // Runnable to notify when a connection to the given host is released, connected, or its host starts serving
+  public Runnable getOnChangeRunnable(final Host host) {
+    final Runnable resumeParkedTask = new Runnable() {
+      @Override
+      public void run() {
+        resumeParkedTask(host);
+      }
+    };
     return new Runnable() {
       @Override
       public void run() {
+        events.add(resumeParkedTask);
       }
     };
   }
 
-  protected class GetTask {
+  // Return the deadline of a GET BULK request started now, or null if there is no timeout
+  public Long getBulkQueryDeadlineNanoTime() {
+    return bulkQueryTimeoutNano == 0 ? null : System.nanoTime() + bulkQueryTimeoutNano;
+  }
+
+  protected abstract class Task implements Runnable {
 
-    private final int domainId;
-    private final ByteBuffer key;
-    private final Integer keyHash;
     private final HostConnectionPool hostConnectionPool;
-    private final GetCallback resultHandler;
-    private int tryCount;
+    private final Integer keyHash;
+    // Null if the task has no deadline
+    private final Long deadlineNanoTime;
+    private final AtomicBoolean isCompleted = new AtomicBoolean(false);
     private HostConnectionPool.HostConnectionAndHostIndex hostConnectionAndHostIndex;
-    private HankResponse response;
-    private Long startNanoTime;
+    private boolean isDeadlineScheduled;
+    private long parkSequenceNumber;
 
-    public GetTask(int domainId,
-                   ByteBuffer key,
-                   Integer keyHash,
-                   HostConnectionPool hostConnectionPool,
-                   GetCallback resultHandler) {
-      this.domainId = domainId;
-      this.key = key;
-      this.keyHash = keyHash;
+    protected Task(HostConnectionPool hostConnectionPool, Integer keyHash, Long deadlineNanoTime) {
       this.hostConnectionPool = hostConnectionPool;
-      this.resultHandler = resultHandler;
-      this.tryCount = 0;
+      this.keyHash = keyHash;
+      this.deadlineNanoTime = deadlineNanoTime;
       this.hostConnectionAndHostIndex = null;
-      this.startNanoTime = null;
+      this.isDeadlineScheduled = false;
+    }
+
+    // Send the request using the given connection, which has been claimed
+    protected abstract void doExecute(HostConnection hostConnection);
+
+    protected abstract void completeWithNoConnectionAvailable();
+
+    protected abstract void completeWithTimeout();
+
+    // Return true only the first time the task is completed
+    protected boolean markCompleted() {
+      return isCompleted.compareAndSet(false, true);
+    }
+
+    public boolean isCompleted() {
+      return isCompleted.get();
     }
 
     public void disconnect() {
@@ -97,44 +143,105 @@ public class Dispatcher implements Runnable {
 
     public void releaseConnection() {
       if (hostConnectionAndHostIndex != null && hostConnectionAndHostIndex.hostConnection != null) {
-        hostConnectionAndHostIndex.hostConnection.setIsBusy(false);
+        hostConnectionAndHostIndex.hostConnection.release();
       }
     }
 
-    public void execute() {
-      if (hasTimedout()) {
-        // If we timedout just complete the task with timeout response
-        response = TIMEOUT_RESPONSE;
-        doCompleted();
-      } else {
-        if (hostConnectionAndHostIndex == null) {
-          if (keyHash == null) {
-            hostConnectionAndHostIndex = hostConnectionPool.findConnectionToUse();
-          } else {
-            hostConnectionAndHostIndex = hostConnectionPool.findConnectionToUseForKey(keyHash);
-          }
-        } else {
-          hostConnectionAndHostIndex = hostConnectionPool.findNextConnectionToUse(hostConnectionAndHostIndex.hostIndex);
+    // Executed by the dispatcher thread
+    @Override
+    public void run() {
+      // Task might have timed out while it was waiting
+      if (isCompleted()) {
+        return;
+      }
+      if (deadlineNanoTime != null) {
+        if (System.nanoTime() - deadlineNanoTime >= 0) {
+          // If we timed out just complete the task with timeout response
+          completeWithTimeout();
+          return;
+        }
+        if (!isDeadlineScheduled) {
+          timerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+              completeWithTimeout();
+            }
+          }, deadlineNanoTime);
+          isDeadlineScheduled = true;
         }
+      }
 
-        if (hostConnectionAndHostIndex == null) {
-          // All connections are busy, add it back to the dispatcher queue
-          addTask(this);
-        } else if (hostConnectionAndHostIndex.hostConnection == null) {
-          // All hosts were in standby, set the response appropriately and complete task
-          response = NO_CONNECTION_AVAILABLE_RESPONSE;
-          doCompleted();
+      HostConnectionPool.HostConnectionAndHostIndex connectionToUse;
+      if (hostConnectionAndHostIndex == null) {
+        if (keyHash == null) {
+          connectionToUse = hostConnectionPool.findConnectionToUse();
         } else {
-          // Claim connection
-          hostConnectionAndHostIndex.hostConnection.setIsBusy(true);
-          // Execute asynchronous task
-          hostConnectionAndHostIndex.hostConnection.get(domainId, key, new GetTask.Callback());
+          connectionToUse = hostConnectionPool.findConnectionToUseForKey(keyHash);
         }
+      } else {
+        connectionToUse = hostConnectionPool.findNextConnectionToUse(hostConnectionAndHostIndex.hostIndex);
+      }
+
+      if (connectionToUse == null) {
+        // All connections are busy, wait for one to become available
+        park(this);
+      } else if (connectionToUse.hostConnection == null) {
+        // All hosts were in standby, set the response appropriately and complete task
+        completeWithNoConnectionAvailable();
+      } else {
+        hostConnectionAndHostIndex = connectionToUse;
+        // Claim connection
+        connectionToUse.hostConnection.setIsBusy(true);
+        // Execute asynchronous task
+        doExecute(connectionToUse.hostConnection);
       }
     }
+  }
 
-    private void doCompleted() {
-      resultHandler.onComplete(response);
+  protected class GetTask extends Task {
+
+    private final int domainId;
+    private final ByteBuffer key;
+    private final GetCallback resultHandler;
+    private int tryCount;
+    private HankResponse response;
+
+    public GetTask(int domainId,
+                   ByteBuffer key,
+                   Integer keyHash,
+                   HostConnectionPool hostConnectionPool,
+                   GetCallback resultHandler) {
+      super(hostConnectionPool, keyHash, queryTimeoutNano == 0 ? null : System.nanoTime() + queryTimeoutNano);
+      this.domainId = domainId;
+      this.key = key;
+      this.resultHandler = resultHandler;
+      this.tryCount = 0;
+    }
+
+    @Override
+    protected void doExecute(HostConnection hostConnection) {
+      Callback callback = new Callback();
+      try {
+        hostConnection.get(domainId, key, callback);
+      } catch (RuntimeException e) {
+        callback.onError(e);
+      }
+    }
+
+    @Override
+    protected void completeWithNoConnectionAvailable() {
+      doCompleted(NO_CONNECTION_AVAILABLE_RESPONSE);
+    }
+
+    @Override
+    protected void completeWithTimeout() {
+      doCompleted(TIMEOUT_RESPONSE);
+    }
+
+    private void doCompleted(HankResponse response) {
+      if (markCompleted()) {
+        resultHandler.onComplete(response);
+      }
     }
 
     private void transition() {
@@ -144,24 +251,8 @@ public class Dispatcher implements Runnable {
         addTask(this);
       } else {
         // Success
-        doCompleted();
-      }
-    }
-
-    private long getNanoTimeBeforeTimeout(long currentNanoTime) {
-      // Return time in nanosecond before task queryTimeoutNano. Return 0 if task has timed out.
-      return Math.max(queryTimeoutNano - Math.abs(currentNanoTime - startNanoTime), 0);
-    }
-
-    private boolean hasTimedout() {
-      if (queryTimeoutNano != 0) {
-        long currentNanoTime = System.nanoTime();
-        long taskNanoTimeBeforeTimeout = getNanoTimeBeforeTimeout(currentNanoTime);
-        if (taskNanoTimeBeforeTimeout == 0) {
-          return true;
-        }
+        doCompleted(response);
       }
-      return false;
     }
 
     @Override
@@ -205,6 +296,127 @@ public class Dispatcher implements Runnable {
     }
   }
 
+  // GET BULK request to a single partition server. Retries on other partition servers are performed by the caller.
+  protected class GetBulkTask extends Task {
+
+    private final int domainId;
+    private final List<ByteBuffer> keys;
+    private final GetBulkCallback resultHandler;
+
+    public GetBulkTask(int domainId,
+                       List<ByteBuffer> keys,
+                       HostConnectionPool hostConnectionPool,
+                       Long deadlineNanoTime,
+                       GetBulkCallback resultHandler) {
+      super(hostConnectionPool, null, deadlineNanoTime);
+      this.domainId = domainId;
+      this.keys = keys;
+      this.resultHandler = resultHandler;
+    }
+
+    @Override
+    protected void doExecute(HostConnection hostConnection) {
+      Callback callback = new Callback();
+      try {
+        hostConnection.getBulk(domainId, keys, callback);
+      } catch (RuntimeException e) {
+        callback.onError(e);
+      }
+    }
+
+    @Override
+    protected void completeWithNoConnectionAvailable() {
+      doCompleted(NO_CONNECTION_AVAILABLE_BULK_RESPONSE);
+    }
+
+    @Override
+    protected void completeWithTimeout() {
+      doCompleted(TIMEOUT_BULK_RESPONSE);
+    }
+
+    private void doCompleted(HankBulkResponse response) {
+      if (markCompleted()) {
+        resultHandler.onComplete(response);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "GetBulkTask [domainId=" + domainId + ", numKeys=" + keys.size() + "]";
+    }
+
+    private class Callback implements HostConnectionGetBulkCallback {
+
+      @Override
+      public void onComplete(PartitionServer.AsyncClient.getBulk_call response) {
+        HankBulkResponse result;
+        try {
+          result = response.getResult();
+        } catch (TException e) {
+          // Always disconnect in case of Thrift error
+          disconnect();
+          String errMsg = "Failed to load GET BULK result: " + e.getMessage();
+          LOG.error(errMsg);
+          result = HankBulkResponse.xception(HankException.internal_error(errMsg));
+        } finally {
+          // Always release the connection
+          releaseConnection();
+        }
+        doCompleted(result);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        // Always disconnect in case of Thrift error
+        disconnect();
+        String errMsg = "Failed to execute GET BULK: " + e.getMessage();
+        LOG.error(errMsg);
+        // Always release the connection
+        releaseConnection();
+        doCompleted(HankBulkResponse.xception(HankException.internal_error(errMsg)));
+      }
+    }
+  }
+
+  // Executed by the dispatcher thread
+  private void park(Task task) {
+    task.parkSequenceNumber = nextParkSequenceNumber++;
+    task.hostConnectionPool.parkTask(task);
+    connectionPoolsWithParkedTasks.add(task.hostConnectionPool);
+  }
+
+  // Executed by the dispatcher thread. A connection to the given host might have become available,
+  // resume the task that has been waiting the longest for a connection to that host.
+  private void resumeParkedTask(Host host) {
+    HostConnectionPool oldestTaskPool = null;
+    Task oldestTask = null;
+    Iterator<HostConnectionPool> iterator = connectionPoolsWithParkedTasks.iterator();
+    while (iterator.hasNext()) {
+      HostConnectionPool pool = iterator.next();
+      // Drop tasks that timed out while they were parked
+      Task task = pool.peekParkedTask();
+      while (task != null && task.isCompleted()) {
+        pool.pollParkedTask();
+        task = pool.peekParkedTask();
+      }
+      if (task == null) {
+        iterator.remove();
+        continue;
+      }
+      if (pool.containsHost(host) && (oldestTask == null || task.parkSequenceNumber < oldestTask.parkSequenceNumber)) {
+        oldestTaskPool = pool;
+        oldestTask = task;
+      }
+    }
+    if (oldestTask != null) {
+      oldestTaskPool.pollParkedTask();
+      if (!oldestTaskPool.hasParkedTasks()) {
+        connectionPoolsWithParkedTasks.remove(oldestTaskPool);
+      }
+      oldestTask.run();
+    }
+  }
+
   public void stop() {
     stopping = true;
     dispatcherThread.interrupt();
@@ -217,26 +429,30 @@ public class Dispatcher implements Runnable {
     this.dispatcherThread = dispatcherThread;
   }
 
-  public void addTask(GetTask task) {
-    try {
-      if (task.startNanoTime == null) {
-        task.startNanoTime = System.nanoTime();
-      }
-      getTasks.put(task);
-    } catch (InterruptedException e) {
-      // Someone is trying to stop Dispatcher
-    }
+  public void addTask(Task task) {
+    events.add(task);
   }
 
   @Override
   public void run() {
     while (!stopping) {
       try {
-        GetTask task = getTasks.take();
-        task.execute();
+        // Only wake up periodically when there are deadlines to enforce
+        Runnable event;
+        if (timerWheel.isEmpty()) {
+          event = events.take();
+        } else {
+          event = events.poll(timerWheel.getTickNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (event != null) {
+          event.run();
+        }
       } catch (InterruptedException e) {
         // Someone is trying to stop Dispatcher
+      } catch (RuntimeException e) {
+        LOG.error("Dispatcher failed to process event", e);
       }
+      timerWheel.advance(System.nanoTime());
     }
   }
 }
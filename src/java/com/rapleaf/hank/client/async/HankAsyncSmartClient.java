@@ -17,27 +17,22 @@
 package com.rapleaf.hank.client.async;
 
 
-import com.rapleaf.hank.client.Clients;
-import com.rapleaf.hank.client.GetBulkCallback;
-import com.rapleaf.hank.client.GetCallback;
-import com.rapleaf.hank.client.HankClientIface;
+import com.rapleaf.hank.client.*;
 import com.rapleaf.hank.config.HankSmartClientConfigurator;
 import com.rapleaf.hank.coordinator.*;
 import com.rapleaf.hank.generated.HankBulkResponse;
 import com.rapleaf.hank.generated.HankException;
 import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.partitioner.HashingPartitioner;
+import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.util.Bytes;
-import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 import org.apache.thrift.async.TAsyncClientManager;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static com.rapleaf.hank.client.HostConnectionPool.getHostListShuffleSeed;
 
@@ -51,6 +46,7 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
   private final RingGroup ringGroup;
   private final Coordinator coordinator;
   private final int numConnectionsPerHost;
+  private final int queryMaxNumTries;
   private final int establishConnectionTimeoutMs;
   private final int queryTimeoutMs;
   private final int bulkQueryTimeoutMs;
@@ -67,6 +63,9 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
       = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
   private final Map<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToPartitionServerAddresses
       = new HashMap<Integer, Map<Integer, List<PartitionServerAddress>>>();
+  // Rendezvous hashing host hashes, indexed like the partition server address lists
+  private final Map<Integer, Map<Integer, long[]>> domainToPartitionToHostHashes
+      = new HashMap<Integer, Map<Integer, long[]>>();
 
   public HankAsyncSmartClient(Coordinator coordinator,
                               HankSmartClientConfigurator configurator) throws IOException, TException {
@@ -96,6 +95,7 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
     ringGroup.registerClient(Clients.getClientMetadata(this));
 
     this.numConnectionsPerHost = numConnectionsPerHost;
+    this.queryMaxNumTries = queryMaxNumTries;
     this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
     this.queryTimeoutMs = queryTimeoutMs;
     this.bulkQueryTimeoutMs = bulkQueryTimeoutMs;
@@ -135,8 +135,19 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
     }
 
     // Determine partition
-    int partition = domain.getPartitioner().partition(key, domain.getNumParts());
-    int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
+    int partition;
+    int keyHash;
+    Partitioner partitioner = domain.getPartitioner();
+    if (partitioner instanceof HashingPartitioner) {
+      // Hash the key only once
+      HashingPartitioner hashingPartitioner = (HashingPartitioner) partitioner;
+      long hash = hashingPartitioner.hash(key);
+      partition = hashingPartitioner.partition(hash, domain.getNumParts());
+      keyHash = hashingPartitioner.partition(hash, Integer.MAX_VALUE);
+    } else {
+      partition = partitioner.partition(key, domain.getNumParts());
+      keyHash = partitioner.partition(key, Integer.MAX_VALUE);
+    }
 
     // Find connection pool
     Map<Integer, HostConnectionPool> partitionToConnectionPool = domainToPartitionToConnectionPool.get(domain.getId());
@@ -166,10 +177,200 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
     dispatcher.addTask(dispatcher.new GetTask(domain.getId(), key, keyHash, hostConnectionPool, resultHandler));
   }
 
+  // Keys are grouped by partition server and each group is sent as a single GET BULK request. Keys of a given
+  // partition are spread over the partition servers serving it according to their hash. Groups that fail are
+  // retried on the next replica, up to the maximum number of tries.
   public void getBulk(String domainName,
                       List<ByteBuffer> keys,
                       GetBulkCallback resultHandler) throws TException {
-    throw new NotImplementedException();
+    // Find domain
+    Domain domain = this.coordinator.getDomain(domainName);
+    if (domain == null) {
+      LOG.error("No such Domain: " + domainName);
+      resultHandler.onComplete(NO_SUCH_DOMAIN_BULK);
+      return;
+    }
+
+    // Determine partition and hash of each key
+    Partitioner partitioner = domain.getPartitioner();
+    HashingPartitioner hashingPartitioner
+        = partitioner instanceof HashingPartitioner ? (HashingPartitioner) partitioner : null;
+    int[] keyPartitions = new int[keys.size()];
+    int[] keyHashes = new int[keys.size()];
+    int keyIndex = 0;
+    for (ByteBuffer key : keys) {
+      // Check for null keys
+      if (key == null) {
+        throw new NullKeyException();
+      }
+      // Check for empty keys
+      if (key.remaining() == 0) {
+        throw new EmptyKeyException();
+      }
+      if (hashingPartitioner != null) {
+        // Hash the key only once
+        long hash = hashingPartitioner.hash(key);
+        keyPartitions[keyIndex] = hashingPartitioner.partition(hash, domain.getNumParts());
+        keyHashes[keyIndex] = hashingPartitioner.partition(hash, Integer.MAX_VALUE);
+      } else {
+        keyPartitions[keyIndex] = partitioner.partition(key, domain.getNumParts());
+        keyHashes[keyIndex] = partitioner.partition(key, Integer.MAX_VALUE);
+      }
+      ++keyIndex;
+    }
+
+    Map<Integer, List<PartitionServerAddress>> partitionToPartitionServerAddresses
+        = domainToPartitionToPartitionServerAddresses.get(domain.getId());
+    if (partitionToPartitionServerAddresses == null) {
+      String errMsg = String.format("Could not get domain to partition map for domain %s (id: %d)", domainName,
+          domain.getId());
+      LOG.error(errMsg);
+      resultHandler.onComplete(HankBulkResponse.xception(HankException.internal_error(errMsg)));
+      return;
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Looking in domain " + domainName + " for " + keys.size() + " keys");
+    }
+
+    List<Integer> keyIndices = new ArrayList<Integer>(keys.size());
+    for (int i = 0; i < keys.size(); ++i) {
+      keyIndices.add(i);
+    }
+    new GetBulkRequest(domain, keys, keyPartitions, keyHashes, partitionToPartitionServerAddresses,
+        domainToPartitionToHostHashes.get(domain.getId()), dispatcher.getBulkQueryDeadlineNanoTime(),
+        resultHandler).dispatch(keyIndices);
+  }
+
+  // Tracks the GET BULK requests sent to partition servers on behalf of a single getBulk call
+  private class GetBulkRequest {
+
+    private final Domain domain;
+    private final List<ByteBuffer> keys;
+    private final int[] keyPartitions;
+    private final int[] keyHashes;
+    private final Map<Integer, List<PartitionServerAddress>> partitionToPartitionServerAddresses;
+    private final Map<Integer, long[]> partitionToHostHashes;
+    private final Long deadlineNanoTime;
+    private final GetBulkCallback resultHandler;
+    private final HankResponse[] responses;
+    private final List<Integer> failedKeyIndices = new ArrayList<Integer>();
+    private int numTries = 0;
+    private int numPendingSubRequests = 0;
+
+    private GetBulkRequest(Domain domain,
+                           List<ByteBuffer> keys,
+                           int[] keyPartitions,
+                           int[] keyHashes,
+                           Map<Integer, List<PartitionServerAddress>> partitionToPartitionServerAddresses,
+                           Map<Integer, long[]> partitionToHostHashes,
+                           Long deadlineNanoTime,
+                           GetBulkCallback resultHandler) {
+      this.domain = domain;
+      this.keys = keys;
+      this.keyPartitions = keyPartitions;
+      this.keyHashes = keyHashes;
+      this.partitionToPartitionServerAddresses = partitionToPartitionServerAddresses;
+      this.partitionToHostHashes = partitionToHostHashes;
+      this.deadlineNanoTime = deadlineNanoTime;
+      this.resultHandler = resultHandler;
+      this.responses = new HankResponse[keys.size()];
+    }
+
+    // Group given keys by partition server and send one GET BULK request to each. Each try moves on to the next replica.
+    public void dispatch(List<Integer> keyIndices) {
+      Map<PartitionServerAddress, List<Integer>> partitionServerAddressToKeyIndices
+          = new HashMap<PartitionServerAddress, List<Integer>>();
+      synchronized (this) {
+        for (int keyIndex : keyIndices) {
+          int partition = keyPartitions[keyIndex];
+          List<PartitionServerAddress> partitionServerAddresses = partitionToPartitionServerAddresses.get(partition);
+          if (partitionServerAddresses == null || partitionServerAddresses.isEmpty()) {
+            // This is a problem, since the cache must not have been loaded correctly
+            String errMsg = String.format("Could not get list of hosts for domain %s (id: %d) when looking for partition %d",
+                domain.getName(), domain.getId(), partition);
+            LOG.error(errMsg);
+            responses[keyIndex] = HankResponse.xception(HankException.internal_error(errMsg));
+            continue;
+          }
+          PartitionServerAddress partitionServerAddress = partitionServerAddresses.get(
+              (RendezvousHashing.getHostIndex(keyHashes[keyIndex], partitionToHostHashes.get(partition)) + numTries)
+                  % partitionServerAddresses.size());
+          List<Integer> partitionServerKeyIndices = partitionServerAddressToKeyIndices.get(partitionServerAddress);
+          if (partitionServerKeyIndices == null) {
+            partitionServerKeyIndices = new ArrayList<Integer>();
+            partitionServerAddressToKeyIndices.put(partitionServerAddress, partitionServerKeyIndices);
+          }
+          partitionServerKeyIndices.add(keyIndex);
+        }
+        numPendingSubRequests = partitionServerAddressToKeyIndices.size();
+      }
+      if (partitionServerAddressToKeyIndices.isEmpty()) {
+        complete();
+        return;
+      }
+      for (Map.Entry<PartitionServerAddress, List<Integer>> entry : partitionServerAddressToKeyIndices.entrySet()) {
+        final List<Integer> subRequestKeyIndices = entry.getValue();
+        GetBulkCallback subRequestCallback = new GetBulkCallback() {
+          @Override
+          public void onComplete(HankBulkResponse response) {
+            onSubRequestComplete(subRequestKeyIndices, response);
+          }
+        };
+        HostConnectionPool hostConnectionPool = partitionServerAddressToConnectionPool.get(entry.getKey());
+        if (hostConnectionPool == null) {
+          subRequestCallback.onComplete(HankBulkResponse.xception(HankException.no_connection_available(true)));
+          continue;
+        }
+        List<ByteBuffer> subRequestKeys = new ArrayList<ByteBuffer>(subRequestKeyIndices.size());
+        for (int keyIndex : subRequestKeyIndices) {
+          subRequestKeys.add(keys.get(keyIndex));
+        }
+        dispatcher.addTask(dispatcher.new GetBulkTask(domain.getId(), subRequestKeys, hostConnectionPool,
+            deadlineNanoTime, subRequestCallback));
+      }
+    }
+
+    private void onSubRequestComplete(List<Integer> keyIndices, HankBulkResponse response) {
+      List<Integer> keyIndicesToRetry = null;
+      synchronized (this) {
+        if (response.is_set_xception()) {
+          // Fill responses with error, and retry these keys later
+          for (int keyIndex : keyIndices) {
+            responses[keyIndex] = HankResponse.xception(response.get_xception());
+          }
+          failedKeyIndices.addAll(keyIndices);
+        } else if (response.is_set_responses() && response.get_responses().size() == keyIndices.size()) {
+          // Valid response, load results into final response
+          Iterator<HankResponse> responseIterator = response.get_responses().iterator();
+          for (int keyIndex : keyIndices) {
+            responses[keyIndex] = responseIterator.next();
+          }
+        } else {
+          String errMsg = "Invalid GET BULK response: " + response;
+          LOG.error(errMsg);
+          for (int keyIndex : keyIndices) {
+            responses[keyIndex] = HankResponse.xception(HankException.internal_error(errMsg));
+          }
+        }
+        if (--numPendingSubRequests > 0) {
+          return;
+        }
+        // All sub requests of this try completed
+        if (!failedKeyIndices.isEmpty() && ++numTries < queryMaxNumTries) {
+          keyIndicesToRetry = new ArrayList<Integer>(failedKeyIndices);
+          failedKeyIndices.clear();
+        }
+      }
+      if (keyIndicesToRetry != null) {
+        dispatch(keyIndicesToRetry);
+      } else {
+        complete();
+      }
+    }
+
+    private void complete() {
+      resultHandler.onComplete(HankBulkResponse.responses(Arrays.asList(responses)));
+    }
   }
 
   private void loadCache(int numConnectionsPerHost) throws IOException, TException {
@@ -214,7 +415,7 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
         }
 
         // Create connection listener
-        Runnable connectionListener = dispatcher.getOnChangeRunnable();
+        Runnable connectionListener = dispatcher.getOnChangeRunnable(host);
 
         // Establish connection to hosts
         LOG.info("Establishing " + numConnectionsPerHost + " connections to " + host
@@ -223,18 +424,25 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
             + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms");
         List<HostConnection> hostConnections = new ArrayList<HostConnection>(numConnectionsPerHost);
         for (int i = 0; i < numConnectionsPerHost; i++) {
-          hostConnections.add(new HostConnection(host,
+          hostConnections.add(createHostConnection(host,
               connectionListener,
-              asyncClientManager.get(i % asyncClientManager.size()),
-              establishConnectionTimeoutMs,
-              queryTimeoutMs,
-              bulkQueryTimeoutMs));
+              asyncClientManager.get(i % asyncClientManager.size())));
         }
         partitionServerAddressToConnectionPool.put(host.getAddress(),
             HostConnectionPool.createFromList(hostConnections, connector, null));
       }
     }
 
+    // Build domainToPartitionToHostHashes
+    for (Map.Entry<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToAddressesEntry : domainToPartitionToPartitionServerAddresses.entrySet()) {
+      Map<Integer, long[]> partitionToHostHashes = new HashMap<Integer, long[]>();
+      for (Map.Entry<Integer, List<PartitionServerAddress>> partitionToAddressesEntry : domainToPartitionToAddressesEntry.getValue().entrySet()) {
+        partitionToHostHashes.put(partitionToAddressesEntry.getKey(),
+            RendezvousHashing.getHostHashes(partitionToAddressesEntry.getValue()));
+      }
+      domainToPartitionToHostHashes.put(domainToPartitionToAddressesEntry.getKey(), partitionToHostHashes);
+    }
+
     // Build domainToPartitionToConnectionPool
     for (Map.Entry<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToAddressesEntry : domainToPartitionToPartitionServerAddresses.entrySet()) {
       Map<Integer, HostConnectionPool> partitionToConnectionPool = new HashMap<Integer, HostConnectionPool>();
@@ -252,10 +460,24 @@ public class HankAsyncSmartClient implements HankClientIface, RingGroupDataLocat
     }
   }
 
+  // Called while the client is being constructed
+  protected HostConnection createHostConnection(Host host,
+                                                Runnable connectionListener,
+                                                TAsyncClientManager asyncClientManager)
+      throws IOException, TException {
+    return new HostConnection(host,
+        connectionListener,
+        asyncClientManager,
+        establishConnectionTimeoutMs,
+        queryTimeoutMs,
+        bulkQueryTimeoutMs);
+  }
+
   private void clearCache() {
     partitionServerAddressToConnectionPool.clear();
     domainToPartitionToConnectionPool.clear();
     domainToPartitionToPartitionServerAddresses.clear();
+    domainToPartitionToHostHashes.clear();
   }
 
   @Override
@@ -97,6 +97,14 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     this.isBusy = isBusy;
   }
 
+  // Mark the connection as not busy and notify the listener that it can be used again
+  public void release() {
+    isBusy = false;
+    if (connectionListener != null) {
+      connectionListener.run();
+    }
+  }
+
   boolean isStandby() {
     return isStandby;
   }
@@ -16,6 +16,7 @@
 
 package com.rapleaf.hank.client.async;
 
+import com.rapleaf.hank.client.RendezvousHashing;
 import com.rapleaf.hank.coordinator.Host;
 import org.apache.log4j.Logger;
 
@@ -27,10 +28,16 @@ public class HostConnectionPool {
 
   private ArrayList<List<HostConnectionAndHostIndex>> hostToConnections
       = new ArrayList<List<HostConnectionAndHostIndex>>();
+  private final Set<Host> hosts;
   private final Connector connector;
   private final HostConnectionAndHostIndex allConnectionsStandby = new HostConnectionAndHostIndex(null, -1);
 
   private int globalPreviouslyUsedHostIndex;
+  // Rendezvous hashing host hashes, indexed like hostToConnections
+  private final long[] hostHashes;
+
+  // Tasks waiting for a connection of this pool to become available. Only accessed by the dispatcher thread.
+  private final LinkedList<Dispatcher.Task> parkedTasks = new LinkedList<Dispatcher.Task>();
 
   static class HostConnectionAndHostIndex {
     HostConnection hostConnection;
@@ -53,6 +60,8 @@ public class HostConnectionPool {
       throw new RuntimeException("HostConnectionPool must be initialized with a non empty collection of connections.");
     }
 
+    hosts = new HashSet<Host>(hostToConnectionsMap.keySet());
+
     Random random = new Random();
     // Shuffle the list of hosts (tentatively in a deterministic fashion). This will ensure failing requests to a host fall back
     // to different hosts across connection pools, but also that the order in which we try is consistent across
@@ -66,8 +75,10 @@ public class HostConnectionPool {
       Collections.shuffle(shuffledHosts);
     }
 
+    hostHashes = new long[shuffledHosts.size()];
     int hostIndex = 0;
     for (Host host : shuffledHosts) {
+      hostHashes[hostIndex] = RendezvousHashing.getHostHash(host.getAddress());
       List<HostConnectionAndHostIndex> connections = new ArrayList<HostConnectionAndHostIndex>();
       for (HostConnection hostConnection : hostToConnectionsMap.get(host)) {
         connections.add(new HostConnectionAndHostIndex(hostConnection, hostIndex));
@@ -110,6 +121,26 @@ public class HostConnectionPool {
     return connections;
   }
 
+  boolean containsHost(Host host) {
+    return hosts.contains(host);
+  }
+
+  void parkTask(Dispatcher.Task task) {
+    parkedTasks.addLast(task);
+  }
+
+  Dispatcher.Task peekParkedTask() {
+    return parkedTasks.peekFirst();
+  }
+
+  Dispatcher.Task pollParkedTask() {
+    return parkedTasks.pollFirst();
+  }
+
+  boolean hasParkedTasks() {
+    return !parkedTasks.isEmpty();
+  }
+
   // Return a connection to a host, initially skipping the previously used host
   public HostConnectionAndHostIndex findConnectionToUse() {
     HostConnectionAndHostIndex result = findNextConnectionToUse(globalPreviouslyUsedHostIndex);
@@ -122,7 +153,9 @@ public class HostConnectionPool {
   // Attempt to find a connection for that key where it is likely to be in the cache if it was queried
   // recently. (Globally random, but deterministic on the key.)
   public HostConnectionAndHostIndex findConnectionToUseForKey(int keyHash) {
-    return findNextConnectionToUse(keyHash % hostToConnections.size());
+    int hostIndex = RendezvousHashing.getHostIndex(keyHash, hostHashes);
+    // Start searching at the host of the key
+    return findNextConnectionToUse(hostIndex == 0 ? hostToConnections.size() - 1 : hostIndex - 1);
   }
 
   // Return a connection to an arbitrary host, initially skipping the supplied host (likely because there was
@@ -0,0 +1,127 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client.async;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Timeouts are placed in the bucket of the tick at which they expire, and each
+ * call to advance() only looks at the buckets of the ticks that elapsed since the previous call.
+ * Timeouts expire at most one tick late. This class is not thread safe: it is meant to be driven
+ * by a single event loop thread.
+ */
+class TimerWheel {
+
+  private final long tickNanos;
+  private final LinkedList<Timeout>[] buckets;
+  private final int mask;
+  private final long startNanoTime;
+  // Next tick to process
+  private long currentTick = 0;
+  private int size = 0;
+
+  private static class Timeout {
+    private final Runnable action;
+    private long remainingRounds;
+
+    private Timeout(Runnable action, long remainingRounds) {
+      this.action = action;
+      this.remainingRounds = remainingRounds;
+    }
+  }
+
+  // Number of buckets is rounded up to a power of 2
+  @SuppressWarnings("unchecked")
+  public TimerWheel(long tickNanos, int numBuckets, long startNanoTime) {
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive: " + tickNanos);
+    }
+    int actualNumBuckets = 1;
+    while (actualNumBuckets < numBuckets) {
+      actualNumBuckets <<= 1;
+    }
+    this.tickNanos = tickNanos;
+    this.buckets = new LinkedList[actualNumBuckets];
+    for (int i = 0; i < actualNumBuckets; ++i) {
+      buckets[i] = new LinkedList<Timeout>();
+    }
+    this.mask = actualNumBuckets - 1;
+    this.startNanoTime = startNanoTime;
+  }
+
+  public long getTickNanos() {
+    return tickNanos;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Run given action once the given time is reached. Deadlines in the past expire on the next call to advance().
+  public void schedule(Runnable action, long deadlineNanoTime) {
+    long deadlineTick = (deadlineNanoTime - startNanoTime + tickNanos - 1) / tickNanos;
+    if (deadlineTick < currentTick) {
+      deadlineTick = currentTick;
+    }
+    long remainingRounds = (deadlineTick - currentTick) / buckets.length;
+    buckets[(int) (deadlineTick & mask)].add(new Timeout(action, remainingRounds));
+    ++size;
+  }
+
+  // Run the actions of all timeouts that expired at the given time
+  public void advance(long nanoTime) {
+    long lastElapsedTick = (nanoTime - startNanoTime) / tickNanos;
+    if (currentTick > lastElapsedTick) {
+      // No tick elapsed since previous call
+      return;
+    }
+    if (size == 0) {
+      // Nothing to expire, skip elapsed ticks
+      currentTick = lastElapsedTick + 1;
+      return;
+    }
+    // Collect expired timeouts first, so that actions can schedule new timeouts
+    List<Timeout> expiredTimeouts = new ArrayList<Timeout>();
+    while (currentTick <= lastElapsedTick && size > 0) {
+      Iterator<Timeout> iterator = buckets[(int) (currentTick & mask)].iterator();
+      while (iterator.hasNext()) {
+        Timeout timeout = iterator.next();
+        if (timeout.remainingRounds <= 0) {
+          iterator.remove();
+          --size;
+          expiredTimeouts.add(timeout);
+        } else {
+          --timeout.remainingRounds;
+        }
+      }
+      ++currentTick;
+    }
+    if (currentTick <= lastElapsedTick) {
+      currentTick = lastElapsedTick + 1;
+    }
+    for (Timeout timeout : expiredTimeouts) {
+      timeout.action.run();
+    }
+  }
+}
@@ -35,14 +35,15 @@ public class JavaGzipCompressionCodec implements CompressionCodec {
       ByteArrayInputStream bytesIn = new ByteArrayInputStream(src, srcOffset, srcLength);
       GZIPInputStream gzip = new GZIPInputStream(bytesIn);
       int curOff = dstOff;
-      while (curOff < dst.length - dstOff) {
+      while (curOff < dst.length) {
         int amtRead = gzip.read(dst, curOff, dst.length - curOff);
         if (amtRead == -1) {
           break;
         }
         curOff += amtRead;
       }
-      return curOff;
+      // Return the number of decompressed bytes, not the end offset
+      return curOff - dstOff;
     } catch (IOException e) {
       throw new RuntimeException("Unexpected IOException while decompressing!", e);
     }
@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.compress;
+
+import com.rapleaf.hank.util.EncodingHelper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format, preceded by the
+ * uncompressed length as a varint so that the decompressor knows how much
+ * output to expect. This is not the LZ4 frame format. Compression uses a
+ * single hash table lookup per position; decompression is a simple array to
+ * array loop, which makes it much cheaper than gzip on every block read.
+ */
+public class Lz4CompressionCodec implements CompressionCodec {
+
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 65535;
+  // The last match must start at least 12 bytes before the end of the input,
+  // and the last 5 bytes are always literals
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int LAST_LITERALS = 5;
+
+  private static final int RUN_MASK = 15;
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    int op = dstOff + EncodingHelper.encodeLittleEndianVarInt(srcLength, dst, dstOff);
+    int end = srcOffset + srcLength;
+    int anchor = srcOffset;
+    if (srcLength > MATCH_FIND_LIMIT) {
+      int hashTableBits = MatchUtils.getHashTableBits(srcLength);
+      int[] hashTable = new int[1 << hashTableBits];
+      Arrays.fill(hashTable, -1);
+      int ip = srcOffset;
+      int matchFindLimit = end - MATCH_FIND_LIMIT;
+      int matchLimit = end - LAST_LITERALS;
+      while (ip < matchFindLimit) {
+        int sequence = MatchUtils.readInt(src, ip);
+        int hash = MatchUtils.hash(sequence, hashTableBits);
+        int candidate = hashTable[hash];
+        hashTable[hash] = ip;
+        if (candidate < 0 || ip - candidate > MAX_OFFSET || MatchUtils.readInt(src, candidate) != sequence) {
+          // Skip faster through data that does not compress
+          ip += 1 + ((ip - anchor) >>> 6);
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && src[candidate + matchLength] == src[ip + matchLength]) {
+          ++matchLength;
+        }
+        op = emitSequence(src, anchor, ip - anchor, ip - candidate, matchLength, dst, op);
+        ip += matchLength;
+        anchor = ip;
+      }
+    }
+    // Last sequence only holds literals
+    op = emitSequence(src, anchor, end - anchor, 0, 0, dst, op);
+    return op - dstOff;
+  }
+
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    if (srcLength == 0) {
+      return 0;
+    }
+    ByteBuffer header = ByteBuffer.wrap(src, srcOffset, srcLength);
+    int uncompressedLength = EncodingHelper.decodeLittleEndianVarInt(header);
+    if (uncompressedLength > dst.length - dstOff) {
+      throw new RuntimeException("Destination buffer is too small to decompress " + uncompressedLength + " bytes");
+    }
+    int ip = header.position();
+    int end = srcOffset + srcLength;
+    int op = dstOff;
+    int opEnd = dstOff + uncompressedLength;
+    while (ip < end) {
+      int token = src[ip++] & 0xff;
+      // Literals
+      int literalLength = token >>> 4;
+      if (literalLength == RUN_MASK) {
+        int b;
+        do {
+          b = src[ip++] & 0xff;
+          literalLength += b;
+        } while (b == 255);
+      }
+      if (literalLength > end - ip || literalLength > opEnd - op) {
+        throw new RuntimeException("Corrupt LZ4 data: literals overflow buffers");
+      }
+      System.arraycopy(src, ip, dst, op, literalLength);
+      ip += literalLength;
+      op += literalLength;
+      if (ip == end) {
+        break;
+      }
+      // Match
+      int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+      ip += 2;
+      int matchLength = token & RUN_MASK;
+      if (matchLength == RUN_MASK) {
+        int b;
+        do {
+          b = src[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (offset == 0 || offset > op - dstOff || matchLength > opEnd - op) {
+        throw new RuntimeException("Corrupt LZ4 data: invalid match");
+      }
+      op = MatchUtils.copyMatch(dst, op, offset, matchLength);
+    }
+    if (op != opEnd) {
+      throw new RuntimeException("Corrupt LZ4 data: expected " + uncompressedLength
+          + " bytes but decompressed " + (op - dstOff));
+    }
+    return uncompressedLength;
+  }
+
+  @Override
+  public int getMaxCompressBufferSize(int length) {
+    // Length header, plus one extra byte per 255 literals and a token
+    return EncodingHelper.MAX_VARINT_SIZE + length + length / 255 + 16;
+  }
+
+  // Emit a sequence of literals followed by a match. A match length of zero means no match.
+  private static int emitSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                                  byte[] dst, int op) {
+    int tokenOffset = op++;
+    int token;
+    if (literalLength >= RUN_MASK) {
+      token = RUN_MASK << 4;
+      op = writeLength(literalLength - RUN_MASK, dst, op);
+    } else {
+      token = literalLength << 4;
+    }
+    System.arraycopy(src, literalStart, dst, op, literalLength);
+    op += literalLength;
+    if (matchLength > 0) {
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      int matchLengthCode = matchLength - MIN_MATCH;
+      if (matchLengthCode >= RUN_MASK) {
+        token |= RUN_MASK;
+        op = writeLength(matchLengthCode - RUN_MASK, dst, op);
+      } else {
+        token |= matchLengthCode;
+      }
+    }
+    dst[tokenOffset] = (byte) token;
+    return op;
+  }
+
+  private static int writeLength(int length, byte[] dst, int op) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+}
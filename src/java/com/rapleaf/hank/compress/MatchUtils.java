@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.compress;
+
+/**
+ * Helpers shared by the LZ77 style codecs.
+ */
+final class MatchUtils {
+
+  private static final int MAX_HASH_TABLE_BITS = 14;
+
+  private MatchUtils() {
+  }
+
+  // Copy a previous sequence of the output, which may overlap with the bytes being written
+  public static int copyMatch(byte[] dst, int op, int offset, int length) {
+    int from = op - offset;
+    if (offset >= length) {
+      System.arraycopy(dst, from, dst, op, length);
+      return op + length;
+    }
+    int end = op + length;
+    while (op < end) {
+      dst[op++] = dst[from++];
+    }
+    return op;
+  }
+
+  public static int getHashTableBits(int length) {
+    int bits = 8;
+    while (bits < MAX_HASH_TABLE_BITS && (1 << bits) < length) {
+      ++bits;
+    }
+    return bits;
+  }
+
+  public static int hash(int sequence, int hashTableBits) {
+    return (sequence * 0x1e35a7bd) >>> (32 - hashTableBits);
+  }
+
+  public static int readInt(byte[] buffer, int off) {
+    return (buffer[off] & 0xff)
+        | ((buffer[off + 1] & 0xff) << 8)
+        | ((buffer[off + 2] & 0xff) << 16)
+        | ((buffer[off + 3] & 0xff) << 24);
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.compress;
+
+import com.rapleaf.hank.util.EncodingHelper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the Snappy raw format: the uncompressed length
+ * as a varint, followed by literal and copy elements. Compression finds
+ * matches with a single hash table lookup per position and favors speed over
+ * ratio. Decompression is a simple array to array loop.
+ */
+public class SnappyCompressionCodec implements CompressionCodec {
+
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 65535;
+  // Inputs smaller than this are stored as a single literal
+  private static final int MIN_COMPRESSIBLE_LENGTH = 16;
+
+  private static final int TAG_LITERAL = 0;
+  private static final int TAG_COPY_1_BYTE_OFFSET = 1;
+  private static final int TAG_COPY_2_BYTE_OFFSET = 2;
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    int op = dstOff + EncodingHelper.encodeLittleEndianVarInt(srcLength, dst, dstOff);
+    int end = srcOffset + srcLength;
+    int literalStart = srcOffset;
+    if (srcLength >= MIN_COMPRESSIBLE_LENGTH) {
+      int hashTableBits = MatchUtils.getHashTableBits(srcLength);
+      int[] hashTable = new int[1 << hashTableBits];
+      Arrays.fill(hashTable, -1);
+      int ip = srcOffset;
+      int ipLimit = end - MIN_MATCH;
+      while (ip <= ipLimit) {
+        int sequence = MatchUtils.readInt(src, ip);
+        int hash = MatchUtils.hash(sequence, hashTableBits);
+        int candidate = hashTable[hash];
+        hashTable[hash] = ip;
+        if (candidate < 0 || ip - candidate > MAX_OFFSET || MatchUtils.readInt(src, candidate) != sequence) {
+          // Skip faster through data that does not compress
+          ip += 1 + ((ip - literalStart) >>> 5);
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < end && src[candidate + matchLength] == src[ip + matchLength]) {
+          ++matchLength;
+        }
+        if (ip > literalStart) {
+          op = emitLiteral(src, literalStart, ip - literalStart, dst, op);
+        }
+        op = emitCopy(ip - candidate, matchLength, dst, op);
+        ip += matchLength;
+        literalStart = ip;
+      }
+    }
+    if (end > literalStart) {
+      op = emitLiteral(src, literalStart, end - literalStart, dst, op);
+    }
+    return op - dstOff;
+  }
+
+  @Override
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
+    if (srcLength == 0) {
+      return 0;
+    }
+    ByteBuffer header = ByteBuffer.wrap(src, srcOffset, srcLength);
+    int uncompressedLength = EncodingHelper.decodeLittleEndianVarInt(header);
+    if (uncompressedLength > dst.length - dstOff) {
+      throw new RuntimeException("Destination buffer is too small to decompress " + uncompressedLength + " bytes");
+    }
+    int ip = header.position();
+    int end = srcOffset + srcLength;
+    int op = dstOff;
+    int opEnd = dstOff + uncompressedLength;
+    while (ip < end) {
+      int tag = src[ip++] & 0xff;
+      int length;
+      int offset;
+      switch (tag & 3) {
+        case TAG_LITERAL:
+          length = tag >>> 2;
+          if (length >= 60) {
+            int numLengthBytes = length - 59;
+            length = readLittleEndian(src, ip, numLengthBytes);
+            ip += numLengthBytes;
+          }
+          length += 1;
+          if (length > end - ip || length > opEnd - op) {
+            throw new RuntimeException("Corrupt Snappy data: literal overflows buffers");
+          }
+          System.arraycopy(src, ip, dst, op, length);
+          ip += length;
+          op += length;
+          continue;
+        case TAG_COPY_1_BYTE_OFFSET:
+          length = ((tag >>> 2) & 7) + 4;
+          offset = ((tag >>> 5) << 8) | (src[ip++] & 0xff);
+          break;
+        case TAG_COPY_2_BYTE_OFFSET:
+          length = (tag >>> 2) + 1;
+          offset = readLittleEndian(src, ip, 2);
+          ip += 2;
+          break;
+        default:
+          // Copy with 4 byte offset
+          length = (tag >>> 2) + 1;
+          offset = readLittleEndian(src, ip, 4);
+          ip += 4;
+          break;
+      }
+      if (offset <= 0 || offset > op - dstOff || length > opEnd - op) {
+        throw new RuntimeException("Corrupt Snappy data: invalid copy");
+      }
+      op = MatchUtils.copyMatch(dst, op, offset, length);
+    }
+    if (op != opEnd) {
+      throw new RuntimeException("Corrupt Snappy data: expected " + uncompressedLength
+          + " bytes but decompressed " + (op - dstOff));
+    }
+    return uncompressedLength;
+  }
+
+  @Override
+  public int getMaxCompressBufferSize(int length) {
+    // Worst case of the reference implementation
+    return 32 + length + length / 6;
+  }
+
+  private static int emitLiteral(byte[] src, int srcOffset, int length, byte[] dst, int op) {
+    int n = length - 1;
+    if (n < 60) {
+      dst[op++] = (byte) (TAG_LITERAL | (n << 2));
+    } else {
+      int numLengthBytes = n < (1 << 8) ? 1 : n < (1 << 16) ? 2 : n < (1 << 24) ? 3 : 4;
+      dst[op++] = (byte) (TAG_LITERAL | ((59 + numLengthBytes) << 2));
+      for (int i = 0; i < numLengthBytes; ++i) {
+        dst[op++] = (byte) (n >>> (8 * i));
+      }
+    }
+    System.arraycopy(src, srcOffset, dst, op, length);
+    return op + length;
+  }
+
+  private static int emitCopy(int offset, int length, byte[] dst, int op) {
+    // Copy elements with 2 byte offsets hold at most 64 bytes
+    while (length >= 68) {
+      op = emitCopyWithTwoByteOffset(offset, 64, dst, op);
+      length -= 64;
+    }
+    if (length > 64) {
+      op = emitCopyWithTwoByteOffset(offset, 60, dst, op);
+      length -= 60;
+    }
+    if (length < 12 && offset < 2048) {
+      dst[op++] = (byte) (TAG_COPY_1_BYTE_OFFSET | ((length - 4) << 2) | ((offset >>> 8) << 5));
+      dst[op++] = (byte) offset;
+      return op;
+    }
+    return emitCopyWithTwoByteOffset(offset, length, dst, op);
+  }
+
+  private static int emitCopyWithTwoByteOffset(int offset, int length, byte[] dst, int op) {
+    dst[op++] = (byte) (TAG_COPY_2_BYTE_OFFSET | ((length - 1) << 2));
+    dst[op++] = (byte) offset;
+    dst[op++] = (byte) (offset >>> 8);
+    return op;
+  }
+
+  private static int readLittleEndian(byte[] buffer, int off, int numBytes) {
+    return (int) EncodingHelper.decodeLittleEndianFixedWidthLong(buffer, off, numBytes);
+  }
+}
@@ -31,4 +31,30 @@ public interface HankSmartClientConfigurator extends CoordinatorConfigurator {
   public int getQueryTimeoutMs();
 
   public int getBulkQueryTimeoutMs();
+
+  // Non-positive values select the client's default
+
+  public int getGetTaskExecutorNumThreads();
+
+  public int getGetTaskExecutorMaxNumPendingTasks();
+
+  // When the GET task executor is full, reject tasks instead of running them in the calling thread
+  public boolean getGetTaskExecutorRejectWhenFull();
+
+  // Multiplex concurrent requests over each connection instead of locking a connection per request
+  public boolean getUseMultiplexedConnections();
+
+  // Pick the host to query based on latencies and requests in flight instead of round robin
+  public boolean getUseLatencyAwareHostSelection();
+
+  // Send a duplicate GET to another host when the first one has not completed after the given delay.
+  // Non-positive values disable hedged requests.
+  public int getHedgedRequestDelayMs();
+
+  // Use the given percentile of recent GET latencies as hedged request delay instead of the fixed delay.
+  // Non-positive values disable it.
+  public int getHedgedRequestLatencyPercentile();
+
+  // Maximum size of the client side cache of GET results, in bytes. Non-positive values disable it.
+  public long getResultCacheMaxNumBytes();
 }
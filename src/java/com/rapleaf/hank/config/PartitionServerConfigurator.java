@@ -24,6 +24,15 @@ public interface PartitionServerConfigurator extends CoordinatorConfigurator, Da
 
   public int getNumConcurrentUpdates();
 
+  // Maximum number of concurrent updates writing to the same data directory, or -1 if unbounded
+  public int getMaxConcurrentUpdatesPerDataDirectory();
+
+  // Bytes per second that updates can write to each data directory, or -1 if unbounded
+  public long getMaxUpdateBytesPerSecondPerDataDirectory();
+
+  // Execute updates while serving data, and swap Readers of updated partitions once the update is done
+  public boolean getUpdateWhileServing();
+
   public int getNumConcurrentQueries();
 
   public int getNumConcurrentGetBulkTasks();
@@ -31,4 +40,13 @@ public interface PartitionServerConfigurator extends CoordinatorConfigurator, Da
   public int getGetBulkTaskSize();
 
   public int getGetTimerAggregatorWindow();
+
+  // Host-wide budget in bytes shared by the value caches of all domains, or -1 if caches are sized per domain
+  public long getCacheCapacityBytes();
+
+  // Answer requests received on a connection concurrently and out of order, for multiplexed client connections
+  public boolean getUseMultiplexedThriftServer();
+
+  // Maximum number of GET BULK keys being served before new GET BULK requests are rejected, or -1 if unbounded
+  public long getGetBulkMaxNumPendingKeys();
 }
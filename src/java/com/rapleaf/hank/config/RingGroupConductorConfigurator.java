@@ -25,4 +25,8 @@ public interface RingGroupConductorConfigurator extends CoordinatorConfigurator
   public long getSleepInterval();
 
   public RingGroupConductorMode getInitialMode();
+
+  // Command serving hosts to update without going idle first. Partition servers that are not configured to
+  // update while serving go idle when commanded to update.
+  public boolean getUpdateWhileServing();
 }
@@ -31,6 +31,14 @@ public class YamlHankSmartClientConfigurator extends YamlCoordinatorConfigurator
   private static final String ESTABLISH_CONNECTION_TIMEOUT_MS_KEY = "establish_connection_timeout_ms";
   private static final String QUERY_TIMEOUT_MS_KEY = "query_timeout_ms";
   private static final String BULK_QUERY_TIMEOUT_MS_KEY = "bulk_query_timeout_ms";
+  private static final String GET_TASK_EXECUTOR_NUM_THREADS_KEY = "get_task_executor_num_threads";
+  private static final String GET_TASK_EXECUTOR_MAX_NUM_PENDING_TASKS_KEY = "get_task_executor_max_num_pending_tasks";
+  private static final String GET_TASK_EXECUTOR_REJECT_WHEN_FULL_KEY = "get_task_executor_reject_when_full";
+  private static final String USE_MULTIPLEXED_CONNECTIONS_KEY = "use_multiplexed_connections";
+  private static final String LATENCY_AWARE_HOST_SELECTION_KEY = "latency_aware_host_selection";
+  private static final String HEDGED_REQUEST_DELAY_MS_KEY = "hedged_request_delay_ms";
+  private static final String HEDGED_REQUEST_LATENCY_PERCENTILE_KEY = "hedged_request_latency_percentile";
+  private static final String RESULT_CACHE_MAX_NUM_BYTES_KEY = "result_cache_max_num_bytes";
 
   public YamlHankSmartClientConfigurator(String configurationPath) throws FileNotFoundException, InvalidConfigurationException {
     super(configurationPath);
@@ -83,4 +91,69 @@ public class YamlHankSmartClientConfigurator extends YamlCoordinatorConfigurator
   public int getBulkQueryTimeoutMs() {
     return getInteger(HANK_SMART_CLIENT_SECTION_KEY, BULK_QUERY_TIMEOUT_MS_KEY);
   }
+
+  @Override
+  public int getGetTaskExecutorNumThreads() {
+    Integer numThreads = getOptionalInteger(HANK_SMART_CLIENT_SECTION_KEY, GET_TASK_EXECUTOR_NUM_THREADS_KEY);
+    if (numThreads == null) {
+      return -1;
+    }
+    return numThreads;
+  }
+
+  @Override
+  public int getGetTaskExecutorMaxNumPendingTasks() {
+    Integer maxNumPendingTasks = getOptionalInteger(HANK_SMART_CLIENT_SECTION_KEY,
+        GET_TASK_EXECUTOR_MAX_NUM_PENDING_TASKS_KEY);
+    if (maxNumPendingTasks == null) {
+      return -1;
+    }
+    return maxNumPendingTasks;
+  }
+
+  @Override
+  public boolean getGetTaskExecutorRejectWhenFull() {
+    Boolean rejectWhenFull = getOptionalBoolean(HANK_SMART_CLIENT_SECTION_KEY, GET_TASK_EXECUTOR_REJECT_WHEN_FULL_KEY);
+    return rejectWhenFull != null && rejectWhenFull;
+  }
+
+  @Override
+  public boolean getUseMultiplexedConnections() {
+    Boolean useMultiplexedConnections = getOptionalBoolean(HANK_SMART_CLIENT_SECTION_KEY, USE_MULTIPLEXED_CONNECTIONS_KEY);
+    return useMultiplexedConnections != null && useMultiplexedConnections;
+  }
+
+  @Override
+  public boolean getUseLatencyAwareHostSelection() {
+    Boolean latencyAwareHostSelection = getOptionalBoolean(HANK_SMART_CLIENT_SECTION_KEY,
+        LATENCY_AWARE_HOST_SELECTION_KEY);
+    return latencyAwareHostSelection != null && latencyAwareHostSelection;
+  }
+
+  @Override
+  public int getHedgedRequestDelayMs() {
+    Integer delayMs = getOptionalInteger(HANK_SMART_CLIENT_SECTION_KEY, HEDGED_REQUEST_DELAY_MS_KEY);
+    if (delayMs == null) {
+      return -1;
+    }
+    return delayMs;
+  }
+
+  @Override
+  public int getHedgedRequestLatencyPercentile() {
+    Integer percentile = getOptionalInteger(HANK_SMART_CLIENT_SECTION_KEY, HEDGED_REQUEST_LATENCY_PERCENTILE_KEY);
+    if (percentile == null) {
+      return -1;
+    }
+    return percentile;
+  }
+
+  @Override
+  public long getResultCacheMaxNumBytes() {
+    Long maxNumBytes = getOptionalLong(HANK_SMART_CLIENT_SECTION_KEY, RESULT_CACHE_MAX_NUM_BYTES_KEY);
+    if (maxNumBytes == null) {
+      return -1;
+    }
+    return maxNumBytes;
+  }
 }
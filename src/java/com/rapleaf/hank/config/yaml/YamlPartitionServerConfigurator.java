@@ -33,9 +33,15 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public static final String NUM_CONCURRENT_QUERIES_KEY = "num_concurrent_queries";
   public static final String UPDATE_DAEMON_SECTION_KEY = "update_daemon";
   public static final String NUM_CONCURRENT_UPDATES_KEY = "num_concurrent_updates";
+  public static final String MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY = "max_concurrent_updates_per_data_directory";
+  public static final String MAX_UPDATE_BYTES_PER_SECOND_PER_DATA_DIRECTORY_KEY = "max_update_bytes_per_second_per_data_directory";
+  public static final String UPDATE_WHILE_SERVING_KEY = "update_while_serving";
   public static final String NUM_CONCURRENT_GET_BULK_TASKS = "num_concurrent_get_bulk_tasks";
   public static final String GET_BULK_TASK_SIZE = "get_bulk_task_size";
   public static final String GET_TIMER_AGGREGATOR_WINDOW_KEY = "get_timer_aggregator_window";
+  public static final String CACHE_CAPACITY_BYTES_KEY = "cache_capacity_bytes";
+  public static final String USE_MULTIPLEXED_THRIFT_SERVER_KEY = "use_multiplexed_thrift_server";
+  public static final String GET_BULK_MAX_NUM_PENDING_KEYS_KEY = "get_bulk_max_num_pending_keys";
 
   public YamlPartitionServerConfigurator(String path) throws IOException,
       InvalidConfigurationException {
@@ -105,8 +111,62 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
         GET_TIMER_AGGREGATOR_WINDOW_KEY);
   }
 
+  @Override
+  public long getCacheCapacityBytes() {
+    Long cacheCapacityBytes = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        CACHE_CAPACITY_BYTES_KEY);
+    if (cacheCapacityBytes == null) {
+      return -1;
+    }
+    return cacheCapacityBytes;
+  }
+
+  @Override
+  public boolean getUseMultiplexedThriftServer() {
+    Boolean useMultiplexedThriftServer = getOptionalBoolean(PARTITION_SERVER_SECTION_KEY,
+        PARTITION_SERVER_DAEMON_SECTION_KEY, USE_MULTIPLEXED_THRIFT_SERVER_KEY);
+    return useMultiplexedThriftServer != null && useMultiplexedThriftServer;
+  }
+
+  @Override
+  public long getGetBulkMaxNumPendingKeys() {
+    Long getBulkMaxNumPendingKeys = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
+        GET_BULK_MAX_NUM_PENDING_KEYS_KEY);
+    if (getBulkMaxNumPendingKeys == null) {
+      return -1;
+    }
+    return getBulkMaxNumPendingKeys;
+  }
+
   @Override
   public int getNumConcurrentUpdates() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, NUM_CONCURRENT_UPDATES_KEY);
   }
+
+  @Override
+  public int getMaxConcurrentUpdatesPerDataDirectory() {
+    Integer maxConcurrentUpdatesPerDataDirectory = getOptionalInteger(PARTITION_SERVER_SECTION_KEY,
+        UPDATE_DAEMON_SECTION_KEY, MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY);
+    if (maxConcurrentUpdatesPerDataDirectory == null) {
+      return -1;
+    }
+    return maxConcurrentUpdatesPerDataDirectory;
+  }
+
+  @Override
+  public long getMaxUpdateBytesPerSecondPerDataDirectory() {
+    Long maxUpdateBytesPerSecondPerDataDirectory = getOptionalLong(PARTITION_SERVER_SECTION_KEY,
+        UPDATE_DAEMON_SECTION_KEY, MAX_UPDATE_BYTES_PER_SECOND_PER_DATA_DIRECTORY_KEY);
+    if (maxUpdateBytesPerSecondPerDataDirectory == null) {
+      return -1;
+    }
+    return maxUpdateBytesPerSecondPerDataDirectory;
+  }
+
+  @Override
+  public boolean getUpdateWhileServing() {
+    Boolean updateWhileServing = getOptionalBoolean(PARTITION_SERVER_SECTION_KEY,
+        UPDATE_DAEMON_SECTION_KEY, UPDATE_WHILE_SERVING_KEY);
+    return updateWhileServing != null && updateWhileServing;
+  }
 }
@@ -27,6 +27,7 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
   public static final String SLEEP_INTERVAL_KEY = "sleep_interval";
   public static final String RING_GROUP_NAME_KEY = "ring_group_name";
   public static final String INITIAL_MODE_KEY = "initial_mode";
+  public static final String UPDATE_WHILE_SERVING_KEY = "update_while_serving";
 
   public YamlRingGroupConductorConfigurator(String configPath) throws IOException, InvalidConfigurationException {
     super(configPath);
@@ -47,6 +48,12 @@ public class YamlRingGroupConductorConfigurator extends YamlCoordinatorConfigura
     return RingGroupConductorMode.valueOf(getString(RING_GROUP_CONDUCTOR_SECTION_KEY, INITIAL_MODE_KEY));
   }
 
+  @Override
+  public boolean getUpdateWhileServing() {
+    Boolean updateWhileServing = getOptionalBoolean(RING_GROUP_CONDUCTOR_SECTION_KEY, UPDATE_WHILE_SERVING_KEY);
+    return updateWhileServing != null && updateWhileServing;
+  }
+
   @Override
   protected void validate() throws InvalidConfigurationException {
     super.validate();
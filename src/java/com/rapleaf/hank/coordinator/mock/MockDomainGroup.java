@@ -25,7 +25,7 @@ public class MockDomainGroup extends AbstractDomainGroup implements DomainGroup
   private final String name;
   private Set<DomainGroupDomainVersion> domainVersions = new HashSet<DomainGroupDomainVersion>();
   private Collection<DomainGroupListener> listeners
-      = new TreeSet<DomainGroupListener>();
+      = new HashSet<DomainGroupListener>();
 
   public MockDomainGroup(String name) {
     this.name = name;
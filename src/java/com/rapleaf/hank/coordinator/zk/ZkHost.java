@@ -94,6 +94,7 @@ public class ZkHost extends AbstractHost {
     }
     this.state = new WatchedEnum<HostState>(HostState.class, zk, ZkPath.append(path, STATE_PATH), false);
     this.state.addListener(new DataLocationChangeNotifier());
+    this.assignments.addListener(new AssignmentsDataLocationChangeNotifier());
     this.statistics = new WatchedThriftNode<StatisticsMetadata>(zk, ZkPath.append(path, STATISTICS_PATH),
         false, null, null, new StatisticsMetadata());
     commandQueueWatcher = new CommandQueueWatcher();
@@ -114,6 +115,17 @@ public class ZkHost extends AbstractHost {
     }
   }
 
+  // Partitions can be updated while the host keeps serving, in which case only their current versions change
+  private class AssignmentsDataLocationChangeNotifier implements WatchedNodeListener<HostAssignmentsMetadata> {
+
+    @Override
+    public void onWatchedNodeChange(HostAssignmentsMetadata value) {
+      if (state.get() == HostState.SERVING) {
+        fireDataLocationChangeListener();
+      }
+    }
+  }
+
   private class CommandQueueWatcher extends HankWatcher {
     protected CommandQueueWatcher() throws KeeperException, InterruptedException {
       super();
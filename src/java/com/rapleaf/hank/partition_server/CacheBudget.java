@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.coordinator.Domain;
+import com.rapleaf.hank.storage.cache.ValueCache;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host-wide memory budget shared by the value caches of all domains served by
+ * a partition server. Caches are grouped by domain and by level (L1 or L2).
+ * Part of the budget is split evenly between groups so that cold caches can
+ * still warm up, and the rest is split proportionally to the number of cache
+ * hits of each group since the last allocation, so that hot domains get more
+ * cache. Within a group, the budget is split evenly between partitions.
+ */
+public class CacheBudget {
+
+  private static final Logger LOG = Logger.getLogger(CacheBudget.class);
+
+  // Fraction of the budget that is split evenly between groups regardless of hits
+  static final double FIXED_SHARE = 0.2;
+
+  private final long numBytes;
+
+  public CacheBudget(long numBytes) {
+    if (numBytes <= 0) {
+      throw new IllegalArgumentException("Cache budget must be positive: " + numBytes);
+    }
+    this.numBytes = numBytes;
+  }
+
+  public long getNumBytes() {
+    return numBytes;
+  }
+
+  // Allocate the budget between the caches of the given domains. Statistics may be null, in which case
+  // the budget is split evenly. Allocations can be requested concurrently, when Readers are swapped.
+  public synchronized void allocate(DomainAccessor[] domainAccessors,
+                       Map<Domain, RuntimeStatisticsAggregator> runtimeStatisticsAggregators) {
+    List<List<ValueCache>> cacheGroups = new ArrayList<List<ValueCache>>();
+    List<Long> numHits = new ArrayList<Long>();
+    for (DomainAccessor domainAccessor : domainAccessors) {
+      if (domainAccessor == null) {
+        continue;
+      }
+      RuntimeStatisticsAggregator statistics = runtimeStatisticsAggregators == null ? null
+          : runtimeStatisticsAggregators.get(domainAccessor.getHostDomain().getDomain());
+      cacheGroups.add(domainAccessor.getL1Caches());
+      numHits.add(statistics == null ? 0 : statistics.getL1CacheStatistics().getNumHits());
+      cacheGroups.add(domainAccessor.getL2Caches());
+      numHits.add(statistics == null ? 0 : statistics.getL2CacheStatistics().getNumHits());
+    }
+    long[] numHitsArray = new long[numHits.size()];
+    for (int i = 0; i < numHitsArray.length; ++i) {
+      numHitsArray[i] = numHits.get(i);
+    }
+    allocate(cacheGroups, numHitsArray);
+  }
+
+  // Allocate the budget between the given groups of caches, weighted by their number of hits
+  void allocate(List<List<ValueCache>> cacheGroups, long[] numHits) {
+    int numGroups = 0;
+    long totalNumHits = 0;
+    for (int i = 0; i < cacheGroups.size(); ++i) {
+      if (!cacheGroups.get(i).isEmpty()) {
+        ++numGroups;
+        totalNumHits += numHits[i];
+      }
+    }
+    if (numGroups == 0) {
+      return;
+    }
+    for (int i = 0; i < cacheGroups.size(); ++i) {
+      List<ValueCache> caches = cacheGroups.get(i);
+      if (caches.isEmpty()) {
+        continue;
+      }
+      double share;
+      if (totalNumHits == 0) {
+        share = 1.0 / numGroups;
+      } else {
+        share = FIXED_SHARE / numGroups + (1.0 - FIXED_SHARE) * numHits[i] / totalNumHits;
+      }
+      // A non-positive capacity would mean unbounded, always leave at least one byte
+      long cacheNumBytes = Math.max(1, (long) (numBytes * share) / caches.size());
+      for (ValueCache cache : caches) {
+        cache.setNumBytesCapacity(cacheNumBytes);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Allocated %d bytes to each of %d caches (%.2f%% of the budget)",
+            cacheNumBytes, caches.size(), share * 100));
+      }
+    }
+  }
+}
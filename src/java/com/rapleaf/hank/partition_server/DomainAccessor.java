@@ -23,10 +23,14 @@ import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.performance.HankTimer;
 import com.rapleaf.hank.performance.HankTimerAggregator;
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.ValueCache;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class that manages accessing data on behalf of a particular Domain.
@@ -37,7 +41,8 @@ public class DomainAccessor {
 
   private static final Logger LOG = Logger.getLogger(DomainAccessor.class);
   private final HostDomain hostDomain;
-  private final PartitionAccessor[] partitionAccessors;
+  // Partition accessors can be added while serving, when partitions are updated
+  private final AtomicReferenceArray<PartitionAccessor> partitionAccessors;
   private final Partitioner partitioner;
   private final HankTimerAggregator getRequestsTimerAggregator;
 
@@ -46,7 +51,7 @@ public class DomainAccessor {
                  Partitioner partitioner,
                  int getTimerAggregatorWindow) throws IOException {
     this.hostDomain = hostDomain;
-    this.partitionAccessors = partitionAccessors;
+    this.partitionAccessors = new AtomicReferenceArray<PartitionAccessor>(partitionAccessors);
     this.partitioner = partitioner;
     this.getRequestsTimerAggregator = new HankTimerAggregator("GET " + hostDomain.getDomain().getName(),
         getTimerAggregatorWindow);
@@ -56,8 +61,8 @@ public class DomainAccessor {
     HankTimer timer = getRequestsTimerAggregator.getTimer();
     try {
       LOG.trace("Domain GET");
-      int partition = partitioner.partition(key, partitionAccessors.length);
-      PartitionAccessor partitionAccessor = partitionAccessors[partition];
+      int partition = partitioner.partition(key, partitionAccessors.length());
+      PartitionAccessor partitionAccessor = partitionAccessors.get(partition);
       if (partitionAccessor == null) {
         return WRONG_HOST;
       }
@@ -75,9 +80,47 @@ public class DomainAccessor {
     return hostDomain;
   }
 
+  // Return null if the partition is not served
+  public PartitionAccessor getPartitionAccessor(int partitionNumber) {
+    return partitionAccessors.get(partitionNumber);
+  }
+
+  void setPartitionAccessor(int partitionNumber, PartitionAccessor partitionAccessor) {
+    partitionAccessors.set(partitionNumber, partitionAccessor);
+  }
+
+  public int getNumPartitions() {
+    return partitionAccessors.length();
+  }
+
+  // Return the L1 caches of all partitions
+  public List<ValueCache> getL1Caches() {
+    List<ValueCache> result = new ArrayList<ValueCache>();
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
+      if (partitionAccessor != null && partitionAccessor.getL1Cache() != null) {
+        result.add(partitionAccessor.getL1Cache());
+      }
+    }
+    return result;
+  }
+
+  // Return the L2 caches of all partitions
+  public List<ValueCache> getL2Caches() {
+    List<ValueCache> result = new ArrayList<ValueCache>();
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
+      if (partitionAccessor != null && partitionAccessor.getL2Cache() != null) {
+        result.add(partitionAccessor.getL2Cache());
+      }
+    }
+    return result;
+  }
+
   public void shutDown() {
     // Shutdown partition accessors
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
       if (partitionAccessor != null) {
         partitionAccessor.shutDown();
       }
@@ -86,7 +129,8 @@ public class DomainAccessor {
 
   public RuntimeStatisticsAggregator getRuntimeStatistics() {
     RuntimeStatisticsAggregator runtimeStatisticsAggregator = new RuntimeStatisticsAggregator();
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    for (int i = 0; i < partitionAccessors.length(); ++i) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(i);
       if (partitionAccessor != null) {
         runtimeStatisticsAggregator.add(partitionAccessor.getRuntimeStatistics());
       }
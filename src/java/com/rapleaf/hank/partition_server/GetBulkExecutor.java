@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import org.apache.log4j.Logger;
+
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes GET BULK requests with a fixed set of worker threads.
+ * <p/>
+ * Each request is a job over a range of keys. Keys are claimed in chunks, both by worker threads and by
+ * the thread that submitted the job, which helps with its own job instead of only waiting for it. Chunks
+ * are large at first and shrink as fewer keys remain (guided self-scheduling), so that a job's last
+ * chunks are spread evenly over the threads working on it. Worker threads take one chunk at a time from
+ * the job at the head of the queue and then move that job to the tail, so that concurrent requests are
+ * served in a round robin fashion and a huge request can not starve the others.
+ * <p/>
+ * The number of keys of admitted jobs that have not completed yet is bounded. Jobs that would exceed
+ * that bound are rejected, unless no other job is pending.
+ */
+class GetBulkExecutor {
+
+  private static final Logger LOG = Logger.getLogger(GetBulkExecutor.class);
+
+  // Processes keys of a GET BULK request. Implementations must support concurrent calls on disjoint ranges.
+  interface KeyRangeProcessor {
+    public void process(int fromKeyIndex, int toKeyIndex);
+  }
+
+  private final Thread[] workers;
+  private final int maxChunkSize;
+  private final int minChunkSize;
+  private final long maxNumPendingKeys;
+
+  // Jobs that have unclaimed keys, guarded by this
+  private final LinkedList<Job> jobs = new LinkedList<Job>();
+  private boolean stopping = false;
+
+  private final AtomicLong numPendingKeys = new AtomicLong();
+  private final AtomicLong numRejectedJobs = new AtomicLong();
+
+  // Non-positive max number of pending keys means unbounded
+  GetBulkExecutor(int numWorkers, int maxChunkSize, long maxNumPendingKeys, ThreadFactory threadFactory) {
+    if (numWorkers <= 0) {
+      throw new IllegalArgumentException("Number of GET BULK workers must be positive: " + numWorkers);
+    }
+    if (maxChunkSize <= 0) {
+      throw new IllegalArgumentException("GET BULK task size must be positive: " + maxChunkSize);
+    }
+    this.maxChunkSize = maxChunkSize;
+    this.minChunkSize = Math.max(1, maxChunkSize / 4);
+    this.maxNumPendingKeys = maxNumPendingKeys;
+    workers = new Thread[numWorkers];
+    for (int i = 0; i < numWorkers; ++i) {
+      workers[i] = threadFactory.newThread(new Worker());
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  // Process all keys and return true when done, or return false if the job was rejected
+  public boolean execute(int numKeys, KeyRangeProcessor processor) throws InterruptedException {
+    if (numKeys == 0) {
+      return true;
+    }
+    if (!admit(numKeys)) {
+      numRejectedJobs.incrementAndGet();
+      return false;
+    }
+    Job job = new Job(numKeys, processor);
+    try {
+      synchronized (this) {
+        jobs.addLast(job);
+        notifyAll();
+      }
+      // Help with this job
+      Chunk chunk;
+      while ((chunk = job.claimChunk()) != null) {
+        job.process(chunk);
+      }
+      job.awaitCompletion();
+    } finally {
+      numPendingKeys.addAndGet(-numKeys);
+    }
+    if (job.failure != null) {
+      throw new RuntimeException("Exception while executing GET BULK", job.failure);
+    }
+    return true;
+  }
+
+  private boolean admit(int numKeys) {
+    if (maxNumPendingKeys <= 0) {
+      numPendingKeys.addAndGet(numKeys);
+      return true;
+    }
+    while (true) {
+      long current = numPendingKeys.get();
+      if (current > 0 && current + numKeys > maxNumPendingKeys) {
+        return false;
+      }
+      if (numPendingKeys.compareAndSet(current, current + numKeys)) {
+        return true;
+      }
+    }
+  }
+
+  // Number of keys of admitted jobs that have not completed yet
+  public long getNumPendingKeys() {
+    return numPendingKeys.get();
+  }
+
+  // Number of jobs rejected since this executor was created
+  public long getNumRejectedJobs() {
+    return numRejectedJobs.get();
+  }
+
+  public void shutDown() throws InterruptedException {
+    synchronized (this) {
+      stopping = true;
+      notifyAll();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+  }
+
+  // Take a chunk from the job at the head of the queue, and move that job to the tail
+  private synchronized JobAndChunk takeChunk() throws InterruptedException {
+    while (true) {
+      while (jobs.isEmpty() && !stopping) {
+        wait();
+      }
+      if (stopping) {
+        return null;
+      }
+      Job job = jobs.removeFirst();
+      Chunk chunk = job.claimChunk();
+      if (chunk != null) {
+        if (job.hasUnclaimedKeys()) {
+          jobs.addLast(job);
+        }
+        return new JobAndChunk(job, chunk);
+      }
+      // All keys of this job have been claimed already, drop it
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        JobAndChunk jobAndChunk;
+        while ((jobAndChunk = takeChunk()) != null) {
+          jobAndChunk.job.process(jobAndChunk.chunk);
+        }
+      } catch (InterruptedException e) {
+        LOG.debug("GET BULK worker interrupted.");
+      }
+    }
+  }
+
+  private static class Chunk {
+    private final int fromKeyIndex;
+    private final int toKeyIndex;
+
+    private Chunk(int fromKeyIndex, int toKeyIndex) {
+      this.fromKeyIndex = fromKeyIndex;
+      this.toKeyIndex = toKeyIndex;
+    }
+  }
+
+  private static class JobAndChunk {
+    private final Job job;
+    private final Chunk chunk;
+
+    private JobAndChunk(Job job, Chunk chunk) {
+      this.job = job;
+      this.chunk = chunk;
+    }
+  }
+
+  private class Job {
+
+    private final int numKeys;
+    private final KeyRangeProcessor processor;
+    private final AtomicInteger nextKeyIndex = new AtomicInteger(0);
+    private final AtomicInteger numCompletedKeys = new AtomicInteger(0);
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile Throwable failure = null;
+
+    private Job(int numKeys, KeyRangeProcessor processor) {
+      this.numKeys = numKeys;
+      this.processor = processor;
+    }
+
+    // Return null if all keys have been claimed
+    private Chunk claimChunk() {
+      while (true) {
+        int fromKeyIndex = nextKeyIndex.get();
+        int numRemainingKeys = numKeys - fromKeyIndex;
+        if (numRemainingKeys <= 0) {
+          return null;
+        }
+        // Share remaining keys between workers and the submitting thread, within chunk size bounds
+        int chunkSize = numRemainingKeys / (2 * (workers.length + 1));
+        chunkSize = Math.min(numRemainingKeys, Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize)));
+        if (nextKeyIndex.compareAndSet(fromKeyIndex, fromKeyIndex + chunkSize)) {
+          return new Chunk(fromKeyIndex, fromKeyIndex + chunkSize);
+        }
+      }
+    }
+
+    private boolean hasUnclaimedKeys() {
+      return nextKeyIndex.get() < numKeys;
+    }
+
+    private void process(Chunk chunk) {
+      try {
+        processor.process(chunk.fromKeyIndex, chunk.toKeyIndex);
+      } catch (Throwable t) {
+        LOG.error("Exception while processing GET BULK keys", t);
+        failure = t;
+      } finally {
+        if (numCompletedKeys.addAndGet(chunk.toKeyIndex - chunk.fromKeyIndex) == numKeys) {
+          completed.countDown();
+        }
+      }
+    }
+
+    private void awaitCompletion() throws InterruptedException {
+      completed.await();
+    }
+  }
+}
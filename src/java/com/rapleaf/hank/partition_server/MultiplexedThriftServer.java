@@ -0,0 +1,267 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.partition_server;
+
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Thrift server that processes the requests received on a given connection concurrently and answers
+ * them as soon as they complete, possibly out of order. Clients match responses to requests using
+ * the sequence id of Thrift messages. Frames are the same as with TFramedTransport, so clients that
+ * wait for each response before sending their next request are also supported.
+ * <p/>
+ * Each connection has a thread reading its requests, and requests are processed by a shared pool of
+ * worker threads. This server is meant for clients that multiplex many requests over a few connections.
+ */
+public class MultiplexedThriftServer extends TServer {
+
+  private static final Logger LOG = Logger.getLogger(MultiplexedThriftServer.class);
+
+  private static final int MAX_FRAME_NUM_BYTES = 256 << 20;
+
+  public static class Args extends AbstractServerArgs<Args> {
+    private int workerThreads = 5;
+    private int maxNumPendingRequestsPerConnection = 1024;
+
+    public Args(TServerTransport transport) {
+      super(transport);
+    }
+
+    public Args workerThreads(int workerThreads) {
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    public Args maxNumPendingRequestsPerConnection(int maxNumPendingRequestsPerConnection) {
+      this.maxNumPendingRequestsPerConnection = maxNumPendingRequestsPerConnection;
+      return this;
+    }
+  }
+
+  private final int workerThreads;
+  private final int maxNumPendingRequestsPerConnection;
+  private final Set<Connection> connections = Collections.synchronizedSet(new HashSet<Connection>());
+  private ExecutorService workers;
+  private volatile boolean stopped = false;
+
+  public MultiplexedThriftServer(Args args) {
+    super(args);
+    this.workerThreads = args.workerThreads;
+    this.maxNumPendingRequestsPerConnection = args.maxNumPendingRequestsPerConnection;
+  }
+
+  @Override
+  public void serve() {
+    try {
+      serverTransport_.listen();
+    } catch (TTransportException e) {
+      LOG.error("Failed to listen on server transport", e);
+      return;
+    }
+    workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+      private int threadId = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Multiplexed Thrift server worker #" + threadId++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    stopped = false;
+    setServing(true);
+    while (!stopped) {
+      TTransport transport;
+      try {
+        transport = serverTransport_.accept();
+      } catch (TTransportException e) {
+        if (!stopped) {
+          LOG.error("Failed to accept connection. Stopping server.", e);
+        }
+        break;
+      }
+      try {
+        Connection connection = new Connection(transport);
+        connections.add(connection);
+        Thread thread = new Thread(connection, "Multiplexed Thrift server connection reader");
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        LOG.error("Failed to set up connection", e);
+        transport.close();
+      }
+    }
+    // Shut down
+    stopped = true;
+    serverTransport_.close();
+    List<Connection> connectionsToClose;
+    synchronized (connections) {
+      connectionsToClose = new ArrayList<Connection>(connections);
+    }
+    for (Connection connection : connectionsToClose) {
+      connection.close();
+    }
+    workers.shutdown();
+    setServing(false);
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    serverTransport_.interrupt();
+  }
+
+  private class Connection implements Runnable {
+
+    private final TTransport transport;
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final TProcessor processor;
+    // Bounds the number of requests read from this connection but not answered yet
+    private final Semaphore pendingRequests = new Semaphore(maxNumPendingRequestsPerConnection);
+
+    public Connection(TTransport transport) throws IOException {
+      if (!(transport instanceof TSocket)) {
+        throw new IOException("Unsupported transport: " + transport.getClass().getName());
+      }
+      this.transport = transport;
+      this.socket = ((TSocket) transport).getSocket();
+      this.socket.setTcpNoDelay(true);
+      this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      this.processor = processorFactory_.getProcessor(transport);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          int frameNumBytes;
+          try {
+            frameNumBytes = input.readInt();
+          } catch (EOFException e) {
+            // Client closed the connection
+            break;
+          }
+          if (frameNumBytes < 0 || frameNumBytes > MAX_FRAME_NUM_BYTES) {
+            throw new IOException("Invalid frame size: " + frameNumBytes);
+          }
+          byte[] frame = new byte[frameNumBytes];
+          input.readFully(frame);
+          pendingRequests.acquire();
+          workers.execute(new Request(this, frame));
+        }
+      } catch (Exception e) {
+        if (!stopped && !socket.isClosed()) {
+          LOG.error("Error while reading requests. Closing connection.", e);
+        }
+      } finally {
+        close();
+      }
+    }
+
+    public void process(byte[] frame) {
+      try {
+        TMemoryBuffer outputBuffer = new TMemoryBuffer(256);
+        processor.process(inputProtocolFactory_.getProtocol(new TMemoryInputTransport(frame)),
+            outputProtocolFactory_.getProtocol(outputBuffer));
+        // One way calls do not have a response
+        if (outputBuffer.length() > 0) {
+          synchronized (output) {
+            output.writeInt(outputBuffer.length());
+            output.write(outputBuffer.getArray(), 0, outputBuffer.length());
+            output.flush();
+          }
+        }
+      } catch (TException e) {
+        LOG.error("Failed to process request. Closing connection.", e);
+        close();
+      } catch (RuntimeException e) {
+        // Answer with an exception so that the client does not wait for a response until it times out
+        LOG.error("Failed to process request. Sending exception.", e);
+        sendException(frame, e);
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          LOG.error("Failed to send response. Closing connection.", e);
+        }
+        close();
+      } finally {
+        pendingRequests.release();
+      }
+    }
+
+    // Send a TApplicationException in response to the given request, or close the connection if that fails
+    private void sendException(byte[] frame, RuntimeException cause) {
+      try {
+        TMessage request = inputProtocolFactory_.getProtocol(new TMemoryInputTransport(frame)).readMessageBegin();
+        TMemoryBuffer outputBuffer = new TMemoryBuffer(256);
+        TProtocol outputProtocol = outputProtocolFactory_.getProtocol(outputBuffer);
+        outputProtocol.writeMessageBegin(new TMessage(request.name, TMessageType.EXCEPTION, request.seqid));
+        new TApplicationException(TApplicationException.INTERNAL_ERROR,
+            "Failed to process " + request.name + ": " + cause).write(outputProtocol);
+        outputProtocol.writeMessageEnd();
+        synchronized (output) {
+          output.writeInt(outputBuffer.length());
+          output.write(outputBuffer.getArray(), 0, outputBuffer.length());
+          output.flush();
+        }
+      } catch (TException e) {
+        LOG.error("Failed to send exception. Closing connection.", e);
+        close();
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          LOG.error("Failed to send exception. Closing connection.", e);
+        }
+        close();
+      }
+    }
+
+    public void close() {
+      transport.close();
+      connections.remove(this);
+    }
+  }
+
+  private static class Request implements Runnable {
+
+    private final Connection connection;
+    private final byte[] frame;
+
+    private Request(Connection connection, byte[] frame) {
+      this.connection = connection;
+      this.frame = frame;
+    }
+
+    @Override
+    public void run() {
+      connection.process(frame);
+    }
+  }
+}
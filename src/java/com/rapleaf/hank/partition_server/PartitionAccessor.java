@@ -21,16 +21,25 @@ import com.rapleaf.hank.generated.HankResponse;
 import com.rapleaf.hank.performance.HankTimer;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.CacheStatistics;
+import com.rapleaf.hank.storage.cache.CachingReader;
+import com.rapleaf.hank.storage.cache.ValueCache;
 import com.rapleaf.hank.util.AtomicLongCollection;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper class that stores: 1. HostDomainPartition 2. Reader: The Reader
  * associated with the HostDomainPartition 3. AtomicLongCollection: counters
  * for number of requests and hits in a given time window
+ * <p/>
+ * The Reader can be swapped while requests are being served, for example when
+ * the partition was updated. Requests hold a reference to the Reader they use,
+ * and a swapped out Reader is closed once all requests using it completed.
  */
 public class PartitionAccessor {
 
@@ -38,7 +47,7 @@ public class PartitionAccessor {
   private static final Logger LOG = Logger.getLogger(PartitionAccessor.class);
 
   private final HostDomainPartition partition;
-  private final Reader reader;
+  private volatile ReaderReference readerReference;
   private final HankTimer windowTimer = new HankTimer();
   //0: num requests
   //1: num hits
@@ -52,7 +61,7 @@ public class PartitionAccessor {
       throw new IllegalArgumentException("Reader may not be null!");
     }
     this.partition = partition;
-    this.reader = reader;
+    this.readerReference = new ReaderReference(reader);
     windowTimer.restart();
     countersWindow = new AtomicLongCollection(5);
     countersWindow.set(0, 0, 0, 0, 0);
@@ -65,7 +74,12 @@ public class PartitionAccessor {
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
     // Increment requests counter
     LOG.trace("Partition GET");
-    reader.get(key, result);
+    ReaderReference reference = acquireReaderReference();
+    try {
+      reference.reader.get(key, result);
+    } finally {
+      reference.release();
+    }
     if (result.isFound()) {
       // Increment both num requests and num hits and responses data num bytes and cache hits
       countersWindow.increment(1, 1,
@@ -97,21 +111,112 @@ public class PartitionAccessor {
       throughput = numRequestsInWindow / (windowDurationNanos / 1000000000d);
       responseDataThroughput = responsesNumBytesInWindow / (windowDurationNanos / 1000000000d);
     }
+    // Get cache statistics, if any
+    ValueCache l1Cache = getL1Cache();
+    ValueCache l2Cache = getL2Cache();
     return new PartitionAccessorRuntimeStatistics(numRequestsInWindow,
         numHitsInWindow,
         throughput,
         responseDataThroughput,
         numL1CacheHitsInWindow,
-        numL2CacheHitsInWindow);
+        numL2CacheHitsInWindow,
+        l1Cache != null ? l1Cache.getAndResetStatistics() : new CacheStatistics(),
+        l2Cache != null ? l2Cache.getAndResetStatistics() : new CacheStatistics());
+  }
+
+  public Reader getReader() {
+    return readerReference.reader;
+  }
+
+  // Serve subsequent requests with the given Reader, wait for requests using the previous Reader to complete,
+  // and close it.
+  public void swapReader(Reader reader) throws IOException {
+    if (reader == null) {
+      throw new IllegalArgumentException("Reader may not be null!");
+    }
+    ReaderReference previousReaderReference;
+    synchronized (this) {
+      previousReaderReference = readerReference;
+      readerReference = new ReaderReference(reader);
+    }
+    previousReaderReference.release();
+    try {
+      previousReaderReference.awaitDrained();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while waiting for requests to the previous Reader to complete", e);
+    }
+    previousReaderReference.reader.close();
+  }
+
+  // The current Reader may be swapped out between the time it is read and the time it is acquired, in which
+  // case it can not be acquired anymore, try again with the new one
+  private ReaderReference acquireReaderReference() {
+    while (true) {
+      ReaderReference reference = readerReference;
+      if (reference.tryAcquire()) {
+        return reference;
+      }
+    }
+  }
+
+  // Return the Reader's L1 cache, or null if there is none
+  public ValueCache getL1Cache() {
+    Reader reader = readerReference.reader;
+    if (reader instanceof CachingReader) {
+      return ((CachingReader) reader).getL1Cache();
+    }
+    return null;
+  }
+
+  // Return the Reader's L2 cache, or null if there is none
+  public ValueCache getL2Cache() {
+    Reader reader = readerReference.reader;
+    if (reader instanceof CachingReader) {
+      return ((CachingReader) reader).getL2Cache();
+    }
+    return null;
   }
 
   public void shutDown() {
-    if (reader != null) {
-      try {
-        reader.close();
-      } catch (IOException e) {
-        LOG.error("Exception while closing Reader", e);
+    try {
+      readerReference.reader.close();
+    } catch (IOException e) {
+      LOG.error("Exception while closing Reader", e);
+    }
+  }
+
+  // A Reader and the number of references to it: one held by the accessor while the Reader is current,
+  // and one per request using it. Once the count drops to zero, the Reader can not be acquired anymore.
+  private static class ReaderReference {
+
+    private final Reader reader;
+    private final AtomicInteger numReferences = new AtomicInteger(1);
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private ReaderReference(Reader reader) {
+      this.reader = reader;
+    }
+
+    private boolean tryAcquire() {
+      while (true) {
+        int current = numReferences.get();
+        if (current == 0) {
+          return false;
+        }
+        if (numReferences.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void release() {
+      if (numReferences.decrementAndGet() == 0) {
+        drained.countDown();
       }
     }
+
+    private void awaitDrained() throws InterruptedException {
+      drained.await();
+    }
   }
 }
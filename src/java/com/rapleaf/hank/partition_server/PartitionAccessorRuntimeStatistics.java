@@ -16,6 +16,8 @@
 
 package com.rapleaf.hank.partition_server;
 
+import com.rapleaf.hank.storage.cache.CacheStatistics;
+
 public class PartitionAccessorRuntimeStatistics {
 
   protected final long numRequests;
@@ -24,18 +26,24 @@ public class PartitionAccessorRuntimeStatistics {
   protected final double responseDataThroughput;
   protected final long numL1CacheHits;
   protected final long numL2CacheHits;
+  protected final CacheStatistics l1CacheStatistics;
+  protected final CacheStatistics l2CacheStatistics;
 
   public PartitionAccessorRuntimeStatistics(long numRequests,
                                             long numHits,
                                             double throughput,
                                             double responseDataThroughput,
                                             long numL1CacheHits,
-                                            long numL2CacheHits) {
+                                            long numL2CacheHits,
+                                            CacheStatistics l1CacheStatistics,
+                                            CacheStatistics l2CacheStatistics) {
     this.numRequests = numRequests;
     this.numHits = numHits;
     this.throughput = throughput;
     this.responseDataThroughput = responseDataThroughput;
     this.numL1CacheHits = numL1CacheHits;
     this.numL2CacheHits = numL2CacheHits;
+    this.l1CacheStatistics = l1CacheStatistics;
+    this.l2CacheStatistics = l2CacheStatistics;
   }
 }
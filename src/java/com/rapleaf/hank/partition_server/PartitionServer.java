@@ -23,11 +23,13 @@ import com.rapleaf.hank.util.CommandLineChecker;
 import com.rapleaf.hank.zookeeper.WatchedNodeListener;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.THsHaServer.Args;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TTransportException;
 
 import java.io.File;
@@ -55,6 +57,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
 
   private TServer dataServer;
   private Thread dataServerThread;
+  // Handler of the running data server, set by the data server thread
+  private volatile IfaceWithShutdown dataServerHandler;
   private boolean waitForDataServer;
 
   private final RingGroup ringGroup;
@@ -146,6 +150,16 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     return new UpdateManager(configurator, host, ringGroup);
   }
 
+  // Update manager that serves each updated partition before publishing its new version
+  protected IUpdateManager getUpdateWhileServingManager() throws IOException {
+    return new UpdateManager(configurator, host, ringGroup, new PartitionUpdateListener() {
+      @Override
+      public void onPartitionUpdated(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException {
+        swapReader(domain, partition, versionNumber);
+      }
+    });
+  }
+
   @Override
   public synchronized void onCommandQueueChange(Host host) {
     LOG.info("Command queue changed.");
@@ -257,9 +271,22 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     switch (state) {
       case IDLE:
         host.setState(HostState.UPDATING); // In case of exception, server will stop and state will be coherent.
-        executeUpdate();
+        executeUpdate(false);
         // Next command is set by the updater thread
         break;
+      case SERVING:
+        if (configurator.getUpdateWhileServing()) {
+          // Keep serving. Readers of updated partitions are swapped as they are updated.
+          executeUpdate(true);
+          // Next command is set by the updater thread
+        } else {
+          // Updating while serving is not enabled on this host. Go idle so that the update can be executed
+          // the regular way, instead of ignoring the command and never updating.
+          LOG.warn("Received command " + HostCommand.EXECUTE_UPDATE + " while " + state
+              + " but updating while serving is not enabled. Going idle instead.");
+          processGoToIdle(state);
+        }
+        break;
       default:
         if (LOG.isDebugEnabled()) {
           LOG.info(ignoreIncompatibleCommandMessage(HostCommand.EXECUTE_UPDATE, state));
@@ -283,7 +310,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     }
   }
 
-  private void executeUpdate() {
+  private void executeUpdate(final boolean whileServing) {
     if (updateThread != null) {
       LOG.error("Update got called while one is already running!");
       return;
@@ -292,17 +319,19 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       @Override
       public void run() {
         try {
-          IUpdateManager updateManager = getUpdateManager();
+          IUpdateManager updateManager = whileServing ? getUpdateWhileServingManager() : getUpdateManager();
           updateManager.update();
           LOG.info("Update succeeded.");
         } catch (Throwable e) {
           LOG.fatal("Update failed. Updater encountered a fatal error:", e);
         }
-        // Go back to IDLE even in case of failure
-        try {
-          setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
-        } catch (IOException e) {
-          LOG.fatal("Failed to record state change.", e);
+        // Go back to IDLE even in case of failure, unless updating while serving
+        if (!whileServing) {
+          try {
+            setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+          } catch (IOException e) {
+            LOG.fatal("Failed to record state change.", e);
+          }
         }
         // Move on to next command
         try {
@@ -318,23 +347,52 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     updateThread.start();
   }
 
+  // Serve the given partition version with the running data server, if any
+  protected void swapReader(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException {
+    IfaceWithShutdown handler = dataServerHandler;
+    if (handler instanceof PartitionServerHandler) {
+      ((PartitionServerHandler) handler).swapReader(domain, partition, versionNumber);
+    }
+  }
+
+  // GET BULK results are serialized straight from the readers' buffers when the handler supports it
+  private static TProcessor getProcessor(IfaceWithShutdown handler) {
+    if (handler instanceof PartitionServerHandler) {
+      return new PartitionServerProcessor((PartitionServerHandler) handler);
+    } else {
+      return new com.rapleaf.hank.generated.PartitionServer.Processor(handler);
+    }
+  }
+
   protected void startThriftServer() throws TTransportException, IOException, InterruptedException {
     IfaceWithShutdown handler = null;
     try {
       // Set up the service handler
       handler = getHandler();
+      dataServerHandler = handler;
       // Launch the thrift server
-      TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
-      Args options = new Args(serverSocket);
-      options.processor(new com.rapleaf.hank.generated.PartitionServer.Processor(handler));
-      options.workerThreads(configurator.getNumConcurrentQueries());
-      options.protocolFactory(new TCompactProtocol.Factory());
-      dataServer = new THsHaServer(options);
+      if (configurator.getUseMultiplexedThriftServer()) {
+        // Answers requests out of order, so that clients can multiplex requests over a few connections
+        MultiplexedThriftServer.Args options = new MultiplexedThriftServer.Args(
+            new TServerSocket(configurator.getServicePort()));
+        options.processor(getProcessor(handler));
+        options.workerThreads(configurator.getNumConcurrentQueries());
+        options.protocolFactory(new TCompactProtocol.Factory());
+        dataServer = new MultiplexedThriftServer(options);
+      } else {
+        TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
+        Args options = new Args(serverSocket);
+        options.processor(getProcessor(handler));
+        options.workerThreads(configurator.getNumConcurrentQueries());
+        options.protocolFactory(new TCompactProtocol.Factory());
+        dataServer = new THsHaServer(options);
+      }
       LOG.debug("Launching Thrift server...");
       dataServer.serve();
       LOG.debug("Thrift server exited.");
     } finally {
       // Always shut down the handler
+      dataServerHandler = null;
       if (handler != null) {
         LOG.debug("Shutting down Partition Server handler.");
         handler.shutDown();
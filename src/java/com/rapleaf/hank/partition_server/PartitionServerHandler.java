@@ -20,11 +20,17 @@ import com.rapleaf.hank.coordinator.*;
 import com.rapleaf.hank.generated.HankBulkResponse;
 import com.rapleaf.hank.generated.HankException;
 import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartitionServer;
+import com.rapleaf.hank.performance.HankTimer;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.ReaderResult;
 import com.rapleaf.hank.storage.StorageEngine;
+import com.rapleaf.hank.util.AtomicLongCollection;
 import com.rapleaf.hank.util.Bytes;
+import com.rapleaf.hank.util.ThreadAllocationCounter;
 import org.apache.log4j.Logger;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.*;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -39,18 +45,33 @@ public class PartitionServerHandler implements IfaceWithShutdown {
   private final static Logger LOG = Logger.getLogger(PartitionServerHandler.class);
 
   private final Host host;
+  private final PartitionServerConfigurator configurator;
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
-  private final int getBulkTaskSize;
-  private static final long GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE = 1;
-  private static final TimeUnit GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT = TimeUnit.DAYS;
+  private static final HankBulkResponse OVERLOADED_BULK = HankBulkResponse.xception(HankException.overloaded(true));
 
   private static final ReaderResultThreadLocal readerResultThreadLocal = new ReaderResultThreadLocal();
   private final DomainAccessor[] domainAccessors;
-  private final ThreadPoolExecutor getBulkTaskExecutor;
-  private static final long GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
-  private static final TimeUnit GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
-  private static final double USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY = 0.75;
+  private final GetBulkExecutor getBulkExecutor;
+
+  // Pages of the buffers that GET BULK tasks serialize their responses into, reused across requests
+  private static final int RESPONSE_BUFFER_PAGE_SIZE = 8 * 1024;
+  private static final int RESPONSE_BUFFER_MAX_NUM_POOLED_PAGES = 2048;
+  private final ResponseBuffer.PagePool responseBufferPagePool =
+      new ResponseBuffer.PagePool(RESPONSE_BUFFER_PAGE_SIZE, RESPONSE_BUFFER_MAX_NUM_POOLED_PAGES);
+
+  private static final TStruct GET_BULK_RESULT_STRUCT = new TStruct("getBulk_result");
+  private static final TField GET_BULK_RESULT_SUCCESS_FIELD = new TField("success", TType.STRUCT,
+      PartitionServer.getBulk_result._Fields.SUCCESS.getThriftFieldId());
+  private static final TStruct HANK_BULK_RESPONSE_STRUCT = new TStruct("HankBulkResponse");
+  private static final TField HANK_BULK_RESPONSE_RESPONSES_FIELD = new TField("responses", TType.LIST,
+      HankBulkResponse._Fields.RESPONSES.getThriftFieldId());
+
+  // Host-wide cache budget, or null if caches are sized per domain
+  private final CacheBudget cacheBudget;
+
+  // Number of keys served by GET BULK tasks and number of bytes they allocated
+  private final AtomicLongCollection getBulkAllocationCounters = new AtomicLongCollection(2);
 
   private final UpdateStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
@@ -61,21 +82,15 @@ public class PartitionServerHandler implements IfaceWithShutdown {
   public PartitionServerHandler(PartitionServerAddress address,
                                 PartitionServerConfigurator configurator,
                                 Coordinator coordinator) throws IOException {
+    this.configurator = configurator;
 
-    // Create the GET executor
-    getBulkTaskExecutor = new ThreadPoolExecutor(
-        configurator.getNumConcurrentGetBulkTasks(),
+    // Create the GET BULK executor. The task size is the maximum number of keys a thread claims at once.
+    getBulkExecutor = new GetBulkExecutor(
         configurator.getNumConcurrentGetBulkTasks(),
-        GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE,
-        GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT,
-        new LinkedBlockingQueue<Runnable>(),
+        configurator.getGetBulkTaskSize(),
+        configurator.getGetBulkMaxNumPendingKeys(),
         new GetBulkThreadFactory());
 
-    getBulkTaskSize = configurator.getGetBulkTaskSize();
-
-    // Prestart core threads
-    getBulkTaskExecutor.prestartAllCoreThreads();
-
     // Find the ring
     Ring ring = coordinator.getRingGroup(configurator.getRingGroupName()).getRingForHost(address);
     if (ring == null) {
@@ -142,26 +157,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
           continue;
         }
 
-        Reader reader;
-        try {
-          reader = engine.getReader(configurator, partition.getPartitionNumber());
-        } catch (IOException e) {
-          // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
-          partition.setDeletable(true);
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
-              partition.getPartitionNumber(), domain.getName());
-          LOG.error(msg, e);
-          exceptions.add(new IOException(msg, e));
-          continue;
-        }
-        // Check that Reader's version number and current domain group version number match
-        if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(partition.getCurrentDomainVersion())) {
-          // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
-          partition.setDeletable(true);
-          final String msg = String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
-              partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), partition.getCurrentDomainVersion());
-          LOG.error(msg);
-          exceptions.add(new IOException(msg));
+        Reader reader = loadReader(engine, domain, partition, exceptions);
+        if (reader == null) {
           continue;
         }
         if (LOG.isDebugEnabled()) {
@@ -179,49 +176,135 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       host.nextCommand();
       throw new IOException("Failed to load Readers. Encountered " + exceptions.size() + " exceptions.");
     }
+    // Share the cache budget evenly until runtime statistics are available
+    if (configurator.getCacheCapacityBytes() > 0) {
+      cacheBudget = new CacheBudget(configurator.getCacheCapacityBytes());
+      cacheBudget.allocate(domainAccessors, null);
+    } else {
+      cacheBudget = null;
+    }
     // Start the update runtime statistics thread
     updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
     updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Runtime Statistics");
     updateRuntimeStatisticsThread.start();
   }
 
+  // Return null and record an exception if the Reader could not be loaded
+  private Reader loadReader(StorageEngine engine,
+                            Domain domain,
+                            HostDomainPartition partition,
+                            List<Exception> exceptions) throws IOException {
+    Reader reader;
+    try {
+      reader = engine.getReader(configurator, partition.getPartitionNumber());
+    } catch (IOException e) {
+      // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
+      partition.setDeletable(true);
+      final String msg = String.format("Could not load Reader for partition #%d of domain %s because of an exception.",
+          partition.getPartitionNumber(), domain.getName());
+      LOG.error(msg, e);
+      exceptions.add(new IOException(msg, e));
+      return null;
+    }
+    // Check that Reader's version number and current domain group version number match
+    if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(partition.getCurrentDomainVersion())) {
+      // Something went wrong when loading this partition's Reader. Set it deletable and signal failure.
+      partition.setDeletable(true);
+      final String msg = String.format("Could not load Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by metadata (%d) differ.",
+          partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), partition.getCurrentDomainVersion());
+      LOG.error(msg);
+      exceptions.add(new IOException(msg));
+      reader.close();
+      return null;
+    }
+    return reader;
+  }
+
+  /**
+   * Serve the given partition with a Reader of the given version, without interrupting the data server.
+   * Requests that are using the previous Reader complete before it is closed. Partitions of domains that
+   * were not served when this handler was created are ignored.
+   */
+  public void swapReader(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException {
+    DomainAccessor domainAccessor = getDomainAccessor(domain.getId());
+    if (domainAccessor == null || partition.getPartitionNumber() >= domainAccessor.getNumPartitions()) {
+      return;
+    }
+    Reader reader = domain.getStorageEngine().getReader(configurator, partition.getPartitionNumber());
+    // Check that Reader's version number and updated version number match
+    if (reader.getVersionNumber() != null && reader.getVersionNumber() != versionNumber) {
+      reader.close();
+      throw new IOException(String.format("Could not swap Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by the update (%d) differ.",
+          partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), versionNumber));
+    }
+    LOG.info(String.format("Swapping Reader of partition #%d of domain %s to version %d",
+        partition.getPartitionNumber(), domain.getName(), versionNumber));
+    PartitionAccessor partitionAccessor = domainAccessor.getPartitionAccessor(partition.getPartitionNumber());
+    if (partitionAccessor == null) {
+      domainAccessor.setPartitionAccessor(partition.getPartitionNumber(), new PartitionAccessor(partition, reader));
+    } else {
+      partitionAccessor.swapReader(reader);
+    }
+    // The new Reader comes with new caches
+    if (cacheBudget != null) {
+      cacheBudget.allocate(domainAccessors, null);
+    }
+  }
+
   @Override
   public HankResponse get(int domainId, ByteBuffer key) {
     ReaderResult result = readerResultThreadLocal.get();
     result.clear();
-    return _get(this, domainId, key, result);
+    HankResponse response = _get(this, domainId, key, result);
+    // The value may be a view of a memory mapped file, but Thrift serializes array-backed values only
+    if (response.is_set_value() && !response.buffer_for_value().hasArray()) {
+      result.deepCopyIntoResultBuffer(response.buffer_for_value());
+      response.set_value(result.getBuffer());
+    }
+    return response;
   }
 
   @Override
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) {
+    GetBulkProcessor processor = new GetBulkProcessor(domainId, keys);
+    HankBulkResponse failure = executeGetBulk(domainId, keys, processor);
+    if (failure != null) {
+      return failure;
+    }
+    return HankBulkResponse.responses(Arrays.asList(processor.getResponses()));
+  }
+
+  /**
+   * Perform a GET BULK and write its getBulk_result. Found values are serialized straight from the readers'
+   * buffers, instead of being copied into a HankBulkResponse first.
+   */
+  public void writeGetBulkResult(int domainId, List<ByteBuffer> keys, TCompactProtocol protocol) throws TException {
+    SerializingGetBulkProcessor processor = new SerializingGetBulkProcessor(domainId, keys);
+    try {
+      HankBulkResponse failure = executeGetBulk(domainId, keys, processor);
+      if (failure != null) {
+        new PartitionServer.getBulk_result().set_success(failure).write(protocol);
+      } else {
+        processor.write(protocol);
+      }
+    } finally {
+      processor.releaseResponseBuffers();
+    }
+  }
+
+  // Return null if all keys were processed, or the response to send otherwise
+  private HankBulkResponse executeGetBulk(int domainId, List<ByteBuffer> keys, GetBulkRangeProcessor processor) {
     try {
       DomainAccessor domainAccessor = getDomainAccessor(domainId);
       if (domainAccessor == null) {
         return NO_SUCH_DOMAIN_BULK;
       }
-      // Build and execute all get bulk tasks
-      HankBulkResponse bulkResponse = HankBulkResponse.responses(new ArrayList<HankResponse>(keys.size()));
-      GetBulkTask[] tasks = new GetBulkTask[(keys.size() / getBulkTaskSize) + 1];
-      int maxTaskIndex = 0;
-      for (int i = 0; i < keys.size(); i += getBulkTaskSize) {
-        GetBulkTask task = new GetBulkTask(new GetBulkRunnable(domainId, keys, i));
-        // No need to synchronize since ThreadPoolExecutor's execute() is thread-safe
-        getBulkTaskExecutor.execute(task);
-        tasks[maxTaskIndex++] = task;
+      // Execute GET requests with the GET BULK executor. This thread helps with its own keys.
+      if (!getBulkExecutor.execute(keys.size(), processor)) {
+        LOG.warn("GET BULK executor is overloaded. Rejecting GET BULK of " + keys.size() + " keys.");
+        return OVERLOADED_BULK;
       }
-      // Wait for all get tasks and retrieve responses
-      for (int taskIndex = 0; taskIndex < maxTaskIndex; ++taskIndex) {
-        HankResponse[] responses = tasks[taskIndex].getResponses();
-        for (HankResponse response : responses) {
-          // Check if we have retrieved all responses
-          if (bulkResponse.get_responses().size() == keys.size()) {
-            break;
-          } else {
-            bulkResponse.get_responses().add(response);
-          }
-        }
-      }
-      return bulkResponse;
+      return null;
     } catch (Throwable t) {
       String errMsg = "Throwable during GET BULK";
       LOG.fatal(errMsg, t);
@@ -277,54 +360,53 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
-  private class GetBulkRunnable implements Runnable {
+  // Processes ranges of keys of a GET BULK request, and meters the bytes allocated doing so
+  private abstract class GetBulkRangeProcessor implements GetBulkExecutor.KeyRangeProcessor {
 
-    private final int domainId;
-    private final List<ByteBuffer> keys;
-    private final int firstKeyIndex;
-    private HankResponse[] responses;
+    protected final int domainId;
+    protected final List<ByteBuffer> keys;
 
-    // Perform GET requests for keys starting at firstKeyIndex and in a window of size GET_BULK_TASK_SIZE
-    public GetBulkRunnable(int domainId, List<ByteBuffer> keys, int firstKeyIndex) {
+    public GetBulkRangeProcessor(int domainId, List<ByteBuffer> keys) {
       this.domainId = domainId;
       this.keys = keys;
-      this.firstKeyIndex = firstKeyIndex;
     }
 
     @Override
-    public void run() {
+    public void process(int fromKeyIndex, int toKeyIndex) {
+      long allocatedBytesBefore = ThreadAllocationCounter.getAllocatedBytes();
+      processCore(fromKeyIndex, toKeyIndex);
+      if (allocatedBytesBefore >= 0) {
+        getBulkAllocationCounters.increment(toKeyIndex - fromKeyIndex,
+            ThreadAllocationCounter.getAllocatedBytes() - allocatedBytesBefore);
+      }
+    }
+
+    protected abstract void processCore(int fromKeyIndex, int toKeyIndex);
+  }
+
+  private class GetBulkProcessor extends GetBulkRangeProcessor {
+
+    // Each range of keys is processed by a single thread, and the executor waits for all of them
+    private final HankResponse[] responses;
+
+    public GetBulkProcessor(int domainId, List<ByteBuffer> keys) {
+      super(domainId, keys);
+      this.responses = new HankResponse[keys.size()];
+    }
+
+    @Override
+    protected void processCore(int fromKeyIndex, int toKeyIndex) {
       ReaderResult result = readerResultThreadLocal.get();
-      result.clear();
-      responses = new HankResponse[getBulkTaskSize];
-      // Perform GET requests for keys starting at firstKeyIndex up to GET_BULK_TASK_SIZE keys or until the last key
-      for (int keyOffset = 0; keyOffset < getBulkTaskSize
-          && (firstKeyIndex + keyOffset) < keys.size(); keyOffset++) {
-        HankResponse response =
-            _get(PartitionServerHandler.this, domainId, keys.get(firstKeyIndex + keyOffset), result);
-        // If a value was found, we have the choice to keep the buffer that was used to read the value, or do a deep
-        // copy into the response. This decision is based on a size difference threshold.
-        // This allows us to do bulk requests that are large even when the read buffer ends up being much larger
-        // than the stored value (since in that case we will just do a deep copy of the value
-        // in an appropriately-sized buffer).
+      for (int keyIndex = fromKeyIndex; keyIndex < toKeyIndex; ++keyIndex) {
+        result.clear();
+        HankResponse response = _get(PartitionServerHandler.this, domainId, keys.get(keyIndex), result);
+        // The value is in the thread's result buffer, which is reused for the next key
         if (response.is_set_value()) {
-          ByteBuffer valueBuffer = response.buffer_for_value();
-          // If buffer used space is less than a threshold times its capacity, do a deep copy.
-          if (((double) valueBuffer.limit())
-              < (USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY * valueBuffer.capacity())) {
-            // Deep copy the value. Hence we can reuse the result buffer.
-            response.set_value(Bytes.byteBufferDeepCopy(valueBuffer));
-            result.clear();
-          } else {
-            // Keep the ReaderResult's buffer in the response. Hence we need to create a new result buffer.
-            // Initialize it with the same capacity we had.
-            result = new ReaderResult(valueBuffer.capacity());
-          }
+          response.set_value(Bytes.byteBufferDeepCopy(response.buffer_for_value()));
         }
         // Store response
-        responses[keyOffset] = response;
+        responses[keyIndex] = response;
       }
-      // Update the thread local result buffer to point to the latest one used (which is valid for reuse)
-      readerResultThreadLocal.set(result);
     }
 
     public HankResponse[] getResponses() {
@@ -332,20 +414,72 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
-  private class GetBulkTask extends FutureTask<Object> {
+  // Serializes the responses of each range of keys into a buffer of pooled pages while the values are still in
+  // the thread's result buffer, and writes them in order once all ranges are done
+  private class SerializingGetBulkProcessor extends GetBulkRangeProcessor {
 
-    private final GetBulkRunnable runnable;
+    // Indexed by the first key of each range, and written by the single thread processing that range
+    private final ResponseBuffer[] rangeResponseBuffers;
+    private final int[] rangeToKeyIndices;
 
-    public GetBulkTask(GetBulkRunnable runnable) {
-      super(runnable, new Object());
-      this.runnable = runnable;
+    public SerializingGetBulkProcessor(int domainId, List<ByteBuffer> keys) {
+      super(domainId, keys);
+      this.rangeResponseBuffers = new ResponseBuffer[keys.size()];
+      this.rangeToKeyIndices = new int[keys.size()];
     }
 
-    // Wait for termination and return response
-    public HankResponse[] getResponses() throws ExecutionException, InterruptedException {
-      this.get();
-      return runnable.getResponses();
+    @Override
+    protected void processCore(int fromKeyIndex, int toKeyIndex) {
+      ReaderResult result = readerResultThreadLocal.get();
+      ResponseBuffer responseBuffer = new ResponseBuffer(responseBufferPagePool);
+      rangeResponseBuffers[fromKeyIndex] = responseBuffer;
+      rangeToKeyIndices[fromKeyIndex] = toKeyIndex;
+      try {
+        for (int keyIndex = fromKeyIndex; keyIndex < toKeyIndex; ++keyIndex) {
+          result.clear();
+          HankResponse response = _get(PartitionServerHandler.this, domainId, keys.get(keyIndex), result);
+          if (response.is_set_value()) {
+            responseBuffer.writeValue(response.buffer_for_value());
+          } else {
+            responseBuffer.writeResponse(response);
+          }
+        }
+      } catch (TException e) {
+        throw new RuntimeException("Failed to serialize GET BULK responses", e);
+      }
+    }
+
+    // Write a getBulk_result holding the responses of all ranges
+    public void write(TProtocol protocol) throws TException {
+      protocol.writeStructBegin(GET_BULK_RESULT_STRUCT);
+      protocol.writeFieldBegin(GET_BULK_RESULT_SUCCESS_FIELD);
+      protocol.writeStructBegin(HANK_BULK_RESPONSE_STRUCT);
+      protocol.writeFieldBegin(HANK_BULK_RESPONSE_RESPONSES_FIELD);
+      protocol.writeListBegin(new TList(TType.STRUCT, keys.size()));
+      for (int keyIndex = 0; keyIndex < keys.size(); keyIndex = rangeToKeyIndices[keyIndex]) {
+        rangeResponseBuffers[keyIndex].writeTo(protocol.getTransport());
+      }
+      protocol.writeListEnd();
+      protocol.writeFieldEnd();
+      protocol.writeFieldStop();
+      protocol.writeStructEnd();
+      protocol.writeFieldEnd();
+      protocol.writeFieldStop();
+      protocol.writeStructEnd();
     }
+
+    public void releaseResponseBuffers() {
+      for (ResponseBuffer responseBuffer : rangeResponseBuffers) {
+        if (responseBuffer != null) {
+          responseBuffer.release();
+        }
+      }
+    }
+  }
+
+  // Number of keys served by GET BULK tasks and number of bytes they allocated
+  long[] getGetBulkAllocationCounters() {
+    return getBulkAllocationCounters.getAsArray();
   }
 
   private DomainAccessor getDomainAccessor(int domainId) {
@@ -369,7 +503,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         if (statistics.length() == 0) {
           continue;
         }
-        String[] tokens = statistics.split("\t");
+        // Domain id, followed by the runtime statistics (which may themselves contain tabs)
+        String[] tokens = statistics.split("\t", 2);
         int domainId = Integer.parseInt(tokens[0]);
         result.put(coordinator.getDomainById(domainId), RuntimeStatisticsAggregator.parse(tokens[1]));
       }
@@ -402,6 +537,9 @@ public class PartitionServerHandler implements IfaceWithShutdown {
    */
   private class UpdateRuntimeStatisticsRunnable extends UpdateStatisticsRunnable implements Runnable {
 
+    private final HankTimer getBulkAllocationWindowTimer = new HankTimer();
+    private long[] previousGetBulkAllocationCounters = new long[2];
+
     public UpdateRuntimeStatisticsRunnable() {
       super(UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT);
     }
@@ -419,6 +557,26 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       }
       // Set statistics
       setRuntimeStatistics(host, runtimeStatisticsAggregators);
+      // Rebalance the cache budget according to cache hits in the last window
+      if (cacheBudget != null) {
+        cacheBudget.allocate(domainAccessors, runtimeStatisticsAggregators);
+      }
+      logGetBulkAllocationStatistics();
+      LOG.info("GET BULK executor: " + getBulkExecutor.getNumPendingKeys() + " pending keys, "
+          + getBulkExecutor.getNumRejectedJobs() + " rejected requests");
+    }
+
+    private void logGetBulkAllocationStatistics() {
+      long windowDurationNanos = getBulkAllocationWindowTimer.getDuration();
+      getBulkAllocationWindowTimer.restart();
+      long[] counters = getBulkAllocationCounters.getAsArray();
+      long numKeys = counters[0] - previousGetBulkAllocationCounters[0];
+      long allocatedBytes = counters[1] - previousGetBulkAllocationCounters[1];
+      previousGetBulkAllocationCounters = counters;
+      if (numKeys > 0 && windowDurationNanos > 0) {
+        LOG.info(String.format("GET BULK allocation rate: %.0f bytes/s, %.1f bytes per key (%d keys)",
+            allocatedBytes / (windowDurationNanos / 1000000000d), (double) allocatedBytes / numKeys, numKeys));
+      }
     }
 
     @Override
@@ -448,15 +606,11 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         domainAccessor.shutDown();
       }
     }
-    // Shut down GET tasks
-    getBulkTaskExecutor.shutdown();
+    // Shut down GET BULK workers
     try {
-      while (!getBulkTaskExecutor.awaitTermination(GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE,
-          GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT)) {
-        LOG.debug("Waiting for termination of GET BULK task executor during shutdown.");
-      }
+      getBulkExecutor.shutDown();
     } catch (InterruptedException e) {
-      LOG.debug("Interrupted while waiting for termination of GET BULK task executor during shutdown.");
+      LOG.debug("Interrupted while waiting for termination of GET BULK executor during shutdown.");
     }
   }
 }
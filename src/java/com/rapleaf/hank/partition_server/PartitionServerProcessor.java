@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.generated.PartitionServer;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.*;
+
+/**
+ * Processor of the PartitionServer service that answers GET BULK requests made with TCompactProtocol by
+ * serializing found values straight from the readers' buffers into the response frame. The generated
+ * processor can only serialize a complete HankBulkResponse, which requires a copy of every value.
+ * Other requests are answered as by the generated processor.
+ */
+public class PartitionServerProcessor implements TProcessor {
+
+  private final PartitionServerHandler handler;
+
+  public PartitionServerProcessor(PartitionServerHandler handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public boolean process(TProtocol in, TProtocol out) throws TException {
+    TMessage message = in.readMessageBegin();
+    if (message.name.equals("get")) {
+      PartitionServer.get_args args = new PartitionServer.get_args();
+      if (readArgs(message, args, in, out)) {
+        writeResult(message, new PartitionServer.get_result().set_success(handler.get(args.domain_id, args.key)), out);
+      }
+    } else if (message.name.equals("getBulk")) {
+      PartitionServer.getBulk_args args = new PartitionServer.getBulk_args();
+      if (readArgs(message, args, in, out)) {
+        if (out instanceof TCompactProtocol) {
+          out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+          handler.writeGetBulkResult(args.domain_id, args.keys, (TCompactProtocol) out);
+          out.writeMessageEnd();
+          out.getTransport().flush();
+        } else {
+          writeResult(message,
+              new PartitionServer.getBulk_result().set_success(handler.getBulk(args.domain_id, args.keys)), out);
+        }
+      }
+    } else {
+      TProtocolUtil.skip(in, TType.STRUCT);
+      in.readMessageEnd();
+      writeException(message,
+          new TApplicationException(TApplicationException.UNKNOWN_METHOD, "Invalid method name: '" + message.name + "'"), out);
+    }
+    return true;
+  }
+
+  // Return false and answer with an exception if the arguments could not be read
+  private static boolean readArgs(TMessage message, TBase<?, ?> args, TProtocol in, TProtocol out) throws TException {
+    try {
+      args.read(in);
+    } catch (TProtocolException e) {
+      in.readMessageEnd();
+      writeException(message, new TApplicationException(TApplicationException.PROTOCOL_ERROR, e.getMessage()), out);
+      return false;
+    }
+    in.readMessageEnd();
+    return true;
+  }
+
+  private static void writeResult(TMessage message, TBase<?, ?> result, TProtocol out) throws TException {
+    out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+    result.write(out);
+    out.writeMessageEnd();
+    out.getTransport().flush();
+  }
+
+  private static void writeException(TMessage message, TApplicationException exception, TProtocol out)
+      throws TException {
+    out.writeMessageBegin(new TMessage(message.name, TMessageType.EXCEPTION, message.seqid));
+    exception.write(out);
+    out.writeMessageEnd();
+    out.getTransport().flush();
+  }
+}
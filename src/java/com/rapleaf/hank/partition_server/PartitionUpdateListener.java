@@ -0,0 +1,28 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.coordinator.Domain;
+import com.rapleaf.hank.coordinator.HostDomainPartition;
+
+import java.io.IOException;
+
+// Notified when the files of a partition have been updated to a new version, before that version is published.
+// When an exception is thrown, the partition update fails and its version is not published.
+interface PartitionUpdateListener {
+  public void onPartitionUpdated(Domain domain, HostDomainPartition partition, int versionNumber) throws IOException;
+}
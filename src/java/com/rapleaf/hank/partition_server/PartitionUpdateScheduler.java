@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs partition update tasks with a fixed set of threads, scheduling them by the data directory they write to.
+ * <p/>
+ * Tasks of a data directory start in the order they were scheduled. When a thread is free, it starts a task
+ * from the eligible data directory that has the fewest running tasks, so that all disks are kept busy instead of
+ * having concurrent updates pile up on one disk. A data directory is eligible when it has fewer running tasks
+ * than the per directory limit, and when starting a task would not exceed its bandwidth cap: the estimated bytes
+ * of tasks started on a directory are paced to at most a given number of bytes per second.
+ */
+class PartitionUpdateScheduler {
+
+  private static final Logger LOG = Logger.getLogger(PartitionUpdateScheduler.class);
+
+  private final Thread[] workers;
+  private final CountDownLatch terminated;
+  private final int maxNumRunningTasksPerDataDirectory;
+  private final long maxBytesPerSecondPerDataDirectory;
+
+  // Guarded by this
+  private final Map<String, DataDirectory> dataDirectories = new LinkedHashMap<String, DataDirectory>();
+  private long nextSequenceNumber = 0;
+  private long startTimeMs = -1;
+  private boolean stopping = false;
+
+  // Non-positive limits mean unbounded
+  PartitionUpdateScheduler(int numThreads,
+                           int maxNumRunningTasksPerDataDirectory,
+                           long maxBytesPerSecondPerDataDirectory,
+                           ThreadFactory threadFactory) {
+    if (numThreads <= 0) {
+      throw new IllegalArgumentException("Number of concurrent updates must be positive: " + numThreads);
+    }
+    this.maxNumRunningTasksPerDataDirectory = maxNumRunningTasksPerDataDirectory;
+    this.maxBytesPerSecondPerDataDirectory = maxBytesPerSecondPerDataDirectory;
+    this.terminated = new CountDownLatch(numThreads);
+    workers = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      workers[i] = threadFactory.newThread(new Worker());
+    }
+  }
+
+  // Schedule a task writing about the given number of bytes to the given data directory, which can be null
+  // if unknown. All tasks must be scheduled before starting.
+  public synchronized void schedule(String dataDirectory, long numBytes, Runnable task) {
+    if (startTimeMs >= 0) {
+      throw new IllegalStateException("Can not schedule partition update tasks after starting");
+    }
+    DataDirectory directory = dataDirectories.get(dataDirectory);
+    if (directory == null) {
+      directory = new DataDirectory();
+      dataDirectories.put(dataDirectory, directory);
+    }
+    directory.pendingTasks.add(new Task(task, Math.max(0, numBytes), nextSequenceNumber++));
+  }
+
+  public void start() {
+    synchronized (this) {
+      startTimeMs = System.currentTimeMillis();
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+  }
+
+  // Return true if all threads have terminated
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  // Do not start pending tasks, and interrupt running ones
+  public void shutdownNow() {
+    synchronized (this) {
+      stopping = true;
+      notifyAll();
+    }
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+
+  // Return null when there is no task left to start
+  private synchronized Task takeTask() throws InterruptedException {
+    while (true) {
+      if (stopping) {
+        return null;
+      }
+      long nowMs = System.currentTimeMillis();
+      DataDirectory best = null;
+      boolean anyPendingTask = false;
+      long nextReadyTimeMs = Long.MAX_VALUE;
+      for (DataDirectory directory : dataDirectories.values()) {
+        if (directory.pendingTasks.isEmpty()) {
+          continue;
+        }
+        anyPendingTask = true;
+        if (maxNumRunningTasksPerDataDirectory > 0 && directory.numRunningTasks >= maxNumRunningTasksPerDataDirectory) {
+          continue;
+        }
+        long readyTimeMs = getReadyTimeMs(directory);
+        if (readyTimeMs > nowMs) {
+          nextReadyTimeMs = Math.min(nextReadyTimeMs, readyTimeMs);
+          continue;
+        }
+        // Prefer the least busy directory, then the task that was scheduled first
+        if (best == null
+            || directory.numRunningTasks < best.numRunningTasks
+            || (directory.numRunningTasks == best.numRunningTasks
+            && directory.pendingTasks.getFirst().sequenceNumber < best.pendingTasks.getFirst().sequenceNumber)) {
+          best = directory;
+        }
+      }
+      if (best != null) {
+        Task task = best.pendingTasks.removeFirst();
+        best.numRunningTasks++;
+        best.numStartedBytes += task.numBytes;
+        task.directory = best;
+        return task;
+      }
+      if (!anyPendingTask) {
+        return null;
+      }
+      // Wait for a running task to complete, or for a bandwidth cap to allow the next task
+      if (nextReadyTimeMs == Long.MAX_VALUE) {
+        wait();
+      } else {
+        wait(Math.max(1, nextReadyTimeMs - nowMs));
+      }
+    }
+  }
+
+  // Time at which the bytes started so far on this directory are within its bandwidth cap
+  private long getReadyTimeMs(DataDirectory directory) {
+    if (maxBytesPerSecondPerDataDirectory <= 0) {
+      return startTimeMs;
+    }
+    return startTimeMs + directory.numStartedBytes * 1000 / maxBytesPerSecondPerDataDirectory;
+  }
+
+  private synchronized void complete(Task task) {
+    task.directory.numRunningTasks--;
+    notifyAll();
+  }
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        Task task;
+        while ((task = takeTask()) != null) {
+          try {
+            task.runnable.run();
+          } finally {
+            complete(task);
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.debug("Partition update scheduler thread interrupted.");
+      } finally {
+        terminated.countDown();
+      }
+    }
+  }
+
+  private static class DataDirectory {
+    private final LinkedList<Task> pendingTasks = new LinkedList<Task>();
+    private int numRunningTasks = 0;
+    private long numStartedBytes = 0;
+  }
+
+  private static class Task {
+    private final Runnable runnable;
+    private final long numBytes;
+    private final long sequenceNumber;
+    private DataDirectory directory;
+
+    private Task(Runnable runnable, long numBytes, long sequenceNumber) {
+      this.runnable = runnable;
+      this.numBytes = numBytes;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+}
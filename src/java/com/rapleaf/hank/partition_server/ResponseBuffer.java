@@ -0,0 +1,204 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.generated.HankResponse;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffer holding a sequence of HankResponses serialized with TCompactProtocol.
+ * <p/>
+ * Values are written straight from the given buffer, which may be a reader's buffer or a slice of a memory
+ * mapped file, so that they do not have to be copied into HankResponses first. TCompactProtocol resets its
+ * field id context at the beginning of each struct, so the serialized responses can be concatenated into
+ * a list of any response frame. Bytes are stored in fixed size pages that are taken from a shared pool as
+ * the buffer grows, and given back to it by release().
+ */
+class ResponseBuffer extends TTransport {
+
+  private static final TStruct HANK_RESPONSE_STRUCT = new TStruct("HankResponse");
+  private static final TField HANK_RESPONSE_VALUE_FIELD = new TField("value", TType.STRING,
+      HankResponse._Fields.VALUE.getThriftFieldId());
+
+  private final PagePool pagePool;
+  private final TCompactProtocol protocol = new TCompactProtocol(this);
+  private final List<byte[]> pages = new ArrayList<byte[]>();
+  private byte[] page = null;
+  private int pageOffset = 0;
+  private int numBytes = 0;
+
+  public ResponseBuffer(PagePool pagePool) {
+    this.pagePool = pagePool;
+  }
+
+  // Equivalent to HankResponse.value(value).write(), without requiring an array-backed value
+  public void writeValue(ByteBuffer value) throws TException {
+    protocol.writeStructBegin(HANK_RESPONSE_STRUCT);
+    protocol.writeFieldBegin(HANK_RESPONSE_VALUE_FIELD);
+    writeVarInt32(value.remaining());
+    write(value.duplicate());
+    protocol.writeFieldEnd();
+    protocol.writeFieldStop();
+    protocol.writeStructEnd();
+  }
+
+  public void writeResponse(HankResponse response) throws TException {
+    response.write(protocol);
+  }
+
+  // Copy the serialized responses to the given transport
+  public void writeTo(TTransport transport) throws TTransportException {
+    for (byte[] fullPage : pages) {
+      transport.write(fullPage, 0, fullPage == page ? pageOffset : fullPage.length);
+    }
+  }
+
+  public int getNumBytes() {
+    return numBytes;
+  }
+
+  // Give the pages back to the pool. The buffer is empty afterwards.
+  public void release() {
+    for (byte[] fullPage : pages) {
+      pagePool.release(fullPage);
+    }
+    pages.clear();
+    page = null;
+    pageOffset = 0;
+    numBytes = 0;
+  }
+
+  // Unsigned varint, as written by TCompactProtocol for binary lengths
+  private void writeVarInt32(int n) {
+    while ((n & ~0x7F) != 0) {
+      writeByte((byte) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    writeByte((byte) n);
+  }
+
+  private void writeByte(byte b) {
+    if (page == null || pageOffset == page.length) {
+      nextPage();
+    }
+    page[pageOffset++] = b;
+    ++numBytes;
+  }
+
+  // Consumes the given buffer
+  private void write(ByteBuffer value) {
+    while (value.hasRemaining()) {
+      if (page == null || pageOffset == page.length) {
+        nextPage();
+      }
+      int length = Math.min(value.remaining(), page.length - pageOffset);
+      value.get(page, pageOffset, length);
+      pageOffset += length;
+      numBytes += length;
+    }
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      if (page == null || pageOffset == page.length) {
+        nextPage();
+      }
+      int pageLength = Math.min(length, page.length - pageOffset);
+      System.arraycopy(bytes, offset, page, pageOffset, pageLength);
+      pageOffset += pageLength;
+      numBytes += pageLength;
+      offset += pageLength;
+      length -= pageLength;
+    }
+  }
+
+  private void nextPage() {
+    page = pagePool.acquire();
+    pageOffset = 0;
+    pages.add(page);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void open() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    throw new UnsupportedOperationException("ResponseBuffer is write only");
+  }
+
+  /**
+   * Pages of a given size that are reused by the buffers sharing this pool. At most the given number of pages
+   * are kept, others are dropped when they are released.
+   */
+  static class PagePool {
+
+    private final int pageSize;
+    private final int maxNumPooledPages;
+    private final Queue<byte[]> pooledPages = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger numPooledPages = new AtomicInteger();
+
+    public PagePool(int pageSize, int maxNumPooledPages) {
+      this.pageSize = pageSize;
+      this.maxNumPooledPages = maxNumPooledPages;
+    }
+
+    public byte[] acquire() {
+      byte[] page = pooledPages.poll();
+      if (page == null) {
+        return new byte[pageSize];
+      }
+      numPooledPages.decrementAndGet();
+      return page;
+    }
+
+    public void release(byte[] page) {
+      if (numPooledPages.incrementAndGet() > maxNumPooledPages) {
+        numPooledPages.decrementAndGet();
+      } else {
+        pooledPages.offer(page);
+      }
+    }
+
+    public int getNumPooledPages() {
+      return numPooledPages.get();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.rapleaf.hank.partition_server;
 
+import com.rapleaf.hank.storage.cache.CacheStatistics;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
@@ -32,6 +33,8 @@ public class RuntimeStatisticsAggregator {
   private long numHitsTotal;
   private long numL1CacheHitsTotal;
   private long numL2CacheHitsTotal;
+  private CacheStatistics l1CacheStatisticsTotal;
+  private CacheStatistics l2CacheStatisticsTotal;
   private DoublePopulationStatisticsAggregator getRequestsPopulationStatistics;
 
   public RuntimeStatisticsAggregator() {
@@ -41,6 +44,8 @@ public class RuntimeStatisticsAggregator {
     numHitsTotal = 0;
     numL1CacheHitsTotal = 0;
     numL2CacheHitsTotal = 0;
+    l1CacheStatisticsTotal = new CacheStatistics();
+    l2CacheStatisticsTotal = new CacheStatistics();
     getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator();
   }
 
@@ -50,6 +55,8 @@ public class RuntimeStatisticsAggregator {
                                      long numHitsTotal,
                                      long numL1CacheHitsTotal,
                                      long numL2CacheHitsTotal,
+                                     CacheStatistics l1CacheStatisticsTotal,
+                                     CacheStatistics l2CacheStatisticsTotal,
                                      DoublePopulationStatisticsAggregator getRequestsPopulationStatistics) {
     this.throughputTotal = throughputTotal;
     this.responseDataThroughputTotal = responseDataThroughputTotal;
@@ -57,6 +64,8 @@ public class RuntimeStatisticsAggregator {
     this.numHitsTotal = numHitsTotal;
     this.numL1CacheHitsTotal = numL1CacheHitsTotal;
     this.numL2CacheHitsTotal = numL2CacheHitsTotal;
+    this.l1CacheStatisticsTotal = l1CacheStatisticsTotal;
+    this.l2CacheStatisticsTotal = l2CacheStatisticsTotal;
     this.getRequestsPopulationStatistics = getRequestsPopulationStatistics;
   }
 
@@ -67,6 +76,8 @@ public class RuntimeStatisticsAggregator {
     numHitsTotal += runtimeStatistics.numHits;
     numL1CacheHitsTotal += runtimeStatistics.numL1CacheHits;
     numL2CacheHitsTotal += runtimeStatistics.numL2CacheHits;
+    l1CacheStatisticsTotal.add(runtimeStatistics.l1CacheStatistics);
+    l2CacheStatisticsTotal.add(runtimeStatistics.l2CacheStatistics);
   }
 
   public static RuntimeStatisticsAggregator combine(Collection<RuntimeStatisticsAggregator> runtimeStatisticsAggregators) {
@@ -80,6 +91,8 @@ public class RuntimeStatisticsAggregator {
       result.numHitsTotal += runtimeStatisticsAggregator.numHitsTotal;
       result.numL1CacheHitsTotal += runtimeStatisticsAggregator.numL1CacheHitsTotal;
       result.numL2CacheHitsTotal += runtimeStatisticsAggregator.numL2CacheHitsTotal;
+      result.l1CacheStatisticsTotal.add(runtimeStatisticsAggregator.l1CacheStatisticsTotal);
+      result.l2CacheStatisticsTotal.add(runtimeStatisticsAggregator.l2CacheStatisticsTotal);
       doublePopulationStatisticsAggregators.add(runtimeStatisticsAggregator.getRequestsPopulationStatistics);
     }
     result.getRequestsPopulationStatistics = DoublePopulationStatisticsAggregator.combine(doublePopulationStatisticsAggregators);
@@ -122,10 +135,21 @@ public class RuntimeStatisticsAggregator {
     }
   }
 
+  public CacheStatistics getL1CacheStatistics() {
+    return l1CacheStatisticsTotal;
+  }
+
+  public CacheStatistics getL2CacheStatistics() {
+    return l2CacheStatisticsTotal;
+  }
+
   public DoublePopulationStatisticsAggregator getGetRequestsPopulationStatistics() {
     return getRequestsPopulationStatistics;
   }
 
+  // The original format (10 fields followed by the random sample) is kept as is, and cache misses and evictions
+  // are appended after a tab, so that hosts running different versions can still parse each other's statistics.
+  // (Readers of the original format only consider the first tab separated field, see PartitionServerHandler.)
   public static String toString(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     return runtimeStatisticsAggregator.throughputTotal
         + " " + runtimeStatisticsAggregator.responseDataThroughputTotal
@@ -134,11 +158,16 @@ public class RuntimeStatisticsAggregator {
         + " " + runtimeStatisticsAggregator.numL1CacheHitsTotal
         + " " + runtimeStatisticsAggregator.numL2CacheHitsTotal
         + " " + DoublePopulationStatisticsAggregator.toString(
-        runtimeStatisticsAggregator.getRequestsPopulationStatistics);
+        runtimeStatisticsAggregator.getRequestsPopulationStatistics)
+        + "\t" + runtimeStatisticsAggregator.l1CacheStatisticsTotal.getNumMisses()
+        + " " + runtimeStatisticsAggregator.l1CacheStatisticsTotal.getNumEvictions()
+        + " " + runtimeStatisticsAggregator.l2CacheStatisticsTotal.getNumMisses()
+        + " " + runtimeStatisticsAggregator.l2CacheStatisticsTotal.getNumEvictions();
   }
 
   public static RuntimeStatisticsAggregator parse(String str) {
-    String[] tokens = str.split(" ");
+    String[] sections = str.split("\t");
+    String[] tokens = sections[0].split(" ");
     // Detect mal-formatted statistics and exit early
     if (tokens.length < 10) {
       LOG.error("Failed to parse runtime statistics aggregator with string: " + str);
@@ -161,6 +190,20 @@ public class RuntimeStatisticsAggregator {
         Long.parseLong(tokens[8]),
         Double.parseDouble(tokens[9]),
         randomSample);
+    // Cache misses and evictions are missing from the original format
+    long[] cacheTokens = new long[4];
+    if (sections.length > 1) {
+      String[] cacheStatisticsTokens = sections[1].split(" ");
+      if (cacheStatisticsTokens.length < cacheTokens.length) {
+        LOG.error("Failed to parse cache statistics with string: " + str);
+      } else {
+        for (int i = 0; i < cacheTokens.length; ++i) {
+          cacheTokens[i] = Long.parseLong(cacheStatisticsTokens[i]);
+        }
+      }
+    }
+    CacheStatistics l1CacheStatisticsTotal = new CacheStatistics(numL1CacheHitsTotal, cacheTokens[0], cacheTokens[1]);
+    CacheStatistics l2CacheStatisticsTotal = new CacheStatistics(numL2CacheHitsTotal, cacheTokens[2], cacheTokens[3]);
     return new RuntimeStatisticsAggregator(
         throughputTotal,
         responseDataThroughputTotal,
@@ -168,6 +211,8 @@ public class RuntimeStatisticsAggregator {
         numHitsTotal,
         numL1CacheHitsTotal,
         numL2CacheHitsTotal,
+        l1CacheStatisticsTotal,
+        l2CacheStatisticsTotal,
         getRequestsPopulationStatistics);
   }
 }
@@ -39,10 +39,12 @@ public class UpdateManager implements IUpdateManager {
 
     private final long startTimeMs;
     private final long endTimeMs;
+    private final long numBytes;
 
-    private PartitionUpdateTaskStatistics(long startTimeMs, long endTimeMs) {
+    private PartitionUpdateTaskStatistics(long startTimeMs, long endTimeMs, long numBytes) {
       this.startTimeMs = startTimeMs;
       this.endTimeMs = endTimeMs;
+      this.numBytes = numBytes;
     }
 
     public long getStartTimeMs() {
@@ -52,6 +54,10 @@ public class UpdateManager implements IUpdateManager {
     public long getEndTimeMs() {
       return endTimeMs;
     }
+
+    public long getNumBytes() {
+      return numBytes;
+    }
   }
 
   private final class PartitionUpdateTaskStatisticsAggregator {
@@ -62,6 +68,7 @@ public class UpdateManager implements IUpdateManager {
     private final Map<Domain, List<PartitionUpdateTaskStatistics>> domainToPartitionUpdateTaskStatistics
         = new HashMap<Domain, List<PartitionUpdateTaskStatistics>>();
     private final Map<Domain, Integer> domainToNumPartitionUpdateTasks = new HashMap<Domain, Integer>();
+    private final Map<Domain, Long> domainToNumPartitionUpdateTaskBytes = new HashMap<Domain, Long>();
 
     public synchronized void recordPartitionUpdateTaskStatistics(PartitionUpdateTask partitionUpdateTask,
                                                                  PartitionUpdateTaskStatistics partitionUpdateTaskStatistics) {
@@ -82,6 +89,12 @@ public class UpdateManager implements IUpdateManager {
       } else {
         domainToNumPartitionUpdateTasks.put(domain, numPartitionUpdateTasks + 1);
       }
+      Long numPartitionUpdateTaskBytes = domainToNumPartitionUpdateTaskBytes.get(domain);
+      if (numPartitionUpdateTaskBytes == null) {
+        domainToNumPartitionUpdateTaskBytes.put(domain, partitionUpdateTask.getWeight());
+      } else {
+        domainToNumPartitionUpdateTaskBytes.put(domain, numPartitionUpdateTaskBytes + partitionUpdateTask.getWeight());
+      }
     }
 
     /**
@@ -89,7 +102,7 @@ public class UpdateManager implements IUpdateManager {
      */
     public synchronized long computeETA() {
       long maxDomainETA = -1;
-      // For each domain, compute the number of updated partitions per second
+      // For each domain, compute the number of updated bytes per second
       for (Map.Entry<Domain, List<PartitionUpdateTaskStatistics>> entry : domainToPartitionUpdateTaskStatistics.entrySet()) {
         Domain domain = entry.getKey();
         List<PartitionUpdateTaskStatistics> partitionUpdateTaskStatisticsList = entry.getValue();
@@ -104,8 +117,10 @@ public class UpdateManager implements IUpdateManager {
         int firstIndex = Math.max(0, partitionUpdateTaskStatisticsList.size() - numPartitionsToConsider);
         long minStartTimeMs = -1;
         long maxEndTimeMs = -1;
-        // Compute time window for the chosen subset of partition update statistics
+        long numBytesUpdatedInWindow = 0;
+        // Compute time window and bytes for the chosen subset of partition update statistics
         for (int i = firstIndex; i < partitionUpdateTaskStatisticsList.size(); ++i) {
+          numBytesUpdatedInWindow += partitionUpdateTaskStatisticsList.get(i).getNumBytes();
           long startTimeMs = partitionUpdateTaskStatisticsList.get(i).getStartTimeMs();
           long endTimeMs = partitionUpdateTaskStatisticsList.get(i).getEndTimeMs();
           if (minStartTimeMs < 0 || startTimeMs < minStartTimeMs) {
@@ -117,15 +132,18 @@ public class UpdateManager implements IUpdateManager {
         }
         // Compute window statistics
         long windowDurationMS = maxEndTimeMs - minStartTimeMs;
-        long numPartitionUpdateTasksFinishedInWindow = Math.min(partitionUpdateTaskStatisticsList.size(), numPartitionsToConsider);
-        if (windowDurationMS == 0 || numPartitionUpdateTasksFinishedInWindow == 0) {
+        if (windowDurationMS == 0 || numBytesUpdatedInWindow == 0) {
           return -1;
         }
-        // Compute time taken by partition updates of this domain
-        double numSecondsPerPartitionUpdateTask = ((double) windowDurationMS / 1000.0d) / (double) numPartitionUpdateTasksFinishedInWindow;
-        // Compute ETA in seconds for this domain
-        long numRemainingPartitionUpdateTasksForDomain = numPartitionUpdateTasksForDomain - partitionUpdateTaskStatisticsList.size();
-        long domainETA = Math.round(numRemainingPartitionUpdateTasksForDomain * numSecondsPerPartitionUpdateTask);
+        // Compute time taken to update a byte of this domain
+        double numSecondsPerByte = ((double) windowDurationMS / 1000.0d) / (double) numBytesUpdatedInWindow;
+        // Compute ETA in seconds for this domain, from the bytes of partitions that remain to be updated
+        long numBytesUpdated = 0;
+        for (PartitionUpdateTaskStatistics partitionUpdateTaskStatistics : partitionUpdateTaskStatisticsList) {
+          numBytesUpdated += partitionUpdateTaskStatistics.getNumBytes();
+        }
+        long numRemainingBytesForDomain = domainToNumPartitionUpdateTaskBytes.get(domain) - numBytesUpdated;
+        long domainETA = Math.round(numRemainingBytesForDomain * numSecondsPerByte);
         if (domainETA > maxDomainETA) {
           maxDomainETA = domainETA;
         }
@@ -141,16 +159,20 @@ public class UpdateManager implements IUpdateManager {
     private final HostDomainPartition partition;
     private final PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator;
     private final Queue<Throwable> exceptionQueue;
+    private final String dataDirectory;
+    private final long numBytes;
 
     public PartitionUpdateTask(HostDomain hostDomain,
                                HostDomainPartition partition,
                                PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator,
-                               Queue<Throwable> exceptionQueue) {
+                               Queue<Throwable> exceptionQueue) throws IOException {
       this.hostDomain = hostDomain;
       this.domain = hostDomain.getDomain();
       this.partition = partition;
       this.partitionUpdateTaskStatisticsAggregator = partitionUpdateTaskStatisticsAggregator;
       this.exceptionQueue = exceptionQueue;
+      this.dataDirectory = domain.getStorageEngine().getDataDirectory(configurator, partition.getPartitionNumber());
+      this.numBytes = estimateNumBytes();
       // Register itself in the aggregator
       partitionUpdateTaskStatisticsAggregator.register(this);
     }
@@ -159,6 +181,36 @@ public class UpdateManager implements IUpdateManager {
       return domain;
     }
 
+    public String getDataDirectory() {
+      return dataDirectory;
+    }
+
+    public long getNumBytes() {
+      return numBytes;
+    }
+
+    // Weight of this task when projecting the update ETA. Tasks of unknown size count as one byte.
+    public long getWeight() {
+      return Math.max(1, numBytes);
+    }
+
+    // Estimate the bytes written by this update as the average partition size of the target version, since
+    // partition metadata is not available per partition number
+    private long estimateNumBytes() throws IOException {
+      if (partition.isDeletable()) {
+        return 0;
+      }
+      DomainGroupDomainVersion targetDomainGroupDomainVersion = ringGroup.getDomainGroup().getDomainVersion(domain);
+      if (targetDomainGroupDomainVersion == null) {
+        return 0;
+      }
+      DomainVersion targetDomainVersion = domain.getVersion(targetDomainGroupDomainVersion.getVersionNumber());
+      if (targetDomainVersion == null || domain.getNumParts() <= 0) {
+        return 0;
+      }
+      return DomainVersions.getTotalNumBytes(targetDomainVersion) / domain.getNumParts();
+    }
+
     @Override
     public void run() {
       long startTimeMs = System.currentTimeMillis();
@@ -196,6 +248,11 @@ public class UpdateManager implements IUpdateManager {
               domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber()));
           storageEngine.getUpdater(configurator, partition.getPartitionNumber()).updateTo(targetDomainVersion);
 
+          // Let the listener act on the new files, for example serve them, before the new version is published
+          if (partitionUpdateListener != null) {
+            partitionUpdateListener.onPartitionUpdated(domain, partition, targetDomainVersion.getVersionNumber());
+          }
+
           // Record update success
           partition.setCurrentDomainVersion(targetDomainVersion.getVersionNumber());
           LOG.info(String.format(
@@ -209,7 +266,7 @@ public class UpdateManager implements IUpdateManager {
       } finally {
         long endTimeMs = System.currentTimeMillis();
         partitionUpdateTaskStatisticsAggregator.recordPartitionUpdateTaskStatistics(this,
-            new PartitionUpdateTaskStatistics(startTimeMs, endTimeMs));
+            new PartitionUpdateTaskStatistics(startTimeMs, endTimeMs, getWeight()));
       }
     }
 
@@ -228,11 +285,21 @@ public class UpdateManager implements IUpdateManager {
   private final PartitionServerConfigurator configurator;
   private final Host host;
   private final RingGroup ringGroup;
+  private final PartitionUpdateListener partitionUpdateListener;
 
   public UpdateManager(PartitionServerConfigurator configurator, Host host, RingGroup ringGroup) throws IOException {
+    this(configurator, host, ringGroup, null);
+  }
+
+  // The listener may be null
+  UpdateManager(PartitionServerConfigurator configurator,
+                       Host host,
+                       RingGroup ringGroup,
+                       PartitionUpdateListener partitionUpdateListener) throws IOException {
     this.configurator = configurator;
     this.host = host;
     this.ringGroup = ringGroup;
+    this.partitionUpdateListener = partitionUpdateListener;
   }
 
   // When an Exception is thrown, the update has failed.
@@ -248,20 +315,22 @@ public class UpdateManager implements IUpdateManager {
       }
     };
 
-    ExecutorService executor = Executors.newFixedThreadPool(configurator.getNumConcurrentUpdates(), factory);
+    PartitionUpdateScheduler scheduler = new PartitionUpdateScheduler(configurator.getNumConcurrentUpdates(),
+        configurator.getMaxConcurrentUpdatesPerDataDirectory(),
+        configurator.getMaxUpdateBytesPerSecondPerDataDirectory(),
+        factory);
     PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator
         = new PartitionUpdateTaskStatisticsAggregator();
     Queue<Throwable> exceptionQueue = new LinkedBlockingQueue<Throwable>();
 
     // Execute all tasks and wait for them to finish
-    executePartitionUpdateTasks(executor, partitionUpdateTaskStatisticsAggregator, exceptionQueue);
+    executePartitionUpdateTasks(scheduler, partitionUpdateTaskStatisticsAggregator, exceptionQueue);
     IOException failedUpdateException = null;
     boolean keepWaiting = true;
-    executor.shutdown();
     while (keepWaiting) {
       LOG.debug("Waiting for update executor to complete...");
       try {
-        boolean terminated = executor.awaitTermination(UPDATE_EXECUTOR_TERMINATION_CHECK_TIMEOUT_VALUE,
+        boolean terminated = scheduler.awaitTermination(UPDATE_EXECUTOR_TERMINATION_CHECK_TIMEOUT_VALUE,
             UPDATE_EXECUTOR_TERMINATION_CHECK_TIMEOUT_UNIT);
         if (terminated) {
           // We finished executing all tasks
@@ -273,10 +342,10 @@ public class UpdateManager implements IUpdateManager {
         setUpdateETA(host, partitionUpdateTaskStatisticsAggregator.computeETA());
       } catch (InterruptedException e) {
         // Received interruption (stop request).
-        // Swallow the interrupted state and ask the executor to shutdown immediately. Also, keep waiting.
+        // Swallow the interrupted state and ask the scheduler to shutdown immediately. Also, keep waiting.
         LOG.info("The update manager was interrupted. Stopping the update process (stop executing new partition update tasks" +
             " and wait for those that were running to finish).");
-        executor.shutdownNow();
+        scheduler.shutdownNow();
         // Record failed update exception (we need to keep waiting)
         failedUpdateException = new IOException("Failed to complete update: update interruption was requested.");
       }
@@ -309,7 +378,7 @@ public class UpdateManager implements IUpdateManager {
     garbageCollectHostDomains(host);
   }
 
-  private void executePartitionUpdateTasks(ExecutorService executor,
+  private void executePartitionUpdateTasks(PartitionUpdateScheduler scheduler,
                                            PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator,
                                            Queue<Throwable> exceptionQueue) throws IOException {
     ArrayList<PartitionUpdateTask> partitionUpdateTasks = new ArrayList<PartitionUpdateTask>();
@@ -324,10 +393,11 @@ public class UpdateManager implements IUpdateManager {
     // Sort update tasks per partition id, so that we update domains concurrently but in order of partition number
     Collections.sort(partitionUpdateTasks);
 
-    // Execute tasks
+    // Schedule tasks by data directory, and execute them
     for (PartitionUpdateTask updateTask : partitionUpdateTasks) {
-      executor.execute(updateTask);
+      scheduler.schedule(updateTask.getDataDirectory(), updateTask.getNumBytes(), updateTask);
     }
+    scheduler.start();
   }
 
   private void garbageCollectHostDomains(Host host) throws IOException {
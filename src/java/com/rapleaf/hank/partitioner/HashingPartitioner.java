@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.partitioner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Partitioner that derives partition numbers from a 64-bit key hash. Callers
+ * that need several partitionings of the same key (for example the partition
+ * number and a host affinity hash) can hash the key once and derive all of
+ * them from that hash.
+ */
+public interface HashingPartitioner extends Partitioner {
+  /**
+   * Hash the given key. Must be deterministic.
+   * @param key
+   * @return
+   */
+  public long hash(ByteBuffer key);
+
+  /**
+   * Must return the same value as partition(key, numPartitions) for any key
+   * such that hash(key) == hash.
+   * @param hash
+   * @param numPartitions
+   * @return
+   */
+  public int partition(long hash, int numPartitions);
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.performance;
+
+import com.rapleaf.hank.compress.*;
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.partitioner.Murmur64Partitioner;
+import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cueball.CueballReader;
+import com.rapleaf.hank.storage.cueball.TestDomainGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compare compression codecs on Cueball domains generated by
+ * TestDomainGenerator: size of the generated partition relative to the
+ * uncompressed one, and average cost of a lookup (which reads and decompresses
+ * one block) with caching disabled.
+ *
+ * Usage: output_path num_records key_length hash_length hash_index_bits value_length num_lookups
+ */
+public class PerformanceTestCompressionCodecs {
+
+  private static final Class[] CODECS = {
+      NoCompressionCodec.class,
+      JavaGzipCompressionCodec.class,
+      Lz4CompressionCodec.class,
+      SnappyCompressionCodec.class};
+
+  // Seed used by TestDomainGenerator to generate keys
+  private static final int KEYS_SEED = 7;
+
+  public static void main(String[] args) throws Exception {
+    String outputPath = new File(args[0]).getAbsolutePath();
+    int numRecords = Integer.parseInt(args[1]);
+    int keyLength = Integer.parseInt(args[2]);
+    int hashLength = Integer.parseInt(args[3]);
+    int hashIndexBits = Integer.parseInt(args[4]);
+    int valueLength = Integer.parseInt(args[5]);
+    int numLookups = Integer.parseInt(args[6]);
+
+    // Regenerate the keys written by TestDomainGenerator and pick the ones to look up
+    Random keysRandom = new Random(KEYS_SEED);
+    byte[][] keys = new byte[numRecords][keyLength];
+    for (byte[] key : keys) {
+      keysRandom.nextBytes(key);
+    }
+    Random lookupsRandom = new Random(numLookups);
+    ByteBuffer[] lookups = new ByteBuffer[numLookups];
+    for (int i = 0; i < numLookups; ++i) {
+      lookups[i] = ByteBuffer.wrap(keys[lookupsRandom.nextInt(numRecords)]);
+    }
+
+    long uncompressedNumBytes = -1;
+    double uncompressedLookupNanos = -1;
+    System.out.println(String.format("%-28s %14s %8s %14s %20s", "codec", "size (bytes)", "ratio",
+        "ns / lookup", "ns / lookup vs none"));
+    for (Class codecClass : CODECS) {
+      String domainPath = outputPath + "/" + codecClass.getSimpleName();
+      TestDomainGenerator.main(new String[]{
+          domainPath,
+          Integer.toString(numRecords),
+          Integer.toString(keyLength),
+          Integer.toString(hashLength),
+          Integer.toString(hashIndexBits),
+          Integer.toString(valueLength),
+          Murmur64Hasher.class.getName(),
+          codecClass.getName(),
+          "1",
+          Murmur64Partitioner.class.getName()});
+      long numBytes = getPartitionNumBytes(domainPath + "/0");
+
+      CueballReader reader = new CueballReader(domainPath + "/0", hashLength, new Murmur64Hasher(), valueLength,
+          hashIndexBits, (CompressionCodec) codecClass.newInstance(), -1);
+      ReaderResult result = new ReaderResult();
+      // Warm up, then measure
+      doLookups(reader, lookups, result);
+      HankTimer timer = new HankTimer();
+      doLookups(reader, lookups, result);
+      double lookupNanos = (double) timer.getDuration() / numLookups;
+      reader.close();
+
+      if (uncompressedNumBytes < 0) {
+        uncompressedNumBytes = numBytes;
+        uncompressedLookupNanos = lookupNanos;
+      }
+      System.out.println(String.format("%-28s %14d %8.3f %14.0f %20.0f", codecClass.getSimpleName(), numBytes,
+          (double) numBytes / uncompressedNumBytes, lookupNanos, lookupNanos - uncompressedLookupNanos));
+    }
+  }
+
+  private static void doLookups(CueballReader reader, ByteBuffer[] lookups, ReaderResult result) throws IOException {
+    for (ByteBuffer key : lookups) {
+      result.clear();
+      reader.get(key, result);
+      if (!result.isFound()) {
+        throw new RuntimeException("Could not find generated key");
+      }
+    }
+  }
+
+  private static long getPartitionNumBytes(String partitionPath) {
+    long result = 0;
+    File[] files = new File(partitionPath).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        result += file.length();
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.performance;
+
+import com.rapleaf.hank.client.RendezvousHashing;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+import com.rapleaf.hank.util.LruHashMap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulate the cache hit rate of partition servers when a replica leaves and then joins again,
+ * with keys routed to replicas either by key hash modulo the number of replicas, or by rendezvous
+ * hashing. Each replica has an LRU cache of keys, and keys are queried with a skewed distribution.
+ */
+public class PerformanceTestKeyAffinityRouting {
+
+  private static final int NUM_HOSTS = 6;
+  private static final int NUM_KEYS = 1 << 20;
+  private static final int CACHE_SIZE_PER_HOST = 1 << 15;
+  private static final int NUM_WARMUP_QUERIES = 4 << 20;
+  private static final int NUM_MEASURED_QUERIES = 1 << 18;
+  // Higher values make the key distribution more skewed
+  private static final double KEY_SKEW = 3.0;
+
+  private interface Router {
+    public int getHostIndex(int keyHash, long[] hostHashes);
+  }
+
+  private static class ModuloRouter implements Router {
+    @Override
+    public int getHostIndex(int keyHash, long[] hostHashes) {
+      return keyHash % hostHashes.length;
+    }
+  }
+
+  private static class RendezvousRouter implements Router {
+    @Override
+    public int getHostIndex(int keyHash, long[] hostHashes) {
+      return RendezvousHashing.getHostIndex(keyHash, hostHashes);
+    }
+  }
+
+  private static class Simulation {
+
+    private final Router router;
+    private final Map<PartitionServerAddress, LruHashMap<Integer, Boolean>> caches
+        = new LinkedHashMap<PartitionServerAddress, LruHashMap<Integer, Boolean>>();
+    private final Random random = new Random(42);
+
+    private Simulation(Router router) {
+      this.router = router;
+    }
+
+    private void addHost(PartitionServerAddress host) {
+      caches.put(host, new LruHashMap<Integer, Boolean>(16, CACHE_SIZE_PER_HOST));
+    }
+
+    private void removeHost(PartitionServerAddress host) {
+      caches.remove(host);
+    }
+
+    // Return hit rate as a percentage
+    private double run(int numQueries) {
+      PartitionServerAddress[] hosts = caches.keySet().toArray(new PartitionServerAddress[caches.size()]);
+      long[] hostHashes = RendezvousHashing.getHostHashes(Arrays.asList(hosts));
+      long numHits = 0;
+      for (int i = 0; i < numQueries; ++i) {
+        int key = (int) (NUM_KEYS * Math.pow(random.nextDouble(), KEY_SKEW));
+        // Spread key hashes like a partitioner would
+        int keyHash = (key * 0x9E3779B1) & Integer.MAX_VALUE;
+        LruHashMap<Integer, Boolean> cache = caches.get(hosts[router.getHostIndex(keyHash, hostHashes)]);
+        if (cache.get(key) != null) {
+          ++numHits;
+        } else {
+          cache.put(key, Boolean.TRUE);
+        }
+      }
+      return ((double) numHits / (double) numQueries) * 100;
+    }
+  }
+
+  private static void simulate(String name, Router router) {
+    PartitionServerAddress[] hosts = new PartitionServerAddress[NUM_HOSTS];
+    for (int i = 0; i < NUM_HOSTS; ++i) {
+      hosts[i] = new PartitionServerAddress("host" + i, 12345);
+    }
+    Simulation simulation = new Simulation(router);
+    for (PartitionServerAddress host : hosts) {
+      simulation.addHost(host);
+    }
+    simulation.run(NUM_WARMUP_QUERIES);
+    double steadyHitRate = simulation.run(NUM_MEASURED_QUERIES);
+    // A replica leaves
+    simulation.removeHost(hosts[NUM_HOSTS / 2]);
+    double hostLeftHitRate = simulation.run(NUM_MEASURED_QUERIES);
+    simulation.run(NUM_WARMUP_QUERIES);
+    // The replica joins again, with a cold cache
+    simulation.addHost(hosts[NUM_HOSTS / 2]);
+    double hostJoinedHitRate = simulation.run(NUM_MEASURED_QUERIES);
+
+    System.out.println(name + ":");
+    System.out.println(String.format("  Steady state hit rate: %.2f%%", steadyHitRate));
+    System.out.println(String.format("  Hit rate after a host left: %.2f%%", hostLeftHitRate));
+    System.out.println(String.format("  Hit rate after a host joined: %.2f%%", hostJoinedHitRate));
+  }
+
+  public static void main(String[] args) {
+    System.out.println("Simulating " + NUM_HOSTS + " hosts caching " + CACHE_SIZE_PER_HOST + " keys each, "
+        + NUM_KEYS + " keys, hit rates measured over " + NUM_MEASURED_QUERIES + " queries");
+    simulate("Key hash modulo number of hosts", new ModuloRouter());
+    simulate("Rendezvous hashing", new RendezvousRouter());
+  }
+}
@@ -31,9 +31,17 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
   private static Logger LOG = Logger.getLogger(RingGroupUpdateTransitionFunctionImpl.class);
 
   private final PartitionAssigner partitionAssigner;
+  // When set, serving hosts update without going idle, and keep serving while updating
+  private final boolean updateWhileServing;
 
   public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner) throws IOException {
+    this(partitionAssigner, false);
+  }
+
+  public RingGroupUpdateTransitionFunctionImpl(PartitionAssigner partitionAssigner,
+                                               boolean updateWhileServing) throws IOException {
     this.partitionAssigner = partitionAssigner;
+    this.updateWhileServing = updateWhileServing;
   }
 
   /**
@@ -181,13 +189,17 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
                   }
                 } else {
                   // Take appropriate action on hosts that are not up-to-date: idle hosts should update. Serving hosts
-                  // should go idle.
+                  // should go idle, or update while serving if enabled.
                   switch (host.getState()) {
                     case IDLE:
                       Hosts.enqueueCommandIfNotPresent(host, HostCommand.EXECUTE_UPDATE);
                       break;
                     case SERVING:
-                      Hosts.enqueueCommandIfNotPresent(host, HostCommand.GO_TO_IDLE);
+                      if (updateWhileServing) {
+                        Hosts.enqueueCommandIfNotPresent(host, HostCommand.EXECUTE_UPDATE);
+                      } else {
+                        Hosts.enqueueCommandIfNotPresent(host, HostCommand.GO_TO_IDLE);
+                      }
                       break;
                   }
                 }
@@ -24,6 +24,8 @@ public class ReaderResult {
   private boolean isFound = false;
 
   private ByteBuffer buffer;
+  // Value exposed without being copied into the buffer, for example a slice of a memory mapped file
+  private ByteBuffer valueView = null;
   private boolean l1CacheHit = false;
   private boolean l2CacheHit = false;
 
@@ -38,6 +40,7 @@ public class ReaderResult {
     isFound = false;
     l1CacheHit = false;
     l2CacheHit = false;
+    valueView = null;
     if (buffer != null) {
       buffer.clear();
     }
@@ -56,13 +59,21 @@ public class ReaderResult {
   }
 
   public void requiresBufferSize(int size) {
+    valueView = null;
     if (buffer == null || buffer.capacity() < size) {
       buffer = ByteBuffer.wrap(new byte[size]);
     }
   }
 
+  // The value view if one was set since the last clear, the buffer otherwise
   public ByteBuffer getBuffer() {
-    return buffer;
+    return valueView != null ? valueView : buffer;
+  }
+
+  // Expose the given value instead of copying it into the buffer. It must not change while the Reader is open.
+  // The view may not be array-backed.
+  public void setValueView(ByteBuffer value) {
+    valueView = value;
   }
 
   public boolean getL1CacheHit() {
@@ -94,7 +105,7 @@ public class ReaderResult {
     sb.append(isFound);
     if (isFound) {
       sb.append(", data=");
-      sb.append(Bytes.bytesToHexString(buffer));
+      sb.append(Bytes.bytesToHexString(getBuffer()));
     }
     sb.append("]");
     return sb.toString();
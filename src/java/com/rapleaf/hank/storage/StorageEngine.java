@@ -48,6 +48,9 @@ public interface StorageEngine {
 
   public Deleter getDeleter(DataDirectoriesConfigurator configurator, int partitionNumber) throws IOException;
 
+  // Data directory where the given partition is stored, or null if it is not stored locally
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber);
+
   public ByteBuffer getComparableKey(ByteBuffer key);
 
   public PartitionRemoteFileOpsFactory getPartitionRemoteFileOpsFactory();
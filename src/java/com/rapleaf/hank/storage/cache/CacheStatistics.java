@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+public class CacheStatistics {
+
+  protected long numHits;
+  protected long numMisses;
+  protected long numEvictions;
+
+  public CacheStatistics() {
+    this(0, 0, 0);
+  }
+
+  public CacheStatistics(long numHits, long numMisses, long numEvictions) {
+    this.numHits = numHits;
+    this.numMisses = numMisses;
+    this.numEvictions = numEvictions;
+  }
+
+  public void add(CacheStatistics cacheStatistics) {
+    if (cacheStatistics == null) {
+      return;
+    }
+    numHits += cacheStatistics.numHits;
+    numMisses += cacheStatistics.numMisses;
+    numEvictions += cacheStatistics.numEvictions;
+  }
+
+  public long getNumHits() {
+    return numHits;
+  }
+
+  public long getNumMisses() {
+    return numMisses;
+  }
+
+  public long getNumEvictions() {
+    return numEvictions;
+  }
+
+  public double getHitRate() {
+    long numLookups = numHits + numMisses;
+    if (numLookups == 0) {
+      return 0;
+    } else {
+      return (double) numHits / (double) numLookups;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics [numHits=" + numHits
+        + ", numMisses=" + numMisses
+        + ", numEvictions=" + numEvictions
+        + "]";
+  }
+}
@@ -0,0 +1,449 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+import com.rapleaf.hank.storage.ReaderResult;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Value cache that stores keys and values outside of the Java heap, so that
+ * large caches do not grow the old generation and lengthen GC pauses.
+ *
+ * The cache is split into independently locked segments. Each segment owns a
+ * direct memory slab used as a ring buffer: entries are appended at the tail
+ * and evicted from the head (FIFO) when space is needed. Entries are located
+ * through an open addressing (linear probing) hash table made of primitive
+ * arrays, so that the cache creates no heap object per entry.
+ *
+ * Slabs are allocated when the first entry is added to their segment, with
+ * the size allowed by the current number of bytes capacity, so that caches
+ * whose capacity is lowered (for example by the host cache budget) before
+ * they fill up never allocate more. When the capacity is later raised above
+ * the size of a slab, or lowered well under it, the slab and its entries are
+ * dropped and a new one is allocated on demand. Slabs are freed explicitly
+ * on clear(), instead of waiting for the garbage collector.
+ */
+public class OffHeapValueCache implements ValueCache {
+
+  private static final Logger LOG = Logger.getLogger(OffHeapValueCache.class);
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+  public static final int MAX_SEGMENT_NUM_BYTES = 1 << 30;
+  private static final int MIN_SEGMENT_NUM_BYTES = 1 << 16;
+
+  // Each entry is stored as: key length (int), value length (int), key bytes, value bytes
+  private static final int ENTRY_HEADER_NUM_BYTES = 8;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+  private final long maxNumBytesCapacity;
+  private volatile long numBytesCapacity;
+
+  public OffHeapValueCache(long numBytesCapacity) {
+    this(numBytesCapacity, DEFAULT_NUM_SEGMENTS);
+  }
+
+  public OffHeapValueCache(long numBytesCapacity, int maxNumSegments) {
+    if (numBytesCapacity <= 0) {
+      throw new IllegalArgumentException("Off heap cache number of bytes capacity must be positive: "
+          + numBytesCapacity);
+    }
+    // Use a power of two number of segments. Use more segments than requested if needed to
+    // keep slabs under the maximum size, and fewer if segments would be tiny.
+    int numSegments = 1;
+    int segmentBits = 0;
+    while ((numSegments * 2 <= maxNumSegments && numBytesCapacity / (numSegments * 2) >= MIN_SEGMENT_NUM_BYTES)
+        || numBytesCapacity / numSegments > MAX_SEGMENT_NUM_BYTES) {
+      numSegments *= 2;
+      ++segmentBits;
+    }
+    segmentShift = 32 - segmentBits;
+    segments = new Segment[numSegments];
+    int segmentNumBytes = (int) (numBytesCapacity / numSegments);
+    for (int i = 0; i < numSegments; ++i) {
+      segments[i] = new Segment(segmentNumBytes);
+    }
+    this.maxNumBytesCapacity = (long) segmentNumBytes * numSegments;
+    this.numBytesCapacity = maxNumBytesCapacity;
+  }
+
+  @Override
+  public boolean get(ByteBuffer key, ReaderResult result) {
+    int hash = hash(key, key.position(), key.remaining());
+    Segment segment = getSegment(hash);
+    synchronized (segment) {
+      int offset = segment.find(key, hash);
+      if (offset < 0) {
+        ++segment.numMisses;
+        return false;
+      }
+      ++segment.numHits;
+      // Entries can be overwritten once the lock is released, copy the value now
+      result.deepCopyIntoResultBuffer(segment.getValue(offset));
+      return true;
+    }
+  }
+
+  @Override
+  public void put(ByteBuffer key, ByteBuffer value) {
+    int hash = hash(key, key.position(), key.remaining());
+    Segment segment = getSegment(hash);
+    synchronized (segment) {
+      segment.put(key, value, hash);
+    }
+  }
+
+  @Override
+  public CacheStatistics getAndResetStatistics() {
+    CacheStatistics result = new CacheStatistics();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result.add(new CacheStatistics(segment.numHits, segment.numMisses, segment.numEvictions));
+        segment.numHits = 0;
+        segment.numMisses = 0;
+        segment.numEvictions = 0;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getNumBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result += segment.numBytesUsed;
+      }
+    }
+    return result;
+  }
+
+  // Return the number of bytes of direct memory currently allocated
+  long getNumBytesAllocated() {
+    long result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        if (segment.slab != null) {
+          result += segment.slab.capacity();
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getNumBytesCapacity() {
+    return numBytesCapacity;
+  }
+
+  // The capacity can not exceed the number of bytes capacity given at construction
+  @Override
+  public void setNumBytesCapacity(long numBytesCapacity) {
+    if (numBytesCapacity <= 0 || numBytesCapacity > maxNumBytesCapacity) {
+      numBytesCapacity = maxNumBytesCapacity;
+    }
+    this.numBytesCapacity = numBytesCapacity;
+    int segmentLimit = (int) (numBytesCapacity / segments.length);
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.setLimit(segmentLimit);
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  private Segment getSegment(int hash) {
+    // Segments are selected with the high bits of the hash, index slots with the low bits
+    return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+  }
+
+  private static int hash(ByteBuffer buffer, int offset, int length) {
+    int h = 1;
+    for (int i = offset; i < offset + length; ++i) {
+      h = 31 * h + buffer.get(i);
+    }
+    // Finalization step of MurmurHash3, since keys might not be uniformly distributed
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  // Release the memory of the given direct buffer, which must not be used afterwards. When this is not
+  // supported by the JVM, the memory is released when the buffer is garbage collected.
+  private static void free(ByteBuffer buffer) {
+    try {
+      try {
+        // Java 9 and later
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException e) {
+        // Earlier versions
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          Method cleanMethod = cleaner.getClass().getMethod("clean");
+          cleanMethod.setAccessible(true);
+          cleanMethod.invoke(cleaner);
+        }
+      }
+    } catch (Exception e) {
+      LOG.warn("Failed to free off heap cache slab, it will be freed when garbage collected", e);
+    }
+  }
+
+  // Must only be used while holding its lock
+  private static class Segment {
+
+    private static final int EMPTY = -1;
+    private static final float INDEX_LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_INDEX_SIZE = 64;
+
+    private final int maxNumBytes;
+    // Allocated on demand, null when the segment is empty
+    private ByteBuffer slab;
+    // Reusable view of the slab used to expose values
+    private ByteBuffer valueView;
+    // Space beyond the limit is not used for new entries
+    private int limit;
+
+    // Ring buffer state. When wrapped, entries occupy [head, wrapEnd) and [0, tail),
+    // otherwise they occupy [head, tail).
+    private int head = 0;
+    private int tail = 0;
+    private int wrapEnd = 0;
+    private boolean wrapped = false;
+    private int numBytesUsed = 0;
+
+    // Open addressing index: entry offsets in the slab and corresponding key hashes
+    private int[] indexOffsets;
+    private int[] indexHashes;
+    private int indexSize = 0;
+
+    private long numHits = 0;
+    private long numMisses = 0;
+    private long numEvictions = 0;
+
+    public Segment(int numBytes) {
+      maxNumBytes = numBytes;
+      limit = numBytes;
+      initIndex(INITIAL_INDEX_SIZE);
+    }
+
+    // Return the offset of the entry corresponding to the given key, or -1
+    public int find(ByteBuffer key, int hash) {
+      int mask = indexOffsets.length - 1;
+      for (int slot = hash & mask; indexOffsets[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (indexHashes[slot] == hash && keyEquals(indexOffsets[slot], key)) {
+          return indexOffsets[slot];
+        }
+      }
+      return -1;
+    }
+
+    public ByteBuffer getValue(int offset) {
+      int keyLength = slab.getInt(offset);
+      int valueLength = slab.getInt(offset + 4);
+      int valueOffset = offset + ENTRY_HEADER_NUM_BYTES + keyLength;
+      valueView.limit(valueOffset + valueLength);
+      valueView.position(valueOffset);
+      return valueView;
+    }
+
+    public void put(ByteBuffer key, ByteBuffer value, int hash) {
+      // Values corresponding to a given key never change
+      if (find(key, hash) >= 0) {
+        return;
+      }
+      int entryNumBytes = ENTRY_HEADER_NUM_BYTES + key.remaining() + value.remaining();
+      if (entryNumBytes > limit) {
+        return;
+      }
+      if (slab == null) {
+        slab = ByteBuffer.allocateDirect(limit);
+        valueView = slab.duplicate();
+      }
+      int offset = allocate(entryNumBytes);
+      slab.putInt(offset, key.remaining());
+      slab.putInt(offset + 4, value.remaining());
+      ByteBuffer entryView = slab.duplicate();
+      entryView.position(offset + ENTRY_HEADER_NUM_BYTES);
+      entryView.put(key.duplicate());
+      entryView.put(value.duplicate());
+      tail = offset + entryNumBytes;
+      numBytesUsed += entryNumBytes;
+      insertIntoIndex(offset, hash);
+    }
+
+    public void setLimit(int limit) {
+      this.limit = Math.min(limit, maxNumBytes);
+      // Drop the slab if it is too small for the new limit or mostly unused. Otherwise, entries beyond
+      // the new limit are evicted in FIFO order as new entries are added.
+      if (slab != null && (this.limit > slab.capacity() || this.limit < slab.capacity() / 2)) {
+        clear();
+      }
+    }
+
+    public void clear() {
+      head = 0;
+      tail = 0;
+      wrapEnd = 0;
+      wrapped = false;
+      numBytesUsed = 0;
+      initIndex(INITIAL_INDEX_SIZE);
+      if (slab != null) {
+        ByteBuffer freedSlab = slab;
+        slab = null;
+        valueView = null;
+        free(freedSlab);
+      }
+    }
+
+    // Return the offset at which an entry of the given size can be written, evicting entries if needed
+    private int allocate(int entryNumBytes) {
+      while (true) {
+        if (numBytesUsed == 0) {
+          head = 0;
+          tail = 0;
+          wrapped = false;
+        }
+        if (!wrapped) {
+          if (limit - tail >= entryNumBytes) {
+            return tail;
+          }
+          // Wrap around, free space is now between tail and head
+          wrapEnd = tail;
+          tail = 0;
+          wrapped = true;
+        } else {
+          if (head - tail >= entryNumBytes && tail + entryNumBytes <= limit) {
+            return tail;
+          }
+          evictHead();
+        }
+      }
+    }
+
+    private void evictHead() {
+      if (head == wrapEnd) {
+        head = 0;
+        wrapped = false;
+        return;
+      }
+      int keyLength = slab.getInt(head);
+      int valueLength = slab.getInt(head + 4);
+      removeFromIndex(head, hash(slab, head + ENTRY_HEADER_NUM_BYTES, keyLength));
+      int entryNumBytes = ENTRY_HEADER_NUM_BYTES + keyLength + valueLength;
+      head += entryNumBytes;
+      numBytesUsed -= entryNumBytes;
+      ++numEvictions;
+    }
+
+    private boolean keyEquals(int offset, ByteBuffer key) {
+      int keyLength = slab.getInt(offset);
+      if (keyLength != key.remaining()) {
+        return false;
+      }
+      int keyOffset = offset + ENTRY_HEADER_NUM_BYTES;
+      for (int i = 0; i < keyLength; ++i) {
+        if (slab.get(keyOffset + i) != key.get(key.position() + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void initIndex(int size) {
+      indexOffsets = new int[size];
+      indexHashes = new int[size];
+      Arrays.fill(indexOffsets, EMPTY);
+      indexSize = 0;
+    }
+
+    private void insertIntoIndex(int offset, int hash) {
+      if (indexSize + 1 > indexOffsets.length * INDEX_LOAD_FACTOR) {
+        growIndex();
+      }
+      int mask = indexOffsets.length - 1;
+      int slot = hash & mask;
+      while (indexOffsets[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      indexOffsets[slot] = offset;
+      indexHashes[slot] = hash;
+      ++indexSize;
+    }
+
+    private void growIndex() {
+      int[] oldOffsets = indexOffsets;
+      int[] oldHashes = indexHashes;
+      initIndex(oldOffsets.length * 2);
+      for (int i = 0; i < oldOffsets.length; ++i) {
+        if (oldOffsets[i] != EMPTY) {
+          insertIntoIndex(oldOffsets[i], oldHashes[i]);
+        }
+      }
+    }
+
+    private void removeFromIndex(int offset, int hash) {
+      int mask = indexOffsets.length - 1;
+      int slot = hash & mask;
+      while (indexOffsets[slot] != offset) {
+        if (indexOffsets[slot] == EMPTY) {
+          throw new IllegalStateException("Evicted entry at offset " + offset + " is not indexed");
+        }
+        slot = (slot + 1) & mask;
+      }
+      // Backward shift deletion: move following entries of the probe sequence into the freed slot
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        if (indexOffsets[next] == EMPTY) {
+          break;
+        }
+        int ideal = indexHashes[next] & mask;
+        boolean canStay = slot <= next ? (slot < ideal && ideal <= next) : (slot < ideal || ideal <= next);
+        if (!canStay) {
+          indexOffsets[slot] = indexOffsets[next];
+          indexHashes[slot] = indexHashes[next];
+          slot = next;
+        }
+      }
+      indexOffsets[slot] = EMPTY;
+      --indexSize;
+    }
+  }
+}
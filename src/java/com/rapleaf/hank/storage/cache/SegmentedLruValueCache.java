@@ -0,0 +1,216 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Value cache split into independently locked LRU segments. Keys are assigned
+ * to segments by hash, so that concurrent readers of a hot partition rarely
+ * contend on the same lock. Eviction is LRU within each segment, which
+ * approximates LRU over the whole cache.
+ *
+ * The cache can be bounded by a number of entries, by an approximate number of
+ * bytes of heap, or both. The size of an entry is the size of its key and value
+ * plus a fixed per-entry overhead.
+ */
+public class SegmentedLruValueCache implements ValueCache {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+  // Approximate heap overhead of an entry on a 64-bit JVM: the linked hash map
+  // entry and its table slot, two ByteBuffer objects and two byte array headers.
+  public static final int ENTRY_OVERHEAD_NUM_BYTES = 176;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private volatile long numBytesCapacity;
+
+  public SegmentedLruValueCache(int capacity) {
+    this(capacity, DEFAULT_NUM_SEGMENTS);
+  }
+
+  public SegmentedLruValueCache(int capacity, int maxNumSegments) {
+    this(capacity, -1, maxNumSegments);
+  }
+
+  public SegmentedLruValueCache(int capacity, long numBytesCapacity) {
+    this(capacity, numBytesCapacity, DEFAULT_NUM_SEGMENTS);
+  }
+
+  // A non-positive capacity or number of bytes capacity means that the cache is not bounded by it
+  public SegmentedLruValueCache(int capacity, long numBytesCapacity, int maxNumSegments) {
+    if (capacity <= 0 && numBytesCapacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity or number of bytes capacity must be positive: "
+          + capacity + ", " + numBytesCapacity);
+    }
+    // Use a power of two number of segments, and never more segments than entries
+    int numSegments = 1;
+    while (numSegments * 2 <= maxNumSegments && (capacity <= 0 || numSegments * 2 <= capacity)) {
+      numSegments *= 2;
+    }
+    segmentMask = numSegments - 1;
+    segments = new Segment[numSegments];
+    int segmentCapacity = capacity <= 0 ? Integer.MAX_VALUE : (capacity + numSegments - 1) / numSegments;
+    for (int i = 0; i < numSegments; ++i) {
+      segments[i] = new Segment(segmentCapacity);
+    }
+    setNumBytesCapacity(numBytesCapacity);
+  }
+
+  @Override
+  public boolean get(ByteBuffer key, ReaderResult result) {
+    Segment segment = getSegment(key);
+    ByteBuffer value;
+    synchronized (segment) {
+      value = segment.get(key);
+      if (value == null) {
+        ++segment.numMisses;
+      } else {
+        ++segment.numHits;
+      }
+    }
+    if (value == null) {
+      return false;
+    }
+    // Cached values are never modified, it is safe to copy outside of the lock
+    result.deepCopyIntoResultBuffer(value);
+    return true;
+  }
+
+  @Override
+  public void put(ByteBuffer key, ByteBuffer value) {
+    ByteBuffer keyCopy = Bytes.byteBufferDeepCopy(key);
+    ByteBuffer valueCopy = Bytes.byteBufferDeepCopy(value);
+    Segment segment = getSegment(keyCopy);
+    synchronized (segment) {
+      segment.putEntry(keyCopy, valueCopy);
+    }
+  }
+
+  @Override
+  public CacheStatistics getAndResetStatistics() {
+    CacheStatistics result = new CacheStatistics();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result.add(new CacheStatistics(segment.numHits, segment.numMisses, segment.numEvictions));
+        segment.numHits = 0;
+        segment.numMisses = 0;
+        segment.numEvictions = 0;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getNumBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        result += segment.numBytes;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getNumBytesCapacity() {
+    return numBytesCapacity;
+  }
+
+  @Override
+  public void setNumBytesCapacity(long numBytesCapacity) {
+    this.numBytesCapacity = numBytesCapacity;
+    long segmentNumBytesCapacity = numBytesCapacity <= 0 ? Long.MAX_VALUE : numBytesCapacity / segments.length;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.numBytesCapacity = segmentNumBytesCapacity;
+        segment.evict();
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+        segment.numBytes = 0;
+      }
+    }
+  }
+
+  private Segment getSegment(ByteBuffer key) {
+    // Mix the hash and use its high bits, since the low bits also select buckets in the segment's map
+    long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+    return segments[(int) (h >>> 32) & segmentMask];
+  }
+
+  private static long getEntryNumBytes(ByteBuffer key, ByteBuffer value) {
+    return key.capacity() + value.capacity() + ENTRY_OVERHEAD_NUM_BYTES;
+  }
+
+  // Access ordered map. Must only be used while holding its lock.
+  private static class Segment extends LinkedHashMap<ByteBuffer, ByteBuffer> {
+
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int capacity;
+    private long numBytesCapacity = Long.MAX_VALUE;
+    private long numBytes = 0;
+    private long numHits = 0;
+    private long numMisses = 0;
+    private long numEvictions = 0;
+
+    public Segment(int capacity) {
+      super(16, LOAD_FACTOR, true);
+      this.capacity = capacity;
+    }
+
+    public void putEntry(ByteBuffer key, ByteBuffer value) {
+      long entryNumBytes = getEntryNumBytes(key, value);
+      // Do not flush the whole segment for an entry that would not fit anyway
+      if (entryNumBytes > numBytesCapacity) {
+        return;
+      }
+      ByteBuffer previousValue = put(key, value);
+      numBytes += entryNumBytes;
+      if (previousValue != null) {
+        numBytes -= getEntryNumBytes(key, previousValue);
+      }
+      evict();
+    }
+
+    // Remove least recently used entries until the segment is within its bounds
+    public void evict() {
+      Iterator<Map.Entry<ByteBuffer, ByteBuffer>> iterator = entrySet().iterator();
+      while ((size() > capacity || numBytes > numBytesCapacity) && iterator.hasNext()) {
+        Map.Entry<ByteBuffer, ByteBuffer> eldest = iterator.next();
+        numBytes -= getEntryNumBytes(eldest.getKey(), eldest.getValue());
+        iterator.remove();
+        ++numEvictions;
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+import com.rapleaf.hank.storage.ReaderResult;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thread-safe cache of values used by Readers, keyed by a key hash or a record
+ * location.
+ */
+public interface ValueCache {
+
+  // Copy the cached value corresponding to the given key into result's buffer.
+  // Return true if the value was found.
+  public boolean get(ByteBuffer key, ReaderResult result);
+
+  // Cache copies of the given key and value. The given buffers are not retained.
+  public void put(ByteBuffer key, ByteBuffer value);
+
+  // Return statistics accumulated since the last call and reset them
+  public CacheStatistics getAndResetStatistics();
+
+  // Return the approximate number of bytes of memory currently used by the cache
+  public long getNumBytes();
+
+  public long getNumBytesCapacity();
+
+  // Bound the approximate number of bytes of memory used by the cache, evicting entries if needed.
+  // A non-positive number of bytes means that the cache is not bounded in bytes.
+  public void setNumBytesCapacity(long numBytesCapacity);
+
+  public void clear();
+}
@@ -17,7 +17,9 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.Lz4CompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.compress.SnappyCompressionCodec;
 import com.rapleaf.hank.config.DataDirectoriesConfigurator;
 import com.rapleaf.hank.coordinator.Domain;
 import com.rapleaf.hank.coordinator.DomainVersion;
@@ -26,6 +28,9 @@ import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.hasher.IdentityHasher;
 import com.rapleaf.hank.hasher.Murmur64Hasher;
 import com.rapleaf.hank.storage.*;
+import com.rapleaf.hank.storage.cache.OffHeapValueCache;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.storage.cache.ValueCache;
 import com.rapleaf.hank.storage.incremental.IncrementalDomainVersionProperties;
 import com.rapleaf.hank.util.FsUtils;
 
@@ -57,6 +62,12 @@ public class Cueball implements StorageEngine {
     public static final String COMPRESSION_CODEC = "compression_codec";
     public static final String NUM_REMOTE_LEAF_VERSIONS_TO_KEEP = "num_remote_leaf_versions_to_keep";
     public static final String PARTITION_CACHE_CAPACITY = "partition_cache_capacity";
+    public static final String PARTITION_CACHE_CAPACITY_BYTES = "partition_cache_capacity_bytes";
+    public static final String USE_OFF_HEAP_PARTITION_CACHE = "use_off_heap_partition_cache";
+    public static final String USE_MEMORY_MAPPING = "use_memory_mapping";
+    public static final String BLOCK_SEARCH_STRATEGY = "block_search_strategy";
+    public static final String NUM_MERGE_THREADS = "num_merge_threads";
+    public static final String STREAM_UPDATE_DELTAS = "stream_update_deltas";
 
     private static final Set<String> REQUIRED_KEYS =
         new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY,
@@ -106,6 +117,40 @@ public class Cueball implements StorageEngine {
       if (partitionCacheCapacity == null) {
         partitionCacheCapacity = -1;
       }
+      long partitionCacheCapacityBytes = getNumBytesOption(options, PARTITION_CACHE_CAPACITY_BYTES);
+      Boolean useOffHeapPartitionCache = (Boolean) options.get(USE_OFF_HEAP_PARTITION_CACHE);
+      if (useOffHeapPartitionCache == null) {
+        useOffHeapPartitionCache = false;
+      }
+      if (useOffHeapPartitionCache && partitionCacheCapacityBytes <= 0) {
+        throw new RuntimeException("'" + USE_OFF_HEAP_PARTITION_CACHE + "' requires '"
+            + PARTITION_CACHE_CAPACITY_BYTES + "' to be set");
+      }
+
+      // Memory mapping
+      Boolean useMemoryMapping = (Boolean) options.get(USE_MEMORY_MAPPING);
+      if (useMemoryMapping == null) {
+        useMemoryMapping = false;
+      }
+
+      // Block search strategy
+      BlockSearchStrategy blockSearchStrategy = BlockSearchStrategy.LINEAR;
+      String blockSearchStrategyStr = (String) options.get(BLOCK_SEARCH_STRATEGY);
+      if (blockSearchStrategyStr != null) {
+        blockSearchStrategy = BlockSearchStrategy.valueOf(blockSearchStrategyStr.toUpperCase());
+      }
+
+      // Merge threads
+      Integer numMergeThreads = (Integer) options.get(NUM_MERGE_THREADS);
+      if (numMergeThreads == null) {
+        numMergeThreads = 1;
+      }
+
+      // Streaming deltas during updates
+      Boolean streamUpdateDeltas = (Boolean) options.get(STREAM_UPDATE_DELTAS);
+      if (streamUpdateDeltas == null) {
+        streamUpdateDeltas = false;
+      }
 
       return new Cueball((Integer) options.get(KEY_HASH_SIZE_KEY),
           hasher,
@@ -116,7 +161,22 @@ public class Cueball implements StorageEngine {
           compressionCodecClass,
           domain,
           numRemoteLeafVersionsToKeep,
-          partitionCacheCapacity);
+          partitionCacheCapacity,
+          partitionCacheCapacityBytes,
+          useOffHeapPartitionCache,
+          useMemoryMapping,
+          blockSearchStrategy,
+          numMergeThreads,
+          streamUpdateDeltas);
+    }
+
+    // Return the given number of bytes option, or -1 if it is not set
+    private static long getNumBytesOption(Map<String, Object> options, String key) {
+      Number numBytes = (Number) options.get(key);
+      if (numBytes == null) {
+        return -1;
+      }
+      return numBytes.longValue();
     }
 
     @Override
@@ -138,6 +198,18 @@ public class Cueball implements StorageEngine {
       pw.println("file_ops_factory: " + LocalPartitionRemoteFileOps.Factory.class.getName());
       pw.println("value_size: #fill this in!");
       pw.println("num_remote_leaf_versions_to_keep: #fill this in! 0 means keep all versions.");
+      pw.println("# Optional: block compression codec, for example " + Lz4CompressionCodec.class.getName()
+          + " or " + SnappyCompressionCodec.class.getName());
+      pw.println("#" + COMPRESSION_CODEC + ": " + NoCompressionCodec.class.getName());
+      pw.println("#" + PARTITION_CACHE_CAPACITY_BYTES + ": 67108864");
+      pw.println("#" + USE_OFF_HEAP_PARTITION_CACHE + ": false");
+      pw.println("#" + USE_MEMORY_MAPPING + ": false");
+      pw.println("# linear, binary or interpolation");
+      pw.println("#" + BLOCK_SEARCH_STRATEGY + ": linear");
+      pw.println("# Threads merging hash index ranges in parallel during updates");
+      pw.println("#" + NUM_MERGE_THREADS + ": 1");
+      pw.println("# Merge uncompressed deltas while downloading them during updates");
+      pw.println("#" + STREAM_UPDATE_DELTAS + ": false");
 
       return sw.toString();
     }
@@ -154,6 +226,12 @@ public class Cueball implements StorageEngine {
   private final ByteBuffer keyHashBuffer;
   private final int numRemoteLeafVersionsToKeep;
   private final int partitionCacheCapacity;
+  private final long partitionCacheCapacityBytes;
+  private final boolean useOffHeapPartitionCache;
+  private final boolean useMemoryMapping;
+  private final BlockSearchStrategy blockSearchStrategy;
+  private final int numMergeThreads;
+  private final boolean streamUpdateDeltas;
 
   private final Class<? extends CompressionCodec> compressionCodecClass;
 
@@ -167,6 +245,40 @@ public class Cueball implements StorageEngine {
                  Domain domain,
                  int numRemoteLeafVersionsToKeep,
                  int partitionCacheCapacity) {
+    this(keyHashSize,
+        hasher,
+        valueSize,
+        hashIndexBits,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        compressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        partitionCacheCapacity,
+        -1,
+        false,
+        false,
+        BlockSearchStrategy.LINEAR,
+        1,
+        false);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String remoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 int partitionCacheCapacity,
+                 long partitionCacheCapacityBytes,
+                 boolean useOffHeapPartitionCache,
+                 boolean useMemoryMapping,
+                 BlockSearchStrategy blockSearchStrategy,
+                 int numMergeThreads,
+                 boolean streamUpdateDeltas) {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
@@ -178,6 +290,12 @@ public class Cueball implements StorageEngine {
     this.domain = domain;
     this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
     this.partitionCacheCapacity = partitionCacheCapacity;
+    this.partitionCacheCapacityBytes = partitionCacheCapacityBytes;
+    this.useOffHeapPartitionCache = useOffHeapPartitionCache;
+    this.useMemoryMapping = useMemoryMapping;
+    this.blockSearchStrategy = blockSearchStrategy;
+    this.numMergeThreads = numMergeThreads;
+    this.streamUpdateDeltas = streamUpdateDeltas;
     // Sanity check
     if (hashIndexBits > 32) {
       throw new RuntimeException("hashIndexBits is much too large (" + hashIndexBits + ")");
@@ -187,7 +305,19 @@ public class Cueball implements StorageEngine {
   @Override
   public Reader getReader(DataDirectoriesConfigurator configurator, int partitionNumber) throws IOException {
     return new CueballReader(getLocalDir(configurator, partitionNumber),
-        keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec(), partitionCacheCapacity);
+        keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec(),
+        createPartitionCache(), useMemoryMapping, blockSearchStrategy);
+  }
+
+  // Return a new partition cache, or null if caching is disabled
+  private ValueCache createPartitionCache() {
+    if (partitionCacheCapacity <= 0 && partitionCacheCapacityBytes <= 0) {
+      return null;
+    }
+    if (useOffHeapPartitionCache) {
+      return new OffHeapValueCache(partitionCacheCapacityBytes);
+    }
+    return new SegmentedLruValueCache(partitionCacheCapacity, partitionCacheCapacityBytes);
   }
 
   private CompressionCodec getCompressionCodec() throws IOException {
@@ -226,12 +356,13 @@ public class Cueball implements StorageEngine {
     String localDir = getLocalDir(configurator, partitionNumber);
     return new CueballPartitionUpdater(domain,
         partitionRemoteFileOpsFactory.getPartitionRemoteFileOps(remoteDomainRoot, partitionNumber),
-        new CueballMerger(),
+        new CueballMerger(numMergeThreads),
         keyHashSize,
         valueSize,
         hashIndexBits,
         getCompressionCodec(),
-        localDir);
+        localDir,
+        streamUpdateDeltas);
   }
 
   @Override
@@ -304,10 +435,15 @@ public class Cueball implements StorageEngine {
     return Integer.parseInt(matcher.group(1));
   }
 
-  private String getLocalDir(DataDirectoriesConfigurator configurator, int partNum) {
+  @Override
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber) {
     ArrayList<String> l = new ArrayList<String>(configurator.getDataDirectories());
     Collections.sort(l);
-    return l.get(partNum % l.size()) + "/" + domain.getName() + "/" + partNum;
+    return l.get(partitionNumber % l.size());
+  }
+
+  private String getLocalDir(DataDirectoriesConfigurator configurator, int partNum) {
+    return getDataDirectory(configurator, partNum) + "/" + domain.getName() + "/" + partNum;
   }
 
   public static String getName(int versionNumber, boolean base) {
@@ -335,6 +471,8 @@ public class Cueball implements StorageEngine {
         + ", remoteDomainRoot=" + remoteDomainRoot
         + ", valueSize=" + valueSize
         + ", numRemoteLeafVersionsToKeep=" + numRemoteLeafVersionsToKeep
+        + ", useMemoryMapping=" + useMemoryMapping
+        + ", blockSearchStrategy=" + blockSearchStrategy
         + "]";
   }
 
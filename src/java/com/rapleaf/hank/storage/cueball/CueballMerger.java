@@ -16,24 +16,154 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.storage.PartitionRemoteFileOps;
+import com.rapleaf.hank.util.ReadAheadInputStream;
+import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-
+/**
+ * Merge a Cueball base and its deltas into a new base. With more than one thread, the hash index is split in
+ * ranges of hash prefixes that are merged in parallel into separate files, which are then stitched together.
+ */
 public final class CueballMerger implements ICueballMerger {
 
+  private static final Logger LOG = Logger.getLogger(CueballMerger.class);
+
+  private final int numThreads;
+
+  public CueballMerger() {
+    this(1);
+  }
+
+  public CueballMerger(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
   @Override
   public void merge(final CueballFilePath base,
                     final List<CueballFilePath> deltas,
                     final String newBasePath,
                     final int keyHashSize,
                     final int valueSize,
-                    ValueTransformer transformer,
-                    int hashIndexBits,
-                    CompressionCodec compressionCodec) throws IOException {
+                    final ValueTransformer transformer,
+                    final int hashIndexBits,
+                    final CompressionCodec compressionCodec) throws IOException {
+    final int hashIndexSize = 1 << hashIndexBits;
+    final int numRanges = Math.min(numThreads, hashIndexSize);
+    if (numRanges <= 1) {
+      mergeRange(base, deltas, newBasePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec,
+          0, hashIndexSize);
+      return;
+    }
+
+    // Merge each range of hash prefixes in a separate file
+    List<String> rangePaths = new ArrayList<String>(numRanges);
+    List<Future<Object>> rangeMerges = new ArrayList<Future<Object>>(numRanges);
+    ExecutorService executor = Executors.newFixedThreadPool(numRanges);
+    try {
+      for (int range = 0; range < numRanges; ++range) {
+        final String rangePath = newBasePath + ".range" + range;
+        final int fromHashIndexIdx = (int) ((long) hashIndexSize * range / numRanges);
+        final int endHashIndexIdx = (int) ((long) hashIndexSize * (range + 1) / numRanges);
+        rangePaths.add(rangePath);
+        rangeMerges.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws IOException {
+            mergeRange(base, deltas, rangePath, keyHashSize, valueSize, transformer, hashIndexBits,
+                compressionCodec, fromHashIndexIdx, endHashIndexIdx);
+            return null;
+          }
+        }));
+      }
+      for (Future<Object> rangeMerge : rangeMerges) {
+        try {
+          rangeMerge.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException("Failed to merge Cueball files", e.getCause());
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while merging Cueball files", e);
+        }
+      }
+      stitch(rangePaths, newBasePath, hashIndexBits);
+    } finally {
+      executor.shutdownNow();
+      for (String rangePath : rangePaths) {
+        if (new File(rangePath).exists() && !new File(rangePath).delete()) {
+          LOG.error("Failed to delete temporary Cueball file " + rangePath);
+        }
+      }
+    }
+  }
+
+  // Deltas are streamed in a single pass, since each range would need to download them again.
+  // Only uncompressed deltas can be streamed, as the block boundaries of compressed deltas are
+  // in their footer.
+  @Override
+  public void mergeRemoteDeltas(CueballFilePath base,
+                                List<String> deltaRemoteFiles,
+                                PartitionRemoteFileOps partitionRemoteFileOps,
+                                String newBasePath,
+                                int keyHashSize,
+                                int valueSize,
+                                ValueTransformer transformer,
+                                int hashIndexBits,
+                                CompressionCodec compressionCodec) throws IOException {
+    if (!(compressionCodec instanceof NoCompressionCodec)) {
+      throw new IllegalArgumentException("Only uncompressed Cueball deltas can be merged while being downloaded. Codec: "
+          + compressionCodec);
+    }
+    CueballStreamBuffer[] cueballStreamBuffers = new CueballStreamBuffer[deltaRemoteFiles.size() + 1];
+    try {
+      cueballStreamBuffers[0] = new CueballStreamBuffer(base.getPath(), 0,
+          keyHashSize, valueSize, hashIndexBits, compressionCodec);
+      int i = 1;
+      for (String deltaRemoteFile : deltaRemoteFiles) {
+        LOG.info("Merging remote file " + deltaRemoteFile + " while downloading it");
+        cueballStreamBuffers[i] = new CueballStreamBuffer(
+            new ReadAheadInputStream(partitionRemoteFileOps.getInputStream(deltaRemoteFile)), i,
+            keyHashSize, valueSize, hashIndexBits);
+        ++i;
+      }
+    } catch (IOException e) {
+      for (CueballStreamBuffer cueballStreamBuffer : cueballStreamBuffers) {
+        if (cueballStreamBuffer != null) {
+          cueballStreamBuffer.close();
+        }
+      }
+      throw e;
+    }
+    writeMerged(new CueballStreamBufferMergeSort(cueballStreamBuffers, keyHashSize, transformer),
+        newBasePath, keyHashSize, valueSize, hashIndexBits, compressionCodec);
+  }
+
+  private static void mergeRange(CueballFilePath base,
+                                 List<CueballFilePath> deltas,
+                                 String newBasePath,
+                                 int keyHashSize,
+                                 int valueSize,
+                                 ValueTransformer transformer,
+                                 int hashIndexBits,
+                                 CompressionCodec compressionCodec,
+                                 int fromHashIndexIdx,
+                                 int endHashIndexIdx) throws IOException {
 
     CueballStreamBufferMergeSort cueballStreamBufferMergeSort = new CueballStreamBufferMergeSort(base,
         deltas,
@@ -41,27 +171,81 @@ public final class CueballMerger implements ICueballMerger {
         valueSize,
         hashIndexBits,
         compressionCodec,
-        transformer);
+        transformer,
+        fromHashIndexIdx,
+        endHashIndexIdx);
+    writeMerged(cueballStreamBufferMergeSort, newBasePath, keyHashSize, valueSize, hashIndexBits, compressionCodec);
+  }
+
+  private static void writeMerged(IKeyFileStreamBufferMergeSort cueballStreamBufferMergeSort,
+                                  String newBasePath,
+                                  int keyHashSize,
+                                  int valueSize,
+                                  int hashIndexBits,
+                                  CompressionCodec compressionCodec) throws IOException {
+    try {
+      // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
+      OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
 
-    // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
-    OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+      // Note that we intentionally omit the hasher here, since it will *not* be used
+      CueballWriter newCueballBaseWriter =
+          new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
 
-    // Note that we intentionally omit the hasher here, since it will *not* be used
-    CueballWriter newCueballBaseWriter =
-        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
+      while (true) {
+        KeyHashAndValueAndStreamIndex keyValuePair = cueballStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
+        if (keyValuePair == null) {
+          break;
+        }
 
-    while (true) {
-      KeyHashAndValueAndStreamIndex keyValuePair = cueballStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
-      if (keyValuePair == null) {
-        break;
+        // Write next key hash and value
+        newCueballBaseWriter.writeHash(keyValuePair.keyHash, keyValuePair.value);
       }
 
-      // Write next key hash and value
-      newCueballBaseWriter.writeHash(keyValuePair.keyHash, keyValuePair.value);
+      // Close the base writer
+      newCueballBaseWriter.close();
+    } finally {
+      // Close all buffers, which also stops any downloads
+      cueballStreamBufferMergeSort.close();
     }
+  }
 
-    // Close all buffers and the base writer
-    cueballStreamBufferMergeSort.close();
-    newCueballBaseWriter.close();
+  // Concatenate the data of Cueball files that cover consecutive ranges of hash prefixes, and write the
+  // combined footer
+  private static void stitch(List<String> rangePaths, String newBasePath, int hashIndexBits) throws IOException {
+    long[] hashIndex = new long[1 << hashIndexBits];
+    Arrays.fill(hashIndex, -1);
+    long maxUncompressedBufferSize = 0;
+    long maxCompressedBufferSize = 0;
+    FileOutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
+    try {
+      FileChannel newCueballBaseChannel = newCueballBaseOutputStream.getChannel();
+      long dataLength = 0;
+      for (String rangePath : rangePaths) {
+        FileChannel rangeChannel = new FileInputStream(rangePath).getChannel();
+        try {
+          Footer footer = new Footer(rangeChannel, hashIndexBits);
+          long[] rangeHashIndex = footer.getHashIndex();
+          for (int i = 0; i < rangeHashIndex.length; ++i) {
+            // Ranges are disjoint, so each block is in a single range file
+            if (rangeHashIndex[i] != -1) {
+              hashIndex[i] = dataLength + rangeHashIndex[i];
+            }
+          }
+          maxUncompressedBufferSize = Math.max(maxUncompressedBufferSize, footer.getMaxUncompressedBufferSize());
+          maxCompressedBufferSize = Math.max(maxCompressedBufferSize, footer.getMaxCompressedBufferSize());
+          long numBytesTransferred = 0;
+          while (numBytesTransferred < footer.getDataLength()) {
+            numBytesTransferred += rangeChannel.transferTo(numBytesTransferred,
+                footer.getDataLength() - numBytesTransferred, newCueballBaseChannel);
+          }
+          dataLength += footer.getDataLength();
+        } finally {
+          rangeChannel.close();
+        }
+      }
+      newCueballBaseOutputStream.write(Footer.getBytes(hashIndex, maxUncompressedBufferSize, maxCompressedBufferSize));
+    } finally {
+      newCueballBaseOutputStream.close();
+    }
   }
 }
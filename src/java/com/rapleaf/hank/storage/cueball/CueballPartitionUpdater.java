@@ -17,6 +17,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
 import com.rapleaf.hank.coordinator.Domain;
 import com.rapleaf.hank.coordinator.DomainVersion;
 import com.rapleaf.hank.storage.PartitionRemoteFileOps;
@@ -40,6 +41,7 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
   private final ICueballMerger cueballMerger;
   private final CompressionCodec compressionCodec;
   private final int hashIndexBits;
+  private final boolean streamDeltas;
 
   public CueballPartitionUpdater(Domain domain,
                                  PartitionRemoteFileOps partitionRemoteFileOps,
@@ -49,6 +51,20 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
                                  int hashIndexBits,
                                  CompressionCodec compressionCodec,
                                  String localPartitionRoot) throws IOException {
+    this(domain, partitionRemoteFileOps, cueballMerger, keyHashSize, valueSize, hashIndexBits, compressionCodec,
+        localPartitionRoot, false);
+  }
+
+  // When streaming deltas, they are not fetched to local disk before updating, but merged while being downloaded
+  public CueballPartitionUpdater(Domain domain,
+                                 PartitionRemoteFileOps partitionRemoteFileOps,
+                                 ICueballMerger cueballMerger,
+                                 int keyHashSize,
+                                 int valueSize,
+                                 int hashIndexBits,
+                                 CompressionCodec compressionCodec,
+                                 String localPartitionRoot,
+                                 boolean streamDeltas) throws IOException {
     super(domain, localPartitionRoot);
     this.partitionRemoteFileOps = partitionRemoteFileOps;
     this.cueballMerger = cueballMerger;
@@ -56,6 +72,15 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
     this.valueSize = valueSize;
     this.hashIndexBits = hashIndexBits;
     this.compressionCodec = compressionCodec;
+    this.streamDeltas = canStreamDeltas(streamDeltas, compressionCodec);
+  }
+
+  public static boolean canStreamDeltas(boolean streamDeltas, CompressionCodec compressionCodec) {
+    if (streamDeltas && !(compressionCodec instanceof NoCompressionCodec)) {
+      LOG.warn("Cueball deltas compressed with " + compressionCodec + " can not be streamed, fetching them instead.");
+      return false;
+    }
+    return streamDeltas;
   }
 
   @Override
@@ -108,6 +133,10 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
 
   @Override
   protected void fetchVersion(DomainVersion domainVersion, String fetchRoot) throws IOException {
+    // Streamed deltas are merged directly from remote files
+    if (streamDeltas && !IncrementalDomainVersionProperties.isBase(domainVersion)) {
+      return;
+    }
     String fileToFetch = Cueball.getName(domainVersion);
     LOG.info("Fetching from " + partitionRemoteFileOps + " file " + fileToFetch + " to " + fetchRoot);
     partitionRemoteFileOps.copyToLocalRoot(fileToFetch, fetchRoot);
@@ -130,7 +159,8 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
         valueSize,
         hashIndexBits,
         compressionCodec,
-        null);
+        null,
+        streamDeltas);
   }
 
   public static void runUpdateCore(PartitionRemoteFileOps partitionRemoteFileOps,
@@ -146,6 +176,25 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
                                    int hashIndexBits,
                                    CompressionCodec compressionCodec,
                                    ValueTransformer valueTransformer) throws IOException {
+    runUpdateCore(partitionRemoteFileOps, currentVersion, updatingToVersion, updatePlan, updateWorkRoot,
+        localPartitionRoot, localPartitionRootCache, cueballMerger, keyHashSize, valueSize, hashIndexBits,
+        compressionCodec, valueTransformer, false);
+  }
+
+  public static void runUpdateCore(PartitionRemoteFileOps partitionRemoteFileOps,
+                                   DomainVersion currentVersion,
+                                   DomainVersion updatingToVersion,
+                                   IncrementalUpdatePlan updatePlan,
+                                   String updateWorkRoot,
+                                   String localPartitionRoot,
+                                   String localPartitionRootCache,
+                                   ICueballMerger cueballMerger,
+                                   int keyHashSize,
+                                   int valueSize,
+                                   int hashIndexBits,
+                                   CompressionCodec compressionCodec,
+                                   ValueTransformer valueTransformer,
+                                   boolean streamDeltas) throws IOException {
 
     // Determine new base path
     String newBasePath = updateWorkRoot + "/"
@@ -160,6 +209,25 @@ public class CueballPartitionUpdater extends IncrementalPartitionUpdater {
           localPartitionRoot, localPartitionRootCache, false));
     }
 
+    // Streamed deltas are merged directly from remote files
+    if (streamDeltas && !updatePlan.getDeltasOrdered().isEmpty()) {
+      checkRequiredFileExists(base.getPath());
+      List<String> deltaRemoteFiles = new ArrayList<String>();
+      for (DomainVersion delta : updatePlan.getDeltasOrdered()) {
+        deltaRemoteFiles.add(Cueball.getName(delta.getVersionNumber(), false));
+      }
+      cueballMerger.mergeRemoteDeltas(base,
+          deltaRemoteFiles,
+          partitionRemoteFileOps,
+          newBasePath,
+          keyHashSize,
+          valueSize,
+          valueTransformer,
+          hashIndexBits,
+          compressionCodec);
+      return;
+    }
+
     // Check that all required files are available
     checkRequiredFileExists(base.getPath());
     for (CueballFilePath delta : deltas) {
@@ -16,11 +16,15 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.CachingReader;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.storage.cache.ValueCache;
 import com.rapleaf.hank.util.Bytes;
-import com.rapleaf.hank.util.LruHashMap;
+import com.rapleaf.hank.util.MemoryMappedFile;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -28,7 +32,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.SortedSet;
 
-public class CueballReader implements Reader {
+public class CueballReader implements Reader, CachingReader {
 
   private static final KeyHashBufferThreadLocal keyHashBufferThreadLocal = new KeyHashBufferThreadLocal();
 
@@ -43,7 +47,13 @@ public class CueballReader implements Reader {
   private int maxCompressedBufferSize;
   private final HashPrefixCalculator prefixer;
   private final int versionNumber;
-  private final LruHashMap<ByteBuffer, ByteBuffer> cache;
+  private final ValueCache cache;
+  // Only used in memory mapped mode
+  private final MemoryMappedFile mappedFile;
+  private final boolean scanMappedBlocksInPlace;
+  private final BlockSearchStrategy blockSearchStrategy;
+  // Exact compressed length of each block
+  private final int[] blockLengths;
 
   public CueballReader(String partitionRoot,
                        int keyHashSize,
@@ -52,6 +62,19 @@ public class CueballReader implements Reader {
                        int hashIndexBits,
                        CompressionCodec compressionCodec,
                        int cacheCapacity) throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec,
+        cacheCapacity > 0 ? new SegmentedLruValueCache(cacheCapacity) : null, false, BlockSearchStrategy.LINEAR);
+  }
+
+  public CueballReader(String partitionRoot,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       int hashIndexBits,
+                       CompressionCodec compressionCodec,
+                       ValueCache cache,
+                       boolean useMemoryMapping,
+                       BlockSearchStrategy blockSearchStrategy) throws IOException {
     SortedSet<CueballFilePath> bases = Cueball.getBases(partitionRoot);
     if (bases == null || bases.size() == 0) {
       throw new IOException("Could not detect any Cueball base in " + partitionRoot);
@@ -70,18 +93,28 @@ public class CueballReader implements Reader {
     hashIndex = footer.getHashIndex();
     maxUncompressedBufferSize = footer.getMaxUncompressedBufferSize();
     maxCompressedBufferSize = footer.getMaxCompressedBufferSize();
-    if (cacheCapacity > 0) {
-      this.cache = new LruHashMap<ByteBuffer, ByteBuffer>(0, cacheCapacity);
+    this.cache = cache;
+    if (useMemoryMapping && footer.getDataLength() > 0) {
+      // Map the data section only. Segments overlap by the max compressed block size
+      // so that every block is fully contained in a single segment.
+      this.mappedFile = new MemoryMappedFile(channel, footer.getDataLength(), maxCompressedBufferSize);
+      // Uncompressed blocks can be scanned directly in the mapping
+      this.scanMappedBlocksInPlace = compressionCodec instanceof NoCompressionCodec;
     } else {
-      this.cache = null;
+      this.mappedFile = null;
+      this.scanMappedBlocksInPlace = false;
     }
+    this.blockSearchStrategy = blockSearchStrategy;
+    // Searching a block by bisection requires knowing exactly where it ends. Reading exactly one block
+    // also avoids handing a truncated next block to the decompressor.
+    this.blockLengths = computeBlockLengths(hashIndex, footer.getDataLength());
   }
 
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
     // Note: keyHash buffer might be larger than keyHashSize
     byte[] keyHash = computeKeyHash(key);
-    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash);
+    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash, 0, keyHashSize);
 
     int hashPrefix = prefixer.getHashPrefix(keyHash, 0);
     long baseOffset = hashIndex[hashPrefix];
@@ -95,13 +128,23 @@ public class CueballReader implements Reader {
       if (cache != null && loadValueFromCache(keyHashByteBuffer, result)) {
         return;
       }
+      final int blockLength = blockLengths[hashPrefix];
+      if (scanMappedBlocksInPlace) {
+        getFromMappedBlock(baseOffset, blockLength, keyHash, keyHashByteBuffer, result);
+        return;
+      }
       // We will read the compressed buffer and decompress it in the same buffer.
       result.requiresBufferSize(maxCompressedBufferSize + maxUncompressedBufferSize);
       // set up to read a chunk from the datafile
       ByteBuffer buffer = result.getBuffer();
       buffer.rewind();
-      buffer.limit(maxCompressedBufferSize);
-      int bytesRead = channel.read(buffer, baseOffset);
+      buffer.limit(blockLength);
+      int bytesRead;
+      if (mappedFile != null) {
+        bytesRead = mappedFile.read(baseOffset, buffer.array(), 0, blockLength);
+      } else {
+        bytesRead = channel.read(buffer, baseOffset);
+      }
 
       // decompress from the beginning of the buffer into the unoccupied end of
       // the buffer
@@ -110,10 +153,11 @@ public class CueballReader implements Reader {
           0,
           bytesRead, buffer.array(),
           uncompressedStart);
+      buffer.limit(uncompressedStart + decompressedLength);
 
       // scan the chunk we read to find a matching key, if there is one,
       // returning the recordfile offset
-      int bufferOffset = getValueOffset(buffer.array(),
+      int bufferOffset = getValueOffset(buffer,
           uncompressedStart,
           uncompressedStart + decompressedLength,
           keyHash);
@@ -130,6 +174,28 @@ public class CueballReader implements Reader {
     }
   }
 
+  // Scan an uncompressed block directly in the memory mapped file and only copy the value, if found
+  private void getFromMappedBlock(long baseOffset,
+                                  int blockLength,
+                                  byte[] keyHash,
+                                  ByteBuffer keyHashByteBuffer,
+                                  ReaderResult result) throws IOException {
+    ByteBuffer block = mappedFile.slice(baseOffset, blockLength);
+    if (block == null) {
+      throw new IOException("Block at offset " + baseOffset + " is not contained in a single mapped segment");
+    }
+    int valueOffset = getValueOffset(block, block.position(), block.limit(), keyHash);
+    if (valueOffset > -1) {
+      block.limit(valueOffset + valueSize);
+      block.position(valueOffset);
+      result.deepCopyIntoResultBuffer(block);
+      result.found();
+      if (cache != null) {
+        addValueToCache(keyHashByteBuffer, result.getBuffer());
+      }
+    }
+  }
+
   public Integer getVersionNumber() {
     return versionNumber;
   }
@@ -142,15 +208,37 @@ public class CueballReader implements Reader {
     }
   }
 
-  private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, byte[] key) {
-    for (; off < limit; off += fullRecordSize) {
-      int comparison = Bytes.compareBytesUnsigned(keyfileBufferChunk, off,
-          key, 0, keyHashSize);
+  // Return the offset of the value corresponding to the given key hash in the block, or -1 if not found
+  private int getValueOffset(ByteBuffer block, int off, int limit, byte[] key) {
+    // Ignore any trailing partial record
+    int numRecords = (limit - off) / fullRecordSize;
+    int recordIndex;
+    switch (blockSearchStrategy) {
+      case LINEAR:
+        recordIndex = linearSearch(block, off, numRecords, key);
+        break;
+      case BINARY:
+        recordIndex = binarySearch(block, off, numRecords, key);
+        break;
+      case INTERPOLATION:
+        recordIndex = interpolationSearch(block, off, numRecords, key);
+        break;
+      default:
+        throw new RuntimeException("Unknown block search strategy: " + blockSearchStrategy);
+    }
+    if (recordIndex < 0) {
+      return -1;
+    }
+    return off + recordIndex * fullRecordSize + keyHashSize;
+  }
+
+  private int linearSearch(ByteBuffer block, int off, int numRecords, byte[] key) {
+    for (int i = 0; i < numRecords; ++i) {
+      int comparison = compareKeyHash(block, off + i * fullRecordSize, key);
       // found match
       if (comparison == 0) {
-        return off + keyHashSize;
+        return i;
       }
-
       // passed the spot where our key could have been found, so not going to
       // find it
       if (comparison == 1) {
@@ -161,6 +249,102 @@ public class CueballReader implements Reader {
     return -1;
   }
 
+  private int binarySearch(ByteBuffer block, int off, int numRecords, byte[] key) {
+    int low = 0;
+    int high = numRecords - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareKeyHash(block, off + middle * fullRecordSize, key);
+      if (comparison == 0) {
+        return middle;
+      } else if (comparison < 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return -1;
+  }
+
+  private int interpolationSearch(ByteBuffer block, int off, int numRecords, byte[] key) {
+    final long keyValue = getInterpolationValue(key);
+    int low = 0;
+    int high = numRecords - 1;
+    while (low <= high) {
+      long lowValue = getInterpolationValue(block, off + low * fullRecordSize);
+      long highValue = getInterpolationValue(block, off + high * fullRecordSize);
+      if (keyValue < lowValue || keyValue > highValue) {
+        return -1;
+      }
+      int guess;
+      if (lowValue == highValue) {
+        // Interpolation values are only a prefix of the key hash, fall back to bisection
+        guess = (low + high) >>> 1;
+      } else {
+        guess = low + (int) ((double) (keyValue - lowValue) / (highValue - lowValue) * (high - low));
+      }
+      int comparison = compareKeyHash(block, off + guess * fullRecordSize, key);
+      if (comparison == 0) {
+        return guess;
+      } else if (comparison < 0) {
+        low = guess + 1;
+      } else {
+        high = guess - 1;
+      }
+    }
+    return -1;
+  }
+
+  // Interpret the first (up to) 8 bytes of a key hash as a non-negative number, preserving order
+  private long getInterpolationValue(byte[] keyHash) {
+    long result = 0;
+    int numBytes = Math.min(8, keyHashSize);
+    for (int i = 0; i < numBytes; ++i) {
+      result = (result << 8) | (keyHash[i] & 0xff);
+    }
+    return (result << (8 * (8 - numBytes))) >>> 1;
+  }
+
+  private long getInterpolationValue(ByteBuffer block, int off) {
+    long result = 0;
+    int numBytes = Math.min(8, keyHashSize);
+    for (int i = 0; i < numBytes; ++i) {
+      result = (result << 8) | (block.get(off + i) & 0xff);
+    }
+    return (result << (8 * (8 - numBytes))) >>> 1;
+  }
+
+  private int compareKeyHash(ByteBuffer block, int off, byte[] key) {
+    if (block.hasArray()) {
+      return Bytes.compareBytesUnsigned(block.array(), block.arrayOffset() + off, key, 0, keyHashSize);
+    }
+    for (int i = 0; i < keyHashSize; ++i) {
+      final int ab = block.get(off + i) & 0xff;
+      final int bb = key[i] & 0xff;
+      if (ab > bb) {
+        return 1;
+      } else if (ab < bb) {
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  // Blocks are laid out in hash prefix order, so a block ends where the next non-empty one starts
+  private static int[] computeBlockLengths(long[] hashIndex, long dataLength) {
+    int[] result = new int[hashIndex.length];
+    long nextBlockOffset = dataLength;
+    for (int i = hashIndex.length - 1; i >= 0; --i) {
+      if (hashIndex[i] >= 0) {
+        result[i] = (int) (nextBlockOffset - hashIndex[i]);
+        nextBlockOffset = hashIndex[i];
+      } else {
+        result[i] = 0;
+      }
+    }
+    return result;
+  }
+
   private static class KeyHashBufferThreadLocal extends ThreadLocal<byte[]> {
 
     private static int KEY_HASH_BUFFER_INITIAL_SIZE = 8;
@@ -189,20 +373,12 @@ public class CueballReader implements Reader {
   }
 
   private void addValueToCache(ByteBuffer keyHash, ByteBuffer value) {
-    synchronized (cache) {
-      cache.put(Bytes.byteBufferDeepCopy(keyHash), Bytes.byteBufferDeepCopy(value));
-    }
+    cache.put(keyHash, value);
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer keyHash, ReaderResult result) {
-    ByteBuffer value;
-    synchronized (cache) {
-      value = cache.get(keyHash);
-    }
-    if (value != null) {
-      // Load cached value into result
-      result.deepCopyIntoResultBuffer(value);
+    if (cache.get(keyHash, result)) {
       result.found();
       result.setL1CacheHit(true);
       return true;
@@ -211,4 +387,13 @@ public class CueballReader implements Reader {
     }
   }
 
+  @Override
+  public ValueCache getL1Cache() {
+    return cache;
+  }
+
+  @Override
+  public ValueCache getL2Cache() {
+    return null;
+  }
 }
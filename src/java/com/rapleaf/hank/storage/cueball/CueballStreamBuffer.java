@@ -26,6 +26,7 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public final class CueballStreamBuffer {
   private final int relativeIndex;
@@ -41,10 +42,22 @@ public final class CueballStreamBuffer {
   private final byte[] uncompressedBuffer;
   private final byte[] compressedBuffer;
 
-  private int currentHashIndexIdx = -1;
+  private int currentHashIndexIdx;
+  // Blocks at and after this index of the hash index are not read
+  private final int endHashIndexIdx;
   private final CompressionCodec compressionCodec;
   private final long dataLength;
 
+  // When reading sequentially from a stream, the hash index is not known and the trailing footer
+  // bytes are held back at the end of the buffer
+  private final int streamFooterLength;
+  private int streamBufferLength = 0;
+
+  // Reusable views of the current record
+  private final ByteBuffer currentKeyHash;
+  private final ByteBuffer currentValue;
+  private final KeyHashAndValueAndStreamIndex currentRecord;
+
   public CueballStreamBuffer(String filePath,
                              int relativeIndex,
                              int keyHashSize,
@@ -52,6 +65,19 @@ public final class CueballStreamBuffer {
                              int hashIndexBits,
                              CompressionCodec compressionCodec)
       throws IOException {
+    this(filePath, relativeIndex, keyHashSize, valueSize, hashIndexBits, compressionCodec, 0, 1 << hashIndexBits);
+  }
+
+  // Only read the blocks of hash prefixes in the given range, from inclusive to end exclusive
+  public CueballStreamBuffer(String filePath,
+                             int relativeIndex,
+                             int keyHashSize,
+                             int valueSize,
+                             int hashIndexBits,
+                             CompressionCodec compressionCodec,
+                             int fromHashIndexIdx,
+                             int endHashIndexIdx)
+      throws IOException {
     this.relativeIndex = relativeIndex;
     this.compressionCodec = compressionCodec;
     FileInputStream fileInputStream = new FileInputStream(filePath);
@@ -65,6 +91,53 @@ public final class CueballStreamBuffer {
     hashIndex = footer.getHashIndex();
     uncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
     compressedBuffer = new byte[footer.getMaxCompressedBufferSize()];
+
+    this.streamFooterLength = -1;
+    this.currentHashIndexIdx = fromHashIndexIdx - 1;
+    this.endHashIndexIdx = endHashIndexIdx;
+    // Skip to the first block in range. The buffered stream has not read anything yet.
+    for (int i = fromHashIndexIdx; i < endHashIndexIdx; ++i) {
+      if (hashIndex[i] != -1) {
+        fileInputStream.getChannel().position(hashIndex[i]);
+        break;
+      }
+    }
+
+    currentKeyHash = ByteBuffer.wrap(uncompressedBuffer);
+    currentValue = ByteBuffer.wrap(uncompressedBuffer);
+    currentRecord = new KeyHashAndValueAndStreamIndex(currentKeyHash, currentValue, relativeIndex);
+  }
+
+  /**
+   * Read an uncompressed Cueball file sequentially from a stream, for example while it is being downloaded.
+   * Uncompressed blocks are plain sequences of records, so the footer is not needed and is skipped.
+   */
+  public CueballStreamBuffer(InputStream stream,
+                             int relativeIndex,
+                             int keyHashSize,
+                             int valueSize,
+                             int hashIndexBits) {
+    this.relativeIndex = relativeIndex;
+    this.compressionCodec = null;
+    this.stream = stream;
+
+    this.keyHashSize = keyHashSize;
+    this.fullRecordSize = valueSize + keyHashSize;
+
+    dataLength = -1;
+    hashIndex = null;
+    streamFooterLength = Footer.getLength(hashIndexBits);
+    // Room for the footer and at least one record
+    uncompressedBuffer = new byte[streamFooterLength
+        + (IOStreamUtils.DEFAULT_BUFFER_SIZE / fullRecordSize + 1) * fullRecordSize];
+    compressedBuffer = null;
+
+    this.currentHashIndexIdx = -1;
+    this.endHashIndexIdx = 0;
+
+    currentKeyHash = ByteBuffer.wrap(uncompressedBuffer);
+    currentValue = ByteBuffer.wrap(uncompressedBuffer);
+    currentRecord = new KeyHashAndValueAndStreamIndex(currentKeyHash, currentValue, relativeIndex);
   }
 
   public boolean anyRemaining() throws IOException {
@@ -74,19 +147,22 @@ public final class CueballStreamBuffer {
     if (complete) {
       return false;
     }
+    if (hashIndex == null) {
+      return refillFromStream();
+    }
 
     // refill the buffer
 
     // advance to the next non-empty block
     currentHashIndexIdx++;
-    while (currentHashIndexIdx < hashIndex.length) {
+    while (currentHashIndexIdx < endHashIndexIdx) {
       if (hashIndex[currentHashIndexIdx] != -1) {
         break;
       }
       currentHashIndexIdx++;
     }
 
-    if (currentHashIndexIdx >= hashIndex.length) {
+    if (currentHashIndexIdx >= endHashIndexIdx) {
       // there are no more blocks. we're all done
       complete = true;
       return false;
@@ -134,6 +210,40 @@ public final class CueballStreamBuffer {
     return true;
   }
 
+  private boolean refillFromStream() throws IOException {
+    // Move the bytes that were held back to the beginning of the buffer, and fill the rest
+    int numBytes = streamBufferLength - currentLimit;
+    System.arraycopy(uncompressedBuffer, currentLimit, uncompressedBuffer, 0, numBytes);
+    boolean endOfStream = false;
+    while (numBytes < uncompressedBuffer.length) {
+      int numBytesRead = stream.read(uncompressedBuffer, numBytes, uncompressedBuffer.length - numBytes);
+      if (numBytesRead < 0) {
+        endOfStream = true;
+        break;
+      }
+      numBytes += numBytesRead;
+    }
+    streamBufferLength = numBytes;
+
+    // Only the records followed by at least a footer's worth of bytes can be used
+    int numDataBytes = numBytes - streamFooterLength;
+    if (numDataBytes < 0) {
+      throw new IOException("Cueball stream is too short to contain a footer: " + numBytes + " bytes left");
+    }
+    if (endOfStream && numDataBytes % fullRecordSize != 0) {
+      throw new IOException("Cueball stream data does not contain a whole number of records");
+    }
+    numDataBytes -= numDataBytes % fullRecordSize;
+
+    currentOffset = 0;
+    currentLimit = numDataBytes;
+    if (numDataBytes == 0) {
+      complete = true;
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Compare the key hash at the current position of two stream buffers
    *
@@ -148,6 +258,18 @@ public final class CueballStreamBuffer {
         keyHashSize);
   }
 
+  /**
+   * Return the record at the current position. The returned object and its buffers are reused, and are
+   * only valid until this stream buffer is refilled.
+   */
+  public KeyHashAndValueAndStreamIndex getCurrentRecord() {
+    currentKeyHash.limit(currentOffset + keyHashSize);
+    currentKeyHash.position(currentOffset);
+    currentValue.limit(currentOffset + fullRecordSize);
+    currentValue.position(currentOffset + keyHashSize);
+    return currentRecord;
+  }
+
   public void consume() {
     currentOffset += fullRecordSize;
   }
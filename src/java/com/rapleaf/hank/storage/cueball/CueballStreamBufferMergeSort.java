@@ -19,15 +19,23 @@ package com.rapleaf.hank.storage.cueball;
 import com.rapleaf.hank.compress.CompressionCodec;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * K-way merge of a Cueball base and its deltas. Stream buffers with remaining records are kept in a binary
+ * min heap ordered by current key hash, so that each record costs O(log(number of streams)) comparisons.
+ */
 public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSort {
 
   private final CueballStreamBuffer[] cueballStreamBuffers;
   private final int keyHashSize;
-  private final int valueSize;
   private final ValueTransformer transformer;
+  // Indices of stream buffers with remaining records. Equal key hashes are ordered by decreasing stream
+  // index, so that the most recent value comes first.
+  private final int[] heap;
+  private int heapSize = 0;
+  // Stream buffer of the record returned last, which is advanced before returning the next record
+  private int lastStreamIndex = -1;
 
   public static class Factory implements ICueballStreamBufferMergeSortFactory {
     private final int keyHashSize;
@@ -70,61 +78,102 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
                                       int hashIndexBits,
                                       CompressionCodec compressionCodec,
                                       ValueTransformer transformer) throws IOException {
+    this(cueballBase, cueballDeltas, keyHashSize, valueSize, hashIndexBits, compressionCodec, transformer,
+        0, 1 << hashIndexBits);
+  }
+
+  // Only merge the records of hash prefixes in the given range, from inclusive to end exclusive
+  public CueballStreamBufferMergeSort(CueballFilePath cueballBase,
+                                      List<CueballFilePath> cueballDeltas,
+                                      int keyHashSize,
+                                      int valueSize,
+                                      int hashIndexBits,
+                                      CompressionCodec compressionCodec,
+                                      ValueTransformer transformer,
+                                      int fromHashIndexIdx,
+                                      int endHashIndexIdx) throws IOException {
+    this(openStreamBuffers(cueballBase, cueballDeltas, keyHashSize, valueSize, hashIndexBits, compressionCodec,
+        fromHashIndexIdx, endHashIndexIdx), keyHashSize, transformer);
+  }
+
+  // Merge stream buffers that are already open, the base first and then the deltas in order
+  public CueballStreamBufferMergeSort(CueballStreamBuffer[] cueballStreamBuffers,
+                                      int keyHashSize,
+                                      ValueTransformer transformer) throws IOException {
+    this.cueballStreamBuffers = cueballStreamBuffers;
     this.keyHashSize = keyHashSize;
-    this.valueSize = valueSize;
     this.transformer = transformer;
 
-    cueballStreamBuffers = new CueballStreamBuffer[cueballDeltas.size() + 1];
+    // Build the heap
+    heap = new int[cueballStreamBuffers.length];
+    for (int streamIndex = 0; streamIndex < cueballStreamBuffers.length; ++streamIndex) {
+      if (cueballStreamBuffers[streamIndex].anyRemaining()) {
+        heap[heapSize++] = streamIndex;
+      }
+    }
+    for (int heapIndex = heapSize / 2 - 1; heapIndex >= 0; --heapIndex) {
+      siftDown(heapIndex);
+    }
+  }
+
+  private static CueballStreamBuffer[] openStreamBuffers(CueballFilePath cueballBase,
+                                                        List<CueballFilePath> cueballDeltas,
+                                                        int keyHashSize,
+                                                        int valueSize,
+                                                        int hashIndexBits,
+                                                        CompressionCodec compressionCodec,
+                                                        int fromHashIndexIdx,
+                                                        int endHashIndexIdx) throws IOException {
+    CueballStreamBuffer[] cueballStreamBuffers = new CueballStreamBuffer[cueballDeltas.size() + 1];
 
     // Open the base
     CueballStreamBuffer cueballBaseStreamBuffer = new CueballStreamBuffer(cueballBase.getPath(), 0,
-        keyHashSize, valueSize, hashIndexBits, compressionCodec);
+        keyHashSize, valueSize, hashIndexBits, compressionCodec, fromHashIndexIdx, endHashIndexIdx);
     cueballStreamBuffers[0] = cueballBaseStreamBuffer;
 
     // Open all the deltas
     int i = 1;
     for (CueballFilePath delta : cueballDeltas) {
-      CueballStreamBuffer cueballStreamBuffer =
-          new CueballStreamBuffer(delta.getPath(), i, keyHashSize, valueSize, hashIndexBits, compressionCodec);
+      CueballStreamBuffer cueballStreamBuffer = new CueballStreamBuffer(delta.getPath(), i,
+          keyHashSize, valueSize, hashIndexBits, compressionCodec, fromHashIndexIdx, endHashIndexIdx);
       cueballStreamBuffers[i++] = cueballStreamBuffer;
     }
+    return cueballStreamBuffers;
   }
 
-  // Return null when there is nothing more to use
+  // Return null when there is nothing more to use. The returned object is only valid until the next call.
   @Override
   public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException {
 
-    // Find the stream buffer with the next smallest key hash
-    CueballStreamBuffer cueballStreamBufferToUse = null;
-    int cueballStreamBufferToUseIndex = -1;
-
-    for (int i = 0; i < cueballStreamBuffers.length; i++) {
-      if (cueballStreamBuffers[i].anyRemaining()) {
-        if (cueballStreamBufferToUse == null) {
-          cueballStreamBufferToUse = cueballStreamBuffers[i];
-          cueballStreamBufferToUseIndex = i;
-        } else {
-          int comparison = cueballStreamBufferToUse.compareTo(cueballStreamBuffers[i]);
-          if (comparison == 0) {
-            // If two equal key hashes are found, use the most recent value (i.e. the one from the lastest delta)
-            // and skip (consume) the older ones
-            cueballStreamBufferToUse.consume();
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          } else if (comparison == 1) {
-            // Found a stream buffer with a smaller key hash
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          }
-        }
+    // Advance the stream buffer of the previous record, which can now be refilled
+    if (lastStreamIndex >= 0) {
+      if (cueballStreamBuffers[lastStreamIndex].anyRemaining()) {
+        heap[heapSize++] = lastStreamIndex;
+        siftUp(heapSize - 1);
       }
+      lastStreamIndex = -1;
     }
 
-    if (cueballStreamBufferToUse == null) {
+    if (heapSize == 0) {
       // Nothing more to read
       return null;
     }
 
+    // The stream buffer with the next smallest key hash, and the most recent value for that key hash
+    int streamIndex = removeTop();
+    CueballStreamBuffer cueballStreamBufferToUse = cueballStreamBuffers[streamIndex];
+
+    // Skip (consume) the older values of the same key hash
+    while (heapSize > 0 && cueballStreamBufferToUse.compareTo(cueballStreamBuffers[heap[0]]) == 0) {
+      CueballStreamBuffer olderCueballStreamBuffer = cueballStreamBuffers[heap[0]];
+      olderCueballStreamBuffer.consume();
+      if (olderCueballStreamBuffer.anyRemaining()) {
+        siftDown(0);
+      } else {
+        removeTop();
+      }
+    }
+
     // Transform if necessary
     if (transformer != null) {
       transformer.transform(cueballStreamBufferToUse.getBuffer(),
@@ -132,15 +181,61 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
           cueballStreamBufferToUse.getIndex());
     }
 
-    // Get next key hash and value
-    final ByteBuffer keyHash = ByteBuffer.wrap(cueballStreamBufferToUse.getBuffer(),
-        cueballStreamBufferToUse.getCurrentOffset(), keyHashSize);
-    final ByteBuffer valueBytes = ByteBuffer.wrap(cueballStreamBufferToUse.getBuffer(),
-        cueballStreamBufferToUse.getCurrentOffset() + keyHashSize, valueSize);
-
+    // Get next key hash and value. The stream buffer is not refilled until the next call.
+    KeyHashAndValueAndStreamIndex result = cueballStreamBufferToUse.getCurrentRecord();
     cueballStreamBufferToUse.consume();
+    lastStreamIndex = streamIndex;
+
+    return result;
+  }
 
-    return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, cueballStreamBufferToUseIndex);
+  private boolean isBefore(int streamIndexA, int streamIndexB) {
+    int comparison = cueballStreamBuffers[streamIndexA].compareTo(cueballStreamBuffers[streamIndexB]);
+    if (comparison == 0) {
+      return streamIndexA > streamIndexB;
+    }
+    return comparison < 0;
+  }
+
+  private int removeTop() {
+    int top = heap[0];
+    heap[0] = heap[--heapSize];
+    if (heapSize > 0) {
+      siftDown(0);
+    }
+    return top;
+  }
+
+  private void siftUp(int heapIndex) {
+    int streamIndex = heap[heapIndex];
+    while (heapIndex > 0) {
+      int parentHeapIndex = (heapIndex - 1) / 2;
+      if (!isBefore(streamIndex, heap[parentHeapIndex])) {
+        break;
+      }
+      heap[heapIndex] = heap[parentHeapIndex];
+      heapIndex = parentHeapIndex;
+    }
+    heap[heapIndex] = streamIndex;
+  }
+
+  private void siftDown(int heapIndex) {
+    int streamIndex = heap[heapIndex];
+    while (true) {
+      int childHeapIndex = 2 * heapIndex + 1;
+      if (childHeapIndex >= heapSize) {
+        break;
+      }
+      if (childHeapIndex + 1 < heapSize && isBefore(heap[childHeapIndex + 1], heap[childHeapIndex])) {
+        ++childHeapIndex;
+      }
+      if (!isBefore(heap[childHeapIndex], streamIndex)) {
+        break;
+      }
+      heap[heapIndex] = heap[childHeapIndex];
+      heapIndex = childHeapIndex;
+    }
+    heap[heapIndex] = streamIndex;
   }
 
   @Override
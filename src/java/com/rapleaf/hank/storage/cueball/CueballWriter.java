@@ -19,7 +19,6 @@ import com.rapleaf.hank.compress.CompressionCodec;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.storage.Writer;
 import com.rapleaf.hank.util.Bytes;
-import com.rapleaf.hank.util.EncodingHelper;
 import com.rapleaf.hank.util.IOStreamUtils;
 
 import java.io.BufferedOutputStream;
@@ -207,15 +206,7 @@ public class CueballWriter implements Writer {
     }
 
     // serialize the footer
-    byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
-
-    for (int i = 0; i < hashIndex.length; i++) {
-      EncodingHelper.encodeLittleEndianFixedWidthLong(hashIndex[i], footer, i * 8, 8);
-    }
-
-    // write the buffer size hints
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBlockSize, footer, footer.length - 8, 4);
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBlockSize, footer, footer.length - 4, 4);
+    byte[] footer = Footer.getBytes(hashIndex, maxUncompressedBlockSize, maxCompressedBlockSize);
 
     stream.write(footer);
 
@@ -17,7 +17,7 @@ final class Footer {
     fileSize = channel.size();
 
     final int hashIndexSize = 1 << hashIndexBits;
-    footerLength = hashIndexSize * 8 + 8;
+    footerLength = getLength(hashIndexBits);
 
     byte[] footer = new byte[getFooterLength()];
     int read = channel.read(ByteBuffer.wrap(footer), getFileSize() - getFooterLength());
@@ -47,6 +47,25 @@ final class Footer {
     }
   }
 
+  // Hash index followed by the two buffer size hints
+  static int getLength(int hashIndexBits) {
+    return (1 << hashIndexBits) * 8 + 8;
+  }
+
+  // Serialize a footer, as read by the constructor
+  static byte[] getBytes(long[] hashIndex, long maxUncompressedBufferSize, long maxCompressedBufferSize) {
+    byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
+
+    for (int i = 0; i < hashIndex.length; i++) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(hashIndex[i], footer, i * 8, 8);
+    }
+
+    // write the buffer size hints
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBufferSize, footer, footer.length - 8, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBufferSize, footer, footer.length - 4, 4);
+    return footer;
+  }
+
   public long[] getHashIndex() {
     return hashIndex;
   }
@@ -16,6 +16,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.storage.PartitionRemoteFileOps;
 
 import java.io.IOException;
 import java.util.List;
@@ -31,4 +32,16 @@ public interface ICueballMerger {
                     int hashIndexBits,
                     CompressionCodec compressionCodec)
       throws IOException;
+
+  // Merge deltas that are read from remote files while they are being downloaded
+  public void mergeRemoteDeltas(final CueballFilePath latestBase,
+                                final List<String> deltaRemoteFiles,
+                                final PartitionRemoteFileOps partitionRemoteFileOps,
+                                final String newBasePath,
+                                final int keyHashSize,
+                                final int valueSize,
+                                ValueTransformer transformer,
+                                int hashIndexBits,
+                                CompressionCodec compressionCodec)
+      throws IOException;
 }
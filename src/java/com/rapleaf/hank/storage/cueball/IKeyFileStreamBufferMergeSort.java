@@ -20,6 +20,7 @@ import java.io.IOException;
 
 public interface IKeyFileStreamBufferMergeSort {
 
+  // Return null when there is nothing more to use. The returned object can be reused by the next call.
   public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException;
 
   public void close() throws IOException;
@@ -5,6 +5,7 @@ import com.rapleaf.hank.coordinator.mock.MockDomainVersion;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.storage.LocalPartitionRemoteFileOps;
+import com.rapleaf.hank.storage.incremental.IncrementalDomainVersionProperties;
 import com.rapleaf.hank.util.Bytes;
 
 import java.nio.ByteBuffer;
@@ -60,7 +61,7 @@ public class TestDomainGenerator {
           return Bytes.compareBytesUnsigned(ByteBuffer.wrap(arg0), ByteBuffer.wrap(arg1));
         }
       });
-      final CueballWriter writer = (CueballWriter) cueball.getWriter(new MockDomainVersion(0, 0L),
+      final CueballWriter writer = (CueballWriter) cueball.getWriter(new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()),
           new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         r.nextBytes(valueBytes);
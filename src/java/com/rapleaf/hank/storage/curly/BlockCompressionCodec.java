@@ -16,7 +16,29 @@
 
 package com.rapleaf.hank.storage.curly;
 
+import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.Lz4CompressionCodec;
+import com.rapleaf.hank.compress.SnappyCompressionCodec;
+
 public enum BlockCompressionCodec {
   GZIP,
-  SLOW_IDENTITY
+  SLOW_IDENTITY,
+  // Fast codecs, compressed and decompressed array to array
+  LZ4,
+  SNAPPY;
+
+  private static final CompressionCodec LZ4_CODEC = new Lz4CompressionCodec();
+  private static final CompressionCodec SNAPPY_CODEC = new SnappyCompressionCodec();
+
+  // Return the codec used to compress whole blocks array to array, or null if this codec works with streams
+  public CompressionCodec getArrayCompressionCodec() {
+    switch (this) {
+      case LZ4:
+        return LZ4_CODEC;
+      case SNAPPY:
+        return SNAPPY_CODEC;
+      default:
+        return null;
+    }
+  }
 }
@@ -26,6 +26,10 @@ import com.rapleaf.hank.hasher.Murmur64Hasher;
 import com.rapleaf.hank.storage.*;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.Writer;
+import com.rapleaf.hank.storage.cache.OffHeapValueCache;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.storage.cache.ValueCache;
+import com.rapleaf.hank.storage.cueball.BlockSearchStrategy;
 import com.rapleaf.hank.storage.cueball.Cueball;
 import com.rapleaf.hank.storage.cueball.CueballMerger;
 import com.rapleaf.hank.storage.cueball.CueballStreamBufferMergeSort;
@@ -62,9 +66,17 @@ public class Curly implements StorageEngine {
     public static final String VALUE_FOLDING_CACHE_CAPACITY = "value_folding_cache_capacity";
     public static final String KEY_FILE_PARTITION_CACHE_CAPACITY = "key_file_partition_cache_capacity";
     public static final String RECORD_FILE_PARTITION_CACHE_CAPACITY = "record_file_partition_cache_capacity";
+    public static final String KEY_FILE_PARTITION_CACHE_CAPACITY_BYTES = "key_file_partition_cache_capacity_bytes";
+    public static final String RECORD_FILE_PARTITION_CACHE_CAPACITY_BYTES = "record_file_partition_cache_capacity_bytes";
+    public static final String USE_OFF_HEAP_PARTITION_CACHES = "use_off_heap_partition_caches";
     private static final String BLOCK_COMPRESSION_CODEC = "block_compression_codec";
     private static final String COMPRESSED_BLOCK_SIZE_THRESHOLD = "compressed_block_size_threshold";
     private static final String OFFSET_IN_BLOCK_NUM_BYTES = "offset_in_block_num_bytes";
+    public static final String DECOMPRESSED_BLOCK_CACHE_CAPACITY_BYTES = "decompressed_block_cache_capacity_bytes";
+    public static final String USE_MEMORY_MAPPING = "use_memory_mapping";
+    public static final String KEY_FILE_BLOCK_SEARCH_STRATEGY = "key_file_block_search_strategy";
+    public static final String NUM_MERGE_THREADS = "num_merge_threads";
+    public static final String STREAM_UPDATE_DELTAS = "stream_update_deltas";
 
     private static final Set<String> REQUIRED_KEYS = new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY,
         RECORD_FILE_READ_BUFFER_BYTES_KEY, HASH_INDEX_BITS_KEY, MAX_ALLOWED_PART_SIZE_KEY, KEY_HASH_SIZE_KEY,
@@ -116,6 +128,18 @@ public class Curly implements StorageEngine {
       if (recordFilePartitionCacheCapacity == null) {
         recordFilePartitionCacheCapacity = -1;
       }
+      long keyFilePartitionCacheCapacityBytes = getNumBytesOption(options, KEY_FILE_PARTITION_CACHE_CAPACITY_BYTES);
+      long recordFilePartitionCacheCapacityBytes =
+          getNumBytesOption(options, RECORD_FILE_PARTITION_CACHE_CAPACITY_BYTES);
+      // Off heap caches are sized in bytes only
+      Boolean useOffHeapPartitionCaches = (Boolean) options.get(USE_OFF_HEAP_PARTITION_CACHES);
+      if (useOffHeapPartitionCaches == null) {
+        useOffHeapPartitionCaches = false;
+      }
+      if (useOffHeapPartitionCaches && (keyFilePartitionCacheCapacity > 0 && keyFilePartitionCacheCapacityBytes <= 0
+          || recordFilePartitionCacheCapacity > 0 && recordFilePartitionCacheCapacityBytes <= 0)) {
+        throw new RuntimeException("'" + USE_OFF_HEAP_PARTITION_CACHES + "' requires cache capacities to be set in bytes");
+      }
 
       // Block compression
       BlockCompressionCodec blockCompressionCodec = null;
@@ -131,6 +155,32 @@ public class Curly implements StorageEngine {
       if (offsetInBlockNumBytes == null) {
         offsetInBlockNumBytes = -1;
       }
+      long decompressedBlockCacheCapacityBytes = getNumBytesOption(options, DECOMPRESSED_BLOCK_CACHE_CAPACITY_BYTES);
+
+      // Memory mapping of both the key file and the record file
+      Boolean useMemoryMapping = (Boolean) options.get(USE_MEMORY_MAPPING);
+      if (useMemoryMapping == null) {
+        useMemoryMapping = false;
+      }
+
+      // Key file block search strategy
+      BlockSearchStrategy keyFileBlockSearchStrategy = BlockSearchStrategy.LINEAR;
+      String keyFileBlockSearchStrategyStr = (String) options.get(KEY_FILE_BLOCK_SEARCH_STRATEGY);
+      if (keyFileBlockSearchStrategyStr != null) {
+        keyFileBlockSearchStrategy = BlockSearchStrategy.valueOf(keyFileBlockSearchStrategyStr.toUpperCase());
+      }
+
+      // Key file merge threads
+      Integer numMergeThreads = (Integer) options.get(NUM_MERGE_THREADS);
+      if (numMergeThreads == null) {
+        numMergeThreads = 1;
+      }
+
+      // Streaming deltas during updates
+      Boolean streamUpdateDeltas = (Boolean) options.get(STREAM_UPDATE_DELTAS);
+      if (streamUpdateDeltas == null) {
+        streamUpdateDeltas = false;
+      }
 
       return new Curly((Integer) options.get(KEY_HASH_SIZE_KEY),
           hasher,
@@ -145,9 +195,26 @@ public class Curly implements StorageEngine {
           valueFoldingCacheCapacity,
           keyFilePartitionCacheCapacity,
           recordFilePartitionCacheCapacity,
+          keyFilePartitionCacheCapacityBytes,
+          recordFilePartitionCacheCapacityBytes,
+          useOffHeapPartitionCaches,
           blockCompressionCodec,
           compressedBlockSizeThreshold,
-          offsetInBlockNumBytes);
+          offsetInBlockNumBytes,
+          decompressedBlockCacheCapacityBytes,
+          useMemoryMapping,
+          keyFileBlockSearchStrategy,
+          numMergeThreads,
+          streamUpdateDeltas);
+    }
+
+    // Return the given number of bytes option, or -1 if it is not set
+    private static long getNumBytesOption(Map<String, Object> options, String key) {
+      Number numBytes = (Number) options.get(key);
+      if (numBytes == null) {
+        return -1;
+      }
+      return numBytes.longValue();
     }
 
     @Override
@@ -204,6 +271,37 @@ public class Curly implements StorageEngine {
       pw.println("# actually helps you! If you are just using arbitrary hashed keys,");
       pw.println("# it will probably make things worse!");
       pw.println("#" + COMPRESSION_CODEC + ": " + NoCompressionCodec.class.getName());
+      pw.println();
+      pw.println("# Optional: compress values in blocks (gzip, lz4, snappy or slow_identity).");
+      pw.println("# lz4 and snappy decompress much faster than gzip, at the cost of a lower ratio.");
+      pw.println("# For lz4 and snappy, the block size threshold applies to uncompressed blocks.");
+      pw.println("#" + BLOCK_COMPRESSION_CODEC + ": lz4");
+      pw.println("#" + COMPRESSED_BLOCK_SIZE_THRESHOLD + ": 32768");
+      pw.println("#" + OFFSET_IN_BLOCK_NUM_BYTES + ": 2");
+      pw.println("# Optional: heap budget in bytes of each partition's cache of decompressed blocks.");
+      pw.println("# Lookups of keys written close to each other then decompress their block only once.");
+      pw.println("#" + DECOMPRESSED_BLOCK_CACHE_CAPACITY_BYTES + ": 8388608");
+      pw.println();
+      pw.println("# Optional: memory map the key and record files instead of reading them");
+      pw.println("# with one system call per lookup. Recommended when the data fits in the page cache.");
+      pw.println("#" + USE_MEMORY_MAPPING + ": false");
+      pw.println();
+      pw.println("# Optional: how to look up key hashes in key file blocks (linear, binary or interpolation).");
+      pw.println("# Binary or interpolation search allow using fewer hash index bits.");
+      pw.println("#" + KEY_FILE_BLOCK_SEARCH_STRATEGY + ": linear");
+      pw.println();
+      pw.println("# Optional: number of threads merging ranges of a partition's key file in parallel during updates.");
+      pw.println("#" + NUM_MERGE_THREADS + ": 1");
+      pw.println("# Optional: merge uncompressed key file deltas while downloading them during updates,");
+      pw.println("# instead of fetching them to local disk first.");
+      pw.println("#" + STREAM_UPDATE_DELTAS + ": false");
+      pw.println();
+      pw.println("# Optional: approximate heap budget in bytes of each partition's key file and record file caches.");
+      pw.println("# When the partition server sets a host-wide cache budget, these caches share it instead.");
+      pw.println("#" + KEY_FILE_PARTITION_CACHE_CAPACITY_BYTES + ": 16777216");
+      pw.println("#" + RECORD_FILE_PARTITION_CACHE_CAPACITY_BYTES + ": 67108864");
+      pw.println("# Optional: store cached keys and values outside of the Java heap.");
+      pw.println("#" + USE_OFF_HEAP_PARTITION_CACHES + ": false");
 
       return sw.toString();
     }
@@ -211,6 +309,8 @@ public class Curly implements StorageEngine {
 
   private final Domain domain;
   private final int recordFilePartitionCacheCapacity;
+  private final long recordFilePartitionCacheCapacityBytes;
+  private final boolean useOffHeapPartitionCaches;
 
   private final int offsetNumBytes;
   private final int recordFileReadBufferBytes;
@@ -226,7 +326,11 @@ public class Curly implements StorageEngine {
   private final BlockCompressionCodec blockCompressionCodec;
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
+  private final long decompressedBlockCacheCapacityBytes;
   private final int cueballValueNumBytes;
+  private final boolean useMemoryMapping;
+  private final int numMergeThreads;
+  private final boolean streamUpdateDeltas;
 
   public Curly(int keyHashSize,
                Hasher hasher,
@@ -244,6 +348,56 @@ public class Curly implements StorageEngine {
                BlockCompressionCodec blockCompressionCodec,
                int compressedBlockSizeThreshold,
                int offsetInBlockNumBytes) {
+    this(keyHashSize,
+        hasher,
+        maxAllowedPartSize,
+        hashIndexBits,
+        recordFileReadBufferBytes,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        keyFileCompressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        valueFoldingCacheCapacity,
+        keyFilePartitionCacheCapacity,
+        recordFilePartitionCacheCapacity,
+        -1,
+        -1,
+        false,
+        blockCompressionCodec,
+        compressedBlockSizeThreshold,
+        offsetInBlockNumBytes,
+        -1,
+        false,
+        BlockSearchStrategy.LINEAR,
+        1,
+        false);
+  }
+
+  public Curly(int keyHashSize,
+               Hasher hasher,
+               long maxAllowedPartSize,
+               int hashIndexBits,
+               int recordFileReadBufferBytes,
+               String remoteDomainRoot,
+               PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+               Class<? extends CompressionCodec> keyFileCompressionCodecClass,
+               Domain domain,
+               int numRemoteLeafVersionsToKeep,
+               int valueFoldingCacheCapacity,
+               int keyFilePartitionCacheCapacity,
+               int recordFilePartitionCacheCapacity,
+               long keyFilePartitionCacheCapacityBytes,
+               long recordFilePartitionCacheCapacityBytes,
+               boolean useOffHeapPartitionCaches,
+               BlockCompressionCodec blockCompressionCodec,
+               int compressedBlockSizeThreshold,
+               int offsetInBlockNumBytes,
+               long decompressedBlockCacheCapacityBytes,
+               boolean useMemoryMapping,
+               BlockSearchStrategy keyFileBlockSearchStrategy,
+               int numMergeThreads,
+               boolean streamUpdateDeltas) {
     this.keyHashSize = keyHashSize;
     this.hashIndexBits = hashIndexBits;
     this.recordFileReadBufferBytes = recordFileReadBufferBytes;
@@ -254,9 +408,15 @@ public class Curly implements StorageEngine {
     this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
     this.valueFoldingCacheCapacity = valueFoldingCacheCapacity;
     this.recordFilePartitionCacheCapacity = recordFilePartitionCacheCapacity;
+    this.recordFilePartitionCacheCapacityBytes = recordFilePartitionCacheCapacityBytes;
+    this.useOffHeapPartitionCaches = useOffHeapPartitionCaches;
     this.blockCompressionCodec = blockCompressionCodec;
     this.compressedBlockSizeThreshold = compressedBlockSizeThreshold;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
+    this.decompressedBlockCacheCapacityBytes = decompressedBlockCacheCapacityBytes;
+    this.useMemoryMapping = useMemoryMapping;
+    this.numMergeThreads = numMergeThreads;
+    this.streamUpdateDeltas = streamUpdateDeltas;
 
     this.offsetNumBytes = (int) (Math.ceil(Math.ceil(Math.log(maxAllowedPartSize) / Math.log(2)) / 8.0));
 
@@ -277,7 +437,13 @@ public class Curly implements StorageEngine {
         keyFileCompressionCodecClass,
         domain,
         numRemoteLeafVersionsToKeep,
-        keyFilePartitionCacheCapacity);
+        keyFilePartitionCacheCapacity,
+        keyFilePartitionCacheCapacityBytes,
+        useOffHeapPartitionCaches,
+        useMemoryMapping,
+        keyFileBlockSearchStrategy,
+        numMergeThreads,
+        streamUpdateDeltas);
   }
 
   @Override
@@ -285,11 +451,31 @@ public class Curly implements StorageEngine {
     return new CurlyReader(CurlyReader.getLatestBase(getLocalDir(configurator, partitionNumber)),
         recordFileReadBufferBytes,
         cueballStorageEngine.getReader(configurator, partitionNumber),
-        recordFilePartitionCacheCapacity,
+        createRecordFilePartitionCache(),
         blockCompressionCodec,
         offsetNumBytes,
         offsetInBlockNumBytes,
-        false);
+        createDecompressedBlockCache(),
+        useMemoryMapping);
+  }
+
+  // Return a new decompressed block cache, or null if block compression or the cache is disabled
+  private DecompressedBlockCache createDecompressedBlockCache() {
+    if (blockCompressionCodec == null || decompressedBlockCacheCapacityBytes <= 0) {
+      return null;
+    }
+    return new DecompressedBlockCache(-1, decompressedBlockCacheCapacityBytes);
+  }
+
+  // Return a new record file partition cache, or null if caching is disabled
+  private ValueCache createRecordFilePartitionCache() {
+    if (recordFilePartitionCacheCapacity <= 0 && recordFilePartitionCacheCapacityBytes <= 0) {
+      return null;
+    }
+    if (useOffHeapPartitionCaches) {
+      return new OffHeapValueCache(recordFilePartitionCacheCapacityBytes);
+    }
+    return new SegmentedLruValueCache(recordFilePartitionCacheCapacity, recordFilePartitionCacheCapacityBytes);
   }
 
   @Override
@@ -382,13 +568,14 @@ public class Curly implements StorageEngine {
     return new CurlyFastPartitionUpdater(domain,
         partitionRemoteFileOpsFactory.getPartitionRemoteFileOps(remoteDomainRoot, partNum),
         new CurlyMerger(),
-        new CueballMerger(),
+        new CueballMerger(numMergeThreads),
         keyHashSize,
         offsetNumBytes,
         offsetInBlockNumBytes,
         hashIndexBits,
         getCompressionCodec(),
-        localDir);
+        localDir,
+        streamUpdateDeltas);
   }
 
   private CompressionCodec getCompressionCodec() throws IOException {
@@ -416,10 +603,15 @@ public class Curly implements StorageEngine {
     return partitionRemoteFileOpsFactory;
   }
 
-  private String getLocalDir(DataDirectoriesConfigurator configurator, int partNum) {
+  @Override
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber) {
     ArrayList<String> l = new ArrayList<String>(configurator.getDataDirectories());
     Collections.sort(l);
-    return l.get(partNum % l.size()) + "/" + domain.getName() + "/" + partNum;
+    return l.get(partitionNumber % l.size());
+  }
+
+  private String getLocalDir(DataDirectoriesConfigurator configurator, int partNum) {
+    return getDataDirectory(configurator, partNum) + "/" + domain.getName() + "/" + partNum;
   }
 
   public static int parseVersionNumber(String name) {
@@ -480,6 +672,10 @@ public class Curly implements StorageEngine {
         + ", blockCompressionCodec=" + blockCompressionCodec
         + ", compressedBlockSizeThreshold=" + compressedBlockSizeThreshold
         + ", offsetInBlockNumBytes=" + offsetInBlockNumBytes
+        + ", decompressedBlockCacheCapacityBytes=" + decompressedBlockCacheCapacityBytes
+        + ", useMemoryMapping=" + useMemoryMapping
+        + ", numMergeThreads=" + numMergeThreads
+        + ", streamUpdateDeltas=" + streamUpdateDeltas
         + "]";
   }
 
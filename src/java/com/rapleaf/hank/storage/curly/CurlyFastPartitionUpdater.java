@@ -42,6 +42,7 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
   private final CompressionCodec compressionCodec;
   private final ICurlyMerger curlyMerger;
   private final ICueballMerger cueballMerger;
+  private final boolean streamCueballDeltas;
 
   public CurlyFastPartitionUpdater(Domain domain,
                                    PartitionRemoteFileOps partitionRemoteFileOps,
@@ -53,6 +54,22 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
                                    int hashIndexBits,
                                    CompressionCodec compressionCodec,
                                    String localPartitionRoot) throws IOException {
+    this(domain, partitionRemoteFileOps, curlyMerger, cueballMerger, keyHashSize, offsetNumBytes,
+        offsetInBlockNumBytes, hashIndexBits, compressionCodec, localPartitionRoot, false);
+  }
+
+  // When streaming Cueball deltas, they are merged while being downloaded, like Curly deltas
+  public CurlyFastPartitionUpdater(Domain domain,
+                                   PartitionRemoteFileOps partitionRemoteFileOps,
+                                   ICurlyMerger curlyMerger,
+                                   ICueballMerger cueballMerger,
+                                   int keyHashSize,
+                                   int offsetNumBytes,
+                                   int offsetInBlockNumBytes,
+                                   int hashIndexBits,
+                                   CompressionCodec compressionCodec,
+                                   String localPartitionRoot,
+                                   boolean streamCueballDeltas) throws IOException {
     super(domain,
         partitionRemoteFileOps,
         localPartitionRoot);
@@ -67,6 +84,12 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
     this.compressionCodec = compressionCodec;
     this.curlyMerger = curlyMerger;
     this.cueballMerger = cueballMerger;
+    this.streamCueballDeltas = CueballPartitionUpdater.canStreamDeltas(streamCueballDeltas, compressionCodec);
+  }
+
+  @Override
+  protected boolean shouldFetchCueballVersion(DomainVersion version) throws IOException {
+    return !streamCueballDeltas || IncrementalDomainVersionProperties.isBase(version);
   }
 
   @Override
@@ -126,6 +149,7 @@ public class CurlyFastPartitionUpdater extends AbstractCurlyPartitionUpdater {
         valueSize,
         hashIndexBits,
         compressionCodec,
-        new OffsetTransformer(offsetNumBytes, offsetAdjustments));
+        new OffsetTransformer(offsetNumBytes, offsetAdjustments),
+        streamCueballDeltas);
   }
 }
@@ -17,6 +17,7 @@ package com.rapleaf.hank.storage.curly;
 
 import com.rapleaf.hank.storage.PartitionRemoteFileOps;
 import com.rapleaf.hank.util.IOStreamUtils;
+import com.rapleaf.hank.util.ReadAheadInputStream;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -45,7 +46,9 @@ public class CurlyMerger implements ICurlyMerger {
       int i = 1;
       for (String deltaRemoteFile : deltaRemoteFiles) {
         offsetAdjustments[i] = totalOffset;
-        InputStream deltaRemoteInputStream = partitionRemoteFileOps.getInputStream(deltaRemoteFile);
+        // Download the next bytes while writing the current ones
+        InputStream deltaRemoteInputStream =
+            new ReadAheadInputStream(partitionRemoteFileOps.getInputStream(deltaRemoteFile));
         try {
           LOG.info("Merging remote file " + deltaRemoteFile + " into file " + base.getPath());
           long bytesCopied = IOStreamUtils.copy(deltaRemoteInputStream, baseOutputStream);
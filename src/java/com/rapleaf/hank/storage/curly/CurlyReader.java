@@ -18,49 +18,51 @@ package com.rapleaf.hank.storage.curly;
 
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.CachingReader;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.storage.cache.ValueCache;
 import com.rapleaf.hank.util.*;
 
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.SortedSet;
-import java.util.zip.GZIPInputStream;
 
-public class CurlyReader implements Reader, ICurlyReader {
+public class CurlyReader implements Reader, ICurlyReader, CachingReader {
 
   private final Reader keyFileReader;
   private final int readBufferSize;
   private final FileChannel recordFile;
   private final int versionNumber;
-  private final LruHashMap<ByteBuffer, ByteBuffer> cache;
+  private final ValueCache cache;
   private final BlockCompressionCodec blockCompressionCodec;
   private final int offsetNumBytes;
   private final int offsetInBlockNumBytes;
-  // Last decompressed block cache
-  private final boolean cacheLastDecompressedBlock;
-  private ByteBuffer lastDecompressedBlock;
-  private long lastDecompressedBlockOffset = -1;
+  // Decompressed block cache, shared by all threads
+  private final DecompressedBlockCache decompressedBlockCache;
+  // Only used in memory mapped mode
+  private final MemoryMappedFile mappedRecordFile;
 
   private static class Buffers {
 
-    private UnsafeByteArrayOutputStream decompressionOutputStream;
-    private byte[] copyBuffer;
+    private byte[] decompressionBuffer;
+    private final GzipBlockInflater gzipBlockInflater;
 
     public Buffers() {
-      decompressionOutputStream = new UnsafeByteArrayOutputStream();
-      copyBuffer = new byte[IOStreamUtils.DEFAULT_BUFFER_SIZE];
+      decompressionBuffer = new byte[0];
+      gzipBlockInflater = new GzipBlockInflater();
     }
 
-    public UnsafeByteArrayOutputStream getDecompressionOutputStream() {
-      return decompressionOutputStream;
-    }
-
-    public byte[] getCopyBuffer() {
-      return copyBuffer;
+    // Return a buffer of at least the given size. Its content is not preserved when it grows.
+    public byte[] getDecompressionBuffer(int numBytes) {
+      if (decompressionBuffer.length < numBytes) {
+        decompressionBuffer = new byte[Math.max(numBytes, 2 * decompressionBuffer.length)];
+      }
+      return decompressionBuffer;
     }
 
-    public void reset() {
-      decompressionOutputStream.reset();
+    public GzipBlockInflater getGzipBlockInflater() {
+      return gzipBlockInflater;
     }
   }
 
@@ -94,6 +96,33 @@ public class CurlyReader implements Reader, ICurlyReader {
                      int offsetNumBytes,
                      int offsetInBlockNumBytes,
                      boolean cacheLastDecompressedBlock) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader,
+        cacheCapacity > 0 ? new SegmentedLruValueCache(cacheCapacity) : null, blockCompressionCodec,
+        offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, false);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     ValueCache cache,
+                     BlockCompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     boolean useMemoryMapping) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cache, blockCompressionCodec, offsetNumBytes,
+        offsetInBlockNumBytes, cacheLastDecompressedBlock ? new DecompressedBlockCache(1, -1) : null, useMemoryMapping);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     ValueCache cache,
+                     BlockCompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     DecompressedBlockCache decompressedBlockCache,
+                     boolean useMemoryMapping) throws IOException {
     this.recordFile = new FileInputStream(curlyFile.getPath()).getChannel();
     this.keyFileReader = keyFileReader;
     this.readBufferSize = recordFileReadBufferBytes;
@@ -101,12 +130,8 @@ public class CurlyReader implements Reader, ICurlyReader {
     this.blockCompressionCodec = blockCompressionCodec;
     this.offsetNumBytes = offsetNumBytes;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
-    this.cacheLastDecompressedBlock = cacheLastDecompressedBlock;
-    if (cacheCapacity > 0) {
-      this.cache = new LruHashMap<ByteBuffer, ByteBuffer>(0, cacheCapacity);
-    } else {
-      this.cache = null;
-    }
+    this.decompressedBlockCache = decompressedBlockCache;
+    this.cache = cache;
     // Check that key file is at the same version
     if (keyFileReader != null &&
         keyFileReader.getVersionNumber() != null &&
@@ -114,8 +139,12 @@ public class CurlyReader implements Reader, ICurlyReader {
       throw new IOException("Curly Reader version (" + versionNumber
           + ") does not match the provided key file Reader version (" + keyFileReader.getVersionNumber() + ")");
     }
-    if (cacheLastDecompressedBlock) {
-      lastDecompressedBlock = ByteBuffer.allocate(1);
+    if (useMemoryMapping && recordFile.size() > 0) {
+      // Segments overlap by the read buffer size so that most records can be sliced from a single segment
+      this.mappedRecordFile = new MemoryMappedFile(recordFile, recordFile.size(),
+          Math.max(readBufferSize, EncodingHelper.MAX_VARINT_SIZE));
+    } else {
+      this.mappedRecordFile = null;
     }
   }
 
@@ -140,38 +169,19 @@ public class CurlyReader implements Reader, ICurlyReader {
       long offsetInBlock = EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(),
           location.arrayOffset() + location.position() + offsetNumBytes, offsetInBlockNumBytes);
 
-      ByteBuffer decompressedBlockByteBuffer;
-      if (cacheLastDecompressedBlock && lastDecompressedBlockOffset == recordFileBlockOffset) {
-        // This block has been decompressed just before, reuse it
-        decompressedBlockByteBuffer = lastDecompressedBlock;
-      } else {
+      ByteBuffer decompressedBlockByteBuffer = null;
+      if (decompressedBlockCache != null) {
+        // This block may have been decompressed recently, reuse it
+        decompressedBlockByteBuffer = decompressedBlockCache.get(recordFileBlockOffset);
+      }
+      if (decompressedBlockByteBuffer == null) {
         // Read in the compressed block into the result
         readRecordAtOffset(recordFileBlockOffset, result);
-        // Decompress the block
-        InputStream blockInputStream = new ByteArrayInputStream(result.getBuffer().array(),
-            result.getBuffer().arrayOffset() + result.getBuffer().position(), result.getBuffer().remaining());
-        // Build an InputStream corresponding to the compression codec
-        InputStream decompressedBlockInputStream;
-        switch (blockCompressionCodec) {
-          case GZIP:
-            decompressedBlockInputStream = new GZIPInputStream(blockInputStream);
-            break;
-          case SLOW_IDENTITY:
-            decompressedBlockInputStream = new BufferedInputStream(blockInputStream);
-            break;
-          default:
-            throw new RuntimeException("Unknown block compression codec: " + blockCompressionCodec);
-        }
-        // Decompress into the specialized result buffer
-        Buffers buffers = threadLocalBuffers.get();
-        buffers.reset();
-        IOStreamUtils.copy(decompressedBlockInputStream, buffers.getDecompressionOutputStream(), buffers.getCopyBuffer());
-        decompressedBlockInputStream.close();
-        decompressedBlockByteBuffer = buffers.getDecompressionOutputStream().getByteBuffer();
+        // Decompress the block into the thread's decompression buffer
+        decompressedBlockByteBuffer = decompressBlock(result.getBuffer());
         // Cache the decompressed block if requested
-        if (cacheLastDecompressedBlock) {
-          lastDecompressedBlockOffset = recordFileBlockOffset;
-          lastDecompressedBlock = Bytes.byteBufferDeepCopy(decompressedBlockByteBuffer, lastDecompressedBlock);
+        if (decompressedBlockCache != null) {
+          decompressedBlockCache.put(recordFileBlockOffset, decompressedBlockByteBuffer);
         }
       }
 
@@ -196,8 +206,45 @@ public class CurlyReader implements Reader, ICurlyReader {
     }
   }
 
+  // Decompress the given block array to array, without allocating streams
+  private ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
+    Buffers buffers = threadLocalBuffers.get();
+    byte[] src = block.array();
+    int srcOffset = block.arrayOffset() + block.position();
+    int srcLength = block.remaining();
+    byte[] dst;
+    int decompressedNumBytes;
+    switch (blockCompressionCodec) {
+      case GZIP:
+        GzipBlockInflater inflater = buffers.getGzipBlockInflater();
+        decompressedNumBytes = inflater.getUncompressedNumBytes(src, srcOffset, srcLength);
+        dst = buffers.getDecompressionBuffer(decompressedNumBytes + 1);
+        inflater.inflate(src, srcOffset, srcLength, dst, 0);
+        break;
+      case SLOW_IDENTITY:
+        decompressedNumBytes = srcLength;
+        dst = buffers.getDecompressionBuffer(decompressedNumBytes);
+        System.arraycopy(src, srcOffset, dst, 0, decompressedNumBytes);
+        break;
+      case LZ4:
+      case SNAPPY:
+        // Both formats start with the uncompressed size
+        decompressedNumBytes = EncodingHelper.decodeLittleEndianVarInt(block.duplicate());
+        dst = buffers.getDecompressionBuffer(decompressedNumBytes);
+        blockCompressionCodec.getArrayCompressionCodec().decompress(src, srcOffset, srcLength, dst, 0);
+        break;
+      default:
+        throw new RuntimeException("Unknown block compression codec: " + blockCompressionCodec);
+    }
+    return ByteBuffer.wrap(dst, 0, decompressedNumBytes);
+  }
+
   // Note: the buffer in result must be at least readBufferSize long
   private void readRecordAtOffset(long recordFileOffset, ReaderResult result) throws IOException {
+    if (mappedRecordFile != null) {
+      readMappedRecordAtOffset(recordFileOffset, result);
+      return;
+    }
     // Let's reset the buffer so we can do our read.
     result.getBuffer().rewind();
     // the buffer is already at least this big, so we'll extend it back out.
@@ -251,6 +298,37 @@ public class CurlyReader implements Reader, ICurlyReader {
     result.getBuffer().limit(recordSize + result.getBuffer().position());
   }
 
+  // Decode the record size directly from the mapping. Expose uncompressed records as a slice of the mapping, and
+  // copy exactly the record's bytes into result otherwise (compressed blocks are decompressed from its array).
+  private void readMappedRecordAtOffset(long recordFileOffset, ReaderResult result) throws IOException {
+    ByteBuffer recordSizeBuffer = mappedRecordFile.slice(recordFileOffset, EncodingHelper.MAX_VARINT_SIZE);
+    if (recordSizeBuffer == null) {
+      throw new IOException("Record size at offset " + recordFileOffset + " is not contained in a single mapped segment");
+    }
+    int recordSizeStart = recordSizeBuffer.position();
+    int recordSize = EncodingHelper.decodeLittleEndianVarInt(recordSizeBuffer);
+    int bytesInRecordSize = recordSizeBuffer.position() - recordSizeStart;
+
+    if (blockCompressionCodec == null && recordSize > 0) {
+      ByteBuffer record = mappedRecordFile.slice(recordFileOffset + bytesInRecordSize, recordSize);
+      if (record != null && record.remaining() == recordSize) {
+        result.setValueView(record);
+        return;
+      }
+    }
+
+    result.requiresBufferSize(recordSize);
+    ByteBuffer buffer = result.getBuffer();
+    int bytesRead = mappedRecordFile.read(recordFileOffset + bytesInRecordSize,
+        buffer.array(), buffer.arrayOffset(), recordSize);
+    if (bytesRead != recordSize) {
+      throw new IOException("Tried to read a record of " + recordSize + " bytes at offset " + recordFileOffset
+          + ", but only got " + bytesRead + " bytes!");
+    }
+    buffer.clear();
+    buffer.limit(recordSize);
+  }
+
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
     // we want at least readBufferSize bytes of available space. we might resize
@@ -272,21 +350,13 @@ public class CurlyReader implements Reader, ICurlyReader {
     return versionNumber;
   }
 
-  // Note: location should already be a deep copy that won't get modified
   private void addValueToCache(ByteBuffer location, ByteBuffer value) {
-    synchronized (cache) {
-      cache.put(location, Bytes.byteBufferDeepCopy(value));
-    }
+    cache.put(location, value);
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
   private boolean loadValueFromCache(ByteBuffer location, ReaderResult result) {
-    ByteBuffer value;
-    synchronized (cache) {
-      value = cache.get(location);
-    }
-    if (value != null) {
-      result.deepCopyIntoResultBuffer(value);
+    if (cache.get(location, result)) {
       result.found();
       result.setL2CacheHit(true);
       return true;
@@ -295,6 +365,20 @@ public class CurlyReader implements Reader, ICurlyReader {
     }
   }
 
+  @Override
+  public ValueCache getL1Cache() {
+    if (keyFileReader instanceof CachingReader) {
+      return ((CachingReader) keyFileReader).getL1Cache();
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public ValueCache getL2Cache() {
+    return cache;
+  }
+
   @Override
   public void close() throws IOException {
     if (recordFile != null) {
@@ -306,5 +390,8 @@ public class CurlyReader implements Reader, ICurlyReader {
     if (cache != null) {
       cache.clear();
     }
+    if (decompressedBlockCache != null) {
+      decompressedBlockCache.clear();
+    }
   }
 }
@@ -15,12 +15,14 @@
  */
 package com.rapleaf.hank.storage.curly;
 
+import com.rapleaf.hank.compress.CompressionCodec;
 import com.rapleaf.hank.hasher.Murmur64Hasher;
 import com.rapleaf.hank.storage.Writer;
 import com.rapleaf.hank.util.Bytes;
 import com.rapleaf.hank.util.EncodingHelper;
 import com.rapleaf.hank.util.IOStreamUtils;
 import com.rapleaf.hank.util.LruHashMap;
+import com.rapleaf.hank.util.UnsafeByteArrayOutputStream;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -50,6 +52,10 @@ public class CurlyWriter implements Writer {
   private final BlockCompressionCodec blockCompressionCodec;
   private ByteArrayOutputStream compressedBlockOutputStream;
   private OutputStream compressionOutputStream;
+  // Only used by array codecs, which compress whole blocks when they are flushed
+  private final CompressionCodec arrayCompressionCodec;
+  private UnsafeByteArrayOutputStream uncompressedBlockOutputStream;
+  private byte[] compressedBlockBuffer;
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private int offsetInDecompressedBlock = 0;
@@ -75,6 +81,7 @@ public class CurlyWriter implements Writer {
     this.recordFileStream = new BufferedOutputStream(recordfileStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyfileWriter = keyfileWriter;
     this.blockCompressionCodec = blockCompressionCodec;
+    this.arrayCompressionCodec = blockCompressionCodec == null ? null : blockCompressionCodec.getArrayCompressionCodec();
     this.offsetNumBytes = offsetNumBytes;
     this.maxOffset = 1L << (offsetNumBytes * 8);
     this.currentRecordOffset = 0;
@@ -98,6 +105,10 @@ public class CurlyWriter implements Writer {
       valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes + offsetInBlockNumBytes]);
       compressedBlockOutputStream = new ByteArrayOutputStream();
       compressionOutputStream = null;
+      if (arrayCompressionCodec != null) {
+        uncompressedBlockOutputStream = new UnsafeByteArrayOutputStream();
+        compressedBlockBuffer = new byte[0];
+      }
     }
   }
 
@@ -162,7 +173,7 @@ public class CurlyWriter implements Writer {
         //
 
         // Flush the compressed block if needed
-        if (compressedBlockOutputStream.size() >= compressedBlockSizeThreshold) {
+        if (getCurrentBlockNumBytes() >= compressedBlockSizeThreshold) {
           flushCompressedBlock();
         }
         // Create a new compression output stream if needed (either this is the first value or we just flushed)
@@ -205,6 +216,12 @@ public class CurlyWriter implements Writer {
       case SLOW_IDENTITY:
         compressionOutputStream = new BufferedOutputStream(compressedBlockOutputStream);
         break;
+      case LZ4:
+      case SNAPPY:
+        // Accumulate the uncompressed block, it is compressed at once when flushed
+        uncompressedBlockOutputStream.reset();
+        compressionOutputStream = uncompressedBlockOutputStream;
+        break;
       default:
         throw new RuntimeException("Unknown block compression codec: " + blockCompressionCodec);
     }
@@ -215,6 +232,9 @@ public class CurlyWriter implements Writer {
       // First, close compression output stream so that they write all data
       compressionOutputStream.close();
       compressionOutputStream = null;
+      if (arrayCompressionCodec != null) {
+        compressUncompressedBlock();
+      }
       // Encode compressed block size and write it to record stream
       int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(compressedBlockOutputStream.size(), valueLengthBuffer);
       recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
@@ -225,6 +245,25 @@ public class CurlyWriter implements Writer {
     }
   }
 
+  // Array codecs only compress when the block is flushed, so use the uncompressed size to decide when to flush
+  private int getCurrentBlockNumBytes() {
+    if (arrayCompressionCodec != null) {
+      return uncompressedBlockOutputStream.size();
+    } else {
+      return compressedBlockOutputStream.size();
+    }
+  }
+
+  private void compressUncompressedBlock() {
+    int maxCompressedNumBytes = arrayCompressionCodec.getMaxCompressBufferSize(uncompressedBlockOutputStream.count());
+    if (compressedBlockBuffer.length < maxCompressedNumBytes) {
+      compressedBlockBuffer = new byte[maxCompressedNumBytes];
+    }
+    int compressedNumBytes = arrayCompressionCodec.compress(uncompressedBlockOutputStream.array(), 0,
+        uncompressedBlockOutputStream.count(), compressedBlockBuffer, 0);
+    compressedBlockOutputStream.write(compressedBlockBuffer, 0, compressedNumBytes);
+  }
+
   private ByteBuffer computeHash(ByteBuffer value) {
     // 128-bit murmur64 hash
     byte[] hashBytes = new byte[VALUE_FOLDING_HASH_NUM_BYTES];
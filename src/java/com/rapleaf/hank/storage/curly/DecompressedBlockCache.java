@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.curly;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe cache of decompressed Curly blocks, keyed by the offset of the
+ * compressed block in the record file. It is split into independently locked
+ * LRU segments and bounded by a number of blocks, a number of bytes, or both.
+ *
+ * Cached blocks are never modified, so they are shared between readers without
+ * copying: get() returns a new view of the block each time.
+ */
+public class DecompressedBlockCache {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+  // Approximate heap overhead of a block: the linked hash map entry and its table slot, the offset,
+  // the ByteBuffer and the byte array header.
+  public static final int BLOCK_OVERHEAD_NUM_BYTES = 144;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  public DecompressedBlockCache(int capacity, long numBytesCapacity) {
+    this(capacity, numBytesCapacity, DEFAULT_NUM_SEGMENTS);
+  }
+
+  // A non-positive capacity or number of bytes capacity means that the cache is not bounded by it
+  public DecompressedBlockCache(int capacity, long numBytesCapacity, int maxNumSegments) {
+    if (capacity <= 0 && numBytesCapacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity or number of bytes capacity must be positive: "
+          + capacity + ", " + numBytesCapacity);
+    }
+    // Use a power of two number of segments, and never more segments than blocks
+    int numSegments = 1;
+    while (numSegments * 2 <= maxNumSegments && (capacity <= 0 || numSegments * 2 <= capacity)) {
+      numSegments *= 2;
+    }
+    segmentMask = numSegments - 1;
+    segments = new Segment[numSegments];
+    int segmentCapacity = capacity <= 0 ? Integer.MAX_VALUE : (capacity + numSegments - 1) / numSegments;
+    long segmentNumBytesCapacity = numBytesCapacity <= 0 ? Long.MAX_VALUE : numBytesCapacity / numSegments;
+    for (int i = 0; i < numSegments; ++i) {
+      segments[i] = new Segment(segmentCapacity, segmentNumBytesCapacity);
+    }
+  }
+
+  // Return a view of the cached block at the given offset, or null if it is not cached
+  public ByteBuffer get(long blockOffset) {
+    ByteBuffer block = getSegment(blockOffset).getBlock(blockOffset);
+    return block == null ? null : block.duplicate();
+  }
+
+  // Cache a copy of the given decompressed block
+  public void put(long blockOffset, ByteBuffer block) {
+    byte[] copy = new byte[block.remaining()];
+    block.duplicate().get(copy);
+    getSegment(blockOffset).putBlock(blockOffset, ByteBuffer.wrap(copy));
+  }
+
+  public long getNumBytes() {
+    long result = 0;
+    for (Segment segment : segments) {
+      result += segment.getNumBytes();
+    }
+    return result;
+  }
+
+  public int size() {
+    int result = 0;
+    for (Segment segment : segments) {
+      result += segment.getSize();
+    }
+    return result;
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clearBlocks();
+    }
+  }
+
+  private Segment getSegment(long blockOffset) {
+    // Blocks are contiguous, so mix the offset bits before picking a segment
+    long h = blockOffset * 0x9E3779B97F4A7C15L;
+    return segments[(int) (h >>> 32) & segmentMask];
+  }
+
+  private static long getNumBytes(ByteBuffer block) {
+    return block.capacity() + BLOCK_OVERHEAD_NUM_BYTES;
+  }
+
+  private static class Segment extends LinkedHashMap<Long, ByteBuffer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final long numBytesCapacity;
+    private long numBytes = 0;
+
+    public Segment(int capacity, long numBytesCapacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+      this.numBytesCapacity = numBytesCapacity;
+    }
+
+    public synchronized ByteBuffer getBlock(long blockOffset) {
+      return get(blockOffset);
+    }
+
+    public synchronized void putBlock(long blockOffset, ByteBuffer block) {
+      long blockNumBytes = DecompressedBlockCache.getNumBytes(block);
+      // Blocks that would not fit even in an empty segment are not cached
+      if (blockNumBytes > numBytesCapacity) {
+        return;
+      }
+      ByteBuffer previousBlock = put(blockOffset, block);
+      if (previousBlock != null) {
+        numBytes -= DecompressedBlockCache.getNumBytes(previousBlock);
+      }
+      numBytes += blockNumBytes;
+      // Evict least recently used blocks
+      Iterator<Map.Entry<Long, ByteBuffer>> iterator = entrySet().iterator();
+      while ((size() > capacity || numBytes > numBytesCapacity) && iterator.hasNext()) {
+        Map.Entry<Long, ByteBuffer> eldest = iterator.next();
+        numBytes -= DecompressedBlockCache.getNumBytes(eldest.getValue());
+        iterator.remove();
+      }
+    }
+
+    public synchronized long getNumBytes() {
+      return numBytes;
+    }
+
+    public synchronized int getSize() {
+      return size();
+    }
+
+    public synchronized void clearBlocks() {
+      clear();
+      numBytes = 0;
+    }
+  }
+}
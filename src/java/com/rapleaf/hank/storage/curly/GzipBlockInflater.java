@@ -0,0 +1,132 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.curly;
+
+import com.rapleaf.hank.util.EncodingHelper;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses gzip blocks written by GZIPOutputStream array to array,
+ * reusing a single Inflater instead of allocating one per block like
+ * GZIPInputStream. Like GZIPInputStream, the CRC32 of the inflated data is
+ * checked against the gzip trailer. Instances are not thread safe.
+ */
+class GzipBlockInflater {
+
+  private static final int GZIP_MAGIC_0 = 0x1f;
+  private static final int GZIP_MAGIC_1 = 0x8b;
+  private static final int GZIP_DEFLATE_METHOD = 8;
+  private static final int GZIP_HEADER_NUM_BYTES = 10;
+  // CRC32 and uncompressed size
+  private static final int GZIP_TRAILER_NUM_BYTES = 8;
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc32 = new CRC32();
+
+  // Read the uncompressed size of the given gzip block from its trailer
+  public int getUncompressedNumBytes(byte[] src, int srcOffset, int srcLength) throws IOException {
+    if (srcLength < GZIP_HEADER_NUM_BYTES + GZIP_TRAILER_NUM_BYTES) {
+      throw new IOException("Gzip block is too short: " + srcLength + " bytes");
+    }
+    return (int) EncodingHelper.decodeLittleEndianFixedWidthLong(src, srcOffset + srcLength - 4, 4);
+  }
+
+  // Inflate the given gzip block into dst, which must hold at least one more byte than
+  // the uncompressed size. Return the uncompressed size.
+  public int inflate(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) throws IOException {
+    int uncompressedNumBytes = getUncompressedNumBytes(src, srcOffset, srcLength);
+    int headerNumBytes = getHeaderNumBytes(src, srcOffset, srcLength);
+    int deflatedNumBytes = srcLength - headerNumBytes - GZIP_TRAILER_NUM_BYTES;
+    if (deflatedNumBytes < 0) {
+      throw new IOException("Gzip block is too short: " + srcLength + " bytes");
+    }
+    inflater.reset();
+    inflater.setInput(src, srcOffset + headerNumBytes, deflatedNumBytes);
+    int numBytesInflated = 0;
+    try {
+      // The extra byte of room lets the inflater reach the end of the stream
+      while (!inflater.finished()) {
+        int numBytes = inflater.inflate(dst, dstOff + numBytesInflated, uncompressedNumBytes + 1 - numBytesInflated);
+        if (numBytes == 0 && (inflater.needsInput() || inflater.needsDictionary()
+            || numBytesInflated > uncompressedNumBytes)) {
+          break;
+        }
+        numBytesInflated += numBytes;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt gzip block", e);
+    }
+    if (!inflater.finished() || numBytesInflated != uncompressedNumBytes) {
+      throw new IOException("Corrupt gzip block: expected " + uncompressedNumBytes
+          + " bytes but inflated " + numBytesInflated);
+    }
+    crc32.reset();
+    crc32.update(dst, dstOff, numBytesInflated);
+    long expectedCrc32 = EncodingHelper.decodeLittleEndianFixedWidthLong(src, srcOffset + srcLength - 8, 4);
+    if (crc32.getValue() != expectedCrc32) {
+      throw new IOException("Corrupt gzip block: CRC32 mismatch");
+    }
+    return uncompressedNumBytes;
+  }
+
+  // See RFC 1952
+  private static int getHeaderNumBytes(byte[] src, int srcOffset, int srcLength) throws IOException {
+    if ((src[srcOffset] & 0xff) != GZIP_MAGIC_0
+        || (src[srcOffset + 1] & 0xff) != GZIP_MAGIC_1
+        || src[srcOffset + 2] != GZIP_DEFLATE_METHOD) {
+      throw new IOException("Invalid gzip block header");
+    }
+    int flags = src[srcOffset + 3] & 0xff;
+    int end = srcOffset + srcLength;
+    int off = srcOffset + GZIP_HEADER_NUM_BYTES;
+    if ((flags & FEXTRA) != 0) {
+      off += 2 + (int) EncodingHelper.decodeLittleEndianFixedWidthLong(src, off, 2);
+    }
+    if ((flags & FNAME) != 0) {
+      off = skipZeroTerminatedString(src, off, end);
+    }
+    if ((flags & FCOMMENT) != 0) {
+      off = skipZeroTerminatedString(src, off, end);
+    }
+    if ((flags & FHCRC) != 0) {
+      off += 2;
+    }
+    if (off > end) {
+      throw new IOException("Invalid gzip block header");
+    }
+    return off - srcOffset;
+  }
+
+  private static int skipZeroTerminatedString(byte[] src, int off, int end) throws IOException {
+    while (off < end && src[off] != 0) {
+      ++off;
+    }
+    if (off == end) {
+      throw new IOException("Invalid gzip block header");
+    }
+    return off + 1;
+  }
+}
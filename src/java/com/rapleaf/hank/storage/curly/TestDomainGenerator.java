@@ -5,6 +5,7 @@ import com.rapleaf.hank.coordinator.mock.MockDomainVersion;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.storage.LocalPartitionRemoteFileOps;
+import com.rapleaf.hank.storage.incremental.IncrementalDomainVersionProperties;
 import com.rapleaf.hank.util.Bytes;
 
 import java.nio.ByteBuffer;
@@ -72,7 +73,7 @@ public class TestDomainGenerator {
 
     long start = System.currentTimeMillis();
     for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
-      final CurlyWriter writer = (CurlyWriter) curly.getWriter(new MockDomainVersion(0, 0L),
+      final CurlyWriter writer = (CurlyWriter) curly.getWriter(new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()),
           new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         final byte[] keyHash = part.getValue().get(i);
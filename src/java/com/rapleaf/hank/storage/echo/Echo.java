@@ -75,6 +75,11 @@ public class Echo implements StorageEngine {
     return new EchoDeleter(partitionNumber);
   }
 
+  @Override
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber) {
+    return null;
+  }
+
   @Override
   public RemoteDomainVersionDeleter getRemoteDomainVersionDeleter() throws IOException {
     return new RemoteDomainVersionDeleter() {
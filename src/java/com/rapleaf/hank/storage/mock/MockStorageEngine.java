@@ -65,6 +65,11 @@ public class MockStorageEngine implements StorageEngine {
     return new MockDeleter(partitionNumber);
   }
 
+  @Override
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber) {
+    return null;
+  }
+
   @Override
   public ByteBuffer getComparableKey(ByteBuffer key) {
     return null;
@@ -0,0 +1,108 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of (a prefix of) a file, mapped in memory as one or more
+ * MappedByteBuffer segments. A single MappedByteBuffer cannot exceed 2GB, so
+ * larger files are split into segments. Consecutive segments overlap by a
+ * configurable number of bytes so that any range no longer than the overlap
+ * is always fully contained in a single segment and can be sliced without
+ * copying.
+ */
+public class MemoryMappedFile {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  private final MappedByteBuffer[] segments;
+  private final long length;
+  private final int segmentSize;
+
+  public MemoryMappedFile(FileChannel channel, long length, int segmentOverlap) throws IOException {
+    this(channel, length, DEFAULT_SEGMENT_SIZE, segmentOverlap);
+  }
+
+  public MemoryMappedFile(FileChannel channel, long length, int segmentSize, int segmentOverlap) throws IOException {
+    if (segmentSize <= 0 || segmentOverlap < 0 || (long) segmentSize + segmentOverlap > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid segment size (" + segmentSize
+          + ") or segment overlap (" + segmentOverlap + ")");
+    }
+    this.length = length;
+    this.segmentSize = segmentSize;
+    int numSegments = (int) ((length + segmentSize - 1) / segmentSize);
+    segments = new MappedByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      long segmentStart = (long) i * segmentSize;
+      long segmentLength = Math.min((long) segmentSize + segmentOverlap, length - segmentStart);
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+    }
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Return a new ByteBuffer positioned at the given offset and limited to at
+   * most maxLength bytes (less if the end of the mapping is reached), without
+   * copying. Return null if the requested range spans two segments, in which
+   * case read() should be used instead.
+   */
+  public ByteBuffer slice(long offset, int maxLength) {
+    checkOffset(offset);
+    ByteBuffer segment = segments[(int) (offset / segmentSize)];
+    int segmentOffset = (int) (offset % segmentSize);
+    int sliceLength = (int) Math.min(maxLength, length - offset);
+    if (segmentOffset + sliceLength > segment.capacity()) {
+      return null;
+    }
+    ByteBuffer result = segment.duplicate();
+    result.limit(segmentOffset + sliceLength);
+    result.position(segmentOffset);
+    return result;
+  }
+
+  /**
+   * Copy at most maxLength bytes starting at the given offset into dst, across
+   * segments if necessary. Return the number of bytes copied.
+   */
+  public int read(long offset, byte[] dst, int dstOffset, int maxLength) {
+    checkOffset(offset);
+    int toRead = (int) Math.min(maxLength, length - offset);
+    int copied = 0;
+    while (copied < toRead) {
+      long currentOffset = offset + copied;
+      ByteBuffer segment = segments[(int) (currentOffset / segmentSize)].duplicate();
+      segment.position((int) (currentOffset % segmentSize));
+      int chunkLength = Math.min(toRead - copied, segment.remaining());
+      segment.get(dst, dstOffset + copied, chunkLength);
+      copied += chunkLength;
+    }
+    return copied;
+  }
+
+  private void checkOffset(long offset) {
+    if (offset < 0 || offset >= length) {
+      throw new IndexOutOfBoundsException("Offset " + offset + " is out of mapped range [0, " + length + ")");
+    }
+  }
+}
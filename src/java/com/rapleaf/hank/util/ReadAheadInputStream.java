@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Read ahead from an input stream in a background thread, so that the consumer can process data while the
+ * next bytes are being fetched, for example merge records while a remote file is being downloaded. At most
+ * a given number of buffers are filled ahead of the consumer, which bounds memory usage.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final Logger LOG = Logger.getLogger(ReadAheadInputStream.class);
+
+  public static final int DEFAULT_BUFFER_SIZE = IOStreamUtils.DEFAULT_BUFFER_SIZE;
+  public static final int DEFAULT_NUM_BUFFERS = 4;
+  private static final long CLOSE_TIMEOUT_MS = 10000;
+
+  private static final Chunk END_OF_STREAM = new Chunk(null, 0);
+
+  private final InputStream inputStream;
+  private final int bufferSize;
+  private final int numBuffers;
+  private final BlockingQueue<byte[]> freeBuffers;
+  private final BlockingQueue<Chunk> filledChunks;
+  private final Thread readerThread;
+  private volatile IOException failure = null;
+
+  // Consumer state
+  private Chunk currentChunk = null;
+  private int currentOffset = 0;
+  private boolean endOfStream = false;
+  private boolean closed = false;
+
+  public ReadAheadInputStream(InputStream inputStream) {
+    this(inputStream, DEFAULT_BUFFER_SIZE, DEFAULT_NUM_BUFFERS);
+  }
+
+  public ReadAheadInputStream(InputStream inputStream, int bufferSize, int numBuffers) {
+    if (bufferSize <= 0 || numBuffers <= 0) {
+      throw new IllegalArgumentException("Read ahead buffer size and number of buffers must be positive: "
+          + bufferSize + ", " + numBuffers);
+    }
+    this.inputStream = inputStream;
+    this.bufferSize = bufferSize;
+    this.numBuffers = numBuffers;
+    this.freeBuffers = new ArrayBlockingQueue<byte[]>(numBuffers);
+    // One more slot for the end of stream marker
+    this.filledChunks = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+    readerThread = new Thread(new Reader(), "Read Ahead");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureCurrentChunk()) {
+      return -1;
+    }
+    return currentChunk.buffer[currentOffset++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!ensureCurrentChunk()) {
+      return -1;
+    }
+    int numBytes = Math.min(length, currentChunk.length - currentOffset);
+    System.arraycopy(currentChunk.buffer, currentOffset, buffer, offset, numBytes);
+    currentOffset += numBytes;
+    return numBytes;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (currentChunk == null) {
+      return 0;
+    }
+    return currentChunk.length - currentOffset;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // Interrupting only stops a reader thread waiting for a free buffer. Closing the stream first is what
+    // unblocks a reader thread waiting for data from a socket or from HDFS.
+    readerThread.interrupt();
+    try {
+      inputStream.close();
+    } finally {
+      try {
+        readerThread.join(CLOSE_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (readerThread.isAlive()) {
+        LOG.warn("Read ahead thread did not stop within " + CLOSE_TIMEOUT_MS + "ms after the stream was closed.");
+      }
+    }
+  }
+
+  // Return false at the end of the stream
+  private boolean ensureCurrentChunk() throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    if (currentChunk != null && currentOffset < currentChunk.length) {
+      return true;
+    }
+    if (endOfStream) {
+      return false;
+    }
+    // Give the exhausted buffer back to the reader
+    if (currentChunk != null) {
+      freeBuffers.offer(currentChunk.buffer);
+      currentChunk = null;
+    }
+    Chunk chunk;
+    try {
+      chunk = filledChunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for data to be read ahead", e);
+    }
+    if (chunk == END_OF_STREAM) {
+      endOfStream = true;
+      if (failure != null) {
+        throw new IOException("Failed to read ahead", failure);
+      }
+      return false;
+    }
+    currentChunk = chunk;
+    currentOffset = 0;
+    return true;
+  }
+
+  private class Reader implements Runnable {
+
+    private int numAllocatedBuffers = 0;
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          byte[] buffer = getFreeBuffer();
+          // Fill the buffer completely unless the stream ends
+          int length = 0;
+          int numBytes = 0;
+          while (length < bufferSize && (numBytes = inputStream.read(buffer, length, bufferSize - length)) >= 0) {
+            length += numBytes;
+          }
+          if (length > 0) {
+            filledChunks.put(new Chunk(buffer, length));
+          }
+          if (numBytes < 0) {
+            filledChunks.put(END_OF_STREAM);
+            return;
+          }
+        }
+      } catch (IOException e) {
+        failure = e;
+        // There is always room for the end of stream marker
+        filledChunks.offer(END_OF_STREAM);
+      } catch (InterruptedException e) {
+        LOG.debug("Read ahead thread interrupted.");
+      }
+    }
+
+    private byte[] getFreeBuffer() throws InterruptedException {
+      byte[] buffer = freeBuffers.poll();
+      if (buffer != null) {
+        return buffer;
+      }
+      if (numAllocatedBuffers < numBuffers) {
+        ++numAllocatedBuffers;
+        return new byte[bufferSize];
+      }
+      return freeBuffers.take();
+    }
+  }
+
+  private static class Chunk {
+    private final byte[] buffer;
+    private final int length;
+
+    private Chunk(byte[] buffer, int length) {
+      this.buffer = buffer;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Number of bytes allocated on the heap by the current thread, when the JVM
+ * supports measuring it (HotSpot does).
+ */
+public class ThreadAllocationCounter {
+
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+  private ThreadAllocationCounter() {
+  }
+
+  public static boolean isSupported() {
+    return THREAD_MX_BEAN != null;
+  }
+
+  // Return the number of bytes allocated so far by the current thread, or -1 if not supported
+  public static long getAllocatedBytes() {
+    if (THREAD_MX_BEAN == null) {
+      return -1;
+    }
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    try {
+      java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (result.isThreadAllocatedMemorySupported()) {
+          result.setThreadAllocatedMemoryEnabled(true);
+          return result;
+        }
+      }
+    } catch (Throwable t) {
+      // Not available on this JVM
+    }
+    return null;
+  }
+}
@@ -114,6 +114,57 @@ public class TestHankSmartClient extends BaseTestCase {
     }
   }
 
+  // Answers each key with its own value and counts requests
+  private static class EchoPartitionServerHandler implements PartitionServer.Iface {
+    private int numGets = 0;
+    private int numGetBulks = 0;
+    private boolean failing = false;
+
+    @Override
+    public synchronized HankResponse get(int domainId, ByteBuffer key) throws TException {
+      ++numGets;
+      return HankResponse.value(key);
+    }
+
+    @Override
+    public synchronized HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+      ++numGetBulks;
+      if (failing) {
+        throw new RuntimeException("In failing mode.");
+      }
+      List<HankResponse> responses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        responses.add(HankResponse.value(key));
+      }
+      return HankBulkResponse.responses(responses);
+    }
+
+    public synchronized void setFailing(boolean failing) {
+      this.failing = failing;
+    }
+  }
+
+  // Answers each key with the version of the data it serves
+  private static class VersionedPartitionServerHandler implements PartitionServer.Iface {
+    private volatile int version = 1;
+    private int numGets = 0;
+
+    @Override
+    public synchronized HankResponse get(int domainId, ByteBuffer key) throws TException {
+      ++numGets;
+      return HankResponse.value(ByteBuffer.wrap(new byte[]{(byte) version}));
+    }
+
+    @Override
+    public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+      throw new UnsupportedOperationException();
+    }
+
+    public void setVersion(int version) {
+      this.version = version;
+    }
+  }
+
   private static final ByteBuffer KEY_1 = ByteBuffer.wrap(new byte[]{1});
   private static final ByteBuffer VALUE_1 = ByteBuffer.wrap(new byte[]{1});
   private static final ByteBuffer KEY_2 = ByteBuffer.wrap(new byte[]{2});
@@ -346,6 +397,183 @@ public class TestHankSmartClient extends BaseTestCase {
     }
   }
 
+  public void testGetBulk() throws Exception {
+    int[] ports = new int[]{12350, 12351, 12352};
+    EchoPartitionServerHandler[] handlers = new EchoPartitionServerHandler[ports.length];
+    TNonblockingServerTransport[] transports = new TNonblockingServerTransport[ports.length];
+    final TServer[] servers = new TServer[ports.length];
+    Thread[] threads = new Thread[ports.length];
+    for (int i = 0; i < ports.length; ++i) {
+      handlers[i] = new EchoPartitionServerHandler();
+      transports[i] = createPartitionServerTransport(ports[i]);
+      servers[i] = createPartitionServer(transports[i], handlers[i]);
+      threads[i] = new Thread(new ServerRunnable(servers[i]), "mock partition server thread " + i);
+      threads[i].start();
+    }
+
+    ByteBuffer key4 = ByteBuffer.wrap(new byte[]{4});
+    final MockDomain domain = new MockDomain("domain", 0, 2,
+        new MapPartitioner(KEY_1, 0, KEY_2, 0, KEY_3, 1, key4, 1), null, null, null);
+    // Partition 0 is served by hosts 0 and 1, partition 1 by host 2
+    final Set<Host> hosts = new HashSet<Host>();
+    hosts.add(getHost(domain, new PartitionServerAddress("localhost", ports[0]), 0));
+    hosts.add(getHost(domain, new PartitionServerAddress("localhost", ports[1]), 0));
+    hosts.add(getHost(domain, new PartitionServerAddress("localhost", ports[2]), 1));
+    final MockRing ring = new MockRing(null, null, 1) {
+      @Override
+      public Set<Host> getHosts() {
+        return hosts;
+      }
+    };
+    final MockRingGroup ringGroup = new MockRingGroup(new MockDomainGroup("myDomainGroup"), "myRingGroup", null) {
+      @Override
+      public Set<Ring> getRings() {
+        return Collections.singleton((Ring) ring);
+      }
+    };
+    Coordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return ringGroup;
+      }
+
+      @Override
+      public Domain getDomain(String domainName) {
+        return domainName.equals("domain") ? domain : null;
+      }
+    };
+
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return servers[0].isServing() && servers[1].isServing() && servers[2].isServing();
+      }
+    });
+
+    HankSmartClient client = new HankSmartClient(coordinator, "myRingGroup", 1, 2, 0, 0, 1000, 1000);
+    try {
+      List<ByteBuffer> keys = Arrays.asList(KEY_3, KEY_1, key4, KEY_2);
+      List<HankResponse> expectedResponses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        expectedResponses.add(HankResponse.value(key));
+      }
+
+      // Responses are in request order and one request is sent per partition server
+      assertEquals(HankBulkResponse.responses(expectedResponses), client.getBulk("domain", keys));
+      assertEquals(0, handlers[0].numGets + handlers[1].numGets + handlers[2].numGets);
+      assertEquals(1, handlers[0].numGetBulks + handlers[1].numGetBulks);
+      assertEquals(1, handlers[2].numGetBulks);
+
+      // A failing replica is skipped
+      handlers[0].setFailing(true);
+      assertEquals(HankBulkResponse.responses(expectedResponses), client.getBulk("domain", keys));
+      handlers[0].setFailing(false);
+      handlers[1].setFailing(true);
+      assertEquals(HankBulkResponse.responses(expectedResponses), client.getBulk("domain", keys));
+
+      // When all replicas fail, only the keys of that partition fail
+      handlers[0].setFailing(true);
+      List<HankResponse> responses = client.getBulk("domain", keys).get_responses();
+      assertEquals(HankResponse.value(KEY_3), responses.get(0));
+      assertEquals(2, responses.get(1).get_xception().get_failed_retries());
+      assertEquals(HankResponse.value(key4), responses.get(2));
+      assertEquals(2, responses.get(3).get_xception().get_failed_retries());
+    } finally {
+      client.stop();
+      for (int i = 0; i < ports.length; ++i) {
+        servers[i].stop();
+        threads[i].join();
+        transports[i].close();
+      }
+    }
+  }
+
+  public void testResultCacheInvalidatedByUpdateWhileServing() throws Exception {
+    VersionedPartitionServerHandler handler = new VersionedPartitionServerHandler();
+    int port = 12360;
+    TNonblockingServerTransport transport = createPartitionServerTransport(port);
+    final TServer server = createPartitionServer(transport, handler);
+    Thread thread = new Thread(new ServerRunnable(server), "mock partition server thread");
+    thread.start();
+
+    final MockDomain domain = new MockDomain("domain", 0, 1, new MapPartitioner(KEY_1, 0), null, null, null);
+    final MockHostDomainPartition partition = new MockHostDomainPartition(0, 1);
+    final MockHost host = new MockHost(new PartitionServerAddress("localhost", port)) {
+      @Override
+      public Set<HostDomain> getAssignedDomains() throws IOException {
+        return Collections.singleton((HostDomain) new MockHostDomain(domain) {
+          @Override
+          public Set<HostDomainPartition> getPartitions() {
+            return Collections.singleton((HostDomainPartition) partition);
+          }
+        });
+      }
+    };
+    host.setState(HostState.SERVING);
+    final MockRing ring = new MockRing(null, null, 1) {
+      @Override
+      public Set<Host> getHosts() {
+        return Collections.singleton((Host) host);
+      }
+    };
+    final MockRingGroup ringGroup = new MockRingGroup(new MockDomainGroup("myDomainGroup"), "myRingGroup", null) {
+      @Override
+      public Set<Ring> getRings() {
+        return Collections.singleton((Ring) ring);
+      }
+    };
+    Coordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return ringGroup;
+      }
+
+      @Override
+      public Domain getDomain(String domainName) {
+        return domainName.equals("domain") ? domain : null;
+      }
+    };
+
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return server.isServing();
+      }
+    });
+
+    final HankSmartClient client = new HankSmartClient(coordinator, "myRingGroup", 1, 1, 0, 0, 1000, 1000,
+        0, 0, false, false, false, 0, 0, 1 << 20);
+    try {
+      final HankResponse version1Response = HankResponse.value(ByteBuffer.wrap(new byte[]{1}));
+      final HankResponse version2Response = HankResponse.value(ByteBuffer.wrap(new byte[]{2}));
+      assertEquals(version1Response, client.get("domain", KEY_1));
+      assertEquals(version1Response, client.get("domain", KEY_1));
+      assertEquals(1, handler.numGets);
+
+      // Update the partition while the host keeps serving: the new version is published without a state change,
+      // which the coordinator reports as a data location change
+      handler.setVersion(2);
+      partition.setCurrentDomainVersion(2);
+      client.onDataLocationChange(ringGroup);
+
+      // Results cached at the previous version are not served anymore
+      WaitUntil.condition(new Condition() {
+        @Override
+        public boolean test() {
+          return version2Response.equals(client.get("domain", KEY_1));
+        }
+      });
+      int numGets = handler.numGets;
+      assertEquals(version2Response, client.get("domain", KEY_1));
+      assertEquals(numGets, handler.numGets);
+    } finally {
+      client.stop();
+      server.stop();
+      thread.join();
+      transport.close();
+    }
+  }
+
   private TNonblockingServerTransport createPartitionServerTransport(int port) {
     TNonblockingServerSocket transport = null;
     int tries = 0;
@@ -36,6 +36,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 
 public class TestHostConnectionPool extends BaseTestCase {
@@ -381,6 +383,125 @@ public class TestHostConnectionPool extends BaseTestCase {
     }
   }
 
+  public void testHedgedRequests() throws IOException, TException, InterruptedException {
+    Semaphore semaphore = new Semaphore(0);
+    final MockIface iface1 = new HangingIface(semaphore);
+    final MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int tryLockTimeoutMs = 0;
+    int establishConnectionTimeoutMs = 0;
+    int queryTimeoutMs = 1000;
+    int bulkQueryTimeoutMs = 0;
+
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    // Hedge after 10ms
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null, false,
+        new HedgedRequestPolicy(10, -1, executor, queryTimeoutMs));
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    // With max num retries = 1, requests hanging on Host 1 should be served by Host 2
+    int numHits = 0;
+    int previousIface1NumGets = 0;
+    for (int i = 0; i < 10; ++i) {
+      HankResponse response = hostConnectionPool.get(0, KEY_1, 1, null);
+      assertEquals(RESPONSE_1, response);
+      if (response.is_set_value()) {
+        ++numHits;
+      }
+      if (iface1.numGets != previousIface1NumGets) {
+        semaphore.release();
+        previousIface1NumGets = iface1.numGets;
+      }
+    }
+    assertEquals("All keys should have been found", 10, numHits);
+    assertTrue("Hanging requests should have been hedged", hostConnectionPool.getNumHedgedRequests() > 0);
+
+    executor.shutdown();
+  }
+
+  public void testHedgedRequestsFailing() throws IOException, TException, InterruptedException {
+    final MockIface iface1 = new Response1Iface();
+    final MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    // Connections throwing unexpected exceptions
+    hostToConnectionsMap.put(mockHost1, Collections.<HostConnection>singletonList(new FailingHostConnection(mockHost1)));
+    hostToConnectionsMap.put(mockHost2, Collections.<HostConnection>singletonList(new FailingHostConnection(mockHost2)));
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null, false,
+        new HedgedRequestPolicy(10, -1, executor, 0));
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    // Failures should be reported instead of blocking forever
+    HankResponse response = hostConnectionPool.get(0, KEY_1, 1, null);
+    assertTrue(response.is_set_xception());
+    assertTrue(response.get_xception().is_set_internal_error());
+
+    executor.shutdown();
+  }
+
+  public void testHedgedRequestsTimeout() throws IOException, TException, InterruptedException {
+    Semaphore semaphore = new Semaphore(0);
+    final MockIface iface1 = new HangingIface(semaphore);
+    final MockIface iface2 = new HangingIface(semaphore);
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    // Connections do not time out
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1, 0, 0, 0, 0)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2, 0, 0, 0, 0)));
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    // Hedge after 10ms, wait at most 100ms for responses
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null, false,
+        new HedgedRequestPolicy(10, -1, executor, 100));
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    HankResponse response = hostConnectionPool.get(0, KEY_1, 1, null);
+    assertTrue(response.is_set_xception());
+    assertTrue(response.get_xception().is_set_internal_error());
+
+    // Unblock hanging requests
+    semaphore.release(2);
+    executor.shutdown();
+  }
+
+  private static class FailingHostConnection extends HostConnection {
+
+    public FailingHostConnection(Host host) throws IOException, TException {
+      super(host, 0, 0, 0, 0);
+    }
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key) throws IOException {
+      throw new RuntimeException("Failing connection");
+    }
+  }
+
   private static void stopPartitionServer(TestHostConnection.MockPartitionServer mockPartitionServer, Thread mockPartitionServerThread) throws InterruptedException {
     if (mockPartitionServer != null) {
       LOG.info("Stopping partition server...");
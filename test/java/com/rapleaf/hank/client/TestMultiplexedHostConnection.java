@@ -0,0 +1,162 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.MockHost;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+import com.rapleaf.hank.generated.HankBulkResponse;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartitionServer;
+import com.rapleaf.hank.partition_server.MultiplexedThriftServer;
+import com.rapleaf.hank.util.Condition;
+import com.rapleaf.hank.util.WaitUntil;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TServerSocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestMultiplexedHostConnection extends BaseTestCase {
+
+  private static final PartitionServerAddress ADDRESS = new PartitionServerAddress("localhost", 50005);
+  private static final ByteBuffer SLOW_KEY = ByteBuffer.wrap(new byte[]{1});
+  private static final ByteBuffer KEY = ByteBuffer.wrap(new byte[]{2});
+  private static final ByteBuffer FAILING_KEY = ByteBuffer.wrap(new byte[]{3});
+
+  // Answers each key with its own value. Requests for the slow key wait until released, requests for the
+  // failing key fail.
+  private static class Handler implements PartitionServer.Iface {
+    private final CountDownLatch slowKeyLatch = new CountDownLatch(1);
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key) throws TException {
+      if (key.equals(SLOW_KEY)) {
+        try {
+          slowKeyLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (key.equals(FAILING_KEY)) {
+        throw new RuntimeException("Failing key");
+      }
+      return HankResponse.value(key);
+    }
+
+    @Override
+    public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key));
+      }
+      return HankBulkResponse.responses(responses);
+    }
+  }
+
+  public void testOutOfOrderResponses() throws Exception {
+    final Handler handler = new Handler();
+    MultiplexedThriftServer.Args args = new MultiplexedThriftServer.Args(new TServerSocket(ADDRESS.getPortNumber()));
+    args.processor(new PartitionServer.Processor(handler));
+    args.workerThreads(4);
+    args.protocolFactory(new TCompactProtocol.Factory());
+    final MultiplexedThriftServer server = new MultiplexedThriftServer(args);
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return server.isServing();
+      }
+    });
+
+    try {
+      MockHost host = new MockHost(ADDRESS);
+      host.setState(HostState.SERVING);
+      final MultiplexedHostConnection connection = new MultiplexedHostConnection(host, 0, 1000, 5000, 5000);
+
+      // Send a request that blocks on the server
+      final AtomicReference<HankResponse> slowResponse = new AtomicReference<HankResponse>();
+      Thread slowThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            slowResponse.set(connection.get(0, SLOW_KEY));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      slowThread.start();
+      WaitUntil.condition(new Condition() {
+        @Override
+        public boolean test() {
+          return connection.isLocked();
+        }
+      });
+
+      // Other requests on the same connection are answered while the first one is pending
+      assertEquals(HankResponse.value(KEY), connection.get(0, KEY));
+      assertEquals(HankBulkResponse.responses(Arrays.asList(HankResponse.value(KEY), HankResponse.value(KEY))),
+          connection.getBulk(0, Arrays.asList(KEY, KEY)));
+      assertNull(slowResponse.get());
+
+      handler.slowKeyLatch.countDown();
+      slowThread.join();
+      assertEquals(HankResponse.value(SLOW_KEY), slowResponse.get());
+      assertFalse(connection.isLocked());
+
+      // Requests failing on the server are answered with an exception instead of timing out
+      long startTimeMs = System.currentTimeMillis();
+      try {
+        connection.get(0, FAILING_KEY);
+        fail("Should throw an exception.");
+      } catch (IOException e) {
+        assertTrue(e.getCause() instanceof TApplicationException);
+      }
+      assertTrue(System.currentTimeMillis() - startTimeMs < 5000);
+      assertEquals(HankResponse.value(KEY), connection.get(0, KEY));
+
+      // Regular connections are supported by the server as well
+      assertEquals(HankResponse.value(KEY), new HostConnection(host, 0, 1000, 5000, 5000).get(0, KEY));
+
+      // Requests fail when the host is not serving
+      host.setState(HostState.IDLE);
+      try {
+        connection.get(0, KEY);
+        fail("Should throw an exception.");
+      } catch (IOException e) {
+        assertEquals("Connection to host is not available (host is not serving).", e.getMessage());
+      }
+    } finally {
+      server.stop();
+      serverThread.join();
+    }
+  }
+}
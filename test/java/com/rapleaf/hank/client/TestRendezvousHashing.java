@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestRendezvousHashing extends BaseTestCase {
+
+  private static final int NUM_KEYS = 10000;
+
+  public void testIt() {
+    List<PartitionServerAddress> addresses = new ArrayList<PartitionServerAddress>();
+    for (int i = 0; i < 4; ++i) {
+      addresses.add(new PartitionServerAddress("host" + i, 12345));
+    }
+    PartitionServerAddress[] hosts = addresses.toArray(new PartitionServerAddress[addresses.size()]);
+    long[] hostHashes = RendezvousHashing.getHostHashes(addresses);
+
+    // Keys are evenly spread
+    int[] numKeysPerHost = new int[hosts.length];
+    for (int keyHash = 0; keyHash < NUM_KEYS; ++keyHash) {
+      ++numKeysPerHost[RendezvousHashing.getHostIndex(keyHash, hostHashes)];
+    }
+    for (int numKeys : numKeysPerHost) {
+      assertTrue(numKeys > NUM_KEYS / hosts.length * 0.9);
+      assertTrue(numKeys < NUM_KEYS / hosts.length * 1.1);
+    }
+
+    // Host order does not matter
+    List<PartitionServerAddress> reversedAddresses = new ArrayList<PartitionServerAddress>(addresses);
+    Collections.reverse(reversedAddresses);
+    long[] reversedHostHashes = RendezvousHashing.getHostHashes(reversedAddresses);
+    for (int keyHash = 0; keyHash < NUM_KEYS; ++keyHash) {
+      assertEquals(hosts[RendezvousHashing.getHostIndex(keyHash, hostHashes)],
+          reversedAddresses.get(RendezvousHashing.getHostIndex(keyHash, reversedHostHashes)));
+    }
+
+    // Removing a host only remaps its keys
+    PartitionServerAddress[] remainingHosts = Arrays.copyOf(hosts, hosts.length - 1);
+    long[] remainingHostHashes = RendezvousHashing.getHostHashes(Arrays.asList(remainingHosts));
+    for (int keyHash = 0; keyHash < NUM_KEYS; ++keyHash) {
+      int hostIndex = RendezvousHashing.getHostIndex(keyHash, hostHashes);
+      int remainingHostIndex = RendezvousHashing.getHostIndex(keyHash, remainingHostHashes);
+      if (hostIndex < remainingHosts.length) {
+        assertEquals(hostIndex, remainingHostIndex);
+      }
+    }
+  }
+}
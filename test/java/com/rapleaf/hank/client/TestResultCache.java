@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.generated.HankException;
+import com.rapleaf.hank.generated.HankResponse;
+
+import java.nio.ByteBuffer;
+
+public class TestResultCache extends BaseTestCase {
+
+  private static final ByteBuffer KEY_1 = ByteBuffer.wrap("1".getBytes());
+  private static final ByteBuffer KEY_2 = ByteBuffer.wrap("2".getBytes());
+  private static final HankResponse RESPONSE_1 = HankResponse.value(ByteBuffer.wrap("v1".getBytes()));
+  private static final HankResponse NOT_FOUND = HankResponse.not_found(true);
+
+  public void testIt() {
+    ResultCache cache = new ResultCache(1 << 20);
+
+    assertNull(cache.get(0, 1, KEY_1));
+    cache.put(0, 1, KEY_1, RESPONSE_1);
+    cache.put(0, 1, KEY_2, NOT_FOUND);
+    assertEquals(RESPONSE_1, cache.get(0, 1, KEY_1));
+    assertEquals(NOT_FOUND, cache.get(0, 1, KEY_2));
+
+    // Other domain versions and domains are not affected
+    assertNull(cache.get(0, 2, KEY_1));
+    assertNull(cache.get(1, 1, KEY_1));
+
+    // Errors are not cached
+    cache.put(1, 1, KEY_1, HankResponse.xception(HankException.internal_error("error")));
+    assertNull(cache.get(1, 1, KEY_1));
+
+    assertEquals(2, cache.getNumHits());
+    assertEquals(4, cache.getNumMisses());
+    assertEquals(2, cache.size());
+
+    cache.removeDomain(0);
+    assertNull(cache.get(0, 1, KEY_1));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getNumBytes());
+  }
+
+  public void testEviction() {
+    // Entries take a bit more than 128 bytes, and each of the 16 segments holds 4096 bytes
+    ResultCache cache = new ResultCache(16 * 4096);
+    for (int i = 0; i < 10000; ++i) {
+      cache.put(0, 1, ByteBuffer.wrap(Integer.toString(i).getBytes()), RESPONSE_1);
+    }
+    assertTrue(cache.getNumBytes() <= 16 * 4096);
+    assertTrue(cache.size() < 16 * 4096 / 128);
+    // Most recently inserted key is still cached
+    assertEquals(RESPONSE_1, cache.get(0, 1, ByteBuffer.wrap("9999".getBytes())));
+    // First inserted key was evicted
+    assertNull(cache.get(0, 1, ByteBuffer.wrap("0".getBytes())));
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.MockHost;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+
+import java.util.*;
+
+public class TestRoutingTable extends BaseTestCase {
+
+  public void testIt() throws Exception {
+    PartitionServerAddress address1 = new PartitionServerAddress("localhost", 1);
+    PartitionServerAddress address2 = new PartitionServerAddress("localhost", 2);
+    HostConnectionPool pool1 = HostConnectionPool.createFromList(
+        Collections.singletonList(new HostConnection(new MockHost(address1), 0, 0, 0, 0)), null);
+    HostConnectionPool pool2 = HostConnectionPool.createFromList(
+        Collections.singletonList(new HostConnection(new MockHost(address2), 0, 0, 0, 0)), null);
+
+    Map<PartitionServerAddress, HostConnectionPool> addressToPool = new HashMap<PartitionServerAddress, HostConnectionPool>();
+    addressToPool.put(address1, pool1);
+    addressToPool.put(address2, pool2);
+
+    // Domain 3 has partitions 0 and 2
+    Map<Integer, List<PartitionServerAddress>> partitionToAddresses = new HashMap<Integer, List<PartitionServerAddress>>();
+    partitionToAddresses.put(0, Arrays.asList(address1, address2));
+    partitionToAddresses.put(2, Arrays.asList(address2));
+    Map<Integer, Map<Integer, List<PartitionServerAddress>>> domainToPartitionToAddresses
+        = new HashMap<Integer, Map<Integer, List<PartitionServerAddress>>>();
+    domainToPartitionToAddresses.put(3, partitionToAddresses);
+
+    Map<Integer, HostConnectionPool> partitionToPool = new HashMap<Integer, HostConnectionPool>();
+    partitionToPool.put(0, pool1);
+    partitionToPool.put(2, pool2);
+    Map<Integer, Map<Integer, HostConnectionPool>> domainToPartitionToPool
+        = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
+    domainToPartitionToPool.put(3, partitionToPool);
+
+    Map<Integer, Integer> domainToVersion = new HashMap<Integer, Integer>();
+    domainToVersion.put(3, 7);
+
+    RoutingTable routingTable = new RoutingTable(addressToPool, domainToPartitionToAddresses, domainToPartitionToPool,
+        domainToVersion);
+
+    assertEquals(pool1, routingTable.getConnectionPool(address1));
+    assertNull(routingTable.getConnectionPool(new PartitionServerAddress("localhost", 3)));
+
+    HostConnectionPool[] pools = routingTable.getPartitionToConnectionPool(3);
+    assertEquals(3, pools.length);
+    assertEquals(pool1, pools[0]);
+    assertNull(pools[1]);
+    assertEquals(pool2, pools[2]);
+
+    PartitionServerAddress[][] addresses = routingTable.getPartitionToPartitionServerAddresses(3);
+    assertTrue(Arrays.equals(new PartitionServerAddress[]{address1, address2}, addresses[0]));
+    assertNull(addresses[1]);
+    assertTrue(Arrays.equals(new PartitionServerAddress[]{address2}, addresses[2]));
+
+    // Unknown domains
+    assertNull(routingTable.getPartitionToConnectionPool(0));
+    assertNull(routingTable.getPartitionToConnectionPool(4));
+    assertNull(routingTable.getPartitionToPartitionServerAddresses(-1));
+    assertNull(RoutingTable.EMPTY.getPartitionToConnectionPool(0));
+
+    // Domain versions
+    assertEquals(7, routingTable.getDomainVersion(3));
+    assertEquals(RoutingTable.UNKNOWN_DOMAIN_VERSION, routingTable.getDomainVersion(0));
+    assertEquals(RoutingTable.UNKNOWN_DOMAIN_VERSION, routingTable.getDomainVersion(4));
+    assertEquals(RoutingTable.UNKNOWN_DOMAIN_VERSION, RoutingTable.EMPTY.getDomainVersion(3));
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client.async;
+
+import com.rapleaf.hank.coordinator.Host;
+import com.rapleaf.hank.generated.HankBulkResponse;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartitionServer;
+import org.apache.thrift.TException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Connection that is always connected and does not send anything over the network. GET requests are held
+// until the test completes them, GET BULK requests are answered immediately by echoing the keys, or fail.
+class MockHostConnection extends HostConnection {
+
+  private final BlockingQueue<HostConnectionGetCallback> pendingGets
+      = new LinkedBlockingQueue<HostConnectionGetCallback>();
+  private final List<List<ByteBuffer>> getBulkKeys
+      = Collections.synchronizedList(new ArrayList<List<ByteBuffer>>());
+  private volatile boolean failing = false;
+
+  MockHostConnection(Host host, Runnable connectionListener) throws IOException, TException {
+    super(host, connectionListener, null, 0, 0, 0);
+  }
+
+  @Override
+  public void get(int domainId, ByteBuffer key, HostConnectionGetCallback resultHandler) {
+    pendingGets.add(resultHandler);
+  }
+
+  @Override
+  public void getBulk(int domainId, List<ByteBuffer> keys, HostConnectionGetBulkCallback resultHandler) {
+    getBulkKeys.add(new ArrayList<ByteBuffer>(keys));
+    if (failing) {
+      resultHandler.onError(new IOException("Failing connection"));
+      return;
+    }
+    List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+    for (ByteBuffer key : keys) {
+      responses.add(HankResponse.value(key));
+    }
+    final HankBulkResponse response = HankBulkResponse.responses(responses);
+    try {
+      resultHandler.onComplete(new PartitionServer.AsyncClient.getBulk_call(domainId, keys, null, null, null, null) {
+        @Override
+        public HankBulkResponse getResult() {
+          return response;
+        }
+      });
+    } catch (TException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Complete the oldest pending GET with the given response
+  public void completeGet(final HankResponse response) throws TException {
+    HostConnectionGetCallback callback = pendingGets.poll();
+    if (callback == null) {
+      throw new java.lang.IllegalStateException("No pending GET");
+    }
+    callback.onComplete(new PartitionServer.AsyncClient.get_call(0, null, null, null, null, null) {
+      @Override
+      public HankResponse getResult() {
+        return response;
+      }
+    });
+  }
+
+  public int getNumPendingGets() {
+    return pendingGets.size();
+  }
+
+  public List<List<ByteBuffer>> getGetBulkKeys() {
+    return getBulkKeys;
+  }
+
+  public void setFailing(boolean failing) {
+    this.failing = failing;
+  }
+
+  @Override
+  protected boolean isDisconnected() {
+    return false;
+  }
+
+  @Override
+  protected boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public synchronized void attemptDisconnect() {
+  }
+}
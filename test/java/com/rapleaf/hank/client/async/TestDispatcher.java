@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client.async;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.client.GetCallback;
+import com.rapleaf.hank.coordinator.Host;
+import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.MockHost;
+import com.rapleaf.hank.coordinator.PartitionServerAddress;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.util.Condition;
+import com.rapleaf.hank.util.WaitUntil;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+public class TestDispatcher extends BaseTestCase {
+
+  private static final ByteBuffer KEY_1 = ByteBuffer.wrap("1".getBytes());
+  private static final HankResponse RESPONSE_1 = HankResponse.value(KEY_1);
+
+  private final Host mockHost = new MockHost(new PartitionServerAddress("localhost", 50004));
+
+  private Dispatcher dispatcher;
+  private MockHostConnection connection;
+  private HostConnectionPool hostConnectionPool;
+
+  private static class ResponseHolder implements GetCallback {
+
+    private volatile HankResponse response;
+
+    @Override
+    public void onComplete(HankResponse response) {
+      this.response = response;
+    }
+
+    public boolean isCompleted() {
+      return response != null;
+    }
+  }
+
+  private void start(int queryTimeoutMs) throws Exception {
+    mockHost.setState(HostState.SERVING);
+    dispatcher = new Dispatcher(queryTimeoutMs, 0, 1);
+    DispatcherThread dispatcherThread = new DispatcherThread(dispatcher);
+    dispatcherThread.start();
+    // A single connection, so that a second request has to wait for the first one to complete
+    connection = new MockHostConnection(mockHost, dispatcher.getOnChangeRunnable(mockHost));
+    hostConnectionPool = new HostConnectionPool(
+        Collections.<Host, List<HostConnection>>singletonMap(mockHost,
+            Collections.<HostConnection>singletonList(connection)), new Connector(), null);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (dispatcher != null) {
+      dispatcher.stop();
+    }
+    super.tearDown();
+  }
+
+  public void testParkedTaskResumedOnRelease() throws Exception {
+    start(0);
+    ResponseHolder response1 = new ResponseHolder();
+    ResponseHolder response2 = new ResponseHolder();
+
+    dispatcher.addTask(dispatcher.new GetTask(0, KEY_1, null, hostConnectionPool, response1));
+    waitForNumPendingGets(1);
+
+    // The only connection is busy, the second task is parked
+    dispatcher.addTask(dispatcher.new GetTask(0, KEY_1, null, hostConnectionPool, response2));
+    Thread.sleep(100);
+    assertEquals(1, connection.getNumPendingGets());
+    assertFalse(response2.isCompleted());
+
+    // Releasing the connection resumes the parked task
+    connection.completeGet(RESPONSE_1);
+    assertEquals(RESPONSE_1, response1.response);
+    waitForNumPendingGets(1);
+    assertFalse(response2.isCompleted());
+    connection.completeGet(RESPONSE_1);
+    assertEquals(RESPONSE_1, response2.response);
+  }
+
+  public void testParkedTaskTimeout() throws Exception {
+    start(100);
+    ResponseHolder response1 = new ResponseHolder();
+    final ResponseHolder response2 = new ResponseHolder();
+
+    dispatcher.addTask(dispatcher.new GetTask(0, KEY_1, null, hostConnectionPool, response1));
+    waitForNumPendingGets(1);
+    dispatcher.addTask(dispatcher.new GetTask(0, KEY_1, null, hostConnectionPool, response2));
+
+    // The parked task times out without being executed
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return response2.isCompleted();
+      }
+    });
+    assertTrue(response2.response.get_xception().is_set_internal_error());
+    assertEquals(1, connection.getNumPendingGets());
+
+    // Once the connection is released, the timed out task is dropped instead of being executed
+    connection.completeGet(RESPONSE_1);
+    Thread.sleep(100);
+    assertEquals(0, connection.getNumPendingGets());
+    assertFalse(connection.isBusy());
+  }
+
+  private void waitForNumPendingGets(final int numPendingGets) throws InterruptedException {
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return connection.getNumPendingGets() == numPendingGets;
+      }
+    });
+  }
+}
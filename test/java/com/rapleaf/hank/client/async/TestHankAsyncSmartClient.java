@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client.async;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.client.GetBulkCallback;
+import com.rapleaf.hank.coordinator.*;
+import com.rapleaf.hank.coordinator.mock.MockCoordinator;
+import com.rapleaf.hank.coordinator.mock.MockDomain;
+import com.rapleaf.hank.coordinator.mock.MockDomainGroup;
+import com.rapleaf.hank.generated.HankBulkResponse;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.partitioner.MapPartitioner;
+import com.rapleaf.hank.util.Condition;
+import com.rapleaf.hank.util.WaitUntil;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.TAsyncClientManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class TestHankAsyncSmartClient extends BaseTestCase {
+
+  private static final ByteBuffer KEY_1 = ByteBuffer.wrap(new byte[]{1});
+  private static final ByteBuffer KEY_2 = ByteBuffer.wrap(new byte[]{2});
+  private static final ByteBuffer KEY_3 = ByteBuffer.wrap(new byte[]{3});
+
+  private static class BulkResponseHolder implements GetBulkCallback {
+
+    private volatile HankBulkResponse response;
+
+    @Override
+    public void onComplete(HankBulkResponse response) {
+      this.response = response;
+    }
+  }
+
+  public void testGetBulk() throws Exception {
+    final MockDomain domain = new MockDomain("domain", 0, 2,
+        new MapPartitioner(KEY_1, 0, KEY_2, 0, KEY_3, 1), null, null, null);
+    final MockDomainGroup domainGroup = new MockDomainGroup("myDomainGroup");
+    domainGroup.setDomainVersion(domain, 1);
+    // Partition 0 is served by hosts 0 and 1, partition 1 by host 2
+    final PartitionServerAddress[] addresses = new PartitionServerAddress[]{
+        new PartitionServerAddress("localhost", 1),
+        new PartitionServerAddress("localhost", 2),
+        new PartitionServerAddress("localhost", 3)};
+    final Set<Host> hosts = new HashSet<Host>();
+    hosts.add(getHost(domain, addresses[0], 0));
+    hosts.add(getHost(domain, addresses[1], 0));
+    hosts.add(getHost(domain, addresses[2], 1));
+    final MockRing ring = new MockRing(null, null, 1) {
+      @Override
+      public Set<Host> getHosts() {
+        return hosts;
+      }
+    };
+    final MockRingGroup ringGroup = new MockRingGroup(domainGroup, "myRingGroup", null) {
+      @Override
+      public Set<Ring> getRings() {
+        return Collections.singleton((Ring) ring);
+      }
+    };
+    Coordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return ringGroup;
+      }
+
+      @Override
+      public Domain getDomain(String domainName) {
+        return domainName.equals("domain") ? domain : null;
+      }
+    };
+
+    final Map<PartitionServerAddress, MockHostConnection> connections
+        = new HashMap<PartitionServerAddress, MockHostConnection>();
+    HankAsyncSmartClient client = new HankAsyncSmartClient(coordinator, "myRingGroup", 1, 2, 0, 0, 0) {
+      @Override
+      protected HostConnection createHostConnection(Host host,
+                                                    Runnable connectionListener,
+                                                    TAsyncClientManager asyncClientManager)
+          throws IOException, TException {
+        MockHostConnection connection = new MockHostConnection(host, connectionListener);
+        connections.put(host.getAddress(), connection);
+        return connection;
+      }
+    };
+    try {
+      List<ByteBuffer> keys = Arrays.asList(KEY_3, KEY_1, KEY_2);
+      List<HankResponse> expectedResponses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        expectedResponses.add(HankResponse.value(key));
+      }
+
+      // Keys are split into one request per partition server, and responses are in request order
+      assertEquals(HankBulkResponse.responses(expectedResponses), getBulk(client, keys));
+      MockHostConnection partition0Connection;
+      MockHostConnection partition0OtherConnection;
+      if (connections.get(addresses[0]).getGetBulkKeys().isEmpty()) {
+        partition0Connection = connections.get(addresses[1]);
+        partition0OtherConnection = connections.get(addresses[0]);
+      } else {
+        partition0Connection = connections.get(addresses[0]);
+        partition0OtherConnection = connections.get(addresses[1]);
+      }
+      MockHostConnection partition1Connection = connections.get(addresses[2]);
+      assertEquals(Collections.singletonList(Arrays.asList(KEY_1, KEY_2)), partition0Connection.getGetBulkKeys());
+      assertEquals(0, partition0OtherConnection.getGetBulkKeys().size());
+      assertEquals(Collections.singletonList(Arrays.asList(KEY_3)), partition1Connection.getGetBulkKeys());
+
+      // Keys of a failing request are retried on the other replica
+      partition0Connection.setFailing(true);
+      assertEquals(HankBulkResponse.responses(expectedResponses), getBulk(client, keys));
+      assertEquals(2, partition0Connection.getGetBulkKeys().size());
+      assertEquals(Collections.singletonList(Arrays.asList(KEY_1, KEY_2)), partition0OtherConnection.getGetBulkKeys());
+      assertEquals(2, partition1Connection.getGetBulkKeys().size());
+    } finally {
+      client.stop();
+    }
+  }
+
+  private static HankBulkResponse getBulk(HankAsyncSmartClient client, List<ByteBuffer> keys)
+      throws TException, InterruptedException {
+    final BulkResponseHolder responseHolder = new BulkResponseHolder();
+    client.getBulk("domain", keys, responseHolder);
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return responseHolder.response != null;
+      }
+    });
+    return responseHolder.response;
+  }
+
+  private static Host getHost(final Domain domain, PartitionServerAddress address, final int partNum)
+      throws IOException {
+    MockHost host = new MockHost(address) {
+      @Override
+      public Set<HostDomain> getAssignedDomains() throws IOException {
+        return Collections.singleton((HostDomain) new MockHostDomain(domain) {
+          @Override
+          public Set<HostDomainPartition> getPartitions() {
+            return Collections.singleton((HostDomainPartition) new MockHostDomainPartition(partNum, 1));
+          }
+        });
+      }
+    };
+    host.setState(HostState.SERVING);
+    return host;
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.client.async;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestTimerWheel extends BaseTestCase {
+
+  private static class Expiration implements Runnable {
+    private final int id;
+    private final List<Integer> expired;
+
+    private Expiration(int id, List<Integer> expired) {
+      this.id = id;
+      this.expired = expired;
+    }
+
+    @Override
+    public void run() {
+      expired.add(id);
+    }
+  }
+
+  public void testIt() {
+    List<Integer> expired = new ArrayList<Integer>();
+    // 10 ticks of 10ns, starting at time 1000
+    TimerWheel timerWheel = new TimerWheel(10, 10, 1000);
+    assertTrue(timerWheel.isEmpty());
+
+    timerWheel.schedule(new Expiration(1, expired), 1015);
+    timerWheel.schedule(new Expiration(2, expired), 1030);
+    // More than one round away
+    timerWheel.schedule(new Expiration(3, expired), 1500);
+    // Already expired
+    timerWheel.schedule(new Expiration(4, expired), 900);
+    assertEquals(4, timerWheel.size());
+
+    timerWheel.advance(1000);
+    assertEquals(Arrays.asList(4), expired);
+
+    // Deadlines are never missed, but might expire up to a tick late
+    timerWheel.advance(1019);
+    assertEquals(Arrays.asList(4), expired);
+    timerWheel.advance(1020);
+    assertEquals(Arrays.asList(4, 1), expired);
+
+    timerWheel.advance(1499);
+    assertEquals(Arrays.asList(4, 1, 2), expired);
+    timerWheel.advance(1500);
+    assertEquals(Arrays.asList(4, 1, 2, 3), expired);
+    assertTrue(timerWheel.isEmpty());
+
+    // Time skipped while the wheel was empty does not affect new deadlines
+    timerWheel.advance(100000);
+    timerWheel.schedule(new Expiration(5, expired), 100100);
+    timerWheel.advance(100099);
+    assertEquals(Arrays.asList(4, 1, 2, 3), expired);
+    timerWheel.advance(100100);
+    assertEquals(Arrays.asList(4, 1, 2, 3, 5), expired);
+  }
+}
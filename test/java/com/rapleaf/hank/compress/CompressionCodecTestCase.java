@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.compress;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public abstract class CompressionCodecTestCase extends BaseTestCase {
+
+  private static final List<byte[]> TESTCASES = Arrays.asList(
+      new byte[]{},
+      new byte[]{0, 1, 2, 3, 4, 5, 6},
+      new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+      repeatingBytes(100 * 1024, 3),
+      repeatingBytes(100 * 1024, 1000),
+      randomBytes(1000),
+      randomBytes(64 * 1024),
+      lotsOfBytes(16 * 1024),
+      lotsOfBytes(128 * 1024)
+  );
+
+  private static byte[] lotsOfBytes(int i) {
+    Random r = new Random(i);
+    byte[] bytes = new byte[i];
+    int start = r.nextInt(255);
+    for (int off = 0; off < i; off++) {
+      bytes[off] = (byte) start;
+      start = start + r.nextInt(127);
+    }
+    return bytes;
+  }
+
+  private static byte[] repeatingBytes(int length, int period) {
+    byte[] pattern = randomBytes(period);
+    byte[] bytes = new byte[length];
+    for (int off = 0; off < length; off++) {
+      bytes[off] = pattern[off % period];
+    }
+    return bytes;
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  protected void doTestRoundTrip(CompressionCodec codec) {
+    for (int i = 0; i < TESTCASES.size(); i++) {
+      byte[] testcase = TESTCASES.get(i);
+
+      // Compress at an offset, into a buffer of the maximum size
+      byte[] compressedBytes = new byte[3 + codec.getMaxCompressBufferSize(testcase.length)];
+      int compressedLength = codec.compress(testcase, 0, testcase.length, compressedBytes, 3);
+      assertTrue(compressedLength <= codec.getMaxCompressBufferSize(testcase.length));
+
+      // Decompress at an offset, as Cueball readers do
+      byte[] decompressedBytes = new byte[5 + testcase.length];
+      int decompressedLength = codec.decompress(compressedBytes, 3, compressedLength, decompressedBytes, 5);
+      assertEquals("Testcase #" + i, testcase.length, decompressedLength);
+      assertEquals("Testcase #" + i, ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 5, decompressedLength));
+    }
+  }
+
+  protected void doTestCompresses(CompressionCodec codec) {
+    byte[] testcase = repeatingBytes(100 * 1024, 1000);
+    byte[] compressedBytes = new byte[codec.getMaxCompressBufferSize(testcase.length)];
+    int compressedLength = codec.compress(testcase, 0, testcase.length, compressedBytes, 0);
+    assertTrue(compressedLength < testcase.length / 10);
+  }
+}
@@ -49,5 +49,35 @@ public class TestYamlHankSmartClientConfigurator extends BaseTestCase {
     assertEquals(100, conf.getEstablishConnectionTimeoutMs());
     assertEquals(42, conf.getQueryTimeoutMs());
     assertEquals(142, conf.getBulkQueryTimeoutMs());
+    assertEquals(-1, conf.getGetTaskExecutorNumThreads());
+    assertEquals(-1, conf.getGetTaskExecutorMaxNumPendingTasks());
+    assertFalse(conf.getGetTaskExecutorRejectWhenFull());
+    assertFalse(conf.getUseMultiplexedConnections());
+    assertFalse(conf.getUseLatencyAwareHostSelection());
+    assertEquals(-1, conf.getHedgedRequestDelayMs());
+    assertEquals(-1, conf.getHedgedRequestLatencyPercentile());
+    assertEquals(-1, conf.getResultCacheMaxNumBytes());
+
+    pw = new PrintWriter(new FileWriter(configPath, true));
+    pw.println("  get_task_executor_num_threads: 8");
+    pw.println("  get_task_executor_max_num_pending_tasks: 256");
+    pw.println("  get_task_executor_reject_when_full: true");
+    pw.println("  use_multiplexed_connections: true");
+    pw.println("  latency_aware_host_selection: true");
+    pw.println("  hedged_request_delay_ms: 20");
+    pw.println("  hedged_request_latency_percentile: 95");
+    pw.println("  result_cache_max_num_bytes: 1048576");
+    pw.close();
+
+    conf = new YamlHankSmartClientConfigurator(configPath);
+
+    assertEquals(8, conf.getGetTaskExecutorNumThreads());
+    assertEquals(256, conf.getGetTaskExecutorMaxNumPendingTasks());
+    assertTrue(conf.getGetTaskExecutorRejectWhenFull());
+    assertTrue(conf.getUseMultiplexedConnections());
+    assertTrue(conf.getUseLatencyAwareHostSelection());
+    assertEquals(20, conf.getHedgedRequestDelayMs());
+    assertEquals(95, conf.getHedgedRequestLatencyPercentile());
+    assertEquals(1048576, conf.getResultCacheMaxNumBytes());
   }
 }
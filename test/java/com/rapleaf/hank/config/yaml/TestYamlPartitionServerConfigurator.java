@@ -37,8 +37,14 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     pw.println("    num_concurrent_get_bulk_tasks: 1");
     pw.println("    get_bulk_task_size: 2");
     pw.println("    get_timer_aggregator_window: 1000");
+    pw.println("    cache_capacity_bytes: 4294967296");
+    pw.println("    use_multiplexed_thrift_server: true");
+    pw.println("    get_bulk_max_num_pending_keys: 100000");
     pw.println("  update_daemon:");
     pw.println("    num_concurrent_updates: 5");
+    pw.println("    max_concurrent_updates_per_data_directory: 2");
+    pw.println("    max_update_bytes_per_second_per_data_directory: 104857600");
+    pw.println("    update_while_serving: true");
     pw.println("coordinator:");
     pw.println("  factory: " + MockCoordinator.Factory.class.getName());
     pw.println("  options:");
@@ -50,6 +56,12 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     assertEquals(1, conf.getServicePort());
     assertEquals("rg1", conf.getRingGroupName());
     assertEquals(5, conf.getNumConcurrentUpdates());
+    assertEquals(2, conf.getMaxConcurrentUpdatesPerDataDirectory());
+    assertEquals(104857600L, conf.getMaxUpdateBytesPerSecondPerDataDirectory());
+    assertTrue(conf.getUpdateWhileServing());
     assertEquals(5, conf.getNumConcurrentQueries());
+    assertEquals(4294967296L, conf.getCacheCapacityBytes());
+    assertTrue(conf.getUseMultiplexedThriftServer());
+    assertEquals(100000L, conf.getGetBulkMaxNumPendingKeys());
   }
 }
@@ -37,6 +37,7 @@ public class TestYamlRingGroupConductorConfigurator extends TestCase {
     pw.println("  ring_group_name: myRingGroup");
     pw.println("  sleep_interval: 1000");
     pw.println("  initial_mode: INACTIVE");
+    pw.println("  update_while_serving: true");
     pw.println("coordinator:");
     pw.println("  factory: " + MockCoordinator.Factory.class.getName());
     pw.println("  options:");
@@ -51,5 +52,6 @@ public class TestYamlRingGroupConductorConfigurator extends TestCase {
     assertTrue(c.createCoordinator() instanceof MockCoordinator);
     assertTrue(((MockCoordinator) c.createCoordinator()).getInitOptions().containsKey("blah"));
     assertEquals(RingGroupConductorMode.INACTIVE, c.getInitialMode());
+    assertTrue(c.getUpdateWhileServing());
   }
 }
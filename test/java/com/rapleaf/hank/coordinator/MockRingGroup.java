@@ -31,7 +31,7 @@ public class MockRingGroup extends AbstractRingGroup implements RingGroup {
   private Collection<WatchedNodeListener<RingGroupConductorMode>> ringGroupConductorModeListeners
       = new TreeSet<WatchedNodeListener<RingGroupConductorMode>>();
   private Collection<RingGroupDataLocationChangeListener> ringGroupDataLocationChangeListeners
-      = new TreeSet<RingGroupDataLocationChangeListener>();
+      = new HashSet<RingGroupDataLocationChangeListener>();
   private final List<ClientMetadata> clients = new ArrayList<ClientMetadata>();
 
   public MockRingGroup(DomainGroup dcg,
@@ -25,6 +25,7 @@ import com.rapleaf.hank.util.WaitUntil;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TestZkHost extends ZkTestCase {
 
@@ -200,6 +201,44 @@ public class TestZkHost extends ZkTestCase {
     assertEquals(0, host.getHostDomain(d0).getDomain().getId());
   }
 
+  public void testDataLocationChangeOnUpdateWhileServing() throws Exception {
+    // Record the partition version the host reports each time data locations change
+    final AtomicReference<HostDomainPartition> partitionHolder = new AtomicReference<HostDomainPartition>();
+    final AtomicReference<Integer> notifiedVersion = new AtomicReference<Integer>();
+    final ZkHost host = ZkHost.create(getZk(), coordinator, getRoot(), ADDRESS, new DataLocationChangeListener() {
+      @Override
+      public void onDataLocationChange() {
+        try {
+          if (partitionHolder.get() != null) {
+            notifiedVersion.set(partitionHolder.get().getCurrentDomainVersion());
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, Collections.<String>emptyList());
+    final HostDomainPartition partition = host.addDomain(d0).addPartition(0);
+    partitionHolder.set(partition);
+    partition.setCurrentDomainVersion(1);
+    host.setState(HostState.SERVING);
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return Integer.valueOf(1).equals(notifiedVersion.get());
+      }
+    });
+
+    // Publishing a new version while serving is a data location change, even though the state does not change
+    partition.setCurrentDomainVersion(2);
+    WaitUntil.condition(new Condition() {
+      @Override
+      public boolean test() {
+        return Integer.valueOf(2).equals(notifiedVersion.get());
+      }
+    });
+    host.close();
+  }
+
   public void testUptime() throws Exception {
     ZkHost host = ZkHost.create(getZk(), coordinator, getRoot(), ADDRESS, null, Collections.<String>emptyList());
     assertNull(host.getUpSince());
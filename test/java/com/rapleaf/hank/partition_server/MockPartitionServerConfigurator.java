@@ -75,8 +75,38 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 10;
   }
 
+  @Override
+  public long getCacheCapacityBytes() {
+    return -1;
+  }
+
+  @Override
+  public boolean getUseMultiplexedThriftServer() {
+    return false;
+  }
+
+  @Override
+  public long getGetBulkMaxNumPendingKeys() {
+    return -1;
+  }
+
   @Override
   public int getNumConcurrentUpdates() {
     return 10;
   }
+
+  @Override
+  public int getMaxConcurrentUpdatesPerDataDirectory() {
+    return -1;
+  }
+
+  @Override
+  public long getMaxUpdateBytesPerSecondPerDataDirectory() {
+    return -1;
+  }
+
+  @Override
+  public boolean getUpdateWhileServing() {
+    return false;
+  }
 }
@@ -0,0 +1,52 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.storage.cache.ValueCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestCacheBudget extends BaseTestCase {
+
+  public void testAllocate() {
+    CacheBudget budget = new CacheBudget(1000);
+    ValueCache hot1 = new SegmentedLruValueCache(-1, 1, 1);
+    ValueCache hot2 = new SegmentedLruValueCache(-1, 1, 1);
+    ValueCache cold = new SegmentedLruValueCache(-1, 1, 1);
+    List<List<ValueCache>> groups = new ArrayList<List<ValueCache>>();
+    groups.add(Arrays.asList(hot1, hot2));
+    groups.add(Collections.singletonList(cold));
+    groups.add(Collections.<ValueCache>emptyList());
+
+    // Without hits, the budget is split evenly between groups
+    budget.allocate(groups, new long[]{0, 0, 0});
+    assertEquals(250, hot1.getNumBytesCapacity());
+    assertEquals(250, hot2.getNumBytesCapacity());
+    assertEquals(500, cold.getNumBytesCapacity());
+
+    // Otherwise, groups with more hits get more of the budget
+    budget.allocate(groups, new long[]{100, 0, 0});
+    assertEquals(450, hot1.getNumBytesCapacity());
+    assertEquals(450, hot2.getNumBytesCapacity());
+    assertEquals(100, cold.getNumBytesCapacity());
+  }
+}
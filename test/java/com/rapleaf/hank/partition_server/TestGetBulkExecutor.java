@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class TestGetBulkExecutor extends BaseTestCase {
+
+  private static class CountingProcessor implements GetBulkExecutor.KeyRangeProcessor {
+
+    private final AtomicIntegerArray counts;
+
+    private CountingProcessor(int numKeys) {
+      counts = new AtomicIntegerArray(numKeys);
+    }
+
+    @Override
+    public void process(int fromKeyIndex, int toKeyIndex) {
+      for (int i = fromKeyIndex; i < toKeyIndex; ++i) {
+        counts.incrementAndGet(i);
+      }
+    }
+  }
+
+  public void testAllKeysProcessedOnce() throws Exception {
+    GetBulkExecutor executor = new GetBulkExecutor(4, 16, -1, Executors.defaultThreadFactory());
+    try {
+      for (int numKeys : new int[]{0, 1, 15, 16, 17, 1000}) {
+        CountingProcessor processor = new CountingProcessor(numKeys);
+        assertTrue(executor.execute(numKeys, processor));
+        for (int i = 0; i < numKeys; ++i) {
+          assertEquals(1, processor.counts.get(i));
+        }
+      }
+      assertEquals(0, executor.getNumPendingKeys());
+    } finally {
+      executor.shutDown();
+    }
+  }
+
+  public void testRejection() throws Exception {
+    final GetBulkExecutor executor = new GetBulkExecutor(1, 1, 10, Executors.defaultThreadFactory());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread blocked = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // Exceeds the bound, but is admitted since nothing else is pending
+          executor.execute(20, new GetBulkExecutor.KeyRangeProcessor() {
+            @Override
+            public void process(int fromKeyIndex, int toKeyIndex) {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            }
+          });
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    blocked.start();
+    try {
+      started.await();
+      assertEquals(20, executor.getNumPendingKeys());
+      assertFalse(executor.execute(1, new CountingProcessor(1)));
+      assertEquals(1, executor.getNumRejectedJobs());
+    } finally {
+      release.countDown();
+      blocked.join();
+      executor.shutDown();
+    }
+    assertEquals(0, executor.getNumPendingKeys());
+  }
+
+  public void testFailure() throws Exception {
+    GetBulkExecutor executor = new GetBulkExecutor(2, 4, -1, Executors.defaultThreadFactory());
+    try {
+      executor.execute(100, new GetBulkExecutor.KeyRangeProcessor() {
+        @Override
+        public void process(int fromKeyIndex, int toKeyIndex) {
+          if (fromKeyIndex == 0) {
+            throw new IllegalStateException();
+          }
+        }
+      });
+      fail("Should have thrown");
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    } finally {
+      executor.shutDown();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.MockHostDomainPartition;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.mock.MockReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+public class TestPartitionAccessor extends BaseTestCase {
+
+  private static final ByteBuffer KEY = ByteBuffer.wrap("key".getBytes());
+
+  // Blocks GET requests until released, and records whether it was closed
+  private static class BlockingReader extends MockReader {
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean closed = false;
+
+    public BlockingReader(byte[] returnValue, Integer versionNumber) {
+      super(null, 0, returnValue, versionNumber);
+    }
+
+    @Override
+    public void get(ByteBuffer key, ReaderResult result) throws IOException {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (closed) {
+        throw new IOException("Reader is closed");
+      }
+      super.get(key, result);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  public void testSwapReader() throws Exception {
+    MockReader reader1 = new MockReader(null, 0, "v1".getBytes(), 1);
+    final PartitionAccessor accessor = new PartitionAccessor(new MockHostDomainPartition(0, 1), reader1);
+    assertEquals(ByteBuffer.wrap("v1".getBytes()), accessor.get(KEY, new ReaderResult()).buffer_for_value());
+
+    accessor.swapReader(new MockReader(null, 0, "v2".getBytes(), 2));
+    assertEquals(Integer.valueOf(2), accessor.getReader().getVersionNumber());
+    assertEquals(ByteBuffer.wrap("v2".getBytes()), accessor.get(KEY, new ReaderResult()).buffer_for_value());
+  }
+
+  public void testSwapReaderDrainsRequests() throws Exception {
+    final BlockingReader reader1 = new BlockingReader("v1".getBytes(), 1);
+    final PartitionAccessor accessor = new PartitionAccessor(new MockHostDomainPartition(0, 1), reader1);
+    final HankResponse[] response = new HankResponse[1];
+
+    // A request is in flight on the first Reader
+    Thread request = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          response[0] = accessor.get(KEY, new ReaderResult());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    request.start();
+    reader1.entered.await();
+
+    Thread swap = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          accessor.swapReader(new MockReader(null, 0, "v2".getBytes(), 2));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    swap.start();
+
+    // New requests are served by the second Reader, the first one is not closed while in use
+    while (accessor.getReader() == reader1) {
+      Thread.sleep(10);
+    }
+    assertEquals(ByteBuffer.wrap("v2".getBytes()), accessor.get(KEY, new ReaderResult()).buffer_for_value());
+    Thread.sleep(100);
+    assertFalse(reader1.closed);
+    assertTrue(swap.isAlive());
+
+    // Once the request completes, the first Reader is closed
+    reader1.release.countDown();
+    request.join();
+    swap.join();
+    assertEquals(ByteBuffer.wrap("v1".getBytes()), response[0].buffer_for_value());
+    assertTrue(reader1.closed);
+  }
+}
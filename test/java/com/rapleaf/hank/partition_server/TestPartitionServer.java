@@ -42,6 +42,8 @@ public class TestPartitionServer extends BaseTestCase {
     static final int PORT_1 = 12345;
     static final int PORT_2 = 12346;
     static final int PORT_3 = 12347;
+    static final int PORT_4 = 12348;
+    static final int PORT_5 = 12349;
 
     // Normal host
     final MockHost host = new MockHost(new PartitionServerAddress("localhost", PORT_1));
@@ -62,6 +64,10 @@ public class TestPartitionServer extends BaseTestCase {
         throw new IOException("Failure to move on to next command.");
       }
     };
+    // Host updating while serving
+    final MockHost updateWhileServingHost = new MockHost(new PartitionServerAddress("localhost", PORT_4));
+    // Host not configured to update while serving
+    final MockHost updateWhileServingDisabledHost = new MockHost(new PartitionServerAddress("localhost", PORT_5));
 
     final Ring mockRing = new MockRing(null, null, 0) {
       @Override
@@ -76,6 +82,12 @@ public class TestPartitionServer extends BaseTestCase {
           case PORT_3:
             // Failing nextCommand() Host
             return failingNextCommandHost;
+          case PORT_4:
+            // Update while serving Host
+            return updateWhileServingHost;
+          case PORT_5:
+            // Update while serving disabled Host
+            return updateWhileServingDisabledHost;
           default:
             throw new RuntimeException("Unknown host.");
         }
@@ -197,6 +209,68 @@ public class TestPartitionServer extends BaseTestCase {
     assertEquals(HostState.OFFLINE, fixtures.host.getState());
   }
 
+  public void testUpdateWhileServing() throws Exception {
+    final SleepingUpdateManager updateManager = new SleepingUpdateManager();
+    MockPartitionServerConfigurator configurator =
+        new MockPartitionServerConfigurator(Fixtures.PORT_4, fixtures.mockCoord, "myRingGroup", null) {
+          @Override
+          public boolean getUpdateWhileServing() {
+            return true;
+          }
+        };
+    final PartitionServer partitionServer = new MockPartitionServer(configurator, "localhost") {
+      @Override
+      protected IUpdateManager getUpdateWhileServingManager() {
+        return updateManager;
+      }
+    };
+
+    Thread thread = createPartitionServerThread(partitionServer);
+
+    thread.start();
+    Thread.sleep(1000);
+    fixtures.updateWhileServingHost.enqueueCommand(HostCommand.SERVE_DATA);
+    assertEquals(HostState.SERVING, fixtures.updateWhileServingHost.getState());
+
+    // Update without going idle
+    fixtures.updateWhileServingHost.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    assertEquals(HostState.SERVING, fixtures.updateWhileServingHost.getState());
+
+    Thread.sleep(1500);
+
+    assertTrue("Update called", updateManager.updateCalled);
+    assertNull("Current command cleared", fixtures.updateWhileServingHost.getCurrentCommand());
+    assertEquals(HostState.SERVING, fixtures.updateWhileServingHost.getState());
+
+    partitionServer.stopSynchronized();
+
+    thread.join();
+    assertEquals(HostState.OFFLINE, fixtures.updateWhileServingHost.getState());
+  }
+
+  public void testExecuteUpdateWhileServingNotEnabled() throws Exception {
+    MockPartitionServerConfigurator configurator =
+        new MockPartitionServerConfigurator(Fixtures.PORT_5, fixtures.mockCoord, "myRingGroup", null);
+    final PartitionServer partitionServer = new MockPartitionServer(configurator, "localhost");
+
+    Thread thread = createPartitionServerThread(partitionServer);
+
+    thread.start();
+    Thread.sleep(1000);
+    fixtures.updateWhileServingDisabledHost.enqueueCommand(HostCommand.SERVE_DATA);
+    assertEquals(HostState.SERVING, fixtures.updateWhileServingDisabledHost.getState());
+
+    // The command is not ignored, the host goes idle so that it can be updated
+    fixtures.updateWhileServingDisabledHost.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    assertEquals(HostState.IDLE, fixtures.updateWhileServingDisabledHost.getState());
+    assertNull("Current command cleared", fixtures.updateWhileServingDisabledHost.getCurrentCommand());
+
+    partitionServer.stopSynchronized();
+
+    thread.join();
+    assertEquals(HostState.OFFLINE, fixtures.updateWhileServingDisabledHost.getState());
+  }
+
   public void testNonEmptyCommandQueue() throws Exception {
     final SleepingUpdateManager updateManager = new SleepingUpdateManager();
     final PartitionServer partitionServer = new MockPartitionServer(fixtures.CONFIGURATOR1, "localhost") {
@@ -25,12 +25,17 @@ import com.rapleaf.hank.coordinator.mock.MockDomainGroup;
 import com.rapleaf.hank.generated.HankBulkResponse;
 import com.rapleaf.hank.generated.HankException;
 import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartitionServer;
 import com.rapleaf.hank.partitioner.MapPartitioner;
 import com.rapleaf.hank.partitioner.Partitioner;
 import com.rapleaf.hank.storage.Reader;
+import com.rapleaf.hank.storage.ReaderResult;
 import com.rapleaf.hank.storage.mock.MockReader;
 import com.rapleaf.hank.storage.mock.MockStorageEngine;
+import com.rapleaf.hank.util.ThreadAllocationCounter;
 import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -114,7 +119,78 @@ public class TestPartitionServerHandler extends BaseTestCase {
     assertEquals(HankBulkResponse.responses(responses2), handler.getBulk(0, keys2));
   }
 
+  public void testGetBulkAllocationCounters() throws Exception {
+    PartitionServerHandler handler = createHandler(0);
+    List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < 100; ++i) {
+      keys.add(K1);
+    }
+    handler.getBulk(0, keys);
+    long[] counters = handler.getGetBulkAllocationCounters();
+    if (ThreadAllocationCounter.isSupported()) {
+      assertEquals(100, counters[0]);
+      assertTrue(counters[1] > 0);
+    } else {
+      assertEquals(0, counters[0]);
+    }
+  }
+
+  public void testWriteGetBulkResult() throws Exception {
+    PartitionServerHandler handler = createHandler(0);
+    List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < 1000; ++i) {
+      keys.add(K1);
+      keys.add(K2);
+      keys.add(K5);
+    }
+    // Same bytes as the generated serialization of the HankBulkResponse
+    assertEquals(serialize(new PartitionServer.getBulk_result().set_success(handler.getBulk(0, keys))),
+        serializeGetBulkResult(handler, 0, keys));
+    assertEquals(serialize(new PartitionServer.getBulk_result().set_success(handler.getBulk(0, keys.subList(0, 0)))),
+        serializeGetBulkResult(handler, 0, keys.subList(0, 0)));
+    // Failed GET BULK
+    assertEquals(serialize(new PartitionServer.getBulk_result().set_success(
+        HankBulkResponse.xception(HankException.no_such_domain(true)))),
+        serializeGetBulkResult(handler, 1, keys));
+  }
+
+  public void testServeValueViews() throws Exception {
+    PartitionServerHandler handler = createHandler(0, true);
+
+    // Values are copied into array-backed buffers for the generated serialization
+    HankResponse response = handler.get(0, K1);
+    assertEquals(HankResponse.value(V1), response);
+    assertTrue(response.buffer_for_value().hasArray());
+
+    List<ByteBuffer> keys = Arrays.asList(K1, K2, K5);
+    assertEquals(serialize(new PartitionServer.getBulk_result().set_success(HankBulkResponse.responses(Arrays.asList(
+        HankResponse.value(V1),
+        HankResponse.xception(HankException.wrong_host(true)),
+        HankResponse.value(V1))))),
+        serializeGetBulkResult(handler, 0, keys));
+  }
+
+  private static ByteBuffer serialize(PartitionServer.getBulk_result result) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(0);
+    result.write(new TCompactProtocol(buffer));
+    return ByteBuffer.wrap(buffer.getArray(), 0, buffer.length());
+  }
+
+  private static ByteBuffer serializeGetBulkResult(PartitionServerHandler handler,
+                                                   int domainId,
+                                                   List<ByteBuffer> keys) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(0);
+    handler.writeGetBulkResult(domainId, keys, new TCompactProtocol(buffer));
+    return ByteBuffer.wrap(buffer.getArray(), 0, buffer.length());
+  }
+
   private PartitionServerHandler createHandler(final int readerVersionNumber) throws IOException {
+    return createHandler(readerVersionNumber, false);
+  }
+
+  // Readers expose values as views of direct buffers, as with memory mapped files, if requested
+  private PartitionServerHandler createHandler(final int readerVersionNumber,
+                                               final boolean useValueViews) throws IOException {
     Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
         K5, 4);
     MockStorageEngine storageEngine = new MockStorageEngine() {
@@ -126,6 +202,17 @@ public class TestPartitionServerHandler extends BaseTestCase {
           public Integer getVersionNumber() {
             return readerVersionNumber;
           }
+
+          @Override
+          public void get(ByteBuffer key, ReaderResult result) throws IOException {
+            super.get(key, result);
+            if (useValueViews && result.isFound()) {
+              ByteBuffer view = ByteBuffer.allocateDirect(result.getBuffer().remaining());
+              view.put(result.getBuffer().duplicate());
+              view.flip();
+              result.setValueView(view);
+            }
+          }
         };
       }
     };
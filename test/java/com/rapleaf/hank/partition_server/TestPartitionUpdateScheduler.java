@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestPartitionUpdateScheduler extends BaseTestCase {
+
+  private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+  private final Map<String, Integer> numRunning = new HashMap<String, Integer>();
+  private final Map<String, Integer> maxNumRunning = new HashMap<String, Integer>();
+
+  private class Task implements Runnable {
+
+    private final String dataDirectory;
+    private final String name;
+    private final CountDownLatch release;
+
+    private Task(String dataDirectory, String name, CountDownLatch release) {
+      this.dataDirectory = dataDirectory;
+      this.name = name;
+      this.release = release;
+    }
+
+    @Override
+    public void run() {
+      synchronized (numRunning) {
+        Integer current = numRunning.get(dataDirectory);
+        current = current == null ? 1 : current + 1;
+        numRunning.put(dataDirectory, current);
+        Integer max = maxNumRunning.get(dataDirectory);
+        maxNumRunning.put(dataDirectory, max == null ? current : Math.max(max, current));
+      }
+      started.add(name);
+      try {
+        release.await();
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      synchronized (numRunning) {
+        numRunning.put(dataDirectory, numRunning.get(dataDirectory) - 1);
+      }
+    }
+  }
+
+  public void testSpreadAcrossDataDirectories() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    PartitionUpdateScheduler scheduler = new PartitionUpdateScheduler(2, -1, -1, Executors.defaultThreadFactory());
+    scheduler.schedule("/a", 0, new Task("/a", "a1", release));
+    scheduler.schedule("/a", 0, new Task("/a", "a2", release));
+    scheduler.schedule("/a", 0, new Task("/a", "a3", release));
+    scheduler.schedule("/b", 0, new Task("/b", "b1", release));
+    scheduler.start();
+    while (started.size() < 2) {
+      Thread.sleep(10);
+    }
+    // Both threads should be busy on distinct directories
+    assertTrue(started.contains("a1"));
+    assertTrue(started.contains("b1"));
+    release.countDown();
+    assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(4, started.size());
+    // Tasks of a directory start in order
+    assertTrue(started.indexOf("a2") < started.indexOf("a3"));
+  }
+
+  public void testMaxRunningTasksPerDataDirectory() throws Exception {
+    CountDownLatch release = new CountDownLatch(0);
+    PartitionUpdateScheduler scheduler = new PartitionUpdateScheduler(4, 1, -1, Executors.defaultThreadFactory());
+    for (int i = 0; i < 6; ++i) {
+      scheduler.schedule("/a", 0, new Task("/a", "a" + i, release));
+      scheduler.schedule("/b", 0, new Task("/b", "b" + i, release));
+    }
+    scheduler.schedule(null, 0, new Task(null, "unknown", release));
+    scheduler.start();
+    assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(13, started.size());
+    assertEquals(Integer.valueOf(1), maxNumRunning.get("/a"));
+    assertEquals(Integer.valueOf(1), maxNumRunning.get("/b"));
+  }
+
+  public void testBandwidthCap() throws Exception {
+    CountDownLatch release = new CountDownLatch(0);
+    // 100 bytes per second, tasks of 20 bytes: the fourth task can not start before 600ms
+    PartitionUpdateScheduler scheduler = new PartitionUpdateScheduler(4, -1, 100, Executors.defaultThreadFactory());
+    for (int i = 0; i < 4; ++i) {
+      scheduler.schedule("/a", 20, new Task("/a", "a" + i, release));
+    }
+    long startTimeMs = System.currentTimeMillis();
+    scheduler.start();
+    assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(4, started.size());
+    assertTrue(System.currentTimeMillis() - startTimeMs >= 600);
+  }
+
+  public void testShutdownNow() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    PartitionUpdateScheduler scheduler = new PartitionUpdateScheduler(1, -1, -1, Executors.defaultThreadFactory());
+    scheduler.schedule("/a", 0, new Task("/a", "a1", release));
+    scheduler.schedule("/a", 0, new Task("/a", "a2", release));
+    scheduler.start();
+    while (started.size() < 1) {
+      Thread.sleep(10);
+    }
+    scheduler.shutdownNow();
+    assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, started.size());
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.generated.HankException;
+import com.rapleaf.hank.generated.HankResponse;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import java.nio.ByteBuffer;
+
+public class TestResponseBuffer extends BaseTestCase {
+
+  public void testWriteResponses() throws Exception {
+    // Large enough for a multi-byte length, in a direct buffer as with memory mapped files
+    byte[] valueBytes = new byte[300];
+    for (int i = 0; i < valueBytes.length; ++i) {
+      valueBytes[i] = (byte) i;
+    }
+    ByteBuffer value = ByteBuffer.allocateDirect(valueBytes.length + 2);
+    value.put((byte) 0).put(valueBytes).put((byte) 0);
+    value.position(1).limit(1 + valueBytes.length);
+
+    // Small pages, so that responses span several of them
+    ResponseBuffer.PagePool pagePool = new ResponseBuffer.PagePool(16, 100);
+    ResponseBuffer responseBuffer = new ResponseBuffer(pagePool);
+    responseBuffer.writeValue(value);
+    responseBuffer.writeResponse(HankResponse.not_found(true));
+    responseBuffer.writeValue(ByteBuffer.wrap(new byte[0]));
+    responseBuffer.writeResponse(HankResponse.xception(HankException.wrong_host(true)));
+
+    // The value is left untouched
+    assertEquals(1, value.position());
+    assertEquals(1 + valueBytes.length, value.limit());
+
+    TMemoryBuffer expected = new TMemoryBuffer(0);
+    TCompactProtocol protocol = new TCompactProtocol(expected);
+    HankResponse.value(valueBytes).write(protocol);
+    HankResponse.not_found(true).write(protocol);
+    HankResponse.value(new byte[0]).write(protocol);
+    HankResponse.xception(HankException.wrong_host(true)).write(protocol);
+    assertEquals(ByteBuffer.wrap(expected.getArray(), 0, expected.length()), serialize(responseBuffer));
+    int numPages = (expected.length() + 15) / 16;
+
+    // Released buffers are empty and give their pages back to the pool
+    responseBuffer.release();
+    assertEquals(0, responseBuffer.getNumBytes());
+    assertEquals(numPages, pagePool.getNumPooledPages());
+    responseBuffer.writeResponse(HankResponse.not_found(true));
+    assertEquals(numPages - 1, pagePool.getNumPooledPages());
+    expected = new TMemoryBuffer(0);
+    HankResponse.not_found(true).write(new TCompactProtocol(expected));
+    assertEquals(ByteBuffer.wrap(expected.getArray(), 0, expected.length()), serialize(responseBuffer));
+  }
+
+  public void testPagePoolCapacity() throws Exception {
+    ResponseBuffer.PagePool pagePool = new ResponseBuffer.PagePool(16, 2);
+    byte[] page1 = pagePool.acquire();
+    byte[] page2 = pagePool.acquire();
+    byte[] page3 = pagePool.acquire();
+    assertEquals(16, page1.length);
+    pagePool.release(page1);
+    pagePool.release(page2);
+    pagePool.release(page3);
+    assertEquals(2, pagePool.getNumPooledPages());
+    assertSame(page1, pagePool.acquire());
+    assertSame(page2, pagePool.acquire());
+    assertNotSame(page3, pagePool.acquire());
+  }
+
+  private static ByteBuffer serialize(ResponseBuffer responseBuffer) throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(0);
+    responseBuffer.writeTo(buffer);
+    return ByteBuffer.wrap(buffer.getArray(), 0, buffer.length());
+  }
+}
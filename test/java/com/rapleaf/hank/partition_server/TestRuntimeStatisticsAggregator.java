@@ -0,0 +1,46 @@
+package com.rapleaf.hank.partition_server;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.storage.cache.CacheStatistics;
+
+public class TestRuntimeStatisticsAggregator extends BaseTestCase {
+
+  public void testParseOriginalFormat() {
+    // Statistics written by hosts that do not report cache misses and evictions
+    RuntimeStatisticsAggregator runtimeStatisticsAggregator =
+        RuntimeStatisticsAggregator.parse("100.0 2000.0 10 5 2 1 0.5 3.0 10 12.0 1.0 2.0");
+
+    assertEquals(100.0, runtimeStatisticsAggregator.getThroughput());
+    assertEquals(2000.0, runtimeStatisticsAggregator.getResponseDataThroughput());
+    assertEquals(0.5, runtimeStatisticsAggregator.getHitRate());
+    assertEquals(0.4, runtimeStatisticsAggregator.getL1CacheHitRate());
+    assertEquals(0.2, runtimeStatisticsAggregator.getL2CacheHitRate());
+    assertEquals(0.5, runtimeStatisticsAggregator.getGetRequestsPopulationStatistics().getMinimum());
+    assertEquals(3.0, runtimeStatisticsAggregator.getGetRequestsPopulationStatistics().getMaximum());
+    assertEquals(1.2, runtimeStatisticsAggregator.getGetRequestsPopulationStatistics().getMean());
+    assertEquals(2L, runtimeStatisticsAggregator.getL1CacheStatistics().getNumHits());
+    assertEquals(0L, runtimeStatisticsAggregator.getL1CacheStatistics().getNumMisses());
+    assertEquals(0L, runtimeStatisticsAggregator.getL2CacheStatistics().getNumEvictions());
+  }
+
+  public void testToStringAndParse() {
+    RuntimeStatisticsAggregator runtimeStatisticsAggregator = new RuntimeStatisticsAggregator(
+        100.0, 2000.0, 10, 5, 2, 1,
+        new CacheStatistics(2, 3, 4),
+        new CacheStatistics(1, 5, 6),
+        new DoublePopulationStatisticsAggregator(0.5, 3.0, 10, 12.0, new double[]{1.0, 2.0}));
+    String str = RuntimeStatisticsAggregator.toString(runtimeStatisticsAggregator);
+
+    // The original format is a prefix, and is parsed on its own by hosts that do not report cache statistics
+    assertEquals("100.0 2000.0 10 5 2 1 0.5 3.0 10 12.0 1.0 2.0", str.split("\t")[0]);
+
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(str);
+    assertEquals(0.5, parsed.getHitRate());
+    assertEquals(0.4, parsed.getL1CacheHitRate());
+    assertEquals(3L, parsed.getL1CacheStatistics().getNumMisses());
+    assertEquals(4L, parsed.getL1CacheStatistics().getNumEvictions());
+    assertEquals(1L, parsed.getL2CacheStatistics().getNumHits());
+    assertEquals(5L, parsed.getL2CacheStatistics().getNumMisses());
+    assertEquals(6L, parsed.getL2CacheStatistics().getNumEvictions());
+  }
+}
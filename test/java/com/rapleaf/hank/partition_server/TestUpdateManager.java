@@ -220,6 +220,72 @@ public class TestUpdateManager extends BaseTestCase {
         mockHostDomain.isRemoved(fixtures.PARTITION_FOR_DELETION.getPartitionNumber()));
   }
 
+  public void testPartitionUpdateListener() throws Exception {
+    final MockPartitionUpdater mockUpdater = new MockPartitionUpdater();
+
+    StorageEngine mockStorageEngine = fixtures.getMockStorageEngine(mockUpdater);
+    Domain mockDomain = fixtures.getMockDomain(mockStorageEngine);
+    MockHostDomain mockHostDomain = fixtures.getMockHostDomain(mockDomain);
+    Host mockHost = fixtures.getMockHost(mockHostDomain);
+    DomainGroup mockDomainGroup = fixtures.getMockDomainGroup(mockDomain);
+    Fixtures.MockRingGroupLocal mockRingGroup = fixtures.getMockRingGroup(mockDomainGroup);
+    Ring mockRing = fixtures.getMockRing(mockHost, mockRingGroup);
+    mockRingGroup.setRing(mockRing);
+
+    final List<Integer> publishedVersionsWhenNotified = new ArrayList<Integer>();
+    UpdateManager ud = new UpdateManager(new MockPartitionServerConfigurator(1,
+        null, "myRingGroup", "/local/data/dir"), mockHost,
+        mockRingGroup, new PartitionUpdateListener() {
+      @Override
+      public void onPartitionUpdated(Domain domain, HostDomainPartition partition, int versionNumber)
+          throws IOException {
+        assertTrue("partition files are updated before the listener is notified", mockUpdater.isUpdated());
+        assertEquals(2, versionNumber);
+        publishedVersionsWhenNotified.add(partition.getCurrentDomainVersion());
+      }
+    });
+    ud.update();
+
+    // The new version is published only after the listener was notified
+    assertEquals(2, publishedVersionsWhenNotified.size());
+    for (Integer publishedVersion : publishedVersionsWhenNotified) {
+      assertNull(publishedVersion);
+    }
+    assertEquals("current version", Integer.valueOf(2),
+        fixtures.HOST_DOMAIN_PARTITION.getCurrentDomainVersion());
+  }
+
+  public void testFailingPartitionUpdateListener() throws Exception {
+    final MockPartitionUpdater mockUpdater = new MockPartitionUpdater();
+
+    StorageEngine mockStorageEngine = fixtures.getMockStorageEngine(mockUpdater);
+    Domain mockDomain = fixtures.getMockDomain(mockStorageEngine);
+    MockHostDomain mockHostDomain = fixtures.getMockHostDomain(mockDomain);
+    Host mockHost = fixtures.getMockHost(mockHostDomain);
+    DomainGroup mockDomainGroup = fixtures.getMockDomainGroup(mockDomain);
+    Fixtures.MockRingGroupLocal mockRingGroup = fixtures.getMockRingGroup(mockDomainGroup);
+    Ring mockRing = fixtures.getMockRing(mockHost, mockRingGroup);
+    mockRingGroup.setRing(mockRing);
+
+    UpdateManager ud = new UpdateManager(new MockPartitionServerConfigurator(1,
+        null, "myRingGroup", "/local/data/dir"), mockHost,
+        mockRingGroup, new PartitionUpdateListener() {
+      @Override
+      public void onPartitionUpdated(Domain domain, HostDomainPartition partition, int versionNumber)
+          throws IOException {
+        throw new IOException("Failed to swap Reader.");
+      }
+    });
+    try {
+      ud.update();
+      fail("Should throw an IOException when the listener fails.");
+    } catch (IOException e) {
+      // Correct behavior
+    }
+    // The new version is not published
+    assertNull(fixtures.HOST_DOMAIN_PARTITION.getCurrentDomainVersion());
+  }
+
   public void testGarbageCollectDomain() throws Exception {
     final MockPartitionUpdater mockUpdater = new MockPartitionUpdater();
 
@@ -0,0 +1,44 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.partitioner;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class TestMurmur64Partitioner extends BaseTestCase {
+
+  public void testPartitionFromHash() {
+    Murmur64Partitioner partitioner = new Murmur64Partitioner();
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; ++i) {
+      byte[] bytes = new byte[1 + random.nextInt(32)];
+      random.nextBytes(bytes);
+      // Key is a slice of a larger buffer
+      ByteBuffer key = ByteBuffer.wrap(bytes, 1, bytes.length - 1).slice();
+      long hash = partitioner.hash(key);
+      for (int numPartitions : new int[]{1, 7, 32, Integer.MAX_VALUE}) {
+        int partition = partitioner.partition(key, numPartitions);
+        assertEquals(partition, partitioner.partition(hash, numPartitions));
+        // Partition numbers must not change for existing domains
+        assertEquals(Math.abs((int) Murmur64Hasher.murmurHash64(bytes, 1, bytes.length - 1, 645568)) % numPartitions,
+            partition);
+      }
+    }
+  }
+}
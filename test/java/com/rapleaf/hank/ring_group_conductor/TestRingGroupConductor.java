@@ -110,6 +110,11 @@ public class TestRingGroupConductor extends TestCase {
         return RingGroupConductorMode.ACTIVE;
       }
 
+      @Override
+      public boolean getUpdateWhileServing() {
+        return false;
+      }
+
       @Override
       public String getRingGroupName() {
         return "myRingGroup";
@@ -159,6 +164,11 @@ public class TestRingGroupConductor extends TestCase {
         return RingGroupConductorMode.ACTIVE;
       }
 
+      @Override
+      public boolean getUpdateWhileServing() {
+        return false;
+      }
+
       @Override
       public String getRingGroupName() {
         return "myRingGroup";
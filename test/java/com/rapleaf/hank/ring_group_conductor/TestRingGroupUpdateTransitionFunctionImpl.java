@@ -112,6 +112,7 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
 
   private MockRingGroupLocal rg = null;
 
+  private PartitionAssigner partitionAssigner = null;
   private RingGroupUpdateTransitionFunctionImpl testTransitionFunction = null;
 
   @Override
@@ -142,7 +143,7 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
 
     rg = new MockRingGroupLocal(r0, r1, r2);
 
-    PartitionAssigner partitionAssigner = new MockPartitionAssigner() {
+    partitionAssigner = new MockPartitionAssigner() {
 
       @Override
       public void assign(Ring ring, DomainGroup domainGroup) throws IOException {
@@ -155,7 +156,17 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
       }
     };
 
-    testTransitionFunction = new RingGroupUpdateTransitionFunctionImpl(partitionAssigner) {
+    testTransitionFunction = createTransitionFunction(false);
+
+    versionsMap1.put(domain, 1);
+    versionsMap2.put(domain, 2);
+    v1.add(new DomainGroupDomainVersion(domain, 1));
+    v2.add(new DomainGroupDomainVersion(domain, 2));
+  }
+
+  private RingGroupUpdateTransitionFunctionImpl createTransitionFunction(boolean updateWhileServing)
+      throws IOException {
+    return new RingGroupUpdateTransitionFunctionImpl(partitionAssigner, updateWhileServing) {
 
       @Override
       protected boolean isUpToDate(Ring ring, DomainGroup domainGroup) throws IOException {
@@ -172,11 +183,6 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
         return ((MockRingLocal) ring).isServable();
       }
     };
-
-    versionsMap1.put(domain, 1);
-    versionsMap2.put(domain, 2);
-    v1.add(new DomainGroupDomainVersion(domain, 1));
-    v2.add(new DomainGroupDomainVersion(domain, 2));
   }
 
   private void setUpRing(MockRingLocal ring,
@@ -306,6 +312,26 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
     assertNull(r2h1.getLastEnqueuedCommand());
   }
 
+  public void testUpdateFirstRingWhileServing() throws IOException {
+    domainGroup.setDomainVersions(versionsMap2);
+
+    setUpRing(r0, v1, v2, HostState.SERVING);
+    setUpRing(r1, v1, v2, HostState.SERVING);
+    setUpRing(r2, v1, v2, HostState.SERVING);
+
+    createTransitionFunction(true).manageTransitions(rg);
+
+    // All serving hosts in r0 should have received execute update, without going idle
+    assertEquals(HostCommand.EXECUTE_UPDATE, r0h0.getLastEnqueuedCommand());
+    assertEquals(HostCommand.EXECUTE_UPDATE, r0h1.getLastEnqueuedCommand());
+
+    // No commands should have been issued to other rings
+    assertNull(r1h0.getLastEnqueuedCommand());
+    assertNull(r1h1.getLastEnqueuedCommand());
+    assertNull(r2h0.getLastEnqueuedCommand());
+    assertNull(r2h1.getLastEnqueuedCommand());
+  }
+
   public void testDoNotAssignIfOneHostIsServing() throws IOException {
     domainGroup.setDomainVersions(versionsMap2);
 
@@ -0,0 +1,153 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.storage.ReaderResult;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class TestOffHeapValueCache extends BaseTestCase {
+
+  private static final ByteBuffer KEY1 = ByteBuffer.wrap(new byte[]{1});
+  private static final ByteBuffer KEY2 = ByteBuffer.wrap(new byte[]{2});
+  private static final ByteBuffer KEY3 = ByteBuffer.wrap(new byte[]{3});
+  private static final ByteBuffer VALUE1 = ByteBuffer.wrap(new byte[]{1, 1});
+  private static final ByteBuffer VALUE2 = ByteBuffer.wrap(new byte[]{2, 2});
+  private static final ByteBuffer VALUE3 = ByteBuffer.wrap(new byte[]{3, 3});
+
+  // Header, one byte key and two bytes value
+  private static final int ENTRY_NUM_BYTES = 8 + 1 + 2;
+
+  public void testFifoEviction() {
+    ValueCache cache = new OffHeapValueCache(2 * ENTRY_NUM_BYTES, 1);
+    ReaderResult result = new ReaderResult();
+
+    assertFalse(cache.get(KEY1, result));
+    cache.put(KEY1, VALUE1);
+    cache.put(KEY2, VALUE2);
+    assertEquals(2 * ENTRY_NUM_BYTES, cache.getNumBytes());
+
+    assertTrue(cache.get(KEY1, result));
+    assertEquals(VALUE1, result.getBuffer());
+    assertTrue(cache.get(KEY2, result));
+    assertEquals(VALUE2, result.getBuffer());
+
+    // KEY1 is the oldest entry
+    cache.put(KEY3, VALUE3);
+    assertFalse(cache.get(KEY1, result));
+    assertTrue(cache.get(KEY2, result));
+    assertEquals(VALUE2, result.getBuffer());
+    assertTrue(cache.get(KEY3, result));
+    assertEquals(VALUE3, result.getBuffer());
+
+    CacheStatistics statistics = cache.getAndResetStatistics();
+    assertEquals(4, statistics.getNumHits());
+    assertEquals(2, statistics.getNumMisses());
+    assertEquals(1, statistics.getNumEvictions());
+
+    // Lowering the capacity evicts entries as new ones are added
+    cache.setNumBytesCapacity(ENTRY_NUM_BYTES);
+    assertEquals(ENTRY_NUM_BYTES, cache.getNumBytesCapacity());
+    cache.put(KEY1, VALUE1);
+    assertEquals(ENTRY_NUM_BYTES, cache.getNumBytes());
+    assertTrue(cache.get(KEY1, result));
+    assertFalse(cache.get(KEY2, result));
+    assertFalse(cache.get(KEY3, result));
+
+    // Capacity can not exceed the capacity given at construction
+    cache.setNumBytesCapacity(1000);
+    assertEquals(2 * ENTRY_NUM_BYTES, cache.getNumBytesCapacity());
+
+    cache.clear();
+    assertEquals(0, cache.getNumBytes());
+    assertFalse(cache.get(KEY1, result));
+  }
+
+  public void testSlabAllocation() {
+    OffHeapValueCache cache = new OffHeapValueCache(4 * ENTRY_NUM_BYTES, 1);
+    ReaderResult result = new ReaderResult();
+
+    // Slabs are allocated when needed, with the current capacity
+    assertEquals(0, cache.getNumBytesAllocated());
+    cache.setNumBytesCapacity(2 * ENTRY_NUM_BYTES);
+    cache.put(KEY1, VALUE1);
+    assertEquals(2 * ENTRY_NUM_BYTES, cache.getNumBytesAllocated());
+
+    // Raising the capacity drops the slab, a larger one is allocated when needed
+    cache.setNumBytesCapacity(4 * ENTRY_NUM_BYTES);
+    assertEquals(0, cache.getNumBytesAllocated());
+    assertFalse(cache.get(KEY1, result));
+    cache.put(KEY1, VALUE1);
+    assertEquals(4 * ENTRY_NUM_BYTES, cache.getNumBytesAllocated());
+
+    // Lowering the capacity well under the slab size drops it
+    cache.setNumBytesCapacity(ENTRY_NUM_BYTES);
+    assertEquals(0, cache.getNumBytesAllocated());
+    cache.put(KEY2, VALUE2);
+    assertTrue(cache.get(KEY2, result));
+    assertEquals(VALUE2, result.getBuffer());
+
+    // Clearing frees slabs
+    cache.clear();
+    assertEquals(0, cache.getNumBytesAllocated());
+    assertFalse(cache.get(KEY2, result));
+  }
+
+  public void testValuesAreCopied() {
+    ValueCache cache = new OffHeapValueCache(1 << 20);
+    ReaderResult result = new ReaderResult();
+    byte[] value = new byte[]{4, 4};
+    cache.put(KEY1, ByteBuffer.wrap(value));
+    value[0] = 0;
+    assertTrue(cache.get(KEY1, result));
+    assertEquals(ByteBuffer.wrap(new byte[]{4, 4}), result.getBuffer());
+  }
+
+  public void testRandomEntries() {
+    // Small segments holding variable size entries, so that the ring buffers wrap around many times
+    ValueCache cache = new OffHeapValueCache(4 * 4096, 4);
+    ReaderResult result = new ReaderResult();
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; ++i) {
+      int keyId = random.nextInt(2000);
+      ByteBuffer key = key(keyId);
+      if (cache.get(key, result)) {
+        assertEquals(value(keyId), result.getBuffer());
+      } else {
+        cache.put(key, value(keyId));
+      }
+      assertTrue(cache.getNumBytes() <= cache.getNumBytesCapacity());
+    }
+    CacheStatistics statistics = cache.getAndResetStatistics();
+    assertTrue(statistics.getNumHits() > 0);
+    assertTrue(statistics.getNumEvictions() > 0);
+  }
+
+  private static ByteBuffer key(int keyId) {
+    return ByteBuffer.wrap(new byte[]{(byte) (keyId >> 8), (byte) keyId});
+  }
+
+  private static ByteBuffer value(int keyId) {
+    byte[] value = new byte[keyId % 100];
+    for (int i = 0; i < value.length; ++i) {
+      value[i] = (byte) (keyId + i);
+    }
+    return ByteBuffer.wrap(value);
+  }
+}
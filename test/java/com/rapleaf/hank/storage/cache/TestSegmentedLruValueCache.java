@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.cache;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.storage.ReaderResult;
+
+import java.nio.ByteBuffer;
+
+public class TestSegmentedLruValueCache extends BaseTestCase {
+
+  private static final ByteBuffer KEY1 = ByteBuffer.wrap(new byte[]{1});
+  private static final ByteBuffer KEY2 = ByteBuffer.wrap(new byte[]{2});
+  private static final ByteBuffer KEY3 = ByteBuffer.wrap(new byte[]{3});
+  private static final ByteBuffer VALUE1 = ByteBuffer.wrap(new byte[]{1, 1});
+  private static final ByteBuffer VALUE2 = ByteBuffer.wrap(new byte[]{2, 2});
+  private static final ByteBuffer VALUE3 = ByteBuffer.wrap(new byte[]{3, 3});
+
+  public void testSingleSegment() {
+    ValueCache cache = new SegmentedLruValueCache(2, 1);
+    ReaderResult result = new ReaderResult();
+
+    assertFalse(cache.get(KEY1, result));
+    cache.put(KEY1, VALUE1);
+    cache.put(KEY2, VALUE2);
+
+    assertTrue(cache.get(KEY1, result));
+    assertEquals(VALUE1, result.getBuffer());
+
+    // KEY2 is now the least recently used entry
+    cache.put(KEY3, VALUE3);
+    assertFalse(cache.get(KEY2, result));
+    assertTrue(cache.get(KEY3, result));
+    assertEquals(VALUE3, result.getBuffer());
+
+    CacheStatistics statistics = cache.getAndResetStatistics();
+    assertEquals(2, statistics.getNumHits());
+    assertEquals(2, statistics.getNumMisses());
+    assertEquals(1, statistics.getNumEvictions());
+
+    // Statistics were reset
+    statistics = cache.getAndResetStatistics();
+    assertEquals(0, statistics.getNumHits());
+    assertEquals(0, statistics.getNumMisses());
+    assertEquals(0, statistics.getNumEvictions());
+
+    cache.clear();
+    assertFalse(cache.get(KEY1, result));
+  }
+
+  public void testNumBytesCapacity() {
+    long entryNumBytes = 1 + 2 + SegmentedLruValueCache.ENTRY_OVERHEAD_NUM_BYTES;
+    ValueCache cache = new SegmentedLruValueCache(-1, 2 * entryNumBytes, 1);
+    ReaderResult result = new ReaderResult();
+
+    cache.put(KEY1, VALUE1);
+    cache.put(KEY2, VALUE2);
+    assertEquals(2 * entryNumBytes, cache.getNumBytes());
+    cache.put(KEY3, VALUE3);
+    assertEquals(2 * entryNumBytes, cache.getNumBytes());
+    assertFalse(cache.get(KEY1, result));
+    assertTrue(cache.get(KEY2, result));
+    assertTrue(cache.get(KEY3, result));
+
+    // Entries larger than the capacity are not cached
+    cache.put(KEY1, ByteBuffer.wrap(new byte[(int) (2 * entryNumBytes)]));
+    assertFalse(cache.get(KEY1, result));
+    assertTrue(cache.get(KEY2, result));
+
+    // Shrinking the capacity evicts least recently used entries
+    cache.setNumBytesCapacity(entryNumBytes);
+    assertEquals(entryNumBytes, cache.getNumBytes());
+    assertFalse(cache.get(KEY3, result));
+    assertTrue(cache.get(KEY2, result));
+
+    cache.clear();
+    assertEquals(0, cache.getNumBytes());
+  }
+
+  public void testValuesAreCopied() {
+    ValueCache cache = new SegmentedLruValueCache(100);
+    ReaderResult result = new ReaderResult();
+    byte[] value = new byte[]{4, 4};
+    cache.put(KEY1, ByteBuffer.wrap(value));
+    value[0] = 0;
+    assertTrue(cache.get(KEY1, result));
+    assertEquals(ByteBuffer.wrap(new byte[]{4, 4}), result.getBuffer());
+  }
+
+  public void testConcurrentAccess() throws Exception {
+    final ValueCache cache = new SegmentedLruValueCache(64);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ReaderResult result = new ReaderResult();
+          for (int i = 0; i < 10000; ++i) {
+            ByteBuffer key = ByteBuffer.wrap(new byte[]{(byte) (i % 128)});
+            if (cache.get(key, result)) {
+              assertEquals(key, result.getBuffer());
+            } else {
+              cache.put(key, key);
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    CacheStatistics statistics = cache.getAndResetStatistics();
+    assertEquals(8 * 10000, statistics.getNumHits() + statistics.getNumMisses());
+  }
+}
@@ -83,6 +83,11 @@ public class ConstantStorageEngine implements StorageEngine {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public String getDataDirectory(DataDirectoriesConfigurator configurator, int partitionNumber) {
+    return null;
+  }
+
   @Override
   public ByteBuffer getComparableKey(ByteBuffer key) {
     throw new UnsupportedOperationException();
@@ -19,6 +19,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.storage.PartitionRemoteFileOps;
 
 import java.io.File;
 import java.io.IOException;
@@ -28,6 +29,7 @@ public class MockCueballMerger implements ICueballMerger {
 
   public CueballFilePath latestBase;
   public List<CueballFilePath> deltas;
+  public List<String> deltaRemoteFiles;
   public String newBasePath;
   public int keyHashSize;
   public int valueSize;
@@ -50,4 +52,14 @@ public class MockCueballMerger implements ICueballMerger {
       throw new IOException("Failed to create file " + newBasePath);
     }
   }
+
+  @Override
+  public void mergeRemoteDeltas(CueballFilePath latestBase, List<String> deltaRemoteFiles,
+                                PartitionRemoteFileOps partitionRemoteFileOps,
+                                String newBasePath, int keyHashSize, int valueSize,
+                                ValueTransformer transformer, int hashIndexBits, CompressionCodec compressionCodec)
+      throws IOException {
+    this.deltaRemoteFiles = deltaRemoteFiles;
+    merge(latestBase, null, newBasePath, keyHashSize, valueSize, transformer, hashIndexBits, compressionCodec);
+  }
 }
@@ -16,6 +16,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.storage.LocalPartitionRemoteFileOps;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -52,7 +53,7 @@ public class TestCueballMerger extends AbstractCueballTest {
       // block 0 offset
       0, 0, 0, 0, 0, 0, 0, 0,
       // block 1 offset
-      2, 0, 0, 0, 0, 0, 0, 0,
+      4, 0, 0, 0, 0, 0, 0, 0,
       // max uncompressed size
       4, 0, 0, 0,
       // max compressed size
@@ -151,6 +152,54 @@ public class TestCueballMerger extends AbstractCueballTest {
   };
 
   public void testMerge() throws Exception {
+    writeInputs();
+    new CueballMerger().merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCompressionCodec());
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(readNewBase()));
+  }
+
+  public void testParallelMerge() throws Exception {
+    writeInputs();
+    // One hash index range per block, merged concurrently and stitched back together
+    new CueballMerger(2).merge(BASE,
+        Arrays.asList(DELTA_1, DELTA_2),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCompressionCodec());
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(readNewBase()));
+    // Temporary range files are removed
+    assertEquals(4, new File(LOCAL_ROOT).list().length);
+  }
+
+  public void testMergeRemoteDeltas() throws Exception {
+    writeInputs();
+    // Deltas are read from the remote partition while being downloaded
+    String remoteDomainRoot = LOCAL_ROOT + "/remote";
+    new File(remoteDomainRoot + "/0").mkdirs();
+    assertTrue(new File(DELTA_1.getPath()).renameTo(new File(remoteDomainRoot + "/0/00001.delta.cueball")));
+    assertTrue(new File(DELTA_2.getPath()).renameTo(new File(remoteDomainRoot + "/0/00002.delta.cueball")));
+    new CueballMerger().mergeRemoteDeltas(BASE,
+        Arrays.asList("00001.delta.cueball", "00002.delta.cueball"),
+        new LocalPartitionRemoteFileOps(remoteDomainRoot, 0),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCompressionCodec());
+    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(readNewBase()));
+  }
+
+  private void writeInputs() throws IOException {
     new File(LOCAL_ROOT).mkdirs();
     OutputStream s = new FileOutputStream(BASE.getPath());
     s.write(BASE_DATA);
@@ -166,21 +215,14 @@ public class TestCueballMerger extends AbstractCueballTest {
     s.write(DELTA_2_DATA);
     s.flush();
     s.close();
+  }
 
-    new CueballMerger().merge(BASE,
-        Arrays.asList(DELTA_1, DELTA_2),
-        NEW_BASE_PATH,
-        1,
-        1,
-        null,
-        1,
-        new NoCompressionCodec());
-
+  private byte[] readNewBase() throws IOException {
     DataInputStream in = new DataInputStream(new FileInputStream(NEW_BASE_PATH));
     int length = (int) new File(NEW_BASE_PATH).length();
     byte[] actualMergedData = new byte[length];
     in.readFully(actualMergedData);
-
-    assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(actualMergedData));
+    in.close();
+    return actualMergedData;
   }
 }
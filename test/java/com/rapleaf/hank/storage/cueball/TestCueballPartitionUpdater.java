@@ -205,4 +205,31 @@ public class TestCueballPartitionUpdater extends IncrementalPartitionUpdaterTest
     // Old base is intact
     assertTrue(existsLocalFile("00000.base.cueball"));
   }
+
+  public void testStreamingUpdate() throws IOException {
+    MockCueballMerger cueballMerger = new MockCueballMerger();
+    CueballPartitionUpdater streamingUpdater = new CueballPartitionUpdater(domain,
+        new LocalPartitionRemoteFileOps(remotePartitionRoot, 0),
+        cueballMerger,
+        12,
+        5,
+        1,
+        new NoCompressionCodec(),
+        localPartitionRoot,
+        true);
+
+    // Deltas are not fetched
+    String fetchRootName = "_fetch";
+    String fetchRoot = localPartitionRoot + "/" + fetchRootName;
+    new File(fetchRoot).mkdir();
+    makeRemoteFile("0/00002.delta.cueball");
+    streamingUpdater.fetchVersion(v2, fetchRoot);
+    assertFalse(existsLocalFile(fetchRootName + "/00002.delta.cueball"));
+
+    // Deltas are merged from remote files
+    makeLocalFile("00001.base.cueball");
+    streamingUpdater.runUpdateCore(v1, v2, new IncrementalUpdatePlan(v1, v2), updateWorkRoot);
+    assertEquals(Collections.singletonList("00002.delta.cueball"), cueballMerger.deltaRemoteFiles);
+    assertTrue(existsUpdateWorkFile("00002.base.cueball"));
+  }
 }
@@ -15,16 +15,88 @@
  */
 package com.rapleaf.hank.storage.cueball;
 
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.hasher.IdentityHasher;
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
+import com.rapleaf.hank.util.Bytes;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class TestCueballReader extends AbstractCueballTest {
   public void testRead() throws Exception {
+    doTestRead(false, BlockSearchStrategy.LINEAR);
+  }
+
+  public void testReadMemoryMapped() throws Exception {
+    doTestRead(true, BlockSearchStrategy.LINEAR);
+  }
+
+  public void testReadBinarySearch() throws Exception {
+    doTestRead(false, BlockSearchStrategy.BINARY);
+    doTestRead(true, BlockSearchStrategy.BINARY);
+  }
+
+  public void testReadInterpolationSearch() throws Exception {
+    doTestRead(false, BlockSearchStrategy.INTERPOLATION);
+    doTestRead(true, BlockSearchStrategy.INTERPOLATION);
+  }
+
+  public void testBlockSearchStrategies() throws Exception {
+    // Write many sorted 8-byte key hashes in a few large blocks
+    String root = localTmpDir + "/2";
+    new File(root).mkdir();
+    Random random = new Random(0);
+    SortedSet<ByteBuffer> keys = new TreeSet<ByteBuffer>(new Comparator<ByteBuffer>() {
+      @Override
+      public int compare(ByteBuffer a, ByteBuffer b) {
+        return Bytes.compareBytesUnsigned(a, b);
+      }
+    });
+    while (keys.size() < 5000) {
+      byte[] key = new byte[8];
+      random.nextBytes(key);
+      keys.add(ByteBuffer.wrap(key));
+    }
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"),
+        8, new IdentityHasher(), 4, new JavaGzipCompressionCodec(), 2);
+    for (ByteBuffer key : keys) {
+      writer.write(key, ByteBuffer.wrap(Arrays.copyOf(key.array(), 4)));
+    }
+    writer.close();
+
+    for (BlockSearchStrategy blockSearchStrategy : BlockSearchStrategy.values()) {
+      CueballReader reader = new CueballReader(root, 8, new IdentityHasher(), 4, 2, new JavaGzipCompressionCodec(),
+          null, false, blockSearchStrategy);
+      ReaderResult result = new ReaderResult();
+      for (ByteBuffer key : keys) {
+        reader.get(key, result);
+        assertTrue(result.isFound());
+        assertEquals(ByteBuffer.wrap(key.array(), 0, 4), result.getBuffer());
+        result.clear();
+        // Look up a missing key right after the current one
+        byte[] missingKey = Arrays.copyOf(key.array(), 8);
+        missingKey[7] ^= 1;
+        if (!keys.contains(ByteBuffer.wrap(missingKey))) {
+          reader.get(ByteBuffer.wrap(missingKey), result);
+          assertFalse(result.isFound());
+          result.clear();
+        }
+      }
+      reader.close();
+    }
+  }
+
+  private void doTestRead(boolean useMemoryMapping, BlockSearchStrategy blockSearchStrategy) throws Exception {
     // set up fake cueball file
     String root = localTmpDir + "/1";
     new File(root).mkdir();
@@ -33,7 +105,8 @@ public class TestCueballReader extends AbstractCueballTest {
     os.flush();
     os.close();
 
-    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCompressionCodec(), 1);
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCompressionCodec(),
+        new SegmentedLruValueCache(1), useMemoryMapping, blockSearchStrategy);
 
     // test version number
     assertEquals(Integer.valueOf(0), reader.getVersionNumber());
@@ -16,12 +16,16 @@
 package com.rapleaf.hank.storage.curly;
 
 import com.rapleaf.hank.storage.ReaderResult;
+import com.rapleaf.hank.storage.cache.SegmentedLruValueCache;
 import com.rapleaf.hank.storage.map.MapReader;
+import com.rapleaf.hank.storage.map.MapWriter;
+import com.rapleaf.hank.util.Bytes;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Map;
 
 public class TestCurlyReader extends AbstractCurlyTestBase {
   private static final String TMP_TEST_CURLY_READER = "/tmp/TestCurlyReader";
@@ -37,6 +41,14 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
   }
 
   public void testReader() throws Exception {
+    doTestReader(false);
+  }
+
+  public void testReaderMemoryMapped() throws Exception {
+    doTestReader(true);
+  }
+
+  private void doTestReader(boolean useMemoryMapping) throws Exception {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(EXPECTED_RECORD_FILE);
@@ -52,7 +64,8 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
         KEY5.array(), new byte[]{15, 0, 0}
     );
 
-    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, 1);
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader,
+        new SegmentedLruValueCache(1), null, -1, -1, false, useMemoryMapping);
 
     // test version number
     assertEquals(Integer.valueOf(0), reader.getVersionNumber());
@@ -180,4 +193,63 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     assertEquals(VALUE2, result.getBuffer());
     result.clear();
   }
+
+  public void testBlockCompressionRoundTrip() throws Exception {
+    for (BlockCompressionCodec codec : BlockCompressionCodec.values()) {
+      doTestBlockCompressionRoundTrip(codec);
+    }
+  }
+
+  private void doTestBlockCompressionRoundTrip(BlockCompressionCodec codec) throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    MapWriter keyfileWriter = new MapWriter();
+    // Small blocks so that values span several of them
+    CurlyWriter writer = new CurlyWriter(new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly"),
+        keyfileWriter, 3, -1, codec, 256, 2);
+    int numRecords = 200;
+    for (int i = 0; i < numRecords; ++i) {
+      writer.write(roundTripKey(i), roundTripValue(i));
+    }
+    writer.close();
+
+    byte[][] keysAndValues = new byte[2 * numRecords][];
+    int i = 0;
+    for (Map.Entry<ByteBuffer, ByteBuffer> entry : keyfileWriter.entries.entrySet()) {
+      keysAndValues[i++] = Bytes.byteBufferDeepCopy(entry.getKey()).array();
+      keysAndValues[i++] = Bytes.byteBufferDeepCopy(entry.getValue()).array();
+    }
+    // Read without and with a decompressed block cache
+    DecompressedBlockCache[] decompressedBlockCaches = {null, new DecompressedBlockCache(-1, 16 * 1024, 2)};
+    for (DecompressedBlockCache decompressedBlockCache : decompressedBlockCaches) {
+      CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024,
+          new MapReader(0, keysAndValues), null, codec, 3, 2, decompressedBlockCache, false);
+      ReaderResult result = new ReaderResult();
+      // Twice, so that some blocks are served from the cache
+      for (int j = 0; j < 2 * numRecords; ++j) {
+        int k = j % numRecords;
+        result.clear();
+        reader.get(roundTripKey(k), result);
+        assertTrue(codec + " key " + k, result.isFound());
+        assertEquals(codec + " key " + k, roundTripValue(k), result.getBuffer());
+      }
+      if (decompressedBlockCache != null) {
+        assertTrue(decompressedBlockCache.size() > 0);
+        assertTrue(decompressedBlockCache.getNumBytes() <= 16 * 1024);
+      }
+      reader.close();
+    }
+  }
+
+  private static ByteBuffer roundTripKey(int i) {
+    return ByteBuffer.wrap(new byte[]{(byte) (i >> 8), (byte) i});
+  }
+
+  // Compressible values of varying lengths
+  private static ByteBuffer roundTripValue(int i) {
+    byte[] value = new byte[i % 50];
+    for (int j = 0; j < value.length; ++j) {
+      value[j] = (byte) (j % 7);
+    }
+    return ByteBuffer.wrap(value);
+  }
 }
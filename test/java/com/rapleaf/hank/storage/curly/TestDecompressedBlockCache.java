@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.curly;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.nio.ByteBuffer;
+
+public class TestDecompressedBlockCache extends BaseTestCase {
+
+  private static final int BLOCK_NUM_BYTES = 100 + DecompressedBlockCache.BLOCK_OVERHEAD_NUM_BYTES;
+
+  public void testLruEviction() {
+    DecompressedBlockCache cache = new DecompressedBlockCache(2, -1, 1);
+
+    assertNull(cache.get(0));
+    cache.put(0, block(0));
+    cache.put(100, block(1));
+    assertEquals(block(0), cache.get(0));
+    // Block at offset 100 is now the least recently used
+    cache.put(200, block(2));
+    assertEquals(2, cache.size());
+    assertNull(cache.get(100));
+    assertEquals(block(0), cache.get(0));
+    assertEquals(block(2), cache.get(200));
+  }
+
+  public void testNumBytesCapacity() {
+    DecompressedBlockCache cache = new DecompressedBlockCache(-1, 2 * BLOCK_NUM_BYTES, 1);
+    cache.put(0, block(0));
+    cache.put(100, block(1));
+    assertEquals(2 * BLOCK_NUM_BYTES, cache.getNumBytes());
+    cache.put(200, block(2));
+    assertEquals(2 * BLOCK_NUM_BYTES, cache.getNumBytes());
+    assertNull(cache.get(0));
+
+    // Blocks larger than the capacity are not cached
+    cache.put(300, ByteBuffer.wrap(new byte[2 * BLOCK_NUM_BYTES]));
+    assertNull(cache.get(300));
+    assertEquals(block(1), cache.get(100));
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getNumBytes());
+  }
+
+  public void testBlocksAreCopiedAndViewsAreIndependent() {
+    DecompressedBlockCache cache = new DecompressedBlockCache(1, -1);
+    ByteBuffer block = block(3);
+    cache.put(0, block);
+    block.array()[0] = 42;
+    ByteBuffer view = cache.get(0);
+    view.position(50);
+    assertEquals(block(3), cache.get(0));
+  }
+
+  private static ByteBuffer block(int id) {
+    byte[] block = new byte[100];
+    for (int i = 0; i < block.length; ++i) {
+      block[i] = (byte) (id + i);
+    }
+    return ByteBuffer.wrap(block);
+  }
+}
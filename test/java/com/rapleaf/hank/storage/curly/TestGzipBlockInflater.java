@@ -0,0 +1,58 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.storage.curly;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+public class TestGzipBlockInflater extends BaseTestCase {
+
+  private static final byte[] DATA = "hello hello hello hello world".getBytes();
+
+  public void testInflate() throws IOException {
+    byte[] block = gzip(DATA);
+    GzipBlockInflater inflater = new GzipBlockInflater();
+    assertEquals(DATA.length, inflater.getUncompressedNumBytes(block, 0, block.length));
+    byte[] dst = new byte[DATA.length + 1];
+    assertEquals(DATA.length, inflater.inflate(block, 0, block.length, dst, 0));
+    assertTrue(Arrays.equals(DATA, Arrays.copyOf(dst, DATA.length)));
+  }
+
+  public void testCrc32Mismatch() throws IOException {
+    byte[] block = gzip(DATA);
+    // Corrupt the CRC32 in the trailer
+    block[block.length - 8] ^= 1;
+    try {
+      new GzipBlockInflater().inflate(block, 0, block.length, new byte[DATA.length + 1], 0);
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+    gzipOut.write(data);
+    gzipOut.close();
+    return out.toByteArray();
+  }
+}
@@ -9,6 +9,7 @@ import com.rapleaf.hank.partition_assigner.ModPartitionAssigner;
 import com.rapleaf.hank.partition_assigner.PartitionAssigner;
 import com.rapleaf.hank.partition_server.*;
 import com.rapleaf.hank.ring_group_conductor.RingGroupConductorMode;
+import com.rapleaf.hank.storage.cache.CacheStatistics;
 import org.apache.thrift.TException;
 
 import java.io.IOException;
@@ -44,6 +45,7 @@ public class WebUiServerTester extends ZkTestCase {
         for (HostDomain hd : host.getAssignedDomains()) {
           runtimeStatistics.put(hd.getDomain(),
               new RuntimeStatisticsAggregator(14, 2500, 142, 100, 15, 48,
+                  new CacheStatistics(15, 85, 20), new CacheStatistics(48, 37, 10),
                   new DoublePopulationStatisticsAggregator(1.234, 300.1234 * hd.getDomain().getId(), 1000, 10000,
                       new double[]{1, 2, 3, 20, 100, 101, 120, 150, 250})));
           for (HostDomainPartition partition : hd.getPartitions()) {
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.util;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TestMemoryMappedFile extends BaseTestCase {
+
+  private static final byte[] DATA = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  public void testSegments() throws Exception {
+    String path = localTmpDir + "/mapped";
+    FileOutputStream os = new FileOutputStream(path);
+    os.write(DATA);
+    os.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    // Map the first 15 bytes with 4-byte segments overlapping by 2 bytes
+    MemoryMappedFile mappedFile = new MemoryMappedFile(channel, 15, 4, 2);
+    assertEquals(15, mappedFile.getLength());
+
+    // Slices shorter than the overlap are always available
+    assertEquals(ByteBuffer.wrap(DATA, 3, 2), mappedFile.slice(3, 2));
+    assertEquals(ByteBuffer.wrap(DATA, 7, 3), mappedFile.slice(7, 3));
+    // Slices are truncated at the end of the mapping
+    assertEquals(ByteBuffer.wrap(DATA, 13, 2), mappedFile.slice(13, 10));
+    // Slices spanning two segments are not
+    assertNull(mappedFile.slice(3, 4));
+
+    // Reads can span segments
+    byte[] dst = new byte[20];
+    assertEquals(12, mappedFile.read(1, dst, 2, 12));
+    assertEquals(ByteBuffer.wrap(DATA, 1, 12), ByteBuffer.wrap(dst, 2, 12));
+    assertEquals(5, mappedFile.read(10, dst, 0, 20));
+    assertEquals(ByteBuffer.wrap(DATA, 10, 5), ByteBuffer.wrap(dst, 0, 5));
+
+    try {
+      mappedFile.read(15, dst, 0, 1);
+      fail("Should fail with an exception");
+    } catch (IndexOutOfBoundsException e) {
+    }
+    channel.close();
+  }
+}
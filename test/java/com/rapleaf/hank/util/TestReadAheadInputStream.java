@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rapleaf.hank.util;
+
+import com.rapleaf.hank.BaseTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+public class TestReadAheadInputStream extends BaseTestCase {
+
+  private static final byte[] DATA = new byte[1000];
+
+  static {
+    for (int i = 0; i < DATA.length; ++i) {
+      DATA[i] = (byte) i;
+    }
+  }
+
+  public void testIt() throws IOException {
+    // Buffers are smaller than the data, and not aligned with consumer reads
+    ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(DATA), 64, 2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(DATA[0], (byte) in.read());
+    out.write(DATA[0]);
+    IOStreamUtils.copy(in, out, new byte[100]);
+    assertTrue(Arrays.equals(DATA, out.toByteArray()));
+    assertEquals(-1, in.read());
+    in.close();
+
+    // Empty stream
+    in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 64, 2);
+    assertEquals(-1, in.read(new byte[10], 0, 10));
+    in.close();
+  }
+
+  public void testFailure() throws IOException {
+    InputStream failing = new InputStream() {
+      private int numBytesRead = 0;
+
+      @Override
+      public int read() throws IOException {
+        if (numBytesRead++ >= 100) {
+          throw new IOException("Failed");
+        }
+        return 0;
+      }
+    };
+    ReadAheadInputStream in = new ReadAheadInputStream(failing, 64, 2);
+    try {
+      IOStreamUtils.copy(in, new ByteArrayOutputStream());
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+    in.close();
+  }
+
+  public void testCloseBeforeEnd() throws IOException {
+    // Reader thread is blocked on full buffers, and is stopped by closing
+    ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(DATA), 16, 2);
+    assertEquals(DATA[0], (byte) in.read());
+    in.close();
+    try {
+      in.read();
+      fail("Should fail");
+    } catch (IOException e) {
+      // Good
+    }
+  }
+
+  public void testCloseWhileReading() throws IOException, InterruptedException {
+    // Reader thread is blocked reading from a stream that does not respond to interrupts, like a socket,
+    // and is stopped by closing that stream
+    final CountDownLatch closedLatch = new CountDownLatch(1);
+    final CountDownLatch readingLatch = new CountDownLatch(1);
+    InputStream blocking = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        readingLatch.countDown();
+        while (true) {
+          try {
+            closedLatch.await();
+            throw new IOException("Stream closed");
+          } catch (InterruptedException e) {
+            // Ignore interrupts
+          }
+        }
+      }
+
+      @Override
+      public void close() {
+        closedLatch.countDown();
+      }
+    };
+    ReadAheadInputStream in = new ReadAheadInputStream(blocking, 64, 2);
+    readingLatch.await();
+    long startTime = System.currentTimeMillis();
+    in.close();
+    assertTrue("Close should not wait for the join timeout", System.currentTimeMillis() - startTime < 5000);
+  }
+}